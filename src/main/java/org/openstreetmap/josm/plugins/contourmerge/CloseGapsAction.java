@@ -0,0 +1,55 @@
+package org.openstreetmap.josm.plugins.contourmerge;
+
+import org.openstreetmap.josm.actions.JosmAction;
+import org.openstreetmap.josm.tools.Shortcut;
+
+import javax.validation.constraints.NotNull;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.util.Objects;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+/**
+ * <strong>CloseGapsAction</strong> scans the active layer for gaps and
+ * overlaps between adjacent areas, see {@link GapScanner}, and lists
+ * them for review, see {@link GapReviewDialog}. The gaps the user accepts
+ * are closed by merging the boundary stretches onto each other, see
+ * {@link ContourMergeService}. The scan runs in the background; the
+ * accepted gaps are closed in one command, which can be undone.
+ * <p>
+ * The shortcut is only registered while the contour merge mode is
+ * active.
+ */
+public class CloseGapsAction extends JosmAction {
+
+    private final ContourMergeMode mode;
+
+    /**
+     * Creates the action for the map mode {@code mode}.
+     *
+     * @param mode the map mode. Must not be null.
+     */
+    public CloseGapsAction(@NotNull ContourMergeMode mode) {
+        super(
+            tr("Close gaps"),
+            null,   // no icon
+            tr("Review and close the gaps and overlaps between adjacent "
+                + "areas in the active layer"),
+            Shortcut.registerShortcut("contourmerge:close-gaps",
+                tr("Contour Merge: Close gaps"),
+                KeyEvent.VK_G,
+                Shortcut.ALT_SHIFT
+            ),
+            false   // don't register in the toolbar
+        );
+        Objects.requireNonNull(mode);
+        this.mode = mode;
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        if (!ContourMergePlugin.isEnabled()) return;
+        mode.onCloseGaps();
+    }
+}
@@ -0,0 +1,113 @@
+package org.openstreetmap.josm.plugins.contourmerge;
+
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Way;
+
+import javax.validation.constraints.NotNull;
+import java.util.*;
+
+/**
+ * <strong>ConflictGraph</strong> partitions a batch of merge requests
+ * into independent components, which can be planned in parallel.
+ * <p>
+ * A request writes the nodes of its source slice and all ways referring
+ * to them, i.e. the ways which may be modified by the request. It reads
+ * the target way and the nodes of the target slice. Two requests
+ * conflict, if one of them writes a primitive the other one reads or
+ * writes. Requests which only read the same primitives, i.e. which merge
+ * onto the same target, don't conflict.
+ * <p>
+ * The components are the connected components of the conflict graph.
+ * Within a component, the requests are replied in their original order,
+ * so that conflicting requests are planned one after the other, like in
+ * a sequential batch. Requests of different components never modify the
+ * same way or remove the same node.
+ */
+public class ConflictGraph {
+
+    private final int[] parents;
+
+    private ConflictGraph(int size) {
+        parents = new int[size];
+        for (int i = 0; i < size; i++) parents[i] = i;
+    }
+
+    private int find(int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    private void union(int i, int j) {
+        final int ri = find(i);
+        final int rj = find(j);
+        // the smaller index becomes the root, to keep the components in
+        // the order of their first request
+        if (ri < rj) parents[rj] = ri; else if (rj < ri) parents[ri] = rj;
+    }
+
+    private static Set<OsmPrimitive> writes(
+            ContourMergeService.MergeRequest request) {
+        final Set<OsmPrimitive> writes = new HashSet<>();
+        writes.add(request.source().getWay());
+        for (Node node: request.source().getNodes()) {
+            writes.add(node);
+            for (OsmPrimitive referrer: node.getReferrers()) {
+                if (referrer instanceof Way) writes.add(referrer);
+            }
+        }
+        return writes;
+    }
+
+    private static Set<OsmPrimitive> reads(
+            ContourMergeService.MergeRequest request) {
+        final Set<OsmPrimitive> reads = new HashSet<>();
+        reads.add(request.target().getWay());
+        reads.addAll(request.target().getNodes());
+        return reads;
+    }
+
+    /**
+     * Partitions the requests {@code requests} into independent components.
+     *
+     * @param requests the requests. Must not be null.
+     * @return the indices of the requests, per component. The components
+     *  are ordered by their first request, the indices within a component
+     *  are ascending.
+     */
+    public static List<List<Integer>> components(
+            @NotNull List<ContourMergeService.MergeRequest> requests) {
+        Objects.requireNonNull(requests);
+        final ConflictGraph graph = new ConflictGraph(requests.size());
+        final Map<OsmPrimitive, Integer> writers = new HashMap<>();
+        final Map<OsmPrimitive, List<Integer>> readers = new HashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            final ContourMergeService.MergeRequest request = requests.get(i);
+            for (OsmPrimitive primitive: writes(request)) {
+                final Integer writer = writers.putIfAbsent(primitive, i);
+                if (writer != null) graph.union(writer, i);
+                final List<Integer> primitiveReaders = readers.get(primitive);
+                if (primitiveReaders != null) {
+                    for (int reader: primitiveReaders) graph.union(reader, i);
+                    // they are all in one component now
+                    readers.put(primitive, new ArrayList<>(List.of(i)));
+                }
+            }
+            for (OsmPrimitive primitive: reads(request)) {
+                final Integer writer = writers.get(primitive);
+                if (writer != null) graph.union(writer, i);
+                readers.computeIfAbsent(primitive, p -> new ArrayList<>())
+                    .add(i);
+            }
+        }
+        final Map<Integer, List<Integer>> components = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            components.computeIfAbsent(graph.find(i), root -> new ArrayList<>())
+                .add(i);
+        }
+        return new ArrayList<>(components.values());
+    }
+}
@@ -3,6 +3,8 @@ package org.openstreetmap.josm.plugins.contourmerge;
 import org.openstreetmap.josm.actions.mapmode.MapMode;
 import org.openstreetmap.josm.command.Command;
 import org.openstreetmap.josm.data.UndoRedoHandler;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.*;
 import org.openstreetmap.josm.gui.MainApplication;
 import org.openstreetmap.josm.gui.MapFrame;
@@ -17,25 +19,76 @@ import java.awt.*;
 import java.awt.dnd.DragSource;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
+import java.awt.geom.Path2D;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import javax.swing.SwingUtilities;
 
 import static org.openstreetmap.josm.tools.I18n.tr;
+import static org.openstreetmap.josm.tools.I18n.trn;
 
 /**
  * ContourMergeMode is the {@link MapMode} for merging the contours of
  * two areas.
+ * <p>
+ * The mode is a state machine, see {@link State}. Each state has a
+ * cursor and a help text. They are only updated on a state transition,
+ * and the map view is only repainted, if the state or the feedback in the
+ * model changed. Moving the mouse within the same state, i.e. over
+ * the same way segment or over an empty area of the map, costs no more
+ * than the hit tests.
  */
 public class ContourMergeMode extends MapMode {
 
-    @SuppressWarnings("unused")
     static private final Logger logger =
         Logger.getLogger(ContourMergeMode.class.getName());
 
+    /**
+     * The interaction states of the mode.
+     */
+    protected enum State {
+        /** the mouse isn't over a node or a way segment */
+        IDLE,
+        /** the mouse is over a selected node */
+        OVER_SELECTED_NODE,
+        /** the mouse is over a node which can be selected */
+        OVER_NODE,
+        /** the mouse is over a node without parent ways */
+        OVER_ISOLATED_NODE,
+        /** the mouse is over a way segment which can be dragged */
+        OVER_WAY_SEGMENT,
+        /** a rectangle selection is in progress */
+        RECTANGLE_SELECTION,
+        /** a lasso selection is in progress */
+        LASSO_SELECTION,
+        /** a way slice is dragged, but not over a way segment */
+        DRAGGING,
+        /**
+         * a way slice is dragged over a way segment, which isn't a
+         * potential drop target
+         */
+        DRAGGING_OVER_INVALID_TARGET,
+        /** a way slice is dragged over a potential drop target */
+        DRAGGING_OVER_TARGET
+    }
+
     private Collection<OsmPrimitive> selection;
+    private InteractionTraceRecorder recorder;
+    private FindBestTargetAction findBestTargetAction;
+    private SelectJunctionNodesAction selectJunctionNodesAction;
+    private CloseGapsAction closeGapsAction;
+    private State state = State.IDLE;
+    // the cursors of the states, created lazily
+    private final Map<State, Cursor> cursors = new EnumMap<>(State.class);
 
     @SuppressWarnings("unused")
     public ContourMergeMode(MapFrame mapFrame) {
@@ -59,16 +112,158 @@ public class ContourMergeMode extends MapMode {
         return MainApplication.getMap().mapView;
     }
 
+    /*
+     * The following methods decouple the mouse event handlers from the
+     * map view, see AllocationBudgetTest.
+     */
+    /*
+     * The hit tests in the mouse event handlers, timed for the
+     * performance statistics.
+     */
+    private List<Node> hitTestNodes(Point p) {
+        final long start = System.nanoTime();
+        final List<Node> nodes = findNearestNodes(p);
+        PerformanceStatistics.getInstance().recordSince(
+            PerformanceStatistics.Metric.HIT_TEST, start);
+        return nodes;
+    }
+
+    private IWaySegment<Node, Way> hitTestWaySegment(Point p) {
+        final long start = System.nanoTime();
+        final IWaySegment<Node, Way> ws = findNearestWaySegment(p);
+        PerformanceStatistics.getInstance().recordSince(
+            PerformanceStatistics.Metric.HIT_TEST, start);
+        return ws;
+    }
+
+    protected List<Node> findNearestNodes(Point p) {
+        return getMapView().getNearestNodes(p, OsmPrimitive::isSelectable);
+    }
+
+    protected IWaySegment<Node, Way> findNearestWaySegment(Point p) {
+        return getMapView().getNearestWaySegment(p,
+            OsmPrimitive::isSelectable);
+    }
+
+    protected void setMapViewCursor(Cursor cursor) {
+        getMapView().setCursor(cursor);
+    }
+
+    protected void repaintMapView() {
+        getMapView().repaint();
+    }
+
     protected Optional<ContourMergeModel> getActiveModel() {
         return ContourMergePlugin.getModelManager().getActiveModel();
     }
 
+    /* ----------------------------------------------------------------------*/
+    /* states                                                                */
+    /* --------------------------------------------------------------------- */
+    /**
+     * Replies the current state of the mode.
+     *
+     * @return the state
+     */
+    protected State getState() {
+        return state;
+    }
+
+    protected Cursor createCursor(State state) {
+        return switch (state) {
+            case OVER_SELECTED_NODE ->
+                ImageProvider.getCursor("normal", "contourmerge_deselect_node");
+            case OVER_NODE ->
+                ImageProvider.getCursor("normal", "contourmerge_select_node");
+            case OVER_ISOLATED_NODE -> DragSource.DefaultMoveNoDrop;
+            case OVER_WAY_SEGMENT, DRAGGING ->
+                Cursor.getPredefinedCursor(Cursor.MOVE_CURSOR);
+            case DRAGGING_OVER_INVALID_TARGET -> DragSource.DefaultLinkNoDrop;
+            case DRAGGING_OVER_TARGET -> DragSource.DefaultLinkDrop;
+            default -> Cursor.getDefaultCursor();
+        };
+    }
+
+    protected String getHelpText(State state) {
+        return switch (state) {
+            case OVER_SELECTED_NODE -> tr("Left-Click: deselect node");
+            case OVER_NODE -> tr("Left-Click: select node");
+            case OVER_ISOLATED_NODE -> tr("Can''t select an isolated node");
+            case OVER_WAY_SEGMENT -> tr("Drag/drop: drag the way segment an "
+                + "drop it on a target segment; Ctrl-Click: collect the way "
+                + "slice to merge several slices at once");
+            case RECTANGLE_SELECTION -> tr("Rectangle: release to select the "
+                + "enclosed nodes; hold Ctrl to deselect them");
+            case LASSO_SELECTION -> tr("Lasso: release to select the "
+                + "enclosed nodes; hold Ctrl to deselect them");
+            case DRAGGING, DRAGGING_OVER_INVALID_TARGET ->
+                tr("Drag the way segment and drop it on a target segment");
+            case DRAGGING_OVER_TARGET -> tr("Drop to align to the target "
+                + "segment; Shift-Drop to align along the whole shared "
+                + "boundary");
+            default -> tr("Left-Click: on node to select/unselect; "
+                + "Drag: drag way slice");
+        };
+    }
+
+    /**
+     * Switches to the state {@code newState}. Updates the cursor and the
+     * help text, if the state changes.
+     *
+     * @param newState the new state
+     * @return true, if the state changed
+     */
+    protected boolean transitionTo(State newState) {
+        if (newState == state) return false;
+        state = newState;
+        setMapViewCursor(cursors.computeIfAbsent(newState,
+            this::createCursor));
+        showHelpText(getHelpText(newState));
+        return true;
+    }
+
+    /* ----------------------------------------------------------------------*/
+    /* interaction traces                                                    */
+    /* --------------------------------------------------------------------- */
+    protected void startRecording(ContourMergeModel model) {
+        if (!InteractionTraceRecorder.RECORD_TRACES.get()) return;
+        try {
+            recorder = InteractionTraceRecorder.start(model.getLayer());
+        } catch (IOException e) {
+            logger.log(Level.WARNING,
+                "Failed to start recording an interaction trace", e);
+        }
+    }
+
+    protected void stopRecording() {
+        if (recorder == null) return;
+        recorder.close();
+        recorder = null;
+    }
+
+    protected void recordEvent(InteractionTrace.Type type, MouseEvent e) {
+        if (recorder == null) return;
+        recorder.record(type, e, getMapView());
+    }
+
     @Override
     public void enterMode() {
         super.enterMode();
         getMapView().addMouseListener(this);
         getMapView().addMouseMotionListener(this);
         ContourMergePlugin.setEnabled(true);
+        state = State.IDLE;
+        if (findBestTargetAction == null) {
+            findBestTargetAction = new FindBestTargetAction(this);
+            selectJunctionNodesAction = new SelectJunctionNodesAction(this);
+            closeGapsAction = new CloseGapsAction(this);
+        }
+        MainApplication.registerActionShortcut(findBestTargetAction,
+            findBestTargetAction.getShortcut());
+        MainApplication.registerActionShortcut(selectJunctionNodesAction,
+            selectJunctionNodesAction.getShortcut());
+        MainApplication.registerActionShortcut(closeGapsAction,
+            closeGapsAction.getShortcut());
         getActiveModel().ifPresent(model -> {
             model.reset();
             /*
@@ -80,14 +275,25 @@ public class ContourMergeMode extends MapMode {
                 model.getLayer().data.getSelected()
             );
             model.getLayer().data.clearSelection();
+            startRecording(model);
         });
     }
 
     @Override
     public void exitMode() {
         super.exitMode();
+        stopRecording();
         getMapView().removeMouseListener(this);
         getMapView().removeMouseMotionListener(this);
+        if (findBestTargetAction != null) {
+            MainApplication.unregisterActionShortcut(findBestTargetAction,
+                findBestTargetAction.getShortcut());
+            MainApplication.unregisterActionShortcut(
+                selectJunctionNodesAction,
+                selectJunctionNodesAction.getShortcut());
+            MainApplication.unregisterActionShortcut(closeGapsAction,
+                closeGapsAction.getShortcut());
+        }
         ContourMergePlugin.setEnabled(false);
         getActiveModel().ifPresent(model -> {
             model.reset();
@@ -110,34 +316,49 @@ public class ContourMergeMode extends MapMode {
     @Override
     public void mouseReleased(MouseEvent e) {
         if (! ContourMergePlugin.isEnabled()) return;
-        onDrop(e.getPoint());
+        recordEvent(InteractionTrace.Type.RELEASED, e);
+        if (selectionStart != null) {
+            onEndAreaSelection(e.isControlDown());
+        } else {
+            onDrop(e.getPoint(), e.isShiftDown());
+        }
     }
 
     @Override
     public void mousePressed(MouseEvent e) {
         if (! ContourMergePlugin.isEnabled()) return;
-        getActiveModel().ifPresent(model -> onStartDrag(e.getPoint()));
+        recordEvent(InteractionTrace.Type.PRESSED, e);
+        getActiveModel().ifPresent(model -> {
+            onStartDrag(e.getPoint());
+            if (dragStart == null && e.getButton() == MouseEvent.BUTTON1) {
+                onStartAreaSelection(e.getPoint(), e.isAltDown());
+            }
+        });
     }
 
     @Override
     public void mouseClicked(MouseEvent e) {
         if (! ContourMergePlugin.isEnabled()) return;
+        recordEvent(InteractionTrace.Type.CLICKED, e);
         if (e.getButton() != MouseEvent.BUTTON1) return;
         getActiveModel().ifPresent(model -> {
-            List<Node> candidates = getMapView().getNearestNodes(e.getPoint(),
-                    OsmPrimitive::isSelectable);
+            List<Node> candidates = hitTestNodes(e.getPoint());
             if (!candidates.isEmpty()){
-                if (!ContourMergeModel.getFilteredList(
-                        candidates.get(0).getReferrers(),
-                        Way.class).isEmpty()) {
+                if (candidates.get(0).isReferredByWays(1)) {
                     /*
                      * clicked on a node which isn't isolated ? => toggle its
                      * selected state
                      */
                     model.toggleSelected(candidates.get(0));
                 }
+            } else if (e.isControlDown()) {
+                /*
+                 * Ctrl-click on a way slice ? => collect it for a merge of
+                 * several sources onto one target
+                 */
+                model.toggleCollectedSource(hitTestWaySegment(e.getPoint()));
             }
-            getMapView().repaint();
+            repaintMapView();
         });
     }
 
@@ -148,45 +369,37 @@ public class ContourMergeMode extends MapMode {
     @Override
     public void mouseMoved(MouseEvent e) {
         if (! ContourMergePlugin.isEnabled()) return;
+        recordEvent(InteractionTrace.Type.MOVED, e);
         getActiveModel().ifPresent(model -> {
             if (e.getButton() != MouseEvent.NOBUTTON) return;
-            List<Node> candidates = getMapView().getNearestNodes(e.getPoint(),
-                    OsmPrimitive::isSelectable);
-            showHelpText("");
-            if (candidates.isEmpty()){
-                model.setFeedbackNode(null);
-                IWaySegment<Node, Way> ws = getMapView().getNearestWaySegment(e.getPoint(),
-                        OsmPrimitive::isSelectable);
-                if (ws == null){
-                    getMapView().setCursor(Cursor.getDefaultCursor());
-                    model.setDragStartFeedbackWaySegment(null);
+            final List<Node> candidates = hitTestNodes(e.getPoint());
+            final Node node = candidates.isEmpty() ? null : candidates.get(0);
+            final IWaySegment<Node, Way> ws;
+            final State newState;
+            if (node != null) {
+                ws = null;
+                if (model.isSelected(node)) {
+                    newState = State.OVER_SELECTED_NODE;
+                } else if (node.isReferredByWays(1)) {
+                    newState = State.OVER_NODE;
                 } else {
-                    showHelpText(tr("Drag/drop: drag the way segment an drop "
-                            + "it on a target segment"));
-                    getMapView().setCursor(Cursor.getPredefinedCursor(
-                            Cursor.MOVE_CURSOR));
-                    model.setDragStartFeedbackWaySegment(ws);
+                    newState = State.OVER_ISOLATED_NODE;
                 }
             } else {
-                if (model.isSelected(candidates.get(0))) {
-                    showHelpText(tr("Left-Click: deselect node"));
-                    getMapView().setCursor(ImageProvider.getCursor("normal",
-                            "contourmerge_deselect_node"));
-                } else {
-                    if (ContourMergeModel.getFilteredList(
-                            candidates.get(0).getReferrers(),
-                            Way.class).isEmpty()) {
-                        showHelpText(tr("Can''t select an isolated node"));
-                        getMapView().setCursor(DragSource.DefaultMoveNoDrop);
-                    } else {
-                        showHelpText(tr("Left-Click: select node"));
-                        getMapView().setCursor(ImageProvider.getCursor("normal",
-                            "contourmerge_select_node"));
-                    }
-                }
-                model.setFeedbackNode(candidates.get(0));
+                ws = hitTestWaySegment(e.getPoint());
+                newState = ws == null ? State.IDLE : State.OVER_WAY_SEGMENT;
+            }
+            boolean changed = transitionTo(newState);
+            if (node != model.getFeedbackNode()) {
+                model.setFeedbackNode(node);
+                changed = true;
             }
-            MainApplication.getMap().mapView.repaint();
+            if (!Objects.equals(ws, model.getDragStartFeedbackWaySegement())) {
+                model.setDragStartFeedbackWaySegment(ws);
+                if (ws != null) model.prefetch(ws);
+                changed = true;
+            }
+            if (changed) repaintMapView();
         });
     }
 
@@ -197,7 +410,154 @@ public class ContourMergeMode extends MapMode {
 
     @Override
     public void mouseDragged(MouseEvent e) {
-        onStepDrag(e.getPoint());
+        recordEvent(InteractionTrace.Type.DRAGGED, e);
+        if (selectionStart != null) {
+            onStepAreaSelection(e.getPoint());
+        } else {
+            onStepDrag(e.getPoint());
+        }
+    }
+
+    /* ----------------------------------------------------------------------*/
+    /* rectangle and lasso selection                                         */
+    /* --------------------------------------------------------------------- */
+    /**
+     * Minimal extent, in pixels, of a selection area. Smaller areas are
+     * ignored, they are most likely the result of an inaccurate click.
+     */
+    static private final int MIN_SELECTION_EXTENT = 3;
+
+    protected Point selectionStart = null;
+    protected Path2D lasso = null;
+
+    protected void onStartAreaSelection(Point start, boolean useLasso) {
+        this.selectionStart = start;
+        if (useLasso) {
+            lasso = new Path2D.Double();
+            lasso.moveTo(start.x, start.y);
+            transitionTo(State.LASSO_SELECTION);
+        } else {
+            lasso = null;
+            transitionTo(State.RECTANGLE_SELECTION);
+        }
+    }
+
+    protected void onStepAreaSelection(Point current) {
+        final Shape area;
+        if (lasso != null) {
+            // extend the path in place, the model and the view only read
+            // it on the event dispatch thread
+            lasso.lineTo(current.x, current.y);
+            area = lasso;
+        } else {
+            area = new Rectangle(
+                Math.min(selectionStart.x, current.x),
+                Math.min(selectionStart.y, current.y),
+                Math.abs(current.x - selectionStart.x),
+                Math.abs(current.y - selectionStart.y)
+            );
+        }
+        getActiveModel().ifPresent(model -> model.setSelectionArea(area));
+        repaintMapView();
+    }
+
+    protected void onEndAreaSelection(boolean deselect) {
+        getActiveModel().ifPresent(model -> {
+            final Shape area = model.getSelectionArea();
+            if (area != null) {
+                if (lasso != null) lasso.closePath();
+                final Shape closedArea = lasso != null ? lasso : area;
+                final Rectangle bounds = closedArea.getBounds();
+                if (bounds.width >= MIN_SELECTION_EXTENT
+                        || bounds.height >= MIN_SELECTION_EXTENT) {
+                    final List<Node> nodes = computeSelectableNodesInArea(
+                            model, closedArea);
+                    if (deselect) {
+                        model.deselectNodes(nodes);
+                    } else {
+                        model.selectNodes(nodes);
+                    }
+                }
+            }
+            model.setSelectionArea(null);
+            transitionTo(State.IDLE);
+            repaintMapView();
+        });
+        this.selectionStart = null;
+        this.lasso = null;
+    }
+
+    /**
+     * Selects the junction nodes on the way the mouse hovers over, on the
+     * ways of the collected sources, or otherwise in the map view, see
+     * {@link SelectJunctionNodesAction}.
+     */
+    protected void onSelectJunctionNodes() {
+        if (dragStart != null || selectionStart != null) return;
+        getActiveModel().ifPresent(model -> {
+            final IWaySegment<Node, Way> ws =
+                model.getDragStartFeedbackWaySegement();
+            final List<Node> junctions;
+            if (ws != null) {
+                junctions = ContourMergeModel.computeJunctionNodes(
+                    List.of(ws.getWay()));
+            } else if (!model.getCollectedSources().isEmpty()) {
+                junctions = ContourMergeModel.computeJunctionNodes(
+                    model.getCollectedSources().stream()
+                        .map(WaySlice::getWay)
+                        .distinct()
+                        .collect(Collectors.toList()));
+            } else {
+                junctions = computeJunctionNodesInView(model);
+            }
+            junctions.removeIf(n -> !n.isSelectable());
+            if (model.selectNodes(junctions)) repaintMapView();
+            showHelpText(trn("Selected {0} junction node",
+                "Selected {0} junction nodes", junctions.size(),
+                junctions.size()));
+        });
+    }
+
+    /**
+     * Replies the junction nodes in the map view, i.e. the nodes in the
+     * view shared by two or more ways.
+     *
+     * @param model the contour merge model
+     * @return the junction nodes
+     */
+    protected List<Node> computeJunctionNodesInView(ContourMergeModel model) {
+        final MapView mv = getMapView();
+        final List<Node> nodes = computeSelectableNodesInArea(model,
+            new Rectangle(0, 0, mv.getWidth(), mv.getHeight()));
+        nodes.removeIf(n -> !n.isReferredByWays(2));
+        return nodes;
+    }
+
+    /**
+     * Replies the selectable nodes in the screen area {@code area}. Only
+     * nodes with at least one parent way are replied, isolated nodes
+     * can't be selected in this map mode.
+     * <p>
+     * Candidate nodes are looked up with a spatial query on the dataset,
+     * restricted to the bounding box of {@code area}.
+     *
+     * @param model the contour merge model
+     * @param area the area in screen coordinates
+     * @return the nodes in the area
+     */
+    protected List<Node> computeSelectableNodesInArea(
+            ContourMergeModel model, Shape area) {
+        final MapView mv = getMapView();
+        final Rectangle r = area.getBounds();
+        final LatLon ll1 = mv.getLatLon(r.getMinX(), r.getMaxY());
+        final LatLon ll2 = mv.getLatLon(r.getMaxX(), r.getMinY());
+        final BBox bbox = new BBox(ll1.lon(), ll1.lat(), ll2.lon(), ll2.lat());
+        final List<Node> nodes = new ArrayList<>();
+        for (Node n: model.getLayer().data.searchNodes(bbox)) {
+            if (!n.isSelectable() || !n.isReferredByWays(1)) continue;
+            if (area.contains(mv.getPoint2D(n))) nodes.add(n);
+        }
+        return nodes;
     }
 
     /* ----------------------------------------------------------------------*/
@@ -207,96 +567,269 @@ public class ContourMergeMode extends MapMode {
 
     protected void onStartDrag(Point start) {
         getActiveModel().ifPresent(model -> {
-            IWaySegment<Node, Way> ws = getMapView().getNearestWaySegment(start,
-                    OsmPrimitive::isSelectable);
+            IWaySegment<Node, Way> ws = hitTestWaySegment(start);
             if (ws != null && model.isWaySegmentDragable(ws)) {
                 this.dragStart = start;
-                getMapView().setCursor(Cursor.getPredefinedCursor(
-                     Cursor.MOVE_CURSOR));
-                showHelpText(tr(
-                    "Drag the way segment and drop it on a target segment"));
+                transitionTo(State.DRAGGING);
                 model.setDragOffset(new Point(0,0));
                 model.setDragStartFeedbackWaySegment(ws);
                 model.setDropFeedbackSegment(null);
+                model.setMagneticDropTarget(null);
+                // build the index of the way segments in the background,
+                // unless it is up to date
+                if (MagneticSnapper.MAGNETIC_SNAPPING.get()) {
+                    model.getSegmentIndex().requestBuild();
+                }
             }
         });
     }
 
     protected void onStepDrag(Point current){
         if (dragStart == null) return;  // drag initiated outside of map view ?
-        final IWaySegment<Node, Way> ws = getMapView().getNearestWaySegment(current,
-                OsmPrimitive::isSelectable);
-        final boolean isPotentialDropTarget = getActiveModel()
-                .filter(model -> model.isPotentialDropTarget(ws))
-                .isPresent();
-        IWaySegment<Node, Way> newDropTargetFeedbackSegment;
-        if (ws == null){
-            /*
-             * mouse pointer isn't close to another way, continue dragging
-             */
-            getMapView().setCursor(Cursor.getPredefinedCursor(
-                Cursor.MOVE_CURSOR));
-            showHelpText(tr(
-                "Drag the way segment and drop it on a target segment"));
-            newDropTargetFeedbackSegment = null;
-        } else if (!isPotentialDropTarget) {
-            /*
-             * mouse pointer is close to a way segment which isn't part of
-             * a potential target way slice
-             */
-            getMapView().setCursor(DragSource.DefaultLinkNoDrop);
-            showHelpText(tr(
-                "Drag the way segment and drop it on a target segment"
-            ));
-            newDropTargetFeedbackSegment = null;
-        } else {
-            /*
-             * mouse pointer is close to a way segment which is part of a
-             * potential target way slice
-             */
-            getMapView().setCursor(DragSource.DefaultLinkDrop);
-            showHelpText(tr("Drop to align to the target segment"));
-            newDropTargetFeedbackSegment = ws;
-        }
-        final Point offset = new Point(
-            current.x - dragStart.x,
-            current.y - dragStart.y
-        );
+        final IWaySegment<Node, Way> ws = hitTestWaySegment(current);
         getActiveModel().ifPresent(model -> {
-            model.setDragOffset(offset);
-            model.setDropFeedbackSegment(newDropTargetFeedbackSegment);
+            final IWaySegment<Node, Way> dropTargetFeedbackSegment;
+            final boolean snapped;
+            if (ws == null){
+                // mouse pointer isn't close to another way, continue
+                // dragging, unless a drop target is pre-selected or the
+                // drop target snaps to a way slice close to the dragged one
+                snapped = snapDropTarget(model, current);
+                transitionTo(model.getPreselectedDropTarget() != null
+                        || model.getMagneticDropTarget() != null
+                    ? State.DRAGGING_OVER_TARGET : State.DRAGGING);
+                dropTargetFeedbackSegment = null;
+            } else if (!model.isPotentialDropTarget(ws)) {
+                // mouse pointer is close to a way segment which isn't part
+                // of a potential target way slice
+                snapped = model.setMagneticDropTarget(null);
+                transitionTo(State.DRAGGING_OVER_INVALID_TARGET);
+                dropTargetFeedbackSegment = null;
+            } else {
+                // mouse pointer is close to a way segment which is part of
+                // a potential target way slice
+                snapped = model.setMagneticDropTarget(null);
+                transitionTo(State.DRAGGING_OVER_TARGET);
+                dropTargetFeedbackSegment = ws;
+            }
+            final Point offset = model.getDragOffset();
+            final int dx = current.x - dragStart.x;
+            final int dy = current.y - dragStart.y;
+            final boolean moved = offset == null || offset.x != dx
+                || offset.y != dy;
+            if (moved) model.setDragOffset(new Point(dx, dy));
+            final boolean targetChanged = snapped || !Objects.equals(
+                dropTargetFeedbackSegment, model.getDropFeedbackSegment());
+            if (targetChanged) {
+                model.setDropFeedbackSegment(dropTargetFeedbackSegment);
+            }
+            // the dragged way slice follows the mouse pointer
+            if (moved || targetChanged) repaintMapView();
         });
-        MainApplication.getMap().mapView.repaint();
+    }
+
+    /**
+     * Snaps the drop target to the way slice closest to the drag source,
+     * moved to the mouse position {@code current}, if magnetic snapping is
+     * enabled and no drop target is pre-selected, see
+     * {@link MagneticSnapper}.
+     *
+     * @param model the contour merge model
+     * @param current the mouse position
+     * @return true, if the way slice the drop target snaps to has changed
+     */
+    protected boolean snapDropTarget(ContourMergeModel model, Point current) {
+        if (!MagneticSnapper.MAGNETIC_SNAPPING.get()
+                || model.getPreselectedDropTarget() != null) {
+            return model.setMagneticDropTarget(null);
+        }
+        final MapView mapView = getMapView();
+        final EastNorth start = mapView.getEastNorth(dragStart.x, dragStart.y);
+        final EastNorth end = mapView.getEastNorth(current.x, current.y);
+        return model.snapDropTarget(
+            end.east() - start.east(),
+            end.north() - start.north(),
+            MagneticSnapper.SNAPPING_DISTANCE.get() * mapView.getScale());
     }
 
     protected void onDrop(Point target){
+        onDrop(target, false /* don't propagate */);
+    }
+
+    /**
+     * Drops the dragged way slice at {@code target}.
+     *
+     * @param target the drop point
+     * @param propagate if true, the merge is propagated along the shared
+     *  boundary of the source and the target way, see
+     *  {@link SlicePropagator}
+     */
+    protected void onDrop(Point target, boolean propagate){
         if (dragStart == null) return;  // drag initiated outside of map view ?
-        final IWaySegment<Node, Way> ws = getMapView().getNearestWaySegment(target,
-                OsmPrimitive::isSelectable);
+        final IWaySegment<Node, Way> ws = hitTestWaySegment(target);
         getActiveModel().ifPresent(model -> {
-            if (model.isPotentialDropTarget(ws)){
+            String feedback = null;
+            if (ws == null) {
+                // dropped off other ways, onto the pre-selected or the
+                // magnetic drop target, if any
+                model.setDropFeedbackSegment(null);
+            }
+            if (model.isPotentialDropTarget(ws) || ws == null
+                    && model.isPotentialDropTarget(model.getDropTarget())){
                 /*
                  * Merge the way slice given by the drag source onto the way
                  * slice given by the drop target.
                  */
-                getMapView().setCursor(Cursor.getDefaultCursor());
-                final Command cmd = model.buildContourAlignCommand();
+                final PerformanceStatistics statistics =
+                    PerformanceStatistics.getInstance();
+                long start = System.nanoTime();
+                final Command cmd;
+                if (!model.getCollectedSources().isEmpty()) {
+                    // merge the collected sources and the drag source in
+                    // one command. Propagation isn't supported here.
+                    final ContourMergeService.BatchResult result =
+                        model.planMultiSourceMerge();
+                    cmd = result == null ? null : result.command();
+                    if (cmd != null) model.clearCollectedSources();
+                } else {
+                    cmd = propagate
+                        ? model.buildPropagatedContourAlignCommand()
+                        : model.buildContourAlignCommand();
+                }
+                statistics.recordSince(
+                    PerformanceStatistics.Metric.MERGE_PLANNING, start);
+                // i.e. why the merge was refused, see IntersectionChecker
+                feedback = model.getMergeFeedback();
                 if (cmd != null){
+                    start = System.nanoTime();
                     UndoRedoHandler.getInstance().add(cmd);
+                    statistics.recordSince(
+                        PerformanceStatistics.Metric.MERGE_EXECUTION, start);
                 }
             }
 
             /*
              * Reset the drag state
              */
-            getMapView().setCursor(Cursor.getDefaultCursor());
-            showHelpText(tr("Left-Click: on node to select/unselect; "
-                    + "Drag: drag way slice"));
+            transitionTo(State.IDLE);
+            // i.e. why the merge was refused
+            if (feedback != null) showHelpText(feedback);
             this.dragStart = null;
             model.setDragStartFeedbackWaySegment(null);
             model.setDropFeedbackSegment(null);
+            model.preselectDropTarget(null);
+            model.setMagneticDropTarget(null);
             model.setDragOffset(null);
-            MainApplication.getMap().mapView.repaint();
+            repaintMapView();
+        });
+    }
+
+    /* ----------------------------------------------------------------------*/
+    /* best target                                                           */
+    /* --------------------------------------------------------------------- */
+    /**
+     * Finds the best target for the way slice the mouse hovers over and
+     * pre-selects it as drop target, see {@link FindBestTargetAction}.
+     */
+    protected void onFindBestTarget() {
+        if (dragStart != null) return; // not while dragging
+        getActiveModel().ifPresent(model -> {
+            final WaySlice source = model.getDragSource();
+            if (source == null) {
+                showHelpText(tr("Move the mouse over a way slice to find "
+                    + "its best target"));
+                return;
+            }
+            final TargetFinder.Match match = new TargetFinder()
+                .findBestTarget(source, model::isPotentialDropTargetWay);
+            model.preselectDropTarget(match);
+            showHelpText(match == null
+                ? tr("No target within {0} m",
+                    TargetFinder.MAX_DISTANCE.get())
+                : tr("Best target: way {0}. Drag the way slice and drop it "
+                    + "off other ways to merge it onto the target",
+                    match.target().getWay().getUniqueId()));
+            repaintMapView();
+        });
+    }
+
+    /* ----------------------------------------------------------------------*/
+    /* gaps                                                                  */
+    /* --------------------------------------------------------------------- */
+    /**
+     * Scans the dataset of the active layer for gaps and overlaps between
+     * adjacent areas in the background, and closes them, see
+     * {@link CloseGapsAction}.
+     */
+    protected void onCloseGaps() {
+        if (dragStart != null) return; // not while dragging
+        getActiveModel().ifPresent(model -> {
+            final DataSet ds = model.getLayer().getDataSet();
+            final long epoch = model.getDataEpoch();
+            final GapScanner scanner = new GapScanner();
+            showHelpText(tr("Scanning for gaps between adjacent areas ..."));
+            MainApplication.worker.submit(() -> {
+                final List<GapScanner.Gap> gaps = scanner.scan(ds);
+                SwingUtilities.invokeLater(() ->
+                    closeGaps(model, epoch, gaps));
+            });
         });
     }
+
+    /**
+     * Lets the user review the gaps {@code gaps} found in the dataset of
+     * {@code model} and closes the accepted ones with the merge service,
+     * unless the dataset has changed since the scan.
+     *
+     * @param model the contour merge model
+     * @param epoch the data epoch of the model when the scan started
+     * @param gaps the gaps
+     */
+    protected void closeGaps(ContourMergeModel model, long epoch,
+            List<GapScanner.Gap> gaps) {
+        if (model.getDataEpoch() != epoch) {
+            showHelpText(tr("The data has changed while scanning for gaps. "
+                + "Please try again."));
+            return;
+        }
+        if (gaps.isEmpty()) {
+            showHelpText(tr("No gaps between adjacent areas found"));
+            return;
+        }
+        final List<GapScanner.Gap> accepted = reviewGaps(gaps);
+        if (accepted.isEmpty()) {
+            showHelpText(tr("No gaps closed"));
+            return;
+        }
+        if (model.getDataEpoch() != epoch) {
+            // edited while the gaps were reviewed
+            showHelpText(tr("The data has changed while reviewing the gaps. "
+                + "Please try again."));
+            return;
+        }
+        final ContourMergeService.BatchResult result =
+            ContourMergeService.getInstance().merge(accepted.stream()
+                .map(GapScanner.Gap::toMergeRequest)
+                .collect(Collectors.toList()));
+        if (!result.problems().isEmpty()) {
+            showHelpText(tr("Gaps not closed: {0}",
+                result.problems().get(0).message()));
+            return;
+        }
+        final int closed = accepted.size() - result.skipped().size();
+        showHelpText(trn("Closed {0} of {1} gap", "Closed {0} of {1} gaps",
+            accepted.size(), closed, accepted.size()));
+        repaintMapView();
+    }
+
+    /**
+     * Shows the gaps {@code gaps} to the user, see {@link GapReviewDialog},
+     * and replies the gaps the user has accepted.
+     *
+     * @param gaps the gaps
+     * @return the accepted gaps, or an empty list
+     */
+    protected List<GapScanner.Gap> reviewGaps(List<GapScanner.Gap> gaps) {
+        return new GapReviewDialog(gaps).review();
+    }
 }
@@ -1,10 +1,7 @@
 package org.openstreetmap.josm.plugins.contourmerge;
 
 import org.apache.commons.lang3.Validate;
-import org.openstreetmap.josm.command.ChangeCommand;
 import org.openstreetmap.josm.command.Command;
-import org.openstreetmap.josm.command.DeleteCommand;
-import org.openstreetmap.josm.command.SequenceCommand;
 import org.openstreetmap.josm.data.coor.EastNorth;
 import org.openstreetmap.josm.data.osm.*;
 import org.openstreetmap.josm.data.osm.event.*;
@@ -53,7 +50,57 @@ public class ContourMergeModel implements DataSetListener{
     private IWaySegment<Node, Way> dragStartFeedbackSegment;
     private IWaySegment<Node, Way> dropFeedbackSegment;
     private final ArrayList<Node> selectedNodes = new ArrayList<>();
+    private final Set<Node> selectedNodeIndex = new HashSet<>();
     private Point dragOffset = null;
+    private Shape selectionArea = null;
+
+    // the drag source and the drop target are derived from the feedback
+    // segments and the selected nodes. They are computed lazily and cached
+    // until the selection, the feedback segments or the dataset change.
+    private WaySlice dragSource;
+    private boolean dragSourceKnown = false;
+    private WaySlice dropTarget;
+    private boolean dropTargetKnown = false;
+
+    // way slices computed in the background for hovered way segments.
+    // sliceEpoch is incremented whenever the selection or the dataset
+    // changes, see invalidateSlices()
+    private final SlicePrefetcher prefetcher = new SlicePrefetcher();
+    private long sliceEpoch = 0;
+    private Set<Node> selectionSnapshot;
+
+    // incremented whenever nodes or ways in the dataset change, see
+    // getDataEpoch()
+    private long dataEpoch = 0;
+
+    // the number of equivalent way slices per way slice, valid for the
+    // data epoch equivalentSliceCountsEpoch, see countEquivalentSlices()
+    private final Map<WaySlice, Integer> equivalentSliceCounts =
+        new HashMap<>();
+    private long equivalentSliceCountsEpoch = -1;
+
+    // source slices collected for a merge of several sources onto one
+    // target, see toggleCollectedSource()
+    private final List<WaySlice> collectedSources = new ArrayList<>();
+
+    // incremented whenever the static decorations rendered by the view
+    // change, see getDecorationEpoch()
+    private long decorationEpoch = 0;
+
+    // a message about the last planned merge, see getMergeFeedback()
+    private String mergeFeedback;
+
+    // the best target found for a source slice, see preselectDropTarget()
+    private TargetFinder.Match preselectedDropTarget;
+
+    // the way slice the drop target snaps to while dragging, see
+    // snapDropTarget(), and the ways sharing the nodes of the drag source,
+    // which it doesn't snap to. The index of the way segments is built in
+    // the background and updated whenever ways or nodes in the dataset
+    // change.
+    private WaySlice magneticDropTarget;
+    private Set<Way> dragSourceWays;
+    private final SegmentIndex segmentIndex;
 
     /**
      * Creates a new contour merge model for the layer {@code layer}.
@@ -64,6 +111,7 @@ public class ContourMergeModel implements DataSetListener{
     public ContourMergeModel(@NotNull OsmDataLayer layer){
         Objects.requireNonNull(layer);
         this.layer = layer;
+        this.segmentIndex = new SegmentIndex(layer.data);
     }
 
     /**
@@ -95,6 +143,9 @@ public class ContourMergeModel implements DataSetListener{
 
     public void reset() {
         setFeedbackNode(null);
+        preselectDropTarget(null);
+        setMagneticDropTarget(null);
+        clearCollectedSources();
     }
 
     /* --------------------------------------------------------------------- */
@@ -111,10 +162,20 @@ public class ContourMergeModel implements DataSetListener{
      */
     public boolean isSelected(@NotNull Node node) {
         Objects.requireNonNull(node);
-        Validate.isTrue(node.getDataSet() == layer.data,
-            // don't translate
-            "Node must be owned by this contour merge models layer");
-        return selectedNodes.contains(node);
+        ensureOwnedByLayer(node);
+        return selectedNodeIndex.contains(node);
+    }
+
+    /*
+     * Plain check instead of Validate.isTrue(), which allocates a varargs
+     * array on every call. isSelected() is called on every mouse event.
+     */
+    private void ensureOwnedByLayer(Node node) {
+        if (node.getDataSet() != layer.data) {
+            throw new IllegalArgumentException(
+                // don't translate
+                "Node must be owned by this contour merge models layer");
+        }
     }
 
     /**
@@ -125,10 +186,64 @@ public class ContourMergeModel implements DataSetListener{
      */
     public void selectNode(@NotNull Node node) {
         Objects.requireNonNull(node);
-        Validate.isTrue(node.getDataSet() == layer.data,
-            // don't translate
-            "Node must be owned by this contour merge models layer");
-        if (!isSelected(node)) selectedNodes.add(node);
+        ensureOwnedByLayer(node);
+        if (selectedNodeIndex.add(node)) {
+            selectedNodes.add(node);
+            invalidateSlices();
+        }
+    }
+
+    /**
+     * Selects the nodes in {@code nodes} in one bulk operation. Nodes
+     * which are already selected are ignored.
+     *
+     * @param nodes the nodes. Must not be null. Must be owned by this
+     *  models layer.
+     * @return true, if the set of selected nodes has changed
+     * @throws IllegalArgumentException if a node isn't owned by this
+     *  models layer. The selection isn't changed.
+     */
+    public boolean selectNodes(@NotNull Collection<Node> nodes) {
+        Objects.requireNonNull(nodes);
+        // validate all nodes first, don't change the selection partially
+        for (Node node: nodes) {
+            Objects.requireNonNull(node);
+            ensureOwnedByLayer(node);
+        }
+        boolean changed = false;
+        for (Node node: nodes) {
+            if (selectedNodeIndex.add(node)) {
+                selectedNodes.add(node);
+                changed = true;
+            }
+        }
+        if (changed) invalidateSlices();
+        return changed;
+    }
+
+    /**
+     * Replies the junction nodes of the ways {@code ways}, i.e. the nodes
+     * shared by at least two ways. On a mosaic of areas, they are the
+     * natural bounds of the way slices.
+     * <p>
+     * Walks the node arrays of the ways once, without copying them. A
+     * node shared by several of the ways is replied once.
+     *
+     * @param ways the ways. Must not be null.
+     * @return the junction nodes, in the order of the ways
+     */
+    public static List<Node> computeJunctionNodes(
+            @NotNull Collection<Way> ways) {
+        Objects.requireNonNull(ways);
+        final Set<Node> junctions = new LinkedHashSet<>();
+        for (Way way: ways) {
+            final int n = way.getNodesCount();
+            for (int i = 0; i < n; i++) {
+                final Node node = way.getNode(i);
+                if (node.isReferredByWays(2)) junctions.add(node);
+            }
+        }
+        return new ArrayList<>(junctions);
     }
 
     /**
@@ -139,10 +254,31 @@ public class ContourMergeModel implements DataSetListener{
      */
     public void deselectNode(@NotNull Node node) {
         Objects.requireNonNull(node);
-        Validate.isTrue(node.getDataSet() == layer.data,
-            //don't translate
-           "Node must be owned by this contour merge models layer");
-        selectedNodes.remove(node);
+        ensureOwnedByLayer(node);
+        if (selectedNodeIndex.remove(node)) {
+            selectedNodes.remove(node);
+            invalidateSlices();
+        }
+    }
+
+    /**
+     * Deselects the nodes in {@code nodes} in one bulk operation. Nodes
+     * which aren't selected are ignored.
+     *
+     * @param nodes the nodes. Must not be null.
+     * @return true, if the set of selected nodes has changed
+     */
+    public boolean deselectNodes(@NotNull Collection<Node> nodes) {
+        Objects.requireNonNull(nodes);
+        boolean changed = false;
+        for (Node node: nodes) {
+            changed |= selectedNodeIndex.remove(node);
+        }
+        if (changed) {
+            selectedNodes.removeIf(n -> !selectedNodeIndex.contains(n));
+            invalidateSlices();
+        }
+        return changed;
     }
 
     /**
@@ -153,9 +289,7 @@ public class ContourMergeModel implements DataSetListener{
      */
     public void toggleSelected(Node node) {
         Objects.requireNonNull(node);
-        Validate.isTrue(node.getDataSet() == layer.data,
-            // don't translate
-           "Node must be owned by this contour merge models layer");
+        ensureOwnedByLayer(node);
         if (isSelected(node)) {
             deselectNode(node);
         } else {
@@ -168,6 +302,8 @@ public class ContourMergeModel implements DataSetListener{
      */
     public void deselectAllNodes(){
         selectedNodes.clear();
+        selectedNodeIndex.clear();
+        invalidateSlices();
     }
 
     /**
@@ -189,7 +325,10 @@ public class ContourMergeModel implements DataSetListener{
          segment
      */
     public void setDragStartFeedbackWaySegment(IWaySegment<Node, Way> segment){
+        if (Objects.equals(segment, dragStartFeedbackSegment)) return;
         this.dragStartFeedbackSegment = segment;
+        this.dragSourceKnown = false;
+        this.dragSource = null;
     }
 
     /**
@@ -203,7 +342,10 @@ public class ContourMergeModel implements DataSetListener{
     }
 
     public void setDropFeedbackSegment(IWaySegment<Node, Way> segment){
+        if (Objects.equals(segment, dropFeedbackSegment)) return;
         this.dropFeedbackSegment = segment;
+        this.dropTargetKnown = false;
+        this.dropTarget = null;
     }
 
     public IWaySegment<Node, Way> getDropFeedbackSegment(){
@@ -258,14 +400,43 @@ public class ContourMergeModel implements DataSetListener{
      */
     public boolean isPotentialDropTarget(IWaySegment<?, Way> ws){
         if (ws == null) return false;
-        WaySlice dropTarget = getWaySliceFromSelectedNodes(ws);
+        return isPotentialDropTarget(getWaySliceFromSelectedNodes(ws));
+    }
+
+    /**
+     * Replies true, if the way slice {@code dropTarget} is a potential
+     * drop target, i.e. if it isn't a slice of the way of the drag source
+     * or of a collected source.
+     *
+     * @param dropTarget the way slice. If null, replies false.
+     * @return true, if {@code dropTarget} is a potential drop target
+     */
+    public boolean isPotentialDropTarget(@Null WaySlice dropTarget){
         if (dropTarget == null) return false;
+        return isPotentialDropTargetWay(dropTarget.getWay());
+    }
+
+    /**
+     * Replies true, if slices of {@code way} are potential drop targets,
+     * i.e. if {@code way} is neither the way of the drag source nor the way
+     * of a collected source.
+     *
+     * @param way the way. Must not be null.
+     * @return true, if slices of {@code way} are potential drop targets
+     */
+    public boolean isPotentialDropTargetWay(@NotNull Way way){
+        // don't drop on the way of a collected source
+        for (int i = 0; i < collectedSources.size(); i++) {
+            if (collectedSources.get(i).getWay() == way) {
+                return false;
+            }
+        }
 
         // make sure we don't try to drop on the drag source, not even
         // on a different way slice on the way we drag from
         WaySlice dragSource = getDragSource();
         if (dragSource == null) return true;
-        return ! dragSource.getWay().equals(dropTarget.getWay());
+        return ! dragSource.getWay().equals(way);
     }
 
     protected List<Integer> computeSelectedNodeIndicesOnWay(Way way){
@@ -275,8 +446,55 @@ public class ContourMergeModel implements DataSetListener{
             .collect(Collectors.toList());
     }
 
+    /*
+     * Replies true, if the node at index i of way is selected. The last
+     * node of a closed way is mapped to the first node.
+     */
+    private static boolean isSelectedAt(Set<Node> selected, Way way, int i) {
+        if (way.isClosed() && i == way.getNodesCount() - 1) i = 0;
+        return selected.contains(way.getNode(i));
+    }
+
+    private static int countSelectedNodesOnClosedWay(Set<Node> selected,
+            Way way) {
+        int count = 0;
+        for (int i = 0; i < way.getNodesCount() - 1; i++) {
+            if (selected.contains(way.getNode(i))) count++;
+        }
+        return count;
+    }
+
+    /*
+     * Called for every mouse event in the contour merge mode. Looks up
+     * the selected nodes by index in the way instead of computing the
+     * list of selected node indices, which allocates a temporary set
+     * for every selected node.
+     */
     protected WaySlice getWaySliceFromSelectedNodes(
             IWaySegment<?, Way> referenceSegment){
+        final long start = System.nanoTime();
+        final WaySlice slice = computeWaySlice(referenceSegment,
+            selectedNodeIndex);
+        PerformanceStatistics.getInstance().recordSince(
+            PerformanceStatistics.Metric.SLICE_COMPUTATION, start);
+        return slice;
+    }
+
+    /**
+     * Replies the way slice given by the way segment
+     * {@code referenceSegment} and the selected nodes {@code selected},
+     * or null, if there is no such way slice.
+     * <p>
+     * Doesn't depend on the state of a model. It is safe to invoke it on
+     * a background thread with an immutable set of selected nodes, while
+     * holding the read lock of the dataset.
+     *
+     * @param referenceSegment the way segment
+     * @param selected the selected nodes
+     * @return the way slice or null
+     */
+    static WaySlice computeWaySlice(IWaySegment<?, Way> referenceSegment,
+            Set<Node> selected) {
         if (referenceSegment == null) return null;
         Way way = referenceSegment.getWay();
         if (way == null || way.getNodesCount() == 0) {
@@ -291,8 +509,7 @@ public class ContourMergeModel implements DataSetListener{
              * This is a closed way. We need at least two selected nodes to
              * come  up with a way slice.
              */
-            List<Integer> selIndices = computeSelectedNodeIndicesOnWay(way);
-            if (selIndices.size() <2) return null;
+            if (countSelectedNodesOnClosedWay(selected, way) <2) return null;
 
             int nn= way.getNodesCount();
             int li = referenceSegment.getLowerIndex();
@@ -302,11 +519,11 @@ public class ContourMergeModel implements DataSetListener{
              * wrapping around at the join-node, if necessary.
              */
             for (int i=li; i>=0;i--){
-                if (selIndices.contains(i)) {lower = i; break;}
+                if (isSelectedAt(selected, way, i)) {lower = i; break;}
             }
             if (lower == -1){ // not found yet - wrap around and continue search
                 for (int i=nn-1; i>li; i--){
-                    if (selIndices.contains(i)) {lower = i; break;}
+                    if (isSelectedAt(selected, way, i)) {lower = i; break;}
                 }
             }
             /*
@@ -314,11 +531,11 @@ public class ContourMergeModel implements DataSetListener{
              *  wrapping around at the join-node, if necessary.
              */
             for (int i=li+1; i< nn-1 ; i++){
-                if (selIndices.contains(i)) {upper = i; break;}
+                if (isSelectedAt(selected, way, i)) {upper = i; break;}
             }
             if (upper == nn){ // not found yet - wrap around and continue search
                 for (int i=0; i<li; i++){
-                    if (selIndices.contains(i)) {upper = i; break;}
+                    if (isSelectedAt(selected, way, i)) {upper = i; break;}
                 }
                 /*
                  * not really a wrap around? => adjust the index
@@ -348,17 +565,15 @@ public class ContourMergeModel implements DataSetListener{
              * we drag the way slice between two selected, or the first or the
              * last node, respectively.
              */
-            List<Integer> selIndices = computeSelectedNodeIndicesOnWay(
-                    referenceSegment.getWay());
             int nn= way.getNodesCount();
             int li = referenceSegment.getLowerIndex();
             int lastPos = nn -1;
             int lower = 0; int upper = lastPos;
             for (int pos=li; pos >=0; pos--){
-                if (selIndices.contains(pos)) {lower = pos; break;}
+                if (isSelectedAt(selected, way, pos)) {lower = pos; break;}
             }
             for (int pos=li+1; pos <=lastPos; pos++){
-                if (selIndices.contains(pos)) {upper = pos; break;}
+                if (isSelectedAt(selected, way, pos)) {upper = pos; break;}
             }
             if (lower == upper) return null;
             return new WaySlice(referenceSegment.getWay(), lower, upper);
@@ -373,7 +588,15 @@ public class ContourMergeModel implements DataSetListener{
      */
     public WaySlice getDragSource(){
         if (dragStartFeedbackSegment == null) return null;
-        return getWaySliceFromSelectedNodes(dragStartFeedbackSegment);
+        if (!dragSourceKnown) {
+            final SlicePrefetcher.Entry prefetched = prefetcher.get(
+                prefetchKey(dragStartFeedbackSegment));
+            dragSource = prefetched != null
+                ? prefetched.slice()
+                : getWaySliceFromSelectedNodes(dragStartFeedbackSegment);
+            dragSourceKnown = true;
+        }
+        return dragSource;
     }
 
     /**
@@ -384,8 +607,345 @@ public class ContourMergeModel implements DataSetListener{
      * @return the way slice or null
      */
     public WaySlice getDropTarget(){
-        if (dropFeedbackSegment == null) return null;
-        return getWaySliceFromSelectedNodes(dropFeedbackSegment);
+        if (dropFeedbackSegment == null) {
+            final WaySlice preselected = getPreselectedDropTarget();
+            return preselected != null ? preselected : magneticDropTarget;
+        }
+        if (!dropTargetKnown) {
+            dropTarget = getWaySliceFromSelectedNodes(dropFeedbackSegment);
+            dropTargetKnown = true;
+        }
+        return dropTarget;
+    }
+
+    /**
+     * Invalidates the cached drag source and drop target. Invoke it if the
+     * selected nodes or the way nodes in the dataset have changed.
+     */
+    protected void invalidateSlices() {
+        preselectedDropTarget = null;
+        magneticDropTarget = null;
+        dragSourceWays = null;
+        dragSource = null;
+        dragSourceKnown = false;
+        dropTarget = null;
+        dropTargetKnown = false;
+        selectionSnapshot = null;
+        invalidatePrefetchedSlices();
+        invalidateDecorations();
+    }
+
+    private void invalidateDecorations() {
+        decorationEpoch++;
+    }
+
+    /**
+     * Replies a counter which is incremented whenever the selected nodes,
+     * the collected sources, or the nodes and ways in the dataset change.
+     * The view caches the decorations of the selected nodes and the
+     * collected sources until it changes.
+     *
+     * @return the decoration epoch
+     */
+    public long getDecorationEpoch() {
+        return decorationEpoch;
+    }
+
+    /**
+     * Replies a counter which is incremented whenever nodes or ways in the
+     * dataset change. Work done in the background on a snapshot of the
+     * dataset is outdated, if it changes.
+     *
+     * @return the data epoch
+     */
+    public long getDataEpoch() {
+        return dataEpoch;
+    }
+
+    /**
+     * Replies the number of way slices equivalent to {@code slice}, see
+     * {@link WaySlice#findAllEquivalentWaySlices()}. Uses the equivalent
+     * slices prefetched in the background, if available, and otherwise
+     * computes the number once per slice and data epoch.
+     *
+     * @param slice the way slice. Must not be null.
+     * @return the number of equivalent way slices
+     */
+    public int countEquivalentSlices(@NotNull WaySlice slice) {
+        Objects.requireNonNull(slice);
+        final List<WaySlice> prefetched =
+            prefetcher.getEquivalentSlices(slice, sliceEpoch);
+        if (prefetched != null) return prefetched.size();
+        if (equivalentSliceCountsEpoch != dataEpoch) {
+            equivalentSliceCounts.clear();
+            equivalentSliceCountsEpoch = dataEpoch;
+        }
+        return equivalentSliceCounts.computeIfAbsent(slice,
+            s -> (int) s.findAllEquivalentWaySlices().count());
+    }
+
+    private void invalidatePrefetchedSlices() {
+        sliceEpoch++;
+        prefetcher.clear();
+    }
+
+    /**
+     * Pre-selects the target of {@code match} as drop target for its
+     * source. As long as the source is the drag source, the target is the
+     * drop target, unless the mouse hovers over another potential drop
+     * target. The pre-selection is discarded, if the selected nodes or
+     * the dataset change.
+     *
+     * @param match the best target for a source, see {@link TargetFinder}.
+     *  null, to discard the pre-selection.
+     */
+    public void preselectDropTarget(@Null TargetFinder.Match match) {
+        preselectedDropTarget = match;
+    }
+
+    /**
+     * Replies the pre-selected drop target, if its source is the current
+     * drag source, see {@link #preselectDropTarget(TargetFinder.Match)}.
+     *
+     * @return the pre-selected drop target or null
+     */
+    public @Null WaySlice getPreselectedDropTarget() {
+        final TargetFinder.Match match = preselectedDropTarget;
+        if (match == null) return null;
+        return match.source().equals(getDragSource()) ? match.target() : null;
+    }
+
+    /* --------------------------------------------------------------------- */
+    /* magnetic snapping                                                     */
+    /* --------------------------------------------------------------------- */
+    /**
+     * Replies the index of the way segments in the dataset of the layer.
+     * It is built in the background, see {@link SegmentIndex#requestBuild()},
+     * and kept up to date when ways or nodes in the dataset change.
+     *
+     * @return the index
+     */
+    public SegmentIndex getSegmentIndex() {
+        return segmentIndex;
+    }
+
+    /*
+     * The ways of the primitives, and the parent ways of the nodes among
+     * them.
+     */
+    static private Set<Way> affectedWays(
+            Collection<? extends OsmPrimitive> primitives) {
+        final Set<Way> ways = new HashSet<>();
+        for (OsmPrimitive primitive: primitives) {
+            if (primitive instanceof Way) {
+                ways.add((Way) primitive);
+            } else if (primitive instanceof Node) {
+                ways.addAll(primitive.getParentWays());
+            }
+        }
+        return ways;
+    }
+
+    /**
+     * Snaps the drop target to the way slice closest to the drag source,
+     * translated by <code>(dx, dy)</code>, see {@link MagneticSnapper}.
+     * The drop target doesn't snap to the ways sharing the nodes of the
+     * drag source, see {@link TargetFinder}, nor to the way of a collected
+     * source.
+     *
+     * @param dx the east offset of the drag source
+     * @param dy the north offset of the drag source
+     * @param maxDistance the maximal distance, in east/north units
+     * @return true, if the way slice the drop target snaps to has changed
+     */
+    public boolean snapDropTarget(double dx, double dy, double maxDistance) {
+        final WaySlice source = getDragSource();
+        if (source == null) return setMagneticDropTarget(null);
+        if (dragSourceWays == null) {
+            dragSourceWays = TargetFinder.sourceWays(source);
+        }
+        final Set<Way> excluded = dragSourceWays;
+        return setMagneticDropTarget(new MagneticSnapper(segmentIndex)
+            .snap(source, dx, dy, maxDistance,
+                way -> !excluded.contains(way)
+                    && isPotentialDropTargetWay(way)));
+    }
+
+    /**
+     * Sets the way slice the drop target snaps to. Unless the mouse hovers
+     * over a potential drop target or a drop target is pre-selected, it
+     * is the drop target.
+     *
+     * @param target the way slice. null, to stop snapping.
+     * @return true, if the way slice has changed
+     */
+    public boolean setMagneticDropTarget(@Null WaySlice target) {
+        if (Objects.equals(target, magneticDropTarget)) return false;
+        magneticDropTarget = target;
+        return true;
+    }
+
+    /**
+     * Replies the way slice the drop target snaps to, see
+     * {@link #snapDropTarget(double, double, double)}.
+     *
+     * @return the way slice or null
+     */
+    public @Null WaySlice getMagneticDropTarget() {
+        return magneticDropTarget;
+    }
+
+    /* --------------------------------------------------------------------- */
+    /* collecting sources for a merge of several sources                     */
+    /* --------------------------------------------------------------------- */
+    /**
+     * Adds the way slice given by the way segment {@code segment} and the
+     * selected nodes to the collected sources, or removes it, if it is
+     * already collected. A collected slice on the same way is replaced.
+     * <p>
+     * The collected sources are merged onto the drop target of the next
+     * drag and drop operation, together with the drag source, see
+     * {@link #planMultiSourceMerge()}.
+     *
+     * @param segment the way segment. Ignored, if null.
+     * @return true, if the way slice was added; false, if it was removed
+     *  or if there is no way slice for {@code segment}
+     */
+    public boolean toggleCollectedSource(IWaySegment<?, Way> segment) {
+        if (segment == null) return false;
+        final WaySlice slice = getWaySliceFromSelectedNodes(segment);
+        if (slice == null) return false;
+        invalidateDecorations();
+        if (collectedSources.remove(slice)) return false;
+        collectedSources.removeIf(s -> s.getWay() == slice.getWay());
+        collectedSources.add(slice);
+        return true;
+    }
+
+    /**
+     * Replies the collected source slices, in the order they were
+     * collected.
+     *
+     * @return the collected source slices
+     */
+    public List<WaySlice> getCollectedSources() {
+        return Collections.unmodifiableList(collectedSources);
+    }
+
+    /**
+     * Discards the collected source slices.
+     */
+    public void clearCollectedSources() {
+        if (collectedSources.isEmpty()) return;
+        collectedSources.clear();
+        invalidateDecorations();
+    }
+
+    /*
+     * A collected slice refers to node indices in its way. It is discarded
+     * if the nodes of the way change or if the way is deleted. changed is
+     * null, if unknown primitives changed.
+     */
+    private void ensureCollectedSourcesConsistent(
+            Collection<? extends OsmPrimitive> changed) {
+        if (collectedSources.isEmpty()) return;
+        if (changed == null) {
+            clearCollectedSources();
+            return;
+        }
+        if (collectedSources.removeIf(s -> changed.contains(s.getWay())
+                || s.getWay().isDeleted()
+                || s.getWay().getDataSet() != layer.data)) {
+            invalidateDecorations();
+        }
+    }
+
+    /**
+     * Plans the merge of the collected sources and the current drag
+     * source onto the current drop target. The merge is planned with
+     * {@link ContourMergeService}: all sources are merged in one command,
+     * and nodes removed by several sources are deleted once.
+     * <p>
+     * Sources on the way of the drop target are ignored.
+     *
+     * @return the planned merge. null, if there is no drop target or no
+     *  source.
+     */
+    public @Null ContourMergeService.BatchResult planMultiSourceMerge() {
+        mergeFeedback = null;
+        final WaySlice target = getDropTarget();
+        if (target == null) return null;
+        final Set<WaySlice> sources = new LinkedHashSet<>(collectedSources);
+        final WaySlice dragSource = getDragSource();
+        if (dragSource != null) sources.add(dragSource);
+        final List<ContourMergeService.MergeRequest> requests = sources
+            .stream()
+            .filter(source -> source.getWay() != target.getWay())
+            .map(source -> new ContourMergeService.MergeRequest(source,
+                target))
+            .collect(Collectors.toList());
+        if (requests.isEmpty()) return null;
+        return withMergeFeedback(
+            ContourMergeService.getInstance().plan(requests));
+    }
+
+    /**
+     * Replies a translated message about the last planned merge, i.e.
+     * why no command could be built, or that the target slice was
+     * inserted in the opposite direction to avoid crossing segments, see
+     * {@link SliceReplacement#computeCheckedNodeLists(List, WaySlice,
+     * java.util.function.Predicate)}.
+     *
+     * @return the message. null, if there is nothing to report.
+     */
+    public @Null String getMergeFeedback() {
+        return mergeFeedback;
+    }
+
+    private ContourMergeService.BatchResult withMergeFeedback(
+            ContourMergeService.BatchResult result) {
+        mergeFeedback = result.command() != null ? null
+            : result.results().stream()
+                .map(ContourMergeService.MergeResult::message)
+                .filter(Objects::nonNull)
+                .findFirst()
+                .orElse(null);
+        return result;
+    }
+
+    /* --------------------------------------------------------------------- */
+    /* prefetching way slices                                                */
+    /* --------------------------------------------------------------------- */
+    private SlicePrefetcher.Key prefetchKey(IWaySegment<?, Way> segment) {
+        return new SlicePrefetcher.Key(segment.getWay(),
+            segment.getLowerIndex(), sliceEpoch);
+    }
+
+    /*
+     * An immutable copy of the selected nodes, for the background
+     * computation of way slices. Copied at most once per selection
+     * change.
+     */
+    private Set<Node> getSelectionSnapshot() {
+        if (selectionSnapshot == null) {
+            selectionSnapshot = Set.copyOf(selectedNodeIndex);
+        }
+        return selectionSnapshot;
+    }
+
+    /**
+     * Starts to compute the way slice for the way segment {@code segment}
+     * in the background, see {@link SlicePrefetcher}. Invoke it when the
+     * mouse hovers over a way segment, so that the way slice is available
+     * when the user starts to drag it.
+     *
+     * @param segment the way segment. Ignored, if null.
+     */
+    public void prefetch(IWaySegment<Node, Way> segment) {
+        if (segment == null || segment.getWay() == null) return;
+        final Set<Node> selected = getSelectionSnapshot();
+        prefetcher.prefetch(prefetchKey(segment), layer.data,
+            () -> computeWaySlice(segment, selected));
     }
 
     /**
@@ -409,6 +969,28 @@ public class ContourMergeModel implements DataSetListener{
         return dragOffset;
     }
 
+    /**
+     * Sets the area, in screen coordinates, which is currently spanned by
+     * a rectangle or lasso selection. Set null to indicate, that there is
+     * currently no area selection.
+     *
+     * @param area the selection area
+     */
+    public void setSelectionArea(Shape area){
+        this.selectionArea = area;
+    }
+
+    /**
+     * Replies the area, in screen coordinates, which is currently spanned
+     * by a rectangle or lasso selection, or null, if there is currently no
+     * area selection.
+     *
+     * @return the selection area
+     */
+    public Shape getSelectionArea(){
+        return selectionArea;
+    }
+
     /**
      * Replies true, if we are currently in a drag operation.
      *
@@ -419,32 +1001,25 @@ public class ContourMergeModel implements DataSetListener{
     }
 
 
-    protected Stream<Command> buildSourceChangeCommands(
-            final List<WaySlice> sources,
-            final WaySlice target) {
-
-        // The sources are merged to the target. As a consequence, a sequence
-        // of nodes in each source is replaced by the same sequence of nodes
-        // from the target.
-        // The target itself remains unchanged. We have to build a change
-        // command for each affected source way.
-
-        final List<Node> targetNodes = target.getNodes();
-        final List<Node> targetNodesReversed = new ArrayList<>(targetNodes);
-        Collections.reverse(targetNodesReversed);
-
-        return sources.stream().map(source -> {
-            final Way modifiedSourceWay;
-            if (areDirectionAligned(source, target)) {
-                modifiedSourceWay = source.replaceNodes(targetNodes);
-            } else {
-                modifiedSourceWay = source.replaceNodes(targetNodesReversed);
-            }
-            return new ChangeCommand(source.getWay(), modifiedSourceWay);
-        });
-    }
-
-    protected Stream<Command> buildNodeDeleteCommands(
+    /**
+     * Replies the nodes of the source slices which can be deleted after
+     * the merge.
+     * <p>
+     * All source ways have the sequence of nodes in common which are
+     * replaced by a sequence of the target nodes. In general, all these
+     * nodes can and should be deleted after the merge operation, except
+     * <ul>
+     *   <li>if a node is also shared by another way which does not
+     *   participate as source in the merge operation</li>
+     *   <li>if a node is tagged. We don't want to lose the tags because
+     *   of a merge operation</li>
+     * </ul>
+     *
+     * @param sources the source slices. Must not be empty.
+     * @param target the target slice
+     * @return the obsolete nodes
+     */
+    protected List<Node> computeObsoleteNodes(
             final List<WaySlice> sources,
             final WaySlice target
             ) {
@@ -452,21 +1027,11 @@ public class ContourMergeModel implements DataSetListener{
                 // don't translate
                 "sources must not be empty");
 
-        // All source ways have the sequence of nodes in common
-        // which are replaced by a sequence of the target nodes.
-
-        // In general, all these nodes can and should be deleted
-        // after the merge operation, except
-        // * if a node is also shared by another way which does not
-        //   participate as source in the merge operation
-        // * if a node is tagged. We don't want to lose the tags because
-        //   of a merge operation
-
         final WaySlice first = sources.get(0);
         final Set<OsmPrimitive> sourceWays = sources.stream().map(WaySlice::getWay)
                 .collect(Collectors.toSet());
         return first.getNodes().stream()
-            .map(n -> {
+            .filter(n -> {
                 final Set<OsmPrimitive> referrers = new HashSet<>(n.getReferrers());
                 final int numReferrersBeforeIntersection = referrers.size();
                 referrers.retainAll(sourceWays);
@@ -476,14 +1041,10 @@ public class ContourMergeModel implements DataSetListener{
                 boolean hasOnlySourcesAsParents =
                     numReferrersBeforeIntersection == referrers.size();
 
-                if (hasOnlySourcesAsParents && !n.isTagged() && !target.containsNode(n)) {
-                    return Optional.of(new DeleteCommand(n));
-                } else {
-                    return Optional.<DeleteCommand>empty();
-                }
+                return hasOnlySourcesAsParents && !n.isTagged()
+                    && !target.containsNode(n);
              })
-            .filter(Optional::isPresent)
-            .map(Optional::get);
+            .collect(Collectors.toList());
     }
 
     /**
@@ -499,21 +1060,112 @@ public class ContourMergeModel implements DataSetListener{
         return buildContourAlignCommand(dragSource, dropTarget);
     }
 
+    /**
+     * Builds the command to align the two contours, after the drag source
+     * and the drop target have been propagated along their ways, see
+     * {@link SlicePropagator}. Replies null, if the command can't be
+     * created, i.e. because there is no defined drag source or drop target.
+     *
+     * @return the contour align command
+     */
+    public Command buildPropagatedContourAlignCommand() {
+        final WaySlice dragSource = getDragSource();
+        final WaySlice dropTarget = getDropTarget();
+        if (dragSource == null || dropTarget == null) return null;
+        final SlicePropagator.Result propagated = new SlicePropagator()
+            .propagate(dragSource, dropTarget,
+                areDirectionAligned(dragSource, dropTarget));
+        return buildContourAlignCommand(propagated.source(),
+                propagated.target());
+    }
+
+    /**
+     * Builds the command to merge {@code dragSource} onto
+     * {@code dropTarget}. Replies null, if the command can't be created,
+     * i.e. because the merge would produce crossing segments in both
+     * directions of the target. See {@link #getMergeFeedback()} for the
+     * reason.
+     *
+     * @param dragSource the source slice
+     * @param dropTarget the target slice
+     * @return the contour align command
+     * @see #planContourAlign(WaySlice, WaySlice)
+     */
     public @Null Command buildContourAlignCommand(
             @Null final WaySlice dragSource,
             @Null final WaySlice dropTarget) {
+        final MergePlan plan = planContourAlign(dragSource, dropTarget);
+        return plan == null ? null : plan.buildCommand(layer.data);
+    }
+
+    /**
+     * Plans the merge of {@code dragSource} onto {@code dropTarget},
+     * without building a command. The dataset isn't modified. Replies
+     * null, if the merge can't be planned, i.e. because the merge would
+     * produce crossing segments in both directions of the target, or
+     * because a modified way fails the {@link MergeValidator validation}.
+     * See {@link #getMergeFeedback()} for the reason.
+     *
+     * @param dragSource the source slice
+     * @param dropTarget the target slice
+     * @return the merge plan
+     */
+    public @Null MergePlan planContourAlign(
+            @Null final WaySlice dragSource,
+            @Null final WaySlice dropTarget) {
+        mergeFeedback = null;
         if (dragSource == null || dropTarget == null) return null;
 
-        final List<WaySlice> sourceWaySlices =
-                dragSource.findAllEquivalentWaySlices()
+        if (NodeCoalescer.COALESCE_NODES.get()) {
+            // coincident nodes are merged in the same command, see
+            // ContourMergeService
+            return withMergeFeedback(ContourMergeService.getInstance().plan(
+                List.of(new ContourMergeService.MergeRequest(dragSource,
+                    dropTarget)),
+                true /* coalesce nodes */)).plan();
+        }
+
+        final List<WaySlice> prefetched = prefetcher.getEquivalentSlices(
+                dragSource, sliceEpoch);
+        final List<WaySlice> sourceWaySlices = prefetched != null
+                ? prefetched
+                : dragSource.findAllEquivalentWaySlices()
                         .collect(Collectors.toList());
 
-        final List<Command> cmds = Stream.concat(
-                buildSourceChangeCommands(sourceWaySlices, dropTarget),
-                buildNodeDeleteCommands(sourceWaySlices, dropTarget)
-        ).collect(Collectors.toList());
+        final SliceReplacement.Outcome outcome =
+            SliceReplacement.computeCheckedNodeLists(sourceWaySlices,
+                dropTarget, source -> areDirectionAligned(source, dropTarget));
+        if (outcome.hasIntersection()) {
+            mergeFeedback = outcome.intersection().getMessage();
+            return null;
+        }
+        if (outcome.flipped()) {
+            mergeFeedback = tr("Merged in the opposite direction to avoid "
+                + "crossing segments");
+        }
 
-        return new SequenceCommand(tr("Merging Contour"), cmds);
+        final MergePlan.SliceRef target = MergePlan.SliceRef.of(dropTarget);
+        final List<MergePlan.Source> sources = new ArrayList<>();
+        final Map<Way, List<Node>> modifiedWays = new LinkedHashMap<>();
+        for (int i = 0; i < sourceWaySlices.size(); i++) {
+            final WaySlice source = sourceWaySlices.get(i);
+            sources.add(new MergePlan.Source(MergePlan.SliceRef.of(source),
+                target, areDirectionAligned(source, dropTarget)
+                    != outcome.isFlipped(i)));
+            modifiedWays.put(source.getWay(), outcome.nodeLists().get(i));
+        }
+        final List<Node> obsoleteNodes =
+            computeObsoleteNodes(sourceWaySlices, dropTarget);
+        // refuse merges which would leave degenerate ways, as the
+        // ContourMergeService does for batches
+        final List<MergeValidator.Problem> problems =
+            new MergeValidator(new HashSet<>(obsoleteNodes))
+                .validate(modifiedWays);
+        if (!problems.isEmpty()) {
+            mergeFeedback = problems.get(0).message();
+            return null;
+        }
+        return MergePlan.of(1, sources, modifiedWays, obsoleteNodes);
     }
 
     protected boolean haveSameStartAndEndNode(List<Node> n1, List<Node> n2) {
@@ -558,13 +1210,21 @@ public class ContourMergeModel implements DataSetListener{
         final EastNorth t1 = n2.get(0).getEastNorth();
         final EastNorth t2 = n2.get(n2.size()-1).getEastNorth();
 
-        double d1 = Math.abs(s1.distance(t1)) + Math.abs(s2.distance(t2));
-        double d2 = Math.abs(s1.distance(t2)) + Math.abs(s2.distance(t1));
+        final double d1 = distance(s1, t1) + distance(s2, t2);
+        final double d2 = distance(s1, t2) + distance(s2, t1);
         return d1 <= d2;
     }
 
+    static private double distance(EastNorth a, EastNorth b) {
+        return DistanceKernel.distance(a.east(), a.north(), b.east(),
+            b.north());
+    }
+
     /**
      * Replies true, if both the slices are "direction aligned".
+     * <p>
+     * Same heuristic as {@link #areDirectionAligned(List, List)}, but
+     * computed on the cached coordinates of the two slices.
      *
      * @param dragSource the first way slice
      * @param dropTarget the second way slice
@@ -575,24 +1235,21 @@ public class ContourMergeModel implements DataSetListener{
             WaySlice dropTarget){
         if (dragSource == null) return false;
         if (dropTarget == null) return false;
-
-        return areDirectionAligned(dragSource.getNodes(),
-                dropTarget.getNodes());
+        return dragSource.isDirectionAlignedWith(dropTarget);
     }
 
     protected void ensureSelectedNodesConsistent() {
         Iterator<Node> it = selectedNodes.iterator();
         while(it.hasNext()) {
             Node n = it.next();
-            if (!layer.data.getNodes().contains(n)) {
-                it.remove();
-            } else if (getFilteredSet(n.getReferrers(),
-                    Way.class).isEmpty()) {
-                it.remove();
-            } else if (n.isDeleted()) {
+            if (n.getDataSet() != layer.data
+                    || !n.isReferredByWays(1)
+                    || n.isDeleted()) {
                 it.remove();
+                selectedNodeIndex.remove(n);
             }
         }
+        invalidateSlices();
     }
 
     /* --------------------------------------------------------------------- */
@@ -600,21 +1257,33 @@ public class ContourMergeModel implements DataSetListener{
     /* --------------------------------------------------------------------- */
 
     @Override
-    public void primitivesAdded(PrimitivesAddedEvent arg0) {/* ignore */}
+    public void primitivesAdded(PrimitivesAddedEvent event) {
+        dataEpoch++;
+        segmentIndex.waysChanged(affectedWays(event.getPrimitives()));
+    }
 
     @Override
     public void primitivesRemoved(PrimitivesRemovedEvent event) {
+        dataEpoch++;
+        segmentIndex.waysChanged(affectedWays(event.getPrimitives()));
         ensureSelectedNodesConsistent();
+        ensureCollectedSourcesConsistent(event.getPrimitives());
     }
 
     @Override
     public void wayNodesChanged(WayNodesChangedEvent event) {
+        dataEpoch++;
+        segmentIndex.waysChanged(List.of(event.getChangedWay()));
         ensureSelectedNodesConsistent();
+        ensureCollectedSourcesConsistent(List.of(event.getChangedWay()));
     }
 
     @Override
     public void dataChanged(DataChangedEvent event) {
+        dataEpoch++;
+        segmentIndex.invalidate();
         ensureSelectedNodesConsistent();
+        ensureCollectedSourcesConsistent(null);
     }
 
     @Override
@@ -626,5 +1295,22 @@ public class ContourMergeModel implements DataSetListener{
     @Override
     public void tagsChanged(TagsChangedEvent event) { /* ignore */}
     @Override
-    public void nodeMoved(NodeMovedEvent event) {/* ignore */}
+    public void nodeMoved(NodeMovedEvent event) {
+        dataEpoch++;
+        // the topology is unchanged, only the cached coordinates of the
+        // drag source and the drop targets are outdated
+        if (dragSource != null) dragSource.invalidateCoordinates();
+        if (dropTarget != null) dropTarget.invalidateCoordinates();
+        collectedSources.forEach(WaySlice::invalidateCoordinates);
+        if (magneticDropTarget != null) {
+            magneticDropTarget.invalidateCoordinates();
+        }
+        if (preselectedDropTarget != null) {
+            preselectedDropTarget.source().invalidateCoordinates();
+            preselectedDropTarget.target().invalidateCoordinates();
+        }
+        segmentIndex.waysChanged(event.getNode().getParentWays());
+        invalidatePrefetchedSlices();
+        invalidateDecorations();
+    }
 }
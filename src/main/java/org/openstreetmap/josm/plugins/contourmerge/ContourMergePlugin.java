@@ -35,6 +35,16 @@ public class ContourMergePlugin extends Plugin {
         return ContourMergeModelManager.getInstance();
     }
 
+    /**
+     * Replies the service to merge contours on behalf of other plugins
+     * or scripts.
+     *
+     * @return the merge service
+     */
+    static public ContourMergeService getMergeService() {
+        return ContourMergeService.getInstance();
+    }
+
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
     static public boolean isEnabled() {
         return modeEnabled;
@@ -0,0 +1,502 @@
+package org.openstreetmap.josm.plugins.contourmerge;
+
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.command.SequenceCommand;
+import org.openstreetmap.josm.data.UndoRedoHandler;
+import org.openstreetmap.josm.data.osm.DataIntegrityProblemException;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Way;
+
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Null;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+/**
+ * <strong>ContourMergeService</strong> merges contours without the
+ * contour merge map mode, i.e. on behalf of other plugins or scripts.
+ * <p>
+ * The service accepts a batch of {@link MergeRequest}s. It plans them
+ * together and replies one combined command for the whole batch, see
+ * {@link #plan(List)}. Executing the command creates one undo entry and
+ * one cycle of dataset events, no matter how many requests the batch
+ * consists of.
+ * <p>
+ * A request merges the source slice onto the target slice: the nodes of
+ * the source slice are replaced by the nodes of the target slice in the
+ * source way and in all other ways sharing the nodes of the source slice.
+ * Nodes which aren't used anymore after all requests are applied are
+ * deleted, provided they aren't tagged.
+ * <p>
+ * Requests are planned in the given order. A request which modifies a
+ * way already modified or used as target by an earlier request of the
+ * same batch is skipped, see {@link Status#CONFLICT}.
+ * <p>
+ * Large batches are partitioned into independent components with a
+ * {@link ConflictGraph}. The components are planned in parallel on the
+ * common fork-join pool, while the calling thread holds the read lock of
+ * the dataset; the requests of a component are planned in their order.
+ * The result is the same as for a sequential batch, except
+ * for the order of the commands in the combined command.
+ * <p>
+ * Optionally, coincident nodes along the new boundary are merged in the
+ * same command, see {@link NodeCoalescer}.
+ * <p>
+ * A request whose new node lists contain crossing segments in both
+ * directions of the target slice is invalid, see
+ * {@link SliceReplacement#computeCheckedNodeLists(List, WaySlice,
+ * java.util.function.Predicate)}.
+ * <p>
+ * Before the combined command is built, the new node lists of all
+ * modified ways are checked with a {@link MergeValidator}. If a problem
+ * is found, no command is built and the dataset remains untouched.
+ * <p>
+ * The batch is planned into a {@link MergePlan}, which is then turned
+ * into the combined command. Both are part of the {@link BatchResult}.
+ * <p>
+ * Usage:
+ * <pre>
+ *   ContourMergeService service = ContourMergePlugin.getMergeService();
+ *   BatchResult result = service.merge(List.of(
+ *       new MergeRequest(source1, target1),
+ *       new MergeRequest(source2, target2)
+ *   ));
+ * </pre>
+ */
+public class ContourMergeService {
+
+    @SuppressWarnings("unused")
+    static private final Logger logger =
+        Logger.getLogger(ContourMergeService.class.getName());
+
+    /**
+     * Minimal number of requests to plan the independent components of
+     * a batch in parallel.
+     */
+    static final int PARALLEL_THRESHOLD = 8;
+
+    static private ContourMergeService instance;
+
+    public static ContourMergeService getInstance() {
+        return instance == null
+            ? instance = new ContourMergeService() : instance;
+    }
+
+    /**
+     * A request to merge the way slice {@code source} onto the way slice
+     * {@code target}.
+     *
+     * @param source the source slice. Must not be null.
+     * @param target the target slice. Must not be null.
+     */
+    public record MergeRequest(@NotNull WaySlice source,
+                               @NotNull WaySlice target) {
+        public MergeRequest {
+            Objects.requireNonNull(source);
+            Objects.requireNonNull(target);
+        }
+    }
+
+    /**
+     * The outcome of a merge request.
+     */
+    public enum Status {
+        /** the request is part of the combined command */
+        ACCEPTED,
+        /**
+         * the request was skipped, because it modifies a way which is
+         * already modified or used as target by an earlier request
+         */
+        CONFLICT,
+        /** the request was skipped, because it can't be applied */
+        INVALID,
+        /**
+         * the request is valid, but the batch was aborted, because
+         * another request failed the validation
+         */
+        ABORTED
+    }
+
+    /**
+     * The result for a merge request.
+     *
+     * @param request the request
+     * @param status the outcome
+     * @param message a message explaining why the request was skipped.
+     *  null, if the request was accepted.
+     */
+    public record MergeResult(MergeRequest request, Status status,
+                              String message) {
+        public boolean isAccepted() {
+            return status == Status.ACCEPTED;
+        }
+    }
+
+    /**
+     * The result for a batch of merge requests.
+     *
+     * @param command the combined command. null, if no request was
+     *  accepted, or if the validation failed.
+     * @param plan the plan of the combined command. null, if there is
+     *  no command.
+     * @param results the results, in the order of the requests
+     * @param problems the problems found by the validation. Empty, if
+     *  the validation succeeded.
+     */
+    public record BatchResult(@Null Command command,
+                              @Null MergePlan plan,
+                              List<MergeResult> results,
+                              List<MergeValidator.Problem> problems) {
+        /**
+         * Replies the results of the requests which aren't part of the
+         * combined command, in the order of the requests.
+         *
+         * @return the results of the skipped requests
+         */
+        public List<MergeResult> skipped() {
+            return results.stream()
+                .filter(result -> !result.isAccepted())
+                .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * A sequence of commands executed as one cycle of dataset events.
+     */
+    static class BatchMergeCommand extends SequenceCommand {
+        BatchMergeCommand(String name, Collection<Command> sequence) {
+            super(name, sequence);
+        }
+
+        @Override
+        public boolean executeCommand() {
+            final DataSet ds = getAffectedDataSet();
+            ds.beginUpdate();
+            try {
+                return super.executeCommand();
+            } finally {
+                ds.endUpdate();
+            }
+        }
+
+        @Override
+        public void undoCommand() {
+            final DataSet ds = getAffectedDataSet();
+            ds.beginUpdate();
+            try {
+                super.undoCommand();
+            } finally {
+                ds.endUpdate();
+            }
+        }
+    }
+
+    /**
+     * Plans the merge requests {@code requests} and replies the combined
+     * command, without executing it. Coincident nodes are merged, if
+     * {@link NodeCoalescer#COALESCE_NODES} is set.
+     *
+     * @param requests the merge requests. Must not be null.
+     * @return the batch result
+     */
+    public BatchResult plan(@NotNull List<MergeRequest> requests) {
+        return plan(requests, NodeCoalescer.COALESCE_NODES.get());
+    }
+
+    /**
+     * Plans the merge requests {@code requests} and replies the combined
+     * command, without executing it.
+     *
+     * @param requests the merge requests. Must not be null.
+     * @param coalesceNodes if true, coincident nodes along the new
+     *  boundary are merged, see {@link NodeCoalescer}
+     * @return the batch result
+     */
+    public BatchResult plan(@NotNull List<MergeRequest> requests,
+            boolean coalesceNodes) {
+        Objects.requireNonNull(requests);
+        // the requests may be planned on worker threads. Make sure nobody
+        // modifies the ways in the meantime.
+        final DataSet ds = requests.isEmpty() ? null
+            : requests.get(0).source().getWay().getDataSet();
+        final Lock lock = ds == null ? null : ds.getReadLock();
+        if (lock != null) lock.lock();
+        try {
+            final Planner planner = new Planner();
+            final List<MergeResult> results;
+            if (requests.size() < PARALLEL_THRESHOLD) {
+                results = requests.stream()
+                    .map(planner::add)
+                    .collect(Collectors.toList());
+            } else {
+                results = planInParallel(requests, planner);
+            }
+            if (coalesceNodes) {
+                planner.coalesce(new NodeCoalescer());
+            }
+            final List<MergeValidator.Problem> problems = planner.validate();
+            if (!problems.isEmpty()) {
+                return new BatchResult(null, null,
+                    planner.abort(results, problems), problems);
+            }
+            final MergePlan plan = planner.buildPlan();
+            return new BatchResult(plan == null ? null : plan.buildCommand(
+                planner.dataSet), plan, results, Collections.emptyList());
+        } finally {
+            if (lock != null) lock.unlock();
+        }
+    }
+
+    /*
+     * Plans the independent components of the batch in parallel, and
+     * joins their plans into planner. All components share the dataset
+     * of the first request, as in a sequential batch.
+     */
+    private List<MergeResult> planInParallel(List<MergeRequest> requests,
+            Planner planner) {
+        final MergeResult[] results = new MergeResult[requests.size()];
+        final DataSet ds = requests.get(0).source().getWay().getDataSet();
+        final List<Planner> planners = ConflictGraph.components(requests)
+            .parallelStream()
+            .map(component -> {
+                final Planner componentPlanner = new Planner();
+                componentPlanner.dataSet = ds;
+                for (int i: component) {
+                    results[i] = componentPlanner.add(requests.get(i));
+                }
+                return componentPlanner;
+            })
+            .collect(Collectors.toList());
+        planners.forEach(planner::join);
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Plans the merge requests {@code requests} and executes the combined
+     * command, see {@link #plan(List)}. The command is added to the undo
+     * stack.
+     *
+     * @param requests the merge requests. Must not be null.
+     * @return the batch result
+     */
+    public BatchResult merge(@NotNull List<MergeRequest> requests) {
+        final PerformanceStatistics statistics =
+            PerformanceStatistics.getInstance();
+        long start = System.nanoTime();
+        final BatchResult result = plan(requests);
+        statistics.recordSince(PerformanceStatistics.Metric.MERGE_PLANNING,
+            start);
+        if (result.command() != null) {
+            start = System.nanoTime();
+            UndoRedoHandler.getInstance().add(result.command());
+            statistics.recordSince(
+                PerformanceStatistics.Metric.MERGE_EXECUTION, start);
+        }
+        return result;
+    }
+
+    /**
+     * Plans a batch of merge requests. Keeps track of the ways modified
+     * so far and of their new node lists.
+     */
+    static private final class Planner {
+        private DataSet dataSet;
+        private final Map<Way, List<Node>> modifiedWays =
+            new LinkedHashMap<>();
+        // the request which modifies a way
+        private final Map<Way, MergeRequest> modifyingRequests =
+            new HashMap<>();
+        private final Set<Way> targetWays = new HashSet<>();
+        private final Set<Node> removedNodes = new LinkedHashSet<>();
+        private final List<MergePlan.Source> mergedSources =
+            new ArrayList<>();
+        private int numAccepted = 0;
+
+        /*
+         * Adds the plan of another, independent planner.
+         */
+        void join(Planner other) {
+            if (other.numAccepted == 0) return;
+            dataSet = other.dataSet;
+            modifiedWays.putAll(other.modifiedWays);
+            modifyingRequests.putAll(other.modifyingRequests);
+            targetWays.addAll(other.targetWays);
+            removedNodes.addAll(other.removedNodes);
+            mergedSources.addAll(other.mergedSources);
+            numAccepted += other.numAccepted;
+        }
+
+        private MergeResult reject(MergeRequest request, Status status,
+                String message) {
+            return new MergeResult(request, status, message);
+        }
+
+        MergeResult add(MergeRequest request) {
+            final Way sourceWay = request.source().getWay();
+            final Way targetWay = request.target().getWay();
+            if (sourceWay == targetWay) {
+                return reject(request, Status.INVALID,
+                    tr("Source and target are slices of the same way"));
+            }
+            final DataSet ds = sourceWay.getDataSet();
+            if (ds == null || ds != targetWay.getDataSet()) {
+                return reject(request, Status.INVALID,
+                    tr("Source and target must belong to the same dataset"));
+            }
+            if (dataSet != null && ds != dataSet) {
+                return reject(request, Status.INVALID,
+                    tr("All requests of a batch must belong to the same "
+                        + "dataset"));
+            }
+            if (sourceWay.isDeleted() || targetWay.isDeleted()
+                    || sourceWay.isIncomplete() || targetWay.isIncomplete()) {
+                return reject(request, Status.INVALID,
+                    tr("Source or target way is deleted or incomplete"));
+            }
+            if (modifiedWays.containsKey(targetWay)) {
+                return reject(request, Status.CONFLICT,
+                    tr("Target way {0} is modified by an earlier request",
+                        targetWay.getUniqueId()));
+            }
+
+            final List<WaySlice> sources = request.source()
+                .findAllEquivalentWaySlices()
+                .collect(Collectors.toList());
+            for (WaySlice source: sources) {
+                final Way way = source.getWay();
+                if (modifiedWays.containsKey(way)
+                        || targetWays.contains(way)) {
+                    return reject(request, Status.CONFLICT,
+                        tr("Way {0} is modified or used as target by an "
+                            + "earlier request", way.getUniqueId()));
+                }
+                if (way == targetWay) {
+                    return reject(request, Status.INVALID,
+                        tr("Source and target are slices of the same way"));
+                }
+            }
+
+            final Map<Way, List<Node>> newNodes = new LinkedHashMap<>();
+            final List<MergePlan.Source> newSources = new ArrayList<>();
+            try {
+                final SliceReplacement.Outcome outcome =
+                    SliceReplacement.computeCheckedNodeLists(sources,
+                        request.target(), source ->
+                            source.isDirectionAlignedWith(request.target()));
+                if (outcome.hasIntersection()) {
+                    return reject(request, Status.INVALID,
+                        outcome.intersection().getMessage());
+                }
+                final List<List<Node>> nodeLists = outcome.nodeLists();
+                final MergePlan.SliceRef target =
+                    MergePlan.SliceRef.of(request.target());
+                for (int i = 0; i < sources.size(); i++) {
+                    final WaySlice source = sources.get(i);
+                    newNodes.put(source.getWay(), nodeLists.get(i));
+                    newSources.add(new MergePlan.Source(
+                        MergePlan.SliceRef.of(source), target,
+                        source.isDirectionAlignedWith(request.target())
+                            != outcome.isFlipped(i)));
+                }
+            } catch (DataIntegrityProblemException e) {
+                return reject(request, Status.INVALID, e.getMessage());
+            }
+
+            dataSet = ds;
+            targetWays.add(targetWay);
+            newNodes.forEach((way, nodes) -> {
+                final Set<Node> remaining = new HashSet<>(nodes);
+                way.getNodes().stream()
+                    .filter(n -> !remaining.contains(n))
+                    .forEach(removedNodes::add);
+                modifiedWays.put(way, nodes);
+                modifyingRequests.put(way, request);
+            });
+            mergedSources.addAll(newSources);
+            numAccepted++;
+            return new MergeResult(request, Status.ACCEPTED, null);
+        }
+
+        /*
+         * A node removed from a modified way can be deleted, if it isn't
+         * tagged and if it isn't referred to anymore after all requests
+         * are applied. It is deleted once, even if it is removed by
+         * several requests.
+         */
+        private boolean isObsolete(Node node) {
+            if (node.isTagged() || node.isDeleted()) return false;
+            for (OsmPrimitive referrer: node.getReferrers()) {
+                if (!(referrer instanceof Way)) return false;
+                final List<Node> nodes = modifiedWays.get(referrer);
+                if (nodes == null || nodes.contains(node)) return false;
+            }
+            return true;
+        }
+
+        private List<Node> computeObsoleteNodes() {
+            return removedNodes.stream()
+                .filter(this::isObsolete)
+                .collect(Collectors.toList());
+        }
+
+        void coalesce(NodeCoalescer coalescer) {
+            if (modifiedWays.isEmpty()) return;
+            removedNodes.addAll(
+                coalescer.coalesce(modifiedWays, targetWays).keySet());
+        }
+
+        List<MergeValidator.Problem> validate() {
+            if (modifiedWays.isEmpty()) return Collections.emptyList();
+            return new MergeValidator(new HashSet<>(computeObsoleteNodes()))
+                .validate(modifiedWays);
+        }
+
+        /*
+         * Replies the results for an aborted batch. Requests which modify
+         * a way with a problem are invalid, the other accepted requests
+         * are aborted. A problem on a way which was only modified by
+         * coalescing nodes isn't caused by a single request; its message
+         * is reported for the aborted requests.
+         */
+        List<MergeResult> abort(List<MergeResult> results,
+                List<MergeValidator.Problem> problems) {
+            final Map<MergeRequest, String> messages = new HashMap<>();
+            String unattributed = null;
+            for (MergeValidator.Problem problem: problems) {
+                final MergeRequest request =
+                    modifyingRequests.get(problem.way());
+                if (request != null) {
+                    messages.putIfAbsent(request, problem.message());
+                } else if (unattributed == null) {
+                    unattributed = problem.message();
+                }
+            }
+            final String abortMessage = unattributed != null
+                ? unattributed
+                : tr("Another request of the batch is invalid");
+            return results.stream()
+                .map(result -> {
+                    if (!result.isAccepted()) return result;
+                    final String message = messages.get(result.request());
+                    return message != null
+                        ? new MergeResult(result.request(), Status.INVALID,
+                            message)
+                        : new MergeResult(result.request(), Status.ABORTED,
+                            abortMessage);
+                })
+                .collect(Collectors.toList());
+        }
+
+        MergePlan buildPlan() {
+            if (numAccepted == 0) return null;
+            return MergePlan.of(numAccepted, mergedSources, modifiedWays,
+                computeObsoleteNodes());
+        }
+    }
+}
@@ -2,6 +2,8 @@ package org.openstreetmap.josm.plugins.contourmerge;
 
 import org.openstreetmap.josm.data.Bounds;
 import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
 import org.openstreetmap.josm.gui.MainApplication;
 import org.openstreetmap.josm.gui.MapView;
 import org.openstreetmap.josm.gui.layer.MapViewPaintable;
@@ -11,15 +13,97 @@ import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Line2D;
 import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.Optional;
 
+import static org.openstreetmap.josm.tools.I18n.tr;
+
 /**
  * <strong>ContourMergeView</strong> renders the {@link ContourMergeModel}
  * for the currently active data layer.
+ * <p>
+ * The rendering code doesn't depend on a {@link MapView}. It projects
+ * east/north coordinates to the screen with an {@link AffineTransform},
+ * see {@link #paint(Graphics2D, AffineTransform, ContourMergeModel)}. This
+ * allows to render a model offscreen, i.e. in benchmarks.
+ * <p>
+ * The view measures the time it takes to paint a frame. If a frame takes
+ * longer than {@link #FRAME_TIME_BUDGET} during a drag operation, it
+ * switches to a cheaper rendering quality, without antialiasing, with
+ * solid strokes, and with more strongly decimated polylines. The full
+ * quality is restored when the drag operation ends.
+ * <p>
+ * The decorations of the selected nodes and the collected source slices
+ * only change with the selection, the dataset, or the viewport. They are
+ * rendered into a cached translucent image, which is blitted on every
+ * frame, see {@link #paint(Graphics2D, AffineTransform, ContourMergeModel,
+ * int, int)}. Only the feedback for the current drag operation is
+ * painted from scratch.
+ * <p>
+ * Optionally, the view paints an overlay with the timings of the contour
+ * merge mode, see {@link #SHOW_PERFORMANCE_OVERLAY}.
  */
 public class ContourMergeView implements MapViewPaintable{
 
+    /**
+     * The time budget in milliseconds for painting a frame during a drag
+     * operation. If a frame takes longer, the view switches to a reduced
+     * rendering quality until the drag operation ends.
+     */
+    public static final IntegerProperty FRAME_TIME_BUDGET =
+        new IntegerProperty("contourmerge.frame-time-budget", 20);
+
+    /**
+     * Whether the view paints an overlay with the timings of the contour
+     * merge mode and the sizes of the current way slices, see
+     * {@link PerformanceStatistics}.
+     */
+    public static final BooleanProperty SHOW_PERFORMANCE_OVERLAY =
+        new BooleanProperty("contourmerge.performance-overlay", false);
+
+    static private final float[] DRAG_DASH_PATTERN = { 10, 5, 10, 5 };
+    static private final float[] HELPER_DASH_PATTERN = { 2, 3, 2, 3 };
+
+    static private final Stroke SELECTED_NODE_OUTER_STROKE = new BasicStroke(
+        3, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+    static private final Stroke SELECTED_NODE_INNER_STROKE = new BasicStroke(
+        1, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+    static private final Stroke HIGHLIGHT_STROKE = new BasicStroke(
+        2, BasicStroke.CAP_BUTT, BasicStroke.JOIN_ROUND);
+    static private final Stroke DRAGGED_STROKE = new BasicStroke(
+        2, BasicStroke.CAP_BUTT, BasicStroke.JOIN_ROUND, 1f,
+        DRAG_DASH_PATTERN, 0f);
+    static private final Stroke HELPER_STROKE = new BasicStroke(
+        1, BasicStroke.CAP_BUTT, BasicStroke.JOIN_ROUND, 1f,
+        HELPER_DASH_PATTERN, 0f);
+    static private final Stroke SOLID_HELPER_STROKE = new BasicStroke(1);
+
+    /**
+     * Decimation tolerance in pixels for polylines. Polylines are
+     * simplified with a tolerance given in east/north units, which is
+     * rounded down to a power of two, see
+     * {@link #toEastNorthTolerance(AffineTransform, double)}. The pixel
+     * error is therefore at most the tolerance and the simplified
+     * polylines are cached per zoom level.
+     */
+    static private final double FULL_QUALITY_TOLERANCE = 0.5;
+    static private final double REDUCED_QUALITY_TOLERANCE = 0.9;
+
+    private boolean reducedQuality = false;
+    private long lastFrameNanos = 0;
+
+    // the cached static decorations and the state they were rendered
+    // for, see paintStaticDecorations()
+    private BufferedImage decorationCache;
+    private ContourMergeModel decorationModel;
+    private long decorationEpoch;
+    private final AffineTransform decorationTransform = new AffineTransform();
+    private boolean decorationReducedQuality;
+
     static private ContourMergeView instance;
 
     public static ContourMergeView getInstance() {
@@ -27,7 +111,7 @@ public class ContourMergeView implements MapViewPaintable{
     }
 
     public void wireToJOSM() {
-        final MapView mv = MainApplication.getMap().mapView; 
+        final MapView mv = MainApplication.getMap().mapView;
         if (mv != null) {
             mv.addTemporaryLayer(this);
         }
@@ -44,37 +128,39 @@ public class ContourMergeView implements MapViewPaintable{
     }
 
     @SuppressWarnings("unused")
-    protected void decorateFeedbackNode(Graphics2D g, MapView mv, Bounds bbox){
+    protected void decorateFeedbackNode(Graphics2D g, AffineTransform at,
+                                        ContourMergeModel model){
         /* currently no decoration - mouse pointer is changing if mouse over a
          * node */
     }
 
-    @SuppressWarnings("unused")
-    protected void decorateSelectedNode(Graphics2D g, MapView mv, Bounds bbox,
+    protected void decorateSelectedNode(Graphics2D g, AffineTransform at,
                                         Node node){
         // since at least 12712 the following check always returns false. Possibly
         // already before 12712. Don't know due to which commit exactly.
         // Comment it out for the time being. Should have only a minor
         // impact on drawing efficiency and responsiveness.
         //if (!bbox.contains(node.getCoor())) return;
-        Point p = mv.getPoint(node.getCoor());
+        final double[] xy = new double[2];
+        GeometryUtils.putEastNorth(xy, 0, node);
+        if (Double.isNaN(xy[0])) return;
+        at.transform(xy, 0, xy, 0, 1);
+        Point p = new Point((int) Math.round(xy[0]), (int) Math.round(xy[1]));
         g.translate(p.x,p.y);
             g.setColor(Color.ORANGE);
-            g.setStroke(new BasicStroke(3,BasicStroke.CAP_ROUND,
-                    BasicStroke.JOIN_ROUND));
+            g.setStroke(SELECTED_NODE_OUTER_STROKE);
             g.drawLine(-5, 5, 5,-5);
             g.drawLine(-5, -5, 5, 5);
             g.setColor(Color.ORANGE.brighter());
-            g.setStroke(new BasicStroke(1,BasicStroke.CAP_ROUND,
-                    BasicStroke.JOIN_ROUND));
+            g.setStroke(SELECTED_NODE_INNER_STROKE);
             g.drawLine(-5, 5, 5,-5);
             g.drawLine(-5, -5, 5, 5);
         g.translate(-p.x, -p.y);
     }
 
-    protected void decorateSelectedNodes(Graphics2D g, MapView mv, Bounds bbox){
-        getActiveModel().ifPresent(model ->
-            model.getSelectedNodes().forEach(n -> decorateSelectedNode(g, mv, bbox, n)));
+    protected void decorateSelectedNodes(Graphics2D g, AffineTransform at,
+                                         ContourMergeModel model){
+        model.getSelectedNodes().forEach(n -> decorateSelectedNode(g, at, n));
     }
 
     /**
@@ -82,17 +168,36 @@ public class ContourMergeView implements MapViewPaintable{
      * drop target.
      *
      * @param g graphics context
-     * @param mv map view
+     * @param at the transformation from east/north to screen coordinates
      * @param slice the way slice. Must not be null.
      */
-    protected void highlightWaySlice(Graphics2D g, MapView mv, WaySlice slice){
-        Path2D polyline = project(mv, slice);
+    protected void highlightWaySlice(Graphics2D g, AffineTransform at,
+                                     WaySlice slice){
+        Path2D polyline = project(at, slice, null, decimationTolerance());
         g.setColor(Color.RED);
-        g.setStroke(new BasicStroke(2, BasicStroke.CAP_BUTT,
-                BasicStroke.JOIN_ROUND));
+        g.setStroke(HIGHLIGHT_STROKE);
         g.draw(polyline);
     }
 
+    /**
+     * Highlights the source slices collected for a merge of several
+     * sources onto one target.
+     *
+     * @param g graphics context
+     * @param at the transformation from east/north to screen coordinates
+     * @param model the model
+     */
+    protected void highlightCollectedSources(Graphics2D g, AffineTransform at,
+                                             ContourMergeModel model){
+        final List<WaySlice> sources = model.getCollectedSources();
+        if (sources.isEmpty()) return;
+        g.setColor(Color.MAGENTA);
+        g.setStroke(HIGHLIGHT_STROKE);
+        for (WaySlice slice: sources) {
+            g.draw(project(at, slice, null, decimationTolerance()));
+        }
+    }
+
     /**
      * Projects this way slice onto the map view {@code mv}. Replies a
      * polyline representing the way slice on screen.
@@ -105,41 +210,86 @@ public class ContourMergeView implements MapViewPaintable{
     public static Path2D project(@NotNull MapView mv, @NotNull WaySlice ws){
         Objects.requireNonNull(mv);
         Objects.requireNonNull(ws);
-        Path2D.Float polyline = new Path2D.Float();
-        if (ws.isInDirection()) {
-            /*
-             * a way slice of an open way, or a closed way between two nodes in
-             * the ways direction
-             */
-            for (int i = ws.getStart(); i <= ws.getEnd(); i++){
-                Point p = mv.getPoint(ws.getWay().getNode(i).getCoor());
-                if (i == ws.getStart()) {
-                    polyline.moveTo(p.x, p.y);
-                } else {
-                    polyline.lineTo(p.x, p.y);
-                }
+        return project(mv.getAffineTransform(), ws);
+    }
+
+    /**
+     * Projects the way slice {@code ws} with the transformation
+     * {@code at} from east/north coordinates to screen coordinates. Works
+     * on the cached coordinates of the way slice, see
+     * {@link WaySlice#getEastNorthCoordinates()}.
+     *
+     * @param at the transformation
+     * @param ws the way slice
+     * @return a polyline
+     */
+    static Path2D project(AffineTransform at, WaySlice ws) {
+        return project(at, ws, 0);
+    }
+
+    /**
+     * Converts a tolerance in pixels to a tolerance in east/north units
+     * for the transformation {@code at}, rounded down to a power of two.
+     * <p>
+     * The conversion uses the largest scale factor of {@code at}, so that
+     * no east/north distance within the replied tolerance is longer than
+     * {@code pixels} on the screen. Rounding to a power of two maps all
+     * scales of a zoom level to the same tolerance.
+     *
+     * @param at the transformation from east/north to screen coordinates
+     * @param pixels the tolerance in pixels
+     * @return the tolerance in east/north units. 0, if the transformation
+     *  is degenerate.
+     */
+    static double toEastNorthTolerance(AffineTransform at, double pixels) {
+        // the largest singular value of the linear part of at
+        final double a = at.getScaleX(), b = at.getShearX();
+        final double c = at.getShearY(), d = at.getScaleY();
+        final double sumOfSquares = a * a + b * b + c * c + d * d;
+        final double det = a * d - b * c;
+        final double maxScale = Math.sqrt((sumOfSquares + Math.sqrt(
+            Math.max(0, sumOfSquares * sumOfSquares - 4 * det * det))) / 2);
+        final double tolerance = pixels / maxScale;
+        if (!Double.isFinite(tolerance) || tolerance <= 0) return 0;
+        return Math.scalb(1.0, Math.getExponent(tolerance));
+    }
+
+    /**
+     * Projects the way slice {@code ws} with the transformation
+     * {@code at}. The polyline is simplified such that it deviates at
+     * most {@code tolerance} pixels from the exact polyline. The
+     * simplified polyline is cached in the way slice, see
+     * {@link WaySlice#getSimplifiedIndices(double)}.
+     *
+     * @param at the transformation
+     * @param ws the way slice
+     * @param tolerance the tolerance in pixels. 0, to emit every point.
+     * @return a polyline
+     */
+    static Path2D project(AffineTransform at, WaySlice ws,
+            double tolerance) {
+        final double[] en = ws.getEastNorthCoordinates();
+        final double enTolerance = tolerance > 0
+            ? toEastNorthTolerance(at, tolerance) : 0;
+        final double[] points;
+        if (enTolerance > 0) {
+            final int[] indices = ws.getSimplifiedIndices(enTolerance);
+            points = new double[2 * indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                points[2*i] = en[2*indices[i]];
+                points[2*i+1] = en[2*indices[i]+1];
             }
         } else {
-            /*
-             * a way slice of a closed way, between two nodes in the
-             * direction *opposite* to the ways direction
-             */
-            for (int i = ws.getStart(); i >= 0; i--){
-                Point p = mv.getPoint(ws.getWay().getNode(i).getCoor());
-                if (i == ws.getStart()) {
-                    polyline.moveTo(p.x, p.y);
-                } else {
-                    polyline.lineTo(p.x, p.y);
-                }
-            }
-            for (int i = ws.getWay().getNodesCount()-2; i >= ws.getEnd(); i--){
-                Point p = mv.getPoint(ws.getWay().getNode(i).getCoor());
-                if (i == ws.getStart()) {
-                    polyline.moveTo(p.x, p.y);
-                } else {
-                    polyline.lineTo(p.x, p.y);
-                }
-            }
+            points = en;
+        }
+        final int numPoints = points.length / 2;
+        final double[] xy = new double[points.length];
+        at.transform(points, 0, xy, 0, numPoints);
+        final Path2D polyline = new Path2D.Double(Path2D.WIND_NON_ZERO,
+                numPoints);
+        polyline.moveTo(xy[0], xy[1]);
+        for (int i = 2; i < xy.length; i += 2) {
+            polyline.lineTo(xy[i], xy[i+1]);
         }
         return polyline;
     }
@@ -159,47 +309,78 @@ public class ContourMergeView implements MapViewPaintable{
             Point displacement){
         Objects.requireNonNull(mv);
         Objects.requireNonNull(ws);
-        if (displacement == null) displacement = new Point(0,0);
-        Path2D polyline = project(mv, ws);
-        AffineTransform at = new AffineTransform();
-        at.setToTranslation(displacement.x, displacement.y);
-        polyline = new Path2D.Float(polyline, at);
-        return polyline;
+        return project(mv.getAffineTransform(), ws, displacement);
+    }
+
+    /**
+     * Projects the way slice {@code ws} with the transformation
+     * {@code at}, displaced by {@code displacement} on the screen.
+     *
+     * @param at the transformation
+     * @param ws the way slice
+     * @param displacement the displacement. (0,0) is assumed, if null.
+     * @return a polyline
+     */
+    static Path2D project(AffineTransform at, WaySlice ws,
+            Point displacement){
+        return project(at, ws, displacement, 0);
+    }
+
+    static Path2D project(AffineTransform at, WaySlice ws,
+            Point displacement, double tolerance){
+        if (displacement == null) return project(at, ws, tolerance);
+        final AffineTransform displaced = new AffineTransform(at);
+        displaced.preConcatenate(AffineTransform.getTranslateInstance(
+            displacement.x, displacement.y));
+        return project(displaced, ws, tolerance);
+    }
+
+    /**
+     * Replies the screen coordinates of the start node, the end node, the
+     * start tear-off node, and the end tear-off node of the way slice
+     * {@code ws}, see {@link WaySlice#getTerminalCoordinates()}.
+     *
+     * @param at the transformation from east/north to screen coordinates
+     * @param ws the way slice
+     * @return the packed screen coordinates
+     */
+    protected static double[] projectTerminals(AffineTransform at,
+            WaySlice ws) {
+        final double[] xy = new double[8];
+        at.transform(ws.getTerminalCoordinates(), 0, xy, 0, 4);
+        return xy;
+    }
+
+    // offsets into the packed terminal coordinates
+    static private final int START = 0;
+    static private final int END = 2;
+    static private final int START_TEAR_OFF = 4;
+    static private final int END_TEAR_OFF = 6;
+
+    private static void drawLine(Graphics2D g, double[] c1, int i1,
+            double dx, double dy, double[] c2, int i2) {
+        g.drawLine(
+            (int) Math.round(c1[i1] + dx), (int) Math.round(c1[i1+1] + dy),
+            (int) Math.round(c2[i2]), (int) Math.round(c2[i2+1]));
     }
 
     protected void paintHelperLinesFromDragSourceToDraggedWaySlice(
-            Graphics2D g, MapView mv){
-        getActiveModel()
-        .filter(ContourMergeModel::isDragging)
-        .ifPresent(model -> {
-            WaySlice dragSource = model.getDragSource();
-
-            Node lowerTearOffNode = dragSource.getStartTearOffNode();
-            Node upperTearOffNode = dragSource.getEndTearOffNode();
-            Point offset = model.getDragOffset();
-
-            // init the graphics attributes
-            float[] dashPattern = { 2, 3, 2, 3 };
-            g.setStroke(new BasicStroke(1, BasicStroke.CAP_BUTT,
-                       BasicStroke.JOIN_ROUND,1f, dashPattern,0f));
-            boolean crossing = helperLinesAreCrossing(mv, dragSource, offset);
-            if (lowerTearOffNode != null){
-                Point p1 = mv.getPoint(!crossing
-                        ? dragSource.getStartNode()
-                        : dragSource.getEndNode());
-                p1 = new Point(p1.x + offset.x, p1.y + offset.y);
-                Point p2 = mv.getPoint(lowerTearOffNode);
-                g.drawLine(p1.x,p1.y, p2.x,p2.y);
-            }
-            if (upperTearOffNode != null){
-                Point p1 = mv.getPoint(!crossing
-                        ? dragSource.getEndNode()
-                        : dragSource.getStartNode());
-                p1 = new Point(p1.x + offset.x, p1.y + offset.y);
-                Point p2 = mv.getPoint(upperTearOffNode);
-                g.drawLine(p1.x,p1.y, p2.x,p2.y);
-            }
-        });
+            Graphics2D g, AffineTransform at, ContourMergeModel model){
+        WaySlice dragSource = model.getDragSource();
+        Point offset = model.getDragOffset();
+        double[] s = projectTerminals(at, dragSource);
+
+        // init the graphics attributes
+        g.setStroke(helperStroke());
+        boolean crossing = helperLinesAreCrossing(at, dragSource, offset);
+        if (!Double.isNaN(s[START_TEAR_OFF])){
+            drawLine(g, s, !crossing ? START : END, offset.x, offset.y,
+                s, START_TEAR_OFF);
+        }
+        if (!Double.isNaN(s[END_TEAR_OFF])){
+            drawLine(g, s, !crossing ? END : START, offset.x, offset.y,
+                s, END_TEAR_OFF);
+        }
     }
 
     /**
@@ -210,31 +391,28 @@ public class ContourMergeView implements MapViewPaintable{
      * If the helpers intersect, we will reverse the two end points of
      * the drop target, when we paint the helper lines.
      *
-     * @param mv the map view
      * @param dragSource the drag source
      * @param dropTarget the drop target
      * @return true, if the two helper lines from the drag source to the
      * drop target intersect
      */
-    protected boolean helperLinesAreCrossing(MapView mv, WaySlice dragSource,
+    protected boolean helperLinesAreCrossing(WaySlice dragSource,
             WaySlice dropTarget){
-        Node s1 = dragSource.getStartTearOffNode();
-        if (s1 == null) s1 = dragSource.getStartNode();
-        Node s2= dragSource.getEndTearOffNode();
-        if (s2 == null) s2 = dragSource.getEndNode();
-        Point sp1 = mv.getPoint(s1);
-        Point sp2 = mv.getPoint(s2);
-
-        Point tp1 = mv.getPoint(dropTarget.getStartNode());
-        Point tp2 = mv.getPoint(dropTarget.getEndNode());
-        return helperLinesAreCrossing(sp1,sp2,tp1,tp2);
+        // intersections are invariant under the projection to the screen,
+        // we can check them in east/north coordinates
+        final double[] s = dragSource.getTerminalCoordinates();
+        final double[] t = dropTarget.getTerminalCoordinates();
+        final int s1 = Double.isNaN(s[START_TEAR_OFF]) ? START : START_TEAR_OFF;
+        final int s2 = Double.isNaN(s[END_TEAR_OFF]) ? END : END_TEAR_OFF;
+        return Line2D.linesIntersect(
+            s[s1], s[s1+1], t[START], t[START+1],
+            s[s2], s[s2+1], t[END], t[END+1]);
     }
 
     protected boolean helperLinesAreCrossing(Point s1, Point s2, Point t1,
             Point t2){
-        Line2D l1 = new Line2D.Float(s1.x, s1.y, t1.x,t1.y);
-        Line2D l2 = new Line2D.Float(s2.x, s2.y, t2.x,t2.y);
-        return l1.intersectsLine(l2);
+        return Line2D.linesIntersect(s1.x, s1.y, t1.x, t1.y,
+            s2.x, s2.y, t2.x, t2.y);
     }
 
     /**
@@ -245,90 +423,384 @@ public class ContourMergeView implements MapViewPaintable{
      * If the helpers intersect, we will reverse the two end points of the
      * drop target, when we paint the helper lines.
      *
-     * @param mv the map view
+     * @param at the transformation from east/north to screen coordinates
      * @param dragSource the drag source
      * @param dragOffset the drag offset
      * @return true, if the two helper lines from the drag source to the drop
      * target intersect
      */
-    protected boolean helperLinesAreCrossing(MapView mv, WaySlice dragSource,
-            Point dragOffset){
-        Node s1 = dragSource.getStartTearOffNode();
-        if (s1 == null) s1 = dragSource.getStartNode();
-        Node s2= dragSource.getEndTearOffNode();
-        if (s2 == null) s2 = dragSource.getEndNode();
-        Point sp1 = mv.getPoint(s1);
-        Point sp2 = mv.getPoint(s2);
+    protected boolean helperLinesAreCrossing(AffineTransform at,
+            WaySlice dragSource, Point dragOffset){
+        // translate the screen offset into an east/north offset
+        final double dx = dragOffset.x / at.getScaleX();
+        final double dy = dragOffset.y / at.getScaleY();
+        final double[] s = dragSource.getTerminalCoordinates();
+        final int s1 = Double.isNaN(s[START_TEAR_OFF]) ? START : START_TEAR_OFF;
+        final int s2 = Double.isNaN(s[END_TEAR_OFF]) ? END : END_TEAR_OFF;
+        return Line2D.linesIntersect(
+            s[s1], s[s1+1], s[START] + dx, s[START+1] + dy,
+            s[s2], s[s2+1], s[END] + dx, s[END+1] + dy);
+    }
 
-        Point tp1 = mv.getPoint(dragSource.getStartNode());
-        tp1 = new Point(tp1.x + dragOffset.x, tp1.y + dragOffset.y);
+    protected void paintHelperLinesFromDragSourceToDropTarget(Graphics2D g,
+            AffineTransform at, ContourMergeModel model){
+        WaySlice dragSource = model.getDragSource();
+        WaySlice dropTarget = model.getDropTarget();
+        double[] s = projectTerminals(at, dragSource);
+        double[] t = projectTerminals(at, dropTarget);
 
-        Point tp2 = mv.getPoint(dragSource.getEndNode());
-        tp2 = new Point(tp2.x + dragOffset.x, tp2.y + dragOffset.y);
+        // init the graphics attributes
+        g.setStroke(helperStroke());
 
-        return helperLinesAreCrossing(sp1,sp2,tp1,tp2);
+        boolean crossing = helperLinesAreCrossing(dragSource, dropTarget);
+        if (!Double.isNaN(s[START_TEAR_OFF])){
+            drawLine(g, s, START_TEAR_OFF, 0, 0, t,
+                !crossing ? START : END);
+        }
+        if (!Double.isNaN(s[END_TEAR_OFF])){
+            drawLine(g, s, END_TEAR_OFF, 0, 0, t,
+                !crossing ? END : START);
+        }
     }
 
-    protected void paintHelperLinesFromDragSourceToDropTarget(Graphics2D g,
-            MapView mv){
-        getActiveModel()
-        .filter(ContourMergeModel::isDragging)
-        .ifPresent(model -> {
-            WaySlice dragSource = model.getDragSource();
-            WaySlice dropTarget = model.getDropTarget();
-            Node lowerTearOffNode = dragSource.getStartTearOffNode();
-            Node upperTearOffNode = dragSource.getEndTearOffNode();
-
-            // init the graphics attributes
-            float[] dashPattern = { 2, 3, 2, 3 };
-            g.setStroke(new BasicStroke(1, BasicStroke.CAP_BUTT,
-                    BasicStroke.JOIN_ROUND,1f, dashPattern,0f));
-
-            boolean crossing = helperLinesAreCrossing(mv, dragSource, dropTarget);
-            if (lowerTearOffNode != null){
-                Point p1 = mv.getPoint(lowerTearOffNode);
-                Point p2 = mv.getPoint(!crossing ? dropTarget.getStartNode()
-                        : dropTarget.getEndNode());
-                g.drawLine(p1.x,p1.y, p2.x,p2.y);
+    protected void paintDraggedWaySlice(Graphics2D g, AffineTransform at,
+                                        ContourMergeModel model) {
+        WaySlice dragSource = model.getDragSource();
+        WaySlice dropTarget = model.getDropTarget();
+        if (dragSource == null) return;
+        if (dropTarget == null) {
+            /*
+             * paint the temporary dragged way slice, unless the mouse is
+             * currently over a potential drop target
+             */
+            Path2D polyline = project(at, dragSource,
+                    model.getDragOffset(), decimationTolerance());
+            g.setColor(Color.RED);
+            g.setStroke(reducedQuality ? HIGHLIGHT_STROKE : DRAGGED_STROKE);
+            g.draw(polyline);
+            paintHelperLinesFromDragSourceToDraggedWaySlice(g, at, model);
+        } else {
+            /*
+             * the mouse is over a suitable drop target. Paint only
+             * two helper lines from the drag source to the drop target.
+             * The drop target is highlighted elsewhere.
+             */
+            paintHelperLinesFromDragSourceToDropTarget(g, at, model);
+        }
+    }
+
+    /**
+     * Paints the area of a rectangle or lasso selection which is currently
+     * in progress.
+     *
+     * @param g graphics context
+     * @param area the selection area in screen coordinates
+     */
+    protected void paintSelectionArea(Graphics2D g, Shape area) {
+        g.setColor(new Color(255, 200, 0, 40));
+        g.fill(area);
+        g.setColor(Color.ORANGE);
+        g.setStroke(SOLID_HELPER_STROKE);
+        g.draw(area);
+    }
+
+    /* --------------------------------------------------------------------- */
+    /* adaptive rendering quality                                            */
+    /* --------------------------------------------------------------------- */
+    /**
+     * Replies true, if the view currently paints in reduced quality.
+     *
+     * @return true, if the view currently paints in reduced quality
+     */
+    public boolean isReducedQuality() {
+        return reducedQuality;
+    }
+
+    /**
+     * Replies the time in nanoseconds it took to paint the last frame.
+     *
+     * @return the time to paint the last frame
+     */
+    public long getLastFrameNanos() {
+        return lastFrameNanos;
+    }
+
+    private Stroke helperStroke() {
+        return reducedQuality ? SOLID_HELPER_STROKE : HELPER_STROKE;
+    }
+
+    private double decimationTolerance() {
+        return reducedQuality
+            ? REDUCED_QUALITY_TOLERANCE : FULL_QUALITY_TOLERANCE;
+    }
+
+    /**
+     * Updates the rendering quality, given the time it took to paint the
+     * last frame. Switches to reduced quality, if the frame exceeded
+     * {@link #FRAME_TIME_BUDGET} during a drag operation. Switches back
+     * to full quality when the drag operation ends.
+     */
+    protected void updateQuality(ContourMergeModel model, long frameNanos) {
+        if (!model.isDragging()) {
+            reducedQuality = false;
+        } else if (!reducedQuality && frameNanos
+                > FRAME_TIME_BUDGET.get() * 1_000_000L) {
+            reducedQuality = true;
+        }
+    }
+
+    /* --------------------------------------------------------------------- */
+    /* cached static decorations                                             */
+    /* --------------------------------------------------------------------- */
+    /**
+     * Replies the cached image with the static decorations, or null, if
+     * there is none.
+     *
+     * @return the cached image
+     */
+    BufferedImage getDecorationCache() {
+        return decorationCache;
+    }
+
+    /**
+     * Discards the cached image with the static decorations.
+     */
+    public void invalidateDecorationCache() {
+        decorationCache = null;
+        decorationModel = null;
+    }
+
+    private void paintStaticDecorationsDirectly(Graphics2D g,
+            AffineTransform at, ContourMergeModel model) {
+        decorateSelectedNodes(g, at, model);
+        highlightCollectedSources(g, at, model);
+    }
+
+    /**
+     * Paints the decorations of the selected nodes and of the collected
+     * source slices. They are rendered into a cached image of
+     * {@code width x height} pixels, unless the model, its decoration
+     * epoch, the transformation {@code at}, the size or the rendering
+     * quality changed since the last frame.
+     * <p>
+     * The cached image has the resolution of the device, if {@code g}
+     * scales, i.e. on HiDPI screens. If {@code g} rotates or shears, the
+     * decorations are painted directly.
+     */
+    protected void paintStaticDecorations(Graphics2D g, AffineTransform at,
+            ContourMergeModel model, int width, int height) {
+        final AffineTransform device = g.getTransform();
+        if (width <= 0 || height <= 0 || device.getShearX() != 0
+                || device.getShearY() != 0) {
+            paintStaticDecorationsDirectly(g, at, model);
+            return;
+        }
+        final double sx = Math.abs(device.getScaleX());
+        final double sy = Math.abs(device.getScaleY());
+        final int imageWidth = (int) Math.ceil(width * sx);
+        final int imageHeight = (int) Math.ceil(height * sy);
+        if (decorationCache == null
+                || decorationCache.getWidth() != imageWidth
+                || decorationCache.getHeight() != imageHeight
+                || decorationModel != model
+                || decorationEpoch != model.getDecorationEpoch()
+                || decorationReducedQuality != reducedQuality
+                || !decorationTransform.equals(at)) {
+            if (decorationCache == null
+                    || decorationCache.getWidth() != imageWidth
+                    || decorationCache.getHeight() != imageHeight) {
+                decorationCache = new BufferedImage(imageWidth, imageHeight,
+                    BufferedImage.TYPE_INT_ARGB);
             }
-            if (upperTearOffNode != null){
-                Point p1 = mv.getPoint(upperTearOffNode);
-                Point p2 = mv.getPoint(!crossing ? dropTarget.getEndNode()
-                        : dropTarget.getStartNode());
-                g.drawLine(p1.x,p1.y, p2.x,p2.y);
+            final Graphics2D ig = decorationCache.createGraphics();
+            try {
+                ig.setComposite(AlphaComposite.Clear);
+                ig.fillRect(0, 0, imageWidth, imageHeight);
+                ig.setComposite(AlphaComposite.SrcOver);
+                ig.setRenderingHints(g.getRenderingHints());
+                ig.scale(sx, sy);
+                paintStaticDecorationsDirectly(ig, at, model);
+            } finally {
+                ig.dispose();
             }
-        });
+            decorationModel = model;
+            decorationEpoch = model.getDecorationEpoch();
+            decorationReducedQuality = reducedQuality;
+            decorationTransform.setTransform(at);
+        }
+        g.drawImage(decorationCache, 0, 0, width, height, null);
     }
 
-    protected void paintDraggedWaySlice(Graphics2D g, MapView mv) {
-        getActiveModel()
-        .filter(ContourMergeModel::isDragging)
-        .ifPresent(model -> {
-            WaySlice dragSource = model.getDragSource();
-            WaySlice dropTarget = model.getDropTarget();
-            if (dragSource == null) return;
-            if (dropTarget == null) {
-                /*
-                 * paint the temporary dragged way slice, unless the mouse is
-                 * currently over a potential drop target
-                 */
-                Path2D polyline = project(mv, dragSource,
-                        model.getDragOffset());
-                g.setColor(Color.RED);
-                float[] dashPattern = { 10, 5, 10, 5 };
-                g.setStroke(new BasicStroke(2, BasicStroke.CAP_BUTT,
-                        BasicStroke.JOIN_ROUND,1f, dashPattern,0f));
-                g.draw(polyline);
-                paintHelperLinesFromDragSourceToDraggedWaySlice(g, mv);
-            } else {
-                /*
-                 * the mouse is over a suitable drop target. Paint only
-                 * two helper lines from the drag source to the drop target.
-                 * The drop target is highlighted elsewhere.
-                 */
-                paintHelperLinesFromDragSourceToDropTarget(g,mv);
-            }
-        });
+    /**
+     * Paints the contour merge model {@code model}.
+     * <p>
+     * The static decorations are only cached, if the clip of {@code g}
+     * gives the size of the painted area, see
+     * {@link #paint(Graphics2D, AffineTransform, ContourMergeModel, int,
+     * int)}.
+     *
+     * @param g graphics context. Must not be null.
+     * @param at the transformation from east/north to screen coordinates.
+     *  Must not be null.
+     * @param model the model. Must not be null.
+     */
+    public void paint(@NotNull Graphics2D g, @NotNull AffineTransform at,
+                      @NotNull ContourMergeModel model) {
+        Objects.requireNonNull(g);
+        final Rectangle clip = g.getClipBounds();
+        if (clip == null || clip.x != 0 || clip.y != 0) {
+            paint(g, at, model, 0, 0);
+        } else {
+            paint(g, at, model, clip.width, clip.height);
+        }
+    }
+
+    /**
+     * Paints the contour merge model {@code model} onto an area of
+     * {@code width x height} pixels.
+     *
+     * @param g graphics context. Must not be null.
+     * @param at the transformation from east/north to screen coordinates.
+     *  Must not be null.
+     * @param model the model. Must not be null.
+     * @param width the width of the painted area. The static decorations
+     *  aren't cached, if 0.
+     * @param height the height of the painted area. The static decorations
+     *  aren't cached, if 0.
+     */
+    public void paint(@NotNull Graphics2D g, @NotNull AffineTransform at,
+                      @NotNull ContourMergeModel model, int width,
+                      int height) {
+        Objects.requireNonNull(g);
+        Objects.requireNonNull(at);
+        Objects.requireNonNull(model);
+        // restore the full quality as soon as the drag operation ends
+        if (!model.isDragging()) reducedQuality = false;
+        final long start = System.nanoTime();
+        final Object antialiasing = g.getRenderingHint(
+            RenderingHints.KEY_ANTIALIASING);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+            reducedQuality
+                ? RenderingHints.VALUE_ANTIALIAS_OFF
+                : RenderingHints.VALUE_ANTIALIAS_ON);
+        paintStaticDecorations(g, at, model, width, height);
+        decorateFeedbackNode(g, at, model);
+        WaySlice dragSourceSlice = model.getDragSource();
+        if (dragSourceSlice != null){
+            highlightWaySlice(g, at, dragSourceSlice);
+        }
+        WaySlice dropTargetSlice = model.getDropTarget();
+        if (dropTargetSlice != null){
+            highlightWaySlice(g, at, dropTargetSlice);
+        }
+        if (model.isDragging()){
+            paintDraggedWaySlice(g, at, model);
+        }
+        Shape selectionArea = model.getSelectionArea();
+        if (selectionArea != null) {
+            paintSelectionArea(g, selectionArea);
+        }
+        if (antialiasing != null) {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, antialiasing);
+        }
+        lastFrameNanos = System.nanoTime() - start;
+        updateQuality(model, lastFrameNanos);
+        PerformanceStatistics.getInstance().record(
+            PerformanceStatistics.Metric.PAINT, lastFrameNanos);
+        if (SHOW_PERFORMANCE_OVERLAY.get()) {
+            paintPerformanceOverlay(g, model);
+        }
+    }
+
+    /* --------------------------------------------------------------------- */
+    /* performance overlay                                                   */
+    /* --------------------------------------------------------------------- */
+    static private final Font OVERLAY_FONT =
+        new Font(Font.MONOSPACED, Font.PLAIN, 11);
+    static private final Color OVERLAY_BACKGROUND = new Color(0, 0, 0, 160);
+    static private final int OVERLAY_MARGIN = 10;
+    static private final int OVERLAY_PADDING = 5;
+
+    private static String formatTiming(String label,
+            PerformanceStatistics statistics,
+            PerformanceStatistics.Metric metric) {
+        if (statistics.getCount(metric) == 0) {
+            return String.format(Locale.ROOT, "%-16s %10s", label, "-");
+        }
+        return String.format(Locale.ROOT,
+            "%-16s %7.2f ms (avg %7.2f ms)", label,
+            statistics.getLastNanos(metric) / 1e6,
+            statistics.getAverageNanos(metric) / 1e6);
+    }
+
+    private static String formatSlice(String label, WaySlice slice,
+            ContourMergeModel model) {
+        if (slice == null) {
+            return String.format(Locale.ROOT, "%-16s %10s", label, "-");
+        }
+        return String.format(Locale.ROOT, "%-16s %7d nodes, %d ways", label,
+            slice.getNumSegments() + 1, model.countEquivalentSlices(slice));
+    }
+
+    /**
+     * Replies the lines of the performance overlay for the model
+     * {@code model}.
+     *
+     * @param model the model
+     * @return the lines
+     */
+    static List<String> performanceOverlayLines(ContourMergeModel model) {
+        final PerformanceStatistics statistics =
+            PerformanceStatistics.getInstance();
+        final List<String> lines = new ArrayList<>();
+        lines.add(formatTiming(tr("hit test"), statistics,
+            PerformanceStatistics.Metric.HIT_TEST));
+        lines.add(formatTiming(tr("slice"), statistics,
+            PerformanceStatistics.Metric.SLICE_COMPUTATION));
+        lines.add(formatTiming(tr("paint"), statistics,
+            PerformanceStatistics.Metric.PAINT));
+        lines.add(formatTiming(tr("merge planning"), statistics,
+            PerformanceStatistics.Metric.MERGE_PLANNING));
+        lines.add(formatTiming(tr("merge execution"), statistics,
+            PerformanceStatistics.Metric.MERGE_EXECUTION));
+        lines.add(formatSlice(tr("drag source"), model.getDragSource(),
+            model));
+        lines.add(formatSlice(tr("drop target"), model.getDropTarget(),
+            model));
+        lines.add(String.format(Locale.ROOT, "%-16s %7d",
+            tr("selected nodes"), model.getSelectedNodes().size()));
+        lines.add(String.format(Locale.ROOT, "%-16s %7d",
+            tr("collected slices"), model.getCollectedSources().size()));
+        return lines;
+    }
+
+    /**
+     * Paints the performance overlay in the upper left corner of the
+     * screen.
+     *
+     * @param g graphics context
+     * @param model the model
+     */
+    protected void paintPerformanceOverlay(Graphics2D g,
+            ContourMergeModel model) {
+        final List<String> lines = performanceOverlayLines(model);
+        g.setFont(OVERLAY_FONT);
+        final FontMetrics metrics = g.getFontMetrics();
+        int width = 0;
+        for (String line: lines) {
+            width = Math.max(width, metrics.stringWidth(line));
+        }
+        final int lineHeight = metrics.getHeight();
+        g.setColor(OVERLAY_BACKGROUND);
+        g.fillRect(OVERLAY_MARGIN, OVERLAY_MARGIN,
+            width + 2 * OVERLAY_PADDING,
+            lines.size() * lineHeight + 2 * OVERLAY_PADDING);
+        g.setColor(Color.WHITE);
+        int y = OVERLAY_MARGIN + OVERLAY_PADDING + metrics.getAscent();
+        for (String line: lines) {
+            g.drawString(line, OVERLAY_MARGIN + OVERLAY_PADDING, y);
+            y += lineHeight;
+        }
     }
 
     /* ---------------------------------------------------------------------- */
@@ -336,25 +808,14 @@ public class ContourMergeView implements MapViewPaintable{
     /* ---------------------------------------------------------------------- */
     @Override
     public void paint(Graphics2D g, MapView mv, Bounds bbox) {
-        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-                RenderingHints.VALUE_ANTIALIAS_ON);
-        if (!ContourMergePlugin.isEnabled()) return;
+        if (!ContourMergePlugin.isEnabled()) {
+            // release the memory of the cached decorations
+            invalidateDecorationCache();
+            return;
+        }
         getActiveModel()
             .filter(model -> model.getLayer().isVisible())
-            .ifPresent(model -> {
-                decorateSelectedNodes(g, mv, bbox);
-                decorateFeedbackNode(g, mv, bbox);
-                WaySlice dragSourceSlice = model.getDragSource();
-                if (dragSourceSlice != null){
-                    highlightWaySlice(g, mv, dragSourceSlice);
-                }
-                WaySlice dropTargetSlice = model.getDropTarget();
-                if (dropTargetSlice != null){
-                    highlightWaySlice(g, mv, dropTargetSlice);
-                }
-                if (model.isDragging()){
-                    paintDraggedWaySlice(g, mv);
-                }
-            });
+            .ifPresent(model -> paint(g, mv.getAffineTransform(), model,
+                mv.getWidth(), mv.getHeight()));
     }
 }
@@ -0,0 +1,514 @@
+package org.openstreetmap.josm.plugins.contourmerge;
+
+import javax.validation.constraints.NotNull;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <strong>DistanceKernel</strong> computes point-to-point and
+ * point-to-segment distances on packed coordinates
+ * <code>[x0, y0, x1, y1, ...]</code>. It is the common engine for the
+ * distance computations of the plugin, see {@link GeometryUtils}.
+ * <p>
+ * The hot loops work on squared distances and take the square root once
+ * per result. They are free of branches: the projection onto a segment
+ * is clamped with {@link Math#min(double, double)} and
+ * {@link Math#max(double, double)}, and degenerate segments are handled
+ * by a zero inverse length instead of a test. To query many points
+ * against the same polyline, prepare its {@link Segments} once. They
+ * keep the segments in separate arrays per component, so that the
+ * loops over them read each array sequentially with unit stride, which
+ * the JIT compiler can unroll.
+ * <p>
+ * If JOSM is started with <code>--add-modules jdk.incubator.vector</code>,
+ * the nearest segment queries of {@link Segments} run on SIMD registers
+ * with the JDK Vector API, see {@link #isVectorized()}. Otherwise, or if
+ * the vector implementation can't be loaded, they fall back to the scalar
+ * loop. Both reply the same results.
+ * <p>
+ * Points with {@link Double#NaN} coordinates, i.e. nodes without a
+ * position, are skipped.
+ */
+public final class DistanceKernel {
+
+    static private final Logger logger =
+        Logger.getLogger(DistanceKernel.class.getName());
+
+    /**
+     * The loop over prepared segments which replies the minimal squared
+     * distance of a point, see {@link Segments#squaredDistanceTo(double,
+     * double)}. The segment s starts at <code>(ax[s], ay[s])</code> and
+     * has the vector <code>(dx[s], dy[s])</code>.
+     */
+    interface SegmentLoop {
+        double minSquaredDistance(double px, double py, int size,
+            double[] ax, double[] ay, double[] dx, double[] dy,
+            double[] invLen2);
+    }
+
+    /* the vector implementation is compiled separately, against the
+     * incubator module, see src/vector/java */
+    static private final String VECTOR_SEGMENT_LOOP =
+        DistanceKernel.class.getPackageName() + ".VectorSegmentLoop";
+
+    static private final SegmentLoop SCALAR_SEGMENT_LOOP =
+        (px, py, size, ax, ay, dx, dy, invLen2) ->
+            scalarMinSquaredDistance(px, py, 0, size, ax, ay, dx, dy,
+                invLen2);
+
+    static private final SegmentLoop SEGMENT_LOOP = loadSegmentLoop();
+
+    private static SegmentLoop loadSegmentLoop() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return SCALAR_SEGMENT_LOOP;
+        }
+        try {
+            return (SegmentLoop) Class.forName(VECTOR_SEGMENT_LOOP)
+                .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            logger.log(Level.WARNING, "failed to load the vectorized "
+                + "distance kernel, falling back to the scalar one", e);
+            return SCALAR_SEGMENT_LOOP;
+        }
+    }
+
+    private DistanceKernel() {}
+
+    /**
+     * Replies true, if the nearest segment queries of {@link Segments}
+     * use the JDK Vector API.
+     *
+     * @return true, if the queries are vectorized
+     */
+    public static boolean isVectorized() {
+        return SEGMENT_LOOP.getClass().getName().equals(VECTOR_SEGMENT_LOOP);
+    }
+
+    /**
+     * Replies the squared distance between {@code (ax, ay)} and
+     * {@code (bx, by)}.
+     *
+     * @param ax x-coordinate of the first point
+     * @param ay y-coordinate of the first point
+     * @param bx x-coordinate of the second point
+     * @param by y-coordinate of the second point
+     * @return the squared distance
+     */
+    public static double squaredDistance(double ax, double ay, double bx,
+            double by) {
+        final double dx = bx - ax;
+        final double dy = by - ay;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Replies the distance between {@code (ax, ay)} and {@code (bx, by)}.
+     *
+     * @param ax x-coordinate of the first point
+     * @param ay y-coordinate of the first point
+     * @param bx x-coordinate of the second point
+     * @param by y-coordinate of the second point
+     * @return the distance
+     */
+    public static double distance(double ax, double ay, double bx,
+            double by) {
+        return Math.sqrt(squaredDistance(ax, ay, bx, by));
+    }
+
+    /**
+     * Replies the distance between the points {@code i} and {@code j}
+     * in the packed coordinates {@code c}.
+     *
+     * @param c the packed coordinates
+     * @param i the index of the first point
+     * @param j the index of the second point
+     * @return the distance
+     */
+    public static double distance(double[] c, int i, int j) {
+        return Math.sqrt(squaredDistance(c[2*i], c[2*i+1], c[2*j], c[2*j+1]));
+    }
+
+    /**
+     * Replies the squared distance between the point {@code (px, py)}
+     * and the segment from {@code (ax, ay)} to {@code (bx, by)}.
+     *
+     * @param px x-coordinate of the point
+     * @param py y-coordinate of the point
+     * @param ax x-coordinate of the start of the segment
+     * @param ay y-coordinate of the start of the segment
+     * @param bx x-coordinate of the end of the segment
+     * @param by y-coordinate of the end of the segment
+     * @return the squared distance
+     */
+    public static double squaredDistanceToSegment(double px, double py,
+            double ax, double ay, double bx, double by) {
+        final double dx = bx - ax;
+        final double dy = by - ay;
+        return squaredDistanceToSegment(px - ax, py - ay, dx, dy,
+            inverseSquaredLength(dx, dy));
+    }
+
+    private static double inverseSquaredLength(double dx, double dy) {
+        final double len2 = dx * dx + dy * dy;
+        return len2 > 0 ? 1 / len2 : 0;
+    }
+
+    /*
+     * (qx, qy) is the point relative to the start of the segment, (dx, dy)
+     * the segment vector.
+     */
+    private static double squaredDistanceToSegment(double qx, double qy,
+            double dx, double dy, double invLen2) {
+        final double t = Math.min(1, Math.max(0,
+            (qx * dx + qy * dy) * invLen2));
+        final double cx = qx - t * dx;
+        final double cy = qy - t * dy;
+        return cx * cx + cy * cy;
+    }
+
+    /*
+     * The minimal squared distance of (px, py) to the prepared segments
+     * from (inclusive) to to (exclusive), see SegmentLoop.
+     */
+    static double scalarMinSquaredDistance(double px, double py, int from,
+            int to, double[] ax, double[] ay, double[] dx, double[] dy,
+            double[] invLen2) {
+        double min = Double.POSITIVE_INFINITY;
+        for (int s = from; s < to; s++) {
+            min = Math.min(min, squaredDistanceToSegment(px - ax[s],
+                py - ay[s], dx[s], dy[s], invLen2[s]));
+        }
+        return min;
+    }
+
+    /**
+     * Replies the squared distances between the point {@code (px, py)}
+     * and the points {@code from} (inclusive) to {@code to} (exclusive)
+     * in the packed coordinates {@code c}, in {@code out[0 .. to - from]}.
+     *
+     * @param px x-coordinate of the point
+     * @param py y-coordinate of the point
+     * @param c the packed coordinates. Must not be null.
+     * @param from the index of the first point
+     * @param to the index after the last point
+     * @param out the squared distances. Must not be null.
+     */
+    public static void squaredDistances(double px, double py,
+            @NotNull double[] c, int from, int to, @NotNull double[] out) {
+        for (int i = from; i < to; i++) {
+            final double dx = c[2*i] - px;
+            final double dy = c[2*i+1] - py;
+            out[i - from] = dx * dx + dy * dy;
+        }
+    }
+
+    /**
+     * Replies the index of the point between {@code from} and {@code to}
+     * (both exclusive) in the packed coordinates {@code c} which is
+     * farthest from the segment between the points {@code from} and
+     * {@code to}.
+     *
+     * @param c the packed coordinates. Must not be null.
+     * @param from the index of the start of the segment
+     * @param to the index of the end of the segment
+     * @return the index of the farthest point. -1, if there is no point
+     *  between {@code from} and {@code to}.
+     */
+    public static int farthestFromSegment(@NotNull double[] c, int from,
+            int to) {
+        final double ax = c[2*from];
+        final double ay = c[2*from+1];
+        final double dx = c[2*to] - ax;
+        final double dy = c[2*to+1] - ay;
+        final double invLen2 = inverseSquaredLength(dx, dy);
+        double max = -1;
+        int farthest = -1;
+        for (int i = from + 1; i < to; i++) {
+            final double d = squaredDistanceToSegment(c[2*i] - ax,
+                c[2*i+1] - ay, dx, dy, invLen2);
+            if (d > max) {
+                max = d;
+                farthest = i;
+            }
+        }
+        return farthest;
+    }
+
+    /**
+     * Replies the maximal distance of the points in {@code a} from the
+     * polyline {@code b}, i.e. the directed Hausdorff distance from the
+     * vertices of {@code a} to {@code b}.
+     *
+     * @param a the packed coordinates of the points. Must not be null.
+     * @param b the packed coordinates of the polyline. Must not be null.
+     * @return the maximal distance. 0, if {@code a} is empty,
+     *  {@link Double#POSITIVE_INFINITY}, if {@code b} is empty.
+     */
+    public static double maxDistance(@NotNull double[] a,
+            @NotNull double[] b) {
+        return Segments.of(b).maxDistanceFrom(a);
+    }
+
+    /**
+     * Replies the symmetric Hausdorff distance between the vertices of
+     * the polylines {@code a} and {@code b}, i.e. the maximum of
+     * {@link #maxDistance(double[], double[])} in both directions.
+     *
+     * @param a the packed coordinates of the first polyline. Must not be
+     *  null.
+     * @param b the packed coordinates of the second polyline. Must not
+     *  be null.
+     * @return the Hausdorff distance
+     */
+    public static double hausdorffDistance(@NotNull double[] a,
+            @NotNull double[] b) {
+        return Math.max(maxDistance(a, b), maxDistance(b, a));
+    }
+
+    /**
+     * Replies the length of the polyline {@code c}.
+     *
+     * @param c the packed coordinates. Must not be null.
+     * @return the length
+     */
+    public static double length(@NotNull double[] c) {
+        double length = 0;
+        for (int i = 1; i < c.length / 2; i++) length += distance(c, i - 1, i);
+        return length;
+    }
+
+    /**
+     * Replies the polyline {@code c} with additional points, so that no
+     * segment is longer than {@code step}. The points of {@code c} are
+     * kept, the additional points divide each segment evenly.
+     * <p>
+     * The discrete Fr&eacute;chet distance between two densified
+     * polylines differs by at most {@code step} from the continuous
+     * Fr&eacute;chet distance between them.
+     *
+     * @param c the packed coordinates. Must not be null.
+     * @param step the maximal length of a segment
+     * @return the packed coordinates of the densified polyline.
+     *  {@code c} itself, if no points are added.
+     */
+    public static double[] densify(@NotNull double[] c, double step) {
+        Objects.requireNonNull(c);
+        final int n = c.length / 2;
+        if (n < 2 || !(step > 0)) return c;
+        int size = n;
+        for (int i = 1; i < n; i++) {
+            size += pieces(c, i, step) - 1;
+        }
+        if (size == n) return c;
+        final double[] d = new double[2 * size];
+        int k = 0;
+        for (int i = 1; i < n; i++) {
+            final int pieces = pieces(c, i, step);
+            final double x = c[2*i-2];
+            final double y = c[2*i-1];
+            final double dx = (c[2*i] - x) / pieces;
+            final double dy = (c[2*i+1] - y) / pieces;
+            for (int p = 0; p < pieces; p++) {
+                d[k++] = x + p * dx;
+                d[k++] = y + p * dy;
+            }
+        }
+        d[k++] = c[2*n-2];
+        d[k] = c[2*n-1];
+        return d;
+    }
+
+    /*
+     * The number of pieces of length at most step of the segment from
+     * point i-1 to point i.
+     */
+    private static int pieces(double[] c, int i, double step) {
+        final double length = distance(c, i - 1, i);
+        if (!(length > step)) return 1;
+        return (int) Math.ceil(length / step);
+    }
+
+    /**
+     * Replies the discrete Fr&eacute;chet distance between the polylines
+     * {@code a} and {@code b}, i.e. the maximal distance between two
+     * points in the best coupling of the points of {@code a} and
+     * {@code b} in their order.
+     * <p>
+     * The coupling is computed row by row, one row per point of
+     * {@code a}, in O(|a| |b|) time and O(|b|) space. Every coupling
+     * passes through every row, hence the computation stops as soon as
+     * all the values of a row exceed {@code bound}.
+     *
+     * @param a the packed coordinates of the first polyline. Must not be
+     *  null. All points must have a position.
+     * @param b the packed coordinates of the second polyline. Must not
+     *  be null. All points must have a position.
+     * @param bound the upper bound for the distance
+     * @return the distance. {@link Double#POSITIVE_INFINITY}, if it
+     *  exceeds {@code bound}, or if one of the polylines is empty.
+     */
+    public static double discreteFrechetDistance(@NotNull double[] a,
+            @NotNull double[] b, double bound) {
+        Objects.requireNonNull(a);
+        Objects.requireNonNull(b);
+        final int n = a.length / 2;
+        final int m = b.length / 2;
+        if (n == 0 || m == 0) return Double.POSITIVE_INFINITY;
+        final double bound2 = bound * bound;
+        double[] previous = new double[m];
+        double[] current = new double[m];
+        final double[] d = new double[m];
+        for (int i = 0; i < n; i++) {
+            squaredDistances(a[2*i], a[2*i+1], b, 0, m, d);
+            current[0] = i == 0 ? d[0] : Math.max(previous[0], d[0]);
+            double min = current[0];
+            for (int j = 1; j < m; j++) {
+                final double reachable = i == 0 ? current[j-1]
+                    : Math.min(Math.min(previous[j], previous[j-1]),
+                        current[j-1]);
+                current[j] = Math.max(reachable, d[j]);
+                min = Math.min(min, current[j]);
+            }
+            if (!(min <= bound2)) return Double.POSITIVE_INFINITY;
+            final double[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        final double result = Math.sqrt(previous[m-1]);
+        return result <= bound ? result : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * The segments of a polyline, prepared for distance queries.
+     */
+    public static final class Segments {
+        private final int size;
+        // the index of the segment in the polyline
+        private final int[] indices;
+        private final double[] ax;
+        private final double[] ay;
+        private final double[] dx;
+        private final double[] dy;
+        private final double[] invLen2;
+
+        /**
+         * Prepares the segments of the polyline {@code c}. Segments with
+         * an end point without a position are skipped. A polyline with
+         * one point is treated as one degenerate segment.
+         *
+         * @param c the packed coordinates of the polyline. Must not be
+         *  null.
+         * @return the segments
+         */
+        public static Segments of(@NotNull double[] c) {
+            Objects.requireNonNull(c);
+            return new Segments(c);
+        }
+
+        private Segments(double[] c) {
+            final int n = c.length / 2;
+            final int capacity = Math.max(1, n - 1);
+            indices = new int[capacity];
+            ax = new double[capacity];
+            ay = new double[capacity];
+            dx = new double[capacity];
+            dy = new double[capacity];
+            invLen2 = new double[capacity];
+            int s = 0;
+            for (int i = 0; i < capacity && n > 0; i++) {
+                final int j = Math.min(i + 1, n - 1);
+                if (Double.isNaN(c[2*i]) || Double.isNaN(c[2*i+1])
+                        || Double.isNaN(c[2*j]) || Double.isNaN(c[2*j+1])) {
+                    continue;
+                }
+                indices[s] = i;
+                ax[s] = c[2*i];
+                ay[s] = c[2*i+1];
+                dx[s] = c[2*j] - c[2*i];
+                dy[s] = c[2*j+1] - c[2*i+1];
+                invLen2[s] = inverseSquaredLength(dx[s], dy[s]);
+                s++;
+            }
+            size = s;
+        }
+
+        /**
+         * Replies the number of segments.
+         *
+         * @return the number of segments
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Replies the squared distance between the point
+         * {@code (px, py)} and the nearest segment.
+         *
+         * @param px x-coordinate of the point
+         * @param py y-coordinate of the point
+         * @return the squared distance.
+         *  {@link Double#POSITIVE_INFINITY}, if there are no segments.
+         */
+        public double squaredDistanceTo(double px, double py) {
+            return SEGMENT_LOOP.minSquaredDistance(px, py, size, ax, ay, dx,
+                dy, invLen2);
+        }
+
+        /**
+         * Replies the distance between the point {@code (px, py)} and the
+         * nearest segment.
+         *
+         * @param px x-coordinate of the point
+         * @param py y-coordinate of the point
+         * @return the distance. {@link Double#POSITIVE_INFINITY}, if there
+         *  are no segments.
+         */
+        public double distanceTo(double px, double py) {
+            return Math.sqrt(squaredDistanceTo(px, py));
+        }
+
+        /**
+         * Replies the index in the polyline of the segment nearest to
+         * the point {@code (px, py)}, i.e. the index of its first point.
+         *
+         * @param px x-coordinate of the point
+         * @param py y-coordinate of the point
+         * @return the index of the nearest segment. -1, if there are no
+         *  segments.
+         */
+        public int nearestSegment(double px, double py) {
+            double min = Double.POSITIVE_INFINITY;
+            int nearest = -1;
+            for (int s = 0; s < size; s++) {
+                final double d = squaredDistanceToSegment(px - ax[s],
+                    py - ay[s], dx[s], dy[s], invLen2[s]);
+                if (d < min) {
+                    min = d;
+                    nearest = s;
+                }
+            }
+            return nearest < 0 ? -1 : indices[nearest];
+        }
+
+        /**
+         * Replies the maximal distance of the points {@code c} from the
+         * nearest segment. Points without a position are skipped.
+         *
+         * @param c the packed coordinates of the points. Must not be
+         *  null.
+         * @return the maximal distance. 0, if there are no points,
+         *  {@link Double#POSITIVE_INFINITY}, if there are no segments.
+         */
+        public double maxDistanceFrom(@NotNull double[] c) {
+            Objects.requireNonNull(c);
+            double max = 0;
+            for (int i = 0; i < c.length / 2; i++) {
+                if (Double.isNaN(c[2*i]) || Double.isNaN(c[2*i+1])) continue;
+                max = Math.max(max, squaredDistanceTo(c[2*i], c[2*i+1]));
+            }
+            return Math.sqrt(max);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.openstreetmap.josm.plugins.contourmerge;
+
+import org.openstreetmap.josm.actions.JosmAction;
+import org.openstreetmap.josm.tools.Shortcut;
+
+import javax.validation.constraints.NotNull;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.util.Objects;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+/**
+ * <strong>FindBestTargetAction</strong> finds the best target for the way
+ * slice the mouse hovers over and pre-selects it as drop target, see
+ * {@link TargetFinder}. The way slice can then be dropped anywhere off
+ * other ways to merge it onto the pre-selected target.
+ * <p>
+ * The shortcut is only registered while the contour merge mode is
+ * active.
+ */
+public class FindBestTargetAction extends JosmAction {
+
+    private final ContourMergeMode mode;
+
+    /**
+     * Creates the action for the map mode {@code mode}.
+     *
+     * @param mode the map mode. Must not be null.
+     */
+    public FindBestTargetAction(@NotNull ContourMergeMode mode) {
+        super(
+            tr("Find best target"),
+            null,   // no icon
+            tr("Find the best target for the way slice under the mouse "
+                + "and pre-select it as drop target"),
+            Shortcut.registerShortcut("contourmerge:find-best-target",
+                tr("Contour Merge: Find best target"),
+                KeyEvent.VK_T,
+                Shortcut.DIRECT
+            ),
+            false   // don't register in the toolbar
+        );
+        Objects.requireNonNull(mode);
+        this.mode = mode;
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        if (!ContourMergePlugin.isEnabled()) return;
+        mode.onFindBestTarget();
+    }
+}
@@ -0,0 +1,192 @@
+package org.openstreetmap.josm.plugins.contourmerge;
+
+import org.openstreetmap.josm.actions.AutoScaleAction;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.gui.ExtendedDialog;
+import org.openstreetmap.josm.gui.MainApplication;
+
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.ListSelectionModel;
+import javax.swing.table.AbstractTableModel;
+import javax.validation.constraints.NotNull;
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+/**
+ * <strong>GapReviewDialog</strong> lists the gaps and overlaps found by a
+ * {@link GapScanner}, before they are closed, see {@link CloseGapsAction}.
+ * <p>
+ * Selecting a gap in the list zooms the map view to it. Only the gaps the
+ * user ticks are closed; none is ticked initially.
+ */
+public class GapReviewDialog extends ExtendedDialog {
+
+    private final GapTableModel tableModel;
+
+    /**
+     * The table model of the gaps. The first column holds the flag whether
+     * the gap is accepted, the other columns are read only.
+     */
+    static class GapTableModel extends AbstractTableModel {
+        private final List<GapScanner.Gap> gaps;
+        private final boolean[] accepted;
+
+        GapTableModel(List<GapScanner.Gap> gaps) {
+            this.gaps = gaps;
+            this.accepted = new boolean[gaps.size()];
+        }
+
+        @Override
+        public int getRowCount() {
+            return gaps.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return 5;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return switch (column) {
+                case 0 -> tr("Close");
+                case 1 -> tr("Kind");
+                case 2 -> tr("Source way");
+                case 3 -> tr("Target way");
+                default -> tr("Distance");
+            };
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return column == 0 ? Boolean.class : String.class;
+        }
+
+        @Override
+        public boolean isCellEditable(int row, int column) {
+            return column == 0;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            final GapScanner.Gap gap = gaps.get(row);
+            return switch (column) {
+                case 0 -> accepted[row];
+                case 1 -> gap.kind() == GapScanner.Kind.GAP
+                    ? tr("gap") : tr("overlap");
+                case 2 -> formatSlice(gap.source());
+                case 3 -> formatSlice(gap.target());
+                default -> formatDistance(gap);
+            };
+        }
+
+        @Override
+        public void setValueAt(Object value, int row, int column) {
+            if (column != 0) return;
+            accepted[row] = Boolean.TRUE.equals(value);
+            fireTableCellUpdated(row, column);
+        }
+
+        /**
+         * Accepts or rejects the gap in row {@code row}.
+         *
+         * @param row the row
+         * @param accept true, to accept the gap
+         */
+        void setAccepted(int row, boolean accept) {
+            setValueAt(accept, row, 0);
+        }
+
+        /**
+         * Replies the accepted gaps, in the order of the list.
+         *
+         * @return the accepted gaps
+         */
+        List<GapScanner.Gap> getAcceptedGaps() {
+            final List<GapScanner.Gap> result = new ArrayList<>();
+            for (int i = 0; i < gaps.size(); i++) {
+                if (accepted[i]) result.add(gaps.get(i));
+            }
+            return result;
+        }
+
+        GapScanner.Gap getGap(int row) {
+            return gaps.get(row);
+        }
+    }
+
+    static private String formatSlice(WaySlice slice) {
+        return tr("{0} ({1} nodes)", slice.getWay().getUniqueId(),
+            slice.getNumSegments() + 1);
+    }
+
+    static private String formatDistance(GapScanner.Gap gap) {
+        // the distance is in east/north units, the scale of the projection
+        // at the first node of the target is good enough for display
+        final double unitsPerMeter = GeometryUtils.metersToProjectedUnits(
+            gap.target().getStartNode(), 1.0);
+        if (!(unitsPerMeter > 0)) return "-";
+        return tr("{0} m",
+            String.format("%.2f", gap.maxDistance() / unitsPerMeter));
+    }
+
+    /**
+     * Creates the dialog for the gaps {@code gaps}.
+     *
+     * @param gaps the gaps. Must not be null.
+     */
+    public GapReviewDialog(@NotNull List<GapScanner.Gap> gaps) {
+        super(MainApplication.getMainFrame(), tr("Close gaps"),
+            tr("Close ticked gaps"), tr("Cancel"));
+        Objects.requireNonNull(gaps);
+        tableModel = new GapTableModel(gaps);
+        setButtonIcons("ok", "cancel");
+        setCancelButton(2);
+        setContent(buildContent(), false /* no scroll pane */);
+    }
+
+    private JPanel buildContent() {
+        final JTable table = new JTable(tableModel);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.getSelectionModel().addListSelectionListener(e -> {
+            if (e.getValueIsAdjusting()) return;
+            final int row = table.getSelectedRow();
+            if (row < 0) return;
+            zoomTo(tableModel.getGap(table.convertRowIndexToModel(row)));
+        });
+        final JScrollPane scrollPane = new JScrollPane(table);
+        scrollPane.setPreferredSize(new Dimension(500, 250));
+        final JPanel panel = new JPanel(new BorderLayout(0, 5));
+        panel.add(new JLabel(tr("Select a gap to zoom to it. Tick the gaps "
+            + "to close.")), BorderLayout.NORTH);
+        panel.add(scrollPane, BorderLayout.CENTER);
+        return panel;
+    }
+
+    static private void zoomTo(GapScanner.Gap gap) {
+        final Set<Node> nodes = new LinkedHashSet<>(gap.source().getNodes());
+        nodes.addAll(gap.target().getNodes());
+        AutoScaleAction.zoomTo(nodes);
+    }
+
+    /**
+     * Shows the dialog and replies the gaps the user has accepted.
+     *
+     * @return the accepted gaps, or an empty list, if the dialog was
+     *  cancelled
+     */
+    public List<GapScanner.Gap> review() {
+        if (showDialog().getValue() != 1) return List.of();
+        return tableModel.getAcceptedGaps();
+    }
+}
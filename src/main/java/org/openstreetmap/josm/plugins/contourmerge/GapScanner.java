@@ -0,0 +1,464 @@
+package org.openstreetmap.josm.plugins.contourmerge;
+
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.preferences.DoubleProperty;
+
+import javax.validation.constraints.NotNull;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * <strong>GapScanner</strong> finds adjacent areas in a dataset whose
+ * boundaries run side by side without sharing nodes, i.e. with a small
+ * gap or a small overlap between them.
+ * <p>
+ * The scanner indexes all segments of area ways, i.e. of closed ways with
+ * area tags and of multipolygon members, in a {@link StrTree}. For every
+ * segment, it looks up the segments of other ways within the tolerance
+ * which run nearly parallel to it and don't share a node with it. The
+ * lookups are done in parallel on the common fork-join pool, one task per
+ * spatial partition of the segments. Finally, the matching segments are
+ * joined to stretches of consecutive segments, see {@link Gap}.
+ * <p>
+ * The scanner reads the dataset under its read lock. It doesn't modify
+ * the dataset; a gap is closed by merging its source onto its target,
+ * see {@link Gap#toMergeRequest()} and {@link CloseGapsAction}.
+ */
+public class GapScanner {
+
+    /**
+     * The maximal distance, in meters, between two boundaries which are
+     * reported as gap or overlap.
+     */
+    public static final DoubleProperty GAP_TOLERANCE =
+        new DoubleProperty("contourmerge.gap-tolerance", 2.0);
+
+    /**
+     * The maximal angle, in degrees, between two segments which are
+     * considered to run side by side.
+     */
+    static final double ANGLE_TOLERANCE = 15.0;
+
+    /**
+     * The minimal number of matching segments of a stretch.
+     */
+    static final int MIN_SEGMENTS = 2;
+
+    /**
+     * The number of segments per spatial partition.
+     */
+    static private final int PARTITION_SIZE = 4096;
+
+    /**
+     * The kind of a {@link Gap}.
+     */
+    public enum Kind {
+        /** the areas are separated by a gap */
+        GAP,
+        /** the areas overlap */
+        OVERLAP
+    }
+
+    /**
+     * Two stretches of the boundaries of adjacent areas, which run side by
+     * side without sharing nodes.
+     *
+     * @param source the stretch with fewer nodes
+     * @param target the stretch with more nodes
+     * @param kind {@link Kind#OVERLAP}, if the source stretch lies inside
+     *  the closed way of the target; {@link Kind#GAP} otherwise
+     * @param maxDistance the maximal distance between matching segments,
+     *  in east/north units
+     */
+    public record Gap(WaySlice source, WaySlice target, Kind kind,
+                      double maxDistance) {
+        /**
+         * Replies the request to close this gap, see
+         * {@link ContourMergeService}.
+         *
+         * @return the merge request
+         */
+        public ContourMergeService.MergeRequest toMergeRequest() {
+            return new ContourMergeService.MergeRequest(source, target);
+        }
+    }
+
+    private final double toleranceInMeters;
+
+    /**
+     * Creates a scanner with the tolerance configured in the preferences.
+     */
+    public GapScanner() {
+        this(GAP_TOLERANCE.get());
+    }
+
+    /**
+     * Creates a scanner.
+     *
+     * @param toleranceInMeters the tolerance in meters
+     */
+    public GapScanner(double toleranceInMeters) {
+        this.toleranceInMeters = toleranceInMeters;
+    }
+
+    /*
+     * A way is an area way, if it is closed and has area tags, or if it
+     * is a member of a multipolygon.
+     */
+    static boolean isAreaWay(Way way) {
+        if (way.isDeleted() || way.isIncomplete() || !way.isUsable()
+                || way.getNodesCount() < 2) {
+            return false;
+        }
+        if (way.isClosed() && way.hasAreaTags()) return true;
+        for (OsmPrimitive referrer: way.getReferrers()) {
+            if (referrer instanceof Relation relation
+                    && relation.isMultipolygon()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Scans the dataset {@code ds} for gaps and overlaps between adjacent
+     * areas.
+     *
+     * @param ds the dataset. Must not be null.
+     * @return the gaps, in the order of the area ways in the dataset
+     */
+    public List<Gap> scan(@NotNull DataSet ds) {
+        Objects.requireNonNull(ds);
+        final Lock lock = ds.getReadLock();
+        lock.lock();
+        try {
+            final List<Way> ways = ds.getWays().stream()
+                .filter(GapScanner::isAreaWay)
+                .collect(Collectors.toList());
+            if (ways.isEmpty()) return Collections.emptyList();
+            return new Scan(ways, toleranceInMeters).run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * The tolerance in projected units at the middle node of the way, or
+     * NaN, if the way has no node with a position.
+     */
+    static private double toleranceAt(Way way, double toleranceInMeters) {
+        final int n = way.getNodesCount();
+        for (int i = 0; i < n; i++) {
+            final Node node = way.getNode((n / 2 + i) % n);
+            if (node.getEastNorth() != null) {
+                return GeometryUtils.metersToProjectedUnits(node,
+                    toleranceInMeters);
+            }
+        }
+        return Double.NaN;
+    }
+
+    /*
+     * The state of one scan. The segments are packed into arrays, segment
+     * s runs from node ends[2s] to node ends[2s+1]. The tolerance is
+     * converted to projected units per way, because the scale of the
+     * projection varies across the dataset; a pair of segments is matched
+     * with the tolerance of the way of the first segment.
+     */
+    static private final class Scan {
+        private final List<Way> ways;
+        private final double[] tolerances;
+        private final double maxSinAngle =
+            Math.sin(Math.toRadians(ANGLE_TOLERANCE));
+        private final double[] c;
+        private final Node[] ends;
+        private final int[] wayIndices;
+        private final int[] segmentIndices;
+        private int numSegments = 0;
+
+        Scan(List<Way> ways, double toleranceInMeters) {
+            this.ways = ways;
+            this.tolerances = new double[ways.size()];
+            for (int w = 0; w < ways.size(); w++) {
+                tolerances[w] = toleranceAt(ways.get(w), toleranceInMeters);
+            }
+            int capacity = 0;
+            for (Way way: ways) capacity += way.getNodesCount() - 1;
+            c = new double[4 * capacity];
+            ends = new Node[2 * capacity];
+            wayIndices = new int[capacity];
+            segmentIndices = new int[capacity];
+            for (int w = 0; w < ways.size(); w++) {
+                final Way way = ways.get(w);
+                for (int i = 1; i < way.getNodesCount(); i++) {
+                    add(way.getNode(i - 1), way.getNode(i), w, i - 1);
+                }
+            }
+        }
+
+        private void add(Node a, Node b, int way, int index) {
+            final EastNorth ea = a.getEastNorth();
+            final EastNorth eb = b.getEastNorth();
+            if (a == b || ea == null || eb == null) return;
+            final int s = numSegments++;
+            c[4 * s] = ea.east();
+            c[4 * s + 1] = ea.north();
+            c[4 * s + 2] = eb.east();
+            c[4 * s + 3] = eb.north();
+            ends[2 * s] = a;
+            ends[2 * s + 1] = b;
+            wayIndices[s] = way;
+            segmentIndices[s] = index;
+        }
+
+        private double[] boundingBoxes() {
+            final double[] boxes = new double[4 * numSegments];
+            for (int s = 0; s < numSegments; s++) {
+                boxes[4 * s] = Math.min(c[4 * s], c[4 * s + 2]);
+                boxes[4 * s + 1] = Math.min(c[4 * s + 1], c[4 * s + 3]);
+                boxes[4 * s + 2] = Math.max(c[4 * s], c[4 * s + 2]);
+                boxes[4 * s + 3] = Math.max(c[4 * s + 1], c[4 * s + 3]);
+            }
+            return boxes;
+        }
+
+        private boolean shareNode(int s, int t) {
+            final Node a = ends[2 * s];
+            final Node b = ends[2 * s + 1];
+            return a == ends[2 * t] || a == ends[2 * t + 1]
+                || b == ends[2 * t] || b == ends[2 * t + 1];
+        }
+
+        private boolean areNearlyParallel(int s, int t) {
+            final double dx1 = c[4 * s + 2] - c[4 * s];
+            final double dy1 = c[4 * s + 3] - c[4 * s + 1];
+            final double dx2 = c[4 * t + 2] - c[4 * t];
+            final double dy2 = c[4 * t + 3] - c[4 * t + 1];
+            final double lengths =
+                DistanceKernel.distance(c[4 * s], c[4 * s + 1],
+                    c[4 * s + 2], c[4 * s + 3])
+                * DistanceKernel.distance(c[4 * t], c[4 * t + 1],
+                    c[4 * t + 2], c[4 * t + 3]);
+            if (lengths == 0) return false;
+            return Math.abs(dx1 * dy2 - dy1 * dx2) <= maxSinAngle * lengths;
+        }
+
+        private double distanceFromMidpoint(int s, int t) {
+            return GeometryUtils.distanceToSegment(
+                (c[4 * s] + c[4 * s + 2]) / 2,
+                (c[4 * s + 1] + c[4 * s + 3]) / 2,
+                c[4 * t], c[4 * t + 1], c[4 * t + 2], c[4 * t + 3]);
+        }
+
+        /*
+         * The distance between two matching segments, or NaN, if they
+         * don't match. Segments of different lengths match, if the
+         * midpoint of one of them is close to the other.
+         */
+        private double match(int s, int t) {
+            if (wayIndices[s] >= wayIndices[t]) return Double.NaN;
+            if (shareNode(s, t) || !areNearlyParallel(s, t)) {
+                return Double.NaN;
+            }
+            final double d = Math.min(distanceFromMidpoint(s, t),
+                distanceFromMidpoint(t, s));
+            return d <= tolerances[wayIndices[s]] ? d : Double.NaN;
+        }
+
+        /*
+         * The matching segments within one spatial partition, as triples
+         * (s, t, distance).
+         */
+        private List<double[]> matchPartition(StrTree tree, int from, int to) {
+            final int[] order = tree.getItemsInTreeOrder();
+            final List<double[]> matches = new ArrayList<>();
+            for (int i = from; i < to; i++) {
+                final int s = order[i];
+                final double tolerance = tolerances[wayIndices[s]];
+                final double minX = Math.min(c[4 * s], c[4 * s + 2]);
+                final double minY = Math.min(c[4 * s + 1], c[4 * s + 3]);
+                final double maxX = Math.max(c[4 * s], c[4 * s + 2]);
+                final double maxY = Math.max(c[4 * s + 1], c[4 * s + 3]);
+                tree.query(minX - tolerance, minY - tolerance,
+                    maxX + tolerance, maxY + tolerance, t -> {
+                        final double d = match(s, t);
+                        if (!Double.isNaN(d)) {
+                            matches.add(new double[]{s, t, d});
+                        }
+                    });
+            }
+            return matches;
+        }
+
+        List<Gap> run() {
+            final StrTree tree = new StrTree(boundingBoxes());
+            final int numPartitions = (numSegments + PARTITION_SIZE - 1)
+                / PARTITION_SIZE;
+            final List<double[]> matches = IntStream.range(0, numPartitions)
+                .parallel()
+                .mapToObj(p -> matchPartition(tree, p * PARTITION_SIZE,
+                    Math.min(numSegments, (p + 1) * PARTITION_SIZE)))
+                .flatMap(List::stream)
+                .collect(Collectors.toList());
+
+            // the matches per pair of ways, in the order of the ways
+            final Map<Long, List<double[]>> matchesPerPair = new TreeMap<>();
+            for (double[] match: matches) {
+                final long pair = (long) wayIndices[(int) match[0]]
+                    * ways.size() + wayIndices[(int) match[1]];
+                matchesPerPair.computeIfAbsent(pair, k -> new ArrayList<>())
+                    .add(match);
+            }
+            final List<Gap> gaps = new ArrayList<>();
+            matchesPerPair.values().forEach(pairMatches ->
+                gaps.addAll(toGaps(pairMatches)));
+            return gaps;
+        }
+
+        /*
+         * Joins the matches between two ways to stretches of consecutive
+         * segments of the first way, and replies a gap per stretch.
+         */
+        private List<Gap> toGaps(List<double[]> pairMatches) {
+            final Way way1 = ways.get(wayIndices[(int) pairMatches.get(0)[0]]);
+            final Way way2 = ways.get(wayIndices[(int) pairMatches.get(0)[1]]);
+            final int numSegments1 = way1.getNodesCount() - 1;
+            final SortedMap<Integer, List<double[]>> bySegment = new TreeMap<>();
+            for (double[] match: pairMatches) {
+                bySegment.computeIfAbsent(segmentIndices[(int) match[0]],
+                    k -> new ArrayList<>()).add(match);
+            }
+            final List<Gap> gaps = new ArrayList<>();
+            for (int[] stretch: cyclicRuns(bySegment.keySet(), numSegments1,
+                    way1.isClosed())) {
+                final SortedSet<Integer> segments2 = new TreeSet<>();
+                double maxDistance = 0;
+                int numMatched = 0;
+                for (int i = stretch[0]; ; i = (i + 1) % numSegments1) {
+                    final List<double[]> segmentMatches = bySegment.get(i);
+                    if (segmentMatches != null) {
+                        numMatched++;
+                        for (double[] match: segmentMatches) {
+                            segments2.add(segmentIndices[(int) match[1]]);
+                            maxDistance = Math.max(maxDistance, match[2]);
+                        }
+                    }
+                    if (i == stretch[1]) break;
+                }
+                if (numMatched < MIN_SEGMENTS) continue;
+                final int[] stretch2 = coveringRun(segments2,
+                    way2.getNodesCount() - 1, way2.isClosed());
+                final WaySlice slice1 = toWaySlice(way1, stretch);
+                final WaySlice slice2 = toWaySlice(way2, stretch2);
+                if (slice1 == null || slice2 == null) continue;
+                final boolean secondIsTarget = slice2.getNumSegments()
+                    >= slice1.getNumSegments();
+                final WaySlice source = secondIsTarget ? slice1 : slice2;
+                final WaySlice target = secondIsTarget ? slice2 : slice1;
+                gaps.add(new Gap(source, target,
+                    isInside(source, target.getWay()) ? Kind.OVERLAP : Kind.GAP,
+                    maxDistance));
+            }
+            return gaps;
+        }
+    }
+
+    /*
+     * Joins the sorted segment indices to runs of consecutive indices,
+     * bridging single missing segments. Runs of a closed way may wrap
+     * around the first segment. A run is replied as (first, last)
+     * segment index.
+     */
+    static List<int[]> cyclicRuns(Collection<Integer> indices,
+            int numSegments, boolean closed) {
+        final List<int[]> runs = new ArrayList<>();
+        int first = -1;
+        int last = -1;
+        for (int i: indices) {
+            if (first >= 0 && i - last <= 2) {
+                last = i;
+                continue;
+            }
+            if (first >= 0) runs.add(new int[]{first, last});
+            first = i;
+            last = i;
+        }
+        if (first >= 0) runs.add(new int[]{first, last});
+        if (closed && runs.size() > 1) {
+            final int[] head = runs.get(0);
+            final int[] tail = runs.get(runs.size() - 1);
+            if (head[0] + numSegments - tail[1] <= 2) {
+                runs.remove(runs.size() - 1);
+                runs.set(0, new int[]{tail[0], head[1]});
+            }
+        }
+        return runs;
+    }
+
+    /*
+     * The smallest run of segments covering all the segment indices. For
+     * a closed way, the run may wrap around the first segment.
+     */
+    static int[] coveringRun(SortedSet<Integer> indices, int numSegments,
+            boolean closed) {
+        final int min = indices.first();
+        final int max = indices.last();
+        if (!closed) return new int[]{min, max};
+        // the run is the complement of the largest gap between two
+        // consecutive indices, cyclically
+        int largestGap = min + numSegments - max;
+        int[] run = new int[]{min, max};
+        Integer previous = null;
+        for (int i: indices) {
+            if (previous != null && i - previous > largestGap) {
+                largestGap = i - previous;
+                run = new int[]{i, previous};
+            }
+            previous = i;
+        }
+        return run;
+    }
+
+    /*
+     * The way slice with the segments first..last, possibly wrapping
+     * around the first segment of a closed way. null, if the run covers
+     * the whole way.
+     */
+    static WaySlice toWaySlice(Way way, int[] run) {
+        final int first = run[0];
+        final int last = run[1];
+        if (first <= last) return new WaySlice(way, first, last + 1);
+        // the nodes first, ..., n-1 (= 0), 1, ..., last + 1
+        if (last + 1 >= first) return null;
+        return new WaySlice(way, last + 1, first, false /* not in direction */);
+    }
+
+    /*
+     * True, if the middle of the slice lies inside the closed way
+     * {@code way}.
+     */
+    static boolean isInside(WaySlice slice, Way way) {
+        if (!way.isClosed()) return false;
+        final double[] s = slice.getEastNorthCoordinates();
+        final int mid = (s.length / 2 - 1) / 2;
+        final double x = (s[2 * mid] + s[2 * mid + 2]) / 2;
+        final double y = (s[2 * mid + 1] + s[2 * mid + 3]) / 2;
+        final double[] p = GeometryUtils.toEastNorthCoordinates(way.getNodes());
+        boolean inside = false;
+        for (int i = 0, j = p.length / 2 - 1; i < p.length / 2; j = i++) {
+            if ((p[2 * i + 1] > y) != (p[2 * j + 1] > y)
+                    && x < (p[2 * j] - p[2 * i]) * (y - p[2 * i + 1])
+                        / (p[2 * j + 1] - p[2 * i + 1]) + p[2 * i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+}
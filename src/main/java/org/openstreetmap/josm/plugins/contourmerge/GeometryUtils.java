@@ -0,0 +1,200 @@
+package org.openstreetmap.josm.plugins.contourmerge;
+
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.projection.Projection;
+import org.openstreetmap.josm.data.projection.ProjectionRegistry;
+
+import javax.validation.constraints.NotNull;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * <strong>GeometryUtils</strong> provides the geometric primitives used
+ * by the <tt>contourmerge</tt> plugin.
+ * <p>
+ * Distances are computed in the coordinates of the current projection
+ * (east/north). Use {@link #metersToProjectedUnits(Node, double)} to
+ * convert a distance given in meters.
+ * <p>
+ * The distances are computed with the {@link DistanceKernel}.
+ */
+public final class GeometryUtils {
+
+    private GeometryUtils() {}
+
+    /**
+     * Replies the distance between the point {@code (px, py)} and the
+     * segment from {@code (ax, ay)} to {@code (bx, by)}.
+     *
+     * @param px x-coordinate of the point
+     * @param py y-coordinate of the point
+     * @param ax x-coordinate of the start of the segment
+     * @param ay y-coordinate of the start of the segment
+     * @param bx x-coordinate of the end of the segment
+     * @param by y-coordinate of the end of the segment
+     * @return the distance
+     */
+    public static double distanceToSegment(double px, double py,
+            double ax, double ay, double bx, double by) {
+        return Math.sqrt(DistanceKernel.squaredDistanceToSegment(px, py,
+            ax, ay, bx, by));
+    }
+
+    /**
+     * Replies true, if the segment from {@code (ax, ay)} to
+     * {@code (bx, by)} and the segment from {@code (cx, cy)} to
+     * {@code (dx, dy)} cross properly, i.e. if they intersect in exactly
+     * one point which is an inner point of both segments. Segments which
+     * only touch or which are collinear don't cross.
+     *
+     * @param ax x-coordinate of the start of the first segment
+     * @param ay y-coordinate of the start of the first segment
+     * @param bx x-coordinate of the end of the first segment
+     * @param by y-coordinate of the end of the first segment
+     * @param cx x-coordinate of the start of the second segment
+     * @param cy y-coordinate of the start of the second segment
+     * @param dx x-coordinate of the end of the second segment
+     * @param dy y-coordinate of the end of the second segment
+     * @return true, if the segments cross
+     */
+    public static boolean segmentsCross(double ax, double ay, double bx,
+            double by, double cx, double cy, double dx, double dy) {
+        final double o1 = orientation(cx, cy, dx, dy, ax, ay);
+        final double o2 = orientation(cx, cy, dx, dy, bx, by);
+        if (!(o1 > 0 && o2 < 0 || o1 < 0 && o2 > 0)) return false;
+        final double o3 = orientation(ax, ay, bx, by, cx, cy);
+        final double o4 = orientation(ax, ay, bx, by, dx, dy);
+        return o3 > 0 && o4 < 0 || o3 < 0 && o4 > 0;
+    }
+
+    /*
+     * Positive, if (px, py) is left of the line from (ax, ay) to (bx, by),
+     * negative, if it is right of it, 0, if the three points are collinear.
+     */
+    private static double orientation(double ax, double ay, double bx,
+            double by, double px, double py) {
+        return (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+    }
+
+    /**
+     * Replies the distance between the points {@code i} and {@code j}
+     * in the packed coordinates {@code c}.
+     *
+     * @param c the packed coordinates <code>[x0, y0, x1, y1, ...]</code>
+     * @param i the index of the first point
+     * @param j the index of the second point
+     * @return the distance
+     */
+    public static double distance(double[] c, int i, int j) {
+        return DistanceKernel.distance(c, i, j);
+    }
+
+    /**
+     * Simplifies the polyline given by the packed coordinates {@code c}
+     * with the Douglas-Peucker algorithm. Replies the indices of the
+     * points to keep, in ascending order. The first and the last point
+     * are always kept.
+     * <p>
+     * Every dropped point is within {@code tolerance} of the simplified
+     * polyline, hence the simplified polyline deviates at most
+     * {@code tolerance} from the original polyline.
+     *
+     * @param c the packed coordinates <code>[x0, y0, x1, y1, ...]</code>
+     * @param tolerance the tolerance. Must not be negative.
+     * @return the indices of the points to keep
+     */
+    public static int[] simplify(double[] c, double tolerance) {
+        final int n = c.length / 2;
+        if (n <= 2) {
+            final int[] all = new int[n];
+            for (int i = 0; i < n; i++) all[i] = i;
+            return all;
+        }
+        final boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+        // iterative instead of recursive, ways can have many thousand nodes
+        final int[] stack = new int[2 * n];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = n - 1;
+        int numKept = 2;
+        while (top > 0) {
+            final int last = stack[--top];
+            final int first = stack[--top];
+            final int farthest = DistanceKernel.farthestFromSegment(c, first,
+                last);
+            if (farthest >= 0 && distanceToSegment(c[2*farthest],
+                    c[2*farthest+1], c[2*first], c[2*first+1], c[2*last],
+                    c[2*last+1]) > tolerance) {
+                keep[farthest] = true;
+                numKept++;
+                stack[top++] = first;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = last;
+            }
+        }
+        final int[] indices = new int[numKept];
+        for (int i = 0, j = 0; i < n; i++) {
+            if (keep[i]) indices[j++] = i;
+        }
+        return indices;
+    }
+
+    /**
+     * Replies the east/north coordinates of the nodes {@code nodes},
+     * packed into one array <code>[e0, n0, e1, n1, ...]</code>. The
+     * coordinates of nodes without a position are {@link Double#NaN}.
+     *
+     * @param nodes the nodes. Must not be null.
+     * @return the packed coordinates
+     */
+    public static double[] toEastNorthCoordinates(@NotNull List<Node> nodes) {
+        final double[] c = new double[2 * nodes.size()];
+        for (int i = 0; i < nodes.size(); i++) {
+            putEastNorth(c, 2 * i, nodes.get(i));
+        }
+        return c;
+    }
+
+    /**
+     * Puts the east/north coordinates of {@code node} at position
+     * {@code offset} and {@code offset + 1} into the array {@code c}.
+     * Puts {@link Double#NaN}, if {@code node} is null or doesn't have a
+     * position.
+     *
+     * @param c the array
+     * @param offset the offset
+     * @param node the node
+     */
+    static void putEastNorth(double[] c, int offset, Node node) {
+        final EastNorth en = node == null ? null : node.getEastNorth();
+        c[offset] = en == null ? Double.NaN : en.east();
+        c[offset + 1] = en == null ? Double.NaN : en.north();
+    }
+
+    /**
+     * Converts a distance in meters to a distance in units of the current
+     * projection, using the local scale of the projection at the position
+     * of {@code reference}.
+     *
+     * @param reference the reference node. Must not be null.
+     * @param meters the distance in meters
+     * @return the distance in projected units
+     */
+    public static double metersToProjectedUnits(@NotNull Node reference,
+            double meters) {
+        Objects.requireNonNull(reference);
+        final Projection projection = ProjectionRegistry.getProjection();
+        final EastNorth en = reference.getEastNorth();
+        final LatLon ll = new LatLon(reference.lat(), reference.lon());
+        final LatLon other = projection.eastNorth2latlon(
+                new EastNorth(en.east() + 1.0, en.north()));
+        final double metersPerUnit = ll.greatCircleDistance(other);
+        if (metersPerUnit <= 0) return meters;
+        return meters / metersPerUnit;
+    }
+}
@@ -0,0 +1,270 @@
+package org.openstreetmap.josm.plugins.contourmerge;
+
+import org.openstreetmap.josm.data.coor.EastNorth;
+
+import javax.validation.constraints.NotNull;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * <strong>InteractionTrace</strong> is a recorded sequence of mouse
+ * events in the contour merge mode, see {@link InteractionTraceRecorder}.
+ * <p>
+ * Positions are recorded in east/north coordinates, together with the
+ * center and the scale of the map view at the time of the event. A trace
+ * can therefore be replayed without a map view, with the same zoom
+ * level and independent of the size of the original window.
+ * <p>
+ * A trace is a text file. Lines starting with <code>#</code> are
+ * comments. The line <code>dataset &lt;file&gt;</code> refers to the
+ * snapshot of the dataset the trace was recorded on, relative to the
+ * trace file. The line <code>projection &lt;code&gt;</code> gives the
+ * code of the projection the east/north coordinates refer to, for
+ * instance <code>EPSG:3857</code>. All other lines are events:
+ * <pre>
+ *   &lt;type&gt; &lt;time&gt; &lt;east&gt; &lt;north&gt; &lt;center east&gt; &lt;center north&gt; &lt;scale&gt; &lt;button&gt; &lt;modifiers&gt;
+ * </pre>
+ * where <code>time</code> is in milliseconds since the first event and
+ * <code>modifiers</code> are the extended modifiers of the mouse event.
+ * Coordinates and scales are written with full precision, see
+ * {@link Double#toString(double)}.
+ */
+public class InteractionTrace {
+
+    /**
+     * The first line of a trace file.
+     */
+    static public final String HEADER =
+        "# contourmerge interaction trace, version 1";
+
+    static private final String DATASET_KEYWORD = "dataset";
+    static private final String PROJECTION_KEYWORD = "projection";
+
+    /**
+     * The types of recorded mouse events.
+     */
+    public enum Type {
+        PRESSED,
+        RELEASED,
+        CLICKED,
+        MOVED,
+        DRAGGED
+    }
+
+    /**
+     * A recorded mouse event.
+     *
+     * @param type the type of the event
+     * @param time the time in milliseconds since the first event
+     * @param position the position of the mouse pointer
+     * @param center the center of the map view
+     * @param scale the scale of the map view, in east/north units per
+     *  pixel
+     * @param button the mouse button, see {@link
+     *  java.awt.event.MouseEvent#getButton()}
+     * @param modifiers the extended modifiers, see {@link
+     *  java.awt.event.MouseEvent#getModifiersEx()}
+     */
+    public record Event(Type type, long time, EastNorth position,
+                        EastNorth center, double scale, int button,
+                        int modifiers) {
+
+        /**
+         * Replies the event as a line in a trace file.
+         *
+         * @return the line, without line separator
+         */
+        public String format() {
+            return type + " " + time
+                + " " + Double.toString(position.east())
+                + " " + Double.toString(position.north())
+                + " " + Double.toString(center.east())
+                + " " + Double.toString(center.north())
+                + " " + Double.toString(scale)
+                + " " + button + " " + modifiers;
+        }
+
+        /**
+         * Parses an event from a line in a trace file.
+         *
+         * @param line the line. Must not be null.
+         * @return the event
+         * @throws IllegalArgumentException if {@code line} isn't a valid
+         *  event
+         */
+        public static Event parse(@NotNull String line) {
+            Objects.requireNonNull(line);
+            final String[] fields = line.trim().split("\\s+");
+            if (fields.length != 9) {
+                throw new IllegalArgumentException(String.format(
+                    "expected 9 fields in event, got %d: '%s'",
+                    fields.length, line));
+            }
+            try {
+                return new Event(
+                    Type.valueOf(fields[0]),
+                    Long.parseLong(fields[1]),
+                    new EastNorth(Double.parseDouble(fields[2]),
+                        Double.parseDouble(fields[3])),
+                    new EastNorth(Double.parseDouble(fields[4]),
+                        Double.parseDouble(fields[5])),
+                    Double.parseDouble(fields[6]),
+                    Integer.parseInt(fields[7]),
+                    Integer.parseInt(fields[8]));
+            } catch (IllegalArgumentException e) {
+                // includes NumberFormatException
+                throw new IllegalArgumentException(String.format(
+                    "illegal event: '%s'", line), e);
+            }
+        }
+    }
+
+    private final String dataset;
+    private final String projection;
+    private final List<Event> events;
+
+    /**
+     * Creates a trace in an unknown projection.
+     *
+     * @param dataset the name of the dataset file, relative to the trace
+     *  file. null, if unknown.
+     * @param events the events. Must not be null.
+     */
+    public InteractionTrace(String dataset, @NotNull List<Event> events) {
+        this(dataset, null, events);
+    }
+
+    /**
+     * Creates a trace.
+     *
+     * @param dataset the name of the dataset file, relative to the trace
+     *  file. null, if unknown.
+     * @param projection the code of the projection of the east/north
+     *  coordinates. null, if unknown.
+     * @param events the events. Must not be null.
+     */
+    public InteractionTrace(String dataset, String projection,
+            @NotNull List<Event> events) {
+        Objects.requireNonNull(events);
+        this.dataset = dataset;
+        this.projection = projection;
+        this.events = List.copyOf(events);
+    }
+
+    /**
+     * Replies the name of the dataset file, relative to the trace file,
+     * or null, if unknown.
+     *
+     * @return the name of the dataset file
+     */
+    public String getDataset() {
+        return dataset;
+    }
+
+    /**
+     * Replies the code of the projection of the east/north coordinates,
+     * or null, if unknown.
+     *
+     * @return the projection code
+     */
+    public String getProjection() {
+        return projection;
+    }
+
+    /**
+     * Replies the events.
+     *
+     * @return the events, in the order they were recorded
+     */
+    public List<Event> getEvents() {
+        return events;
+    }
+
+    /**
+     * Writes the trace.
+     *
+     * @param writer the writer. Must not be null.
+     * @throws IOException if writing fails
+     */
+    public void write(@NotNull Writer writer) throws IOException {
+        Objects.requireNonNull(writer);
+        final BufferedWriter out = new BufferedWriter(writer);
+        out.write(HEADER);
+        out.newLine();
+        if (dataset != null) {
+            out.write(DATASET_KEYWORD + " " + dataset);
+            out.newLine();
+        }
+        if (projection != null) {
+            out.write(formatProjection(projection));
+            out.newLine();
+        }
+        for (Event event: events) {
+            out.write(event.format());
+            out.newLine();
+        }
+        out.flush();
+    }
+
+    /**
+     * Replies the line which declares the projection {@code code}.
+     *
+     * @param code the projection code. Must not be null.
+     * @return the line, without line separator
+     */
+    static String formatProjection(@NotNull String code) {
+        Objects.requireNonNull(code);
+        return PROJECTION_KEYWORD + " " + code;
+    }
+
+    /**
+     * Reads a trace.
+     *
+     * @param reader the reader. Must not be null.
+     * @return the trace
+     * @throws IOException if reading fails
+     * @throws IllegalArgumentException if the trace contains an invalid
+     *  line
+     */
+    public static InteractionTrace read(@NotNull Reader reader)
+            throws IOException {
+        Objects.requireNonNull(reader);
+        final BufferedReader in = new BufferedReader(reader);
+        String dataset = null;
+        String projection = null;
+        final List<Event> events = new ArrayList<>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            if (line.startsWith(DATASET_KEYWORD + " ")) {
+                dataset = line.substring(DATASET_KEYWORD.length()).trim();
+            } else if (line.startsWith(PROJECTION_KEYWORD + " ")) {
+                projection = line.substring(PROJECTION_KEYWORD.length())
+                    .trim();
+            } else {
+                events.add(Event.parse(line));
+            }
+        }
+        return new InteractionTrace(dataset, projection, events);
+    }
+
+    /**
+     * Reads a trace from the file {@code file}.
+     *
+     * @param file the trace file. Must not be null.
+     * @return the trace
+     * @throws IOException if reading fails
+     */
+    public static InteractionTrace read(@NotNull Path file)
+            throws IOException {
+        Objects.requireNonNull(file);
+        try (Reader reader = Files.newBufferedReader(file,
+                StandardCharsets.UTF_8)) {
+            return read(reader);
+        }
+    }
+}
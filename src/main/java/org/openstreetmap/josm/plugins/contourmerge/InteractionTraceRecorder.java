@@ -0,0 +1,208 @@
+package org.openstreetmap.josm.plugins.contourmerge;
+
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.data.projection.ProjectionRegistry;
+import org.openstreetmap.josm.gui.MapView;
+import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+import org.openstreetmap.josm.io.OsmWriter;
+import org.openstreetmap.josm.io.OsmWriterFactory;
+import org.openstreetmap.josm.spi.preferences.Config;
+
+import javax.validation.constraints.NotNull;
+import java.awt.event.MouseEvent;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <strong>InteractionTraceRecorder</strong> records the mouse events in
+ * the contour merge mode as {@link InteractionTrace}.
+ * <p>
+ * When recording starts, the recorder writes a snapshot of the dataset
+ * of the active layer to the trace directory. It then appends the events
+ * to a trace file next to it, as they occur. The trace and the snapshot
+ * can be replayed headless, see the interaction trace replay benchmark
+ * in the test sources.
+ * <p>
+ * Recording is enabled with the preference
+ * {@link #RECORD_TRACES contourmerge.record-traces}. Traces are written
+ * to the directory <code>contourmerge-traces</code> in the JOSM user data
+ * directory.
+ */
+public class InteractionTraceRecorder implements Closeable {
+
+    static private final Logger logger =
+        Logger.getLogger(InteractionTraceRecorder.class.getName());
+
+    /**
+     * Whether interaction traces are recorded in the contour merge mode.
+     */
+    public static final BooleanProperty RECORD_TRACES =
+        new BooleanProperty("contourmerge.record-traces", false);
+
+    /**
+     * Replies the directory traces are written to.
+     *
+     * @return the trace directory
+     */
+    public static File getTraceDirectory() {
+        return new File(Config.getDirs().getUserDataDirectory(true),
+            "contourmerge-traces");
+    }
+
+    /**
+     * Starts to record a trace for the layer {@code layer} in the
+     * directory {@link #getTraceDirectory()}.
+     *
+     * @param layer the layer. Must not be null.
+     * @return the recorder
+     * @throws IOException if the snapshot or the trace file can't be
+     *  written
+     */
+    public static InteractionTraceRecorder start(@NotNull OsmDataLayer layer)
+            throws IOException {
+        return start(layer, getTraceDirectory());
+    }
+
+    /**
+     * Starts to record a trace for the layer {@code layer} in the
+     * directory {@code directory}.
+     *
+     * @param layer the layer. Must not be null.
+     * @param directory the trace directory. Must not be null. Created, if
+     *  it doesn't exist.
+     * @return the recorder
+     * @throws IOException if the snapshot or the trace file can't be
+     *  written
+     */
+    public static InteractionTraceRecorder start(@NotNull OsmDataLayer layer,
+            @NotNull File directory) throws IOException {
+        Objects.requireNonNull(layer);
+        Objects.requireNonNull(directory);
+        Files.createDirectories(directory.toPath());
+        final String baseName = "trace-" + new SimpleDateFormat(
+            "yyyyMMdd-HHmmss-SSS").format(new Date());
+        final File datasetFile = new File(directory, baseName + ".osm");
+        writeSnapshot(layer.getDataSet(), datasetFile);
+
+        final File traceFile = new File(directory, baseName + ".trace");
+        final BufferedWriter out = Files.newBufferedWriter(
+            traceFile.toPath(), StandardCharsets.UTF_8);
+        try {
+            out.write(InteractionTrace.HEADER);
+            out.newLine();
+            final File source = layer.getAssociatedFile();
+            out.write("# layer " + layer.getName()
+                + (source == null ? "" : ", file " + source));
+            out.newLine();
+            out.write("dataset " + datasetFile.getName());
+            out.newLine();
+            out.write(InteractionTrace.formatProjection(
+                ProjectionRegistry.getProjection().toCode()));
+            out.newLine();
+            out.flush();
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+        logger.info(String.format("Recording interaction trace to '%s'",
+            traceFile));
+        return new InteractionTraceRecorder(traceFile, out);
+    }
+
+    private static void writeSnapshot(DataSet ds, File file)
+            throws IOException {
+        try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(
+                    file.toPath(), StandardCharsets.UTF_8));
+             OsmWriter writer = OsmWriterFactory.createOsmWriter(pw,
+                false /* not osm conform, include new primitives */,
+                "0.6")) {
+            ds.getReadLock().lock();
+            try {
+                writer.write(ds);
+            } finally {
+                ds.getReadLock().unlock();
+            }
+            writer.flush();
+            if (pw.checkError()) {
+                throw new IOException(String.format(
+                    "failed to write dataset snapshot '%s'", file));
+            }
+        }
+    }
+
+    private final File traceFile;
+    private BufferedWriter out;
+    private long startTime = -1;
+
+    private InteractionTraceRecorder(File traceFile, BufferedWriter out) {
+        this.traceFile = traceFile;
+        this.out = out;
+    }
+
+    /**
+     * Replies the trace file.
+     *
+     * @return the trace file
+     */
+    public File getTraceFile() {
+        return traceFile;
+    }
+
+    /**
+     * Records the mouse event {@code e}. Resolves the position of the
+     * event in the map view {@code mapView}.
+     * <p>
+     * If writing the event fails, the recorder logs a warning and
+     * stops recording.
+     *
+     * @param type the type of the event. Must not be null.
+     * @param e the mouse event. Must not be null.
+     * @param mapView the map view. Must not be null.
+     */
+    public void record(@NotNull InteractionTrace.Type type,
+            @NotNull MouseEvent e, @NotNull MapView mapView) {
+        Objects.requireNonNull(type);
+        Objects.requireNonNull(e);
+        Objects.requireNonNull(mapView);
+        if (out == null) return;
+        if (startTime < 0) startTime = e.getWhen();
+        final EastNorth position = mapView.getEastNorth(e.getX(), e.getY());
+        final InteractionTrace.Event event = new InteractionTrace.Event(
+            type, e.getWhen() - startTime, position, mapView.getCenter(),
+            mapView.getScale(), e.getButton(), e.getModifiersEx());
+        try {
+            out.write(event.format());
+            out.newLine();
+            // keep the tail of the trace, if JOSM crashes
+            out.flush();
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, String.format(
+                "Failed to record interaction trace to '%s'. "
+                + "Recording stopped.", traceFile), ex);
+            close();
+        }
+    }
+
+    /**
+     * Stops recording and closes the trace file.
+     */
+    @Override
+    public void close() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, String.format(
+                "Failed to close interaction trace '%s'", traceFile), e);
+        }
+        out = null;
+    }
+}
@@ -0,0 +1,225 @@
+package org.openstreetmap.josm.plugins.contourmerge;
+
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Null;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+/**
+ * <strong>IntersectionChecker</strong> checks whether the new node list
+ * of a way modified by a merge intersects itself or crosses the target
+ * way of the merge.
+ * <p>
+ * If the direction heuristic picks the wrong direction for the target
+ * slice, see {@link WaySlice#isDirectionAlignedWith(WaySlice)}, the
+ * merge produces a bow tie. The checker packs the segments of the
+ * modified way and of the target way into a {@link StrTree} and checks
+ * every new segment against the segments whose bounding boxes intersect
+ * its own. It stops at the first crossing.
+ * <p>
+ * A sweep line (Shamos-Hoey) would have to handle the crossings between
+ * existing segments, which are normal when overlapping areas are merged.
+ * Checking only the new segments against the index isn't affected by
+ * them; the cost is O(k log n) for k new segments out of n, plus the
+ * candidate pairs.
+ * <p>
+ * Only proper crossings are reported, see
+ * {@link GeometryUtils#segmentsCross(double, double, double, double,
+ * double, double, double, double)}. Segments sharing a node never cross.
+ * Crossings between segments which already exist before the merge
+ * aren't reported, because they aren't caused by the merge.
+ */
+public class IntersectionChecker {
+
+    /**
+     * Whether the result of a merge is checked for crossing segments.
+     */
+    public static final BooleanProperty CHECK_INTERSECTIONS =
+        new BooleanProperty("contourmerge.check-intersections", true);
+
+    /**
+     * A crossing of a new segment of a modified way with another segment.
+     *
+     * @param way the modified way
+     * @param index the index of the new segment in the new node list of
+     *  {@code way}
+     * @param other the way of the other segment, either {@code way} or
+     *  the target way
+     * @param otherIndex the index of the other segment, in the new node
+     *  list, if {@code other} is {@code way}
+     */
+    public record Intersection(Way way, int index, Way other,
+                               int otherIndex) {
+        public boolean isSelfIntersection() {
+            return way == other;
+        }
+
+        /**
+         * Replies a translated description of the intersection.
+         *
+         * @return the description
+         */
+        public String getMessage() {
+            return isSelfIntersection()
+                ? tr("Way {0} would intersect itself at the segments {1} "
+                    + "and {2}", way.getUniqueId(), index, otherIndex)
+                : tr("Way {0} would cross way {1} at segment {2}",
+                    way.getUniqueId(), other.getUniqueId(), index);
+        }
+    }
+
+    // the kinds of segments
+    static private final byte OLD = 0;
+    static private final byte NEW = 1;
+    static private final byte TARGET = 2;
+
+    /*
+     * A segment of a way, independent of its direction.
+     */
+    private record Edge(long a, long b) {
+        static Edge of(Node n1, Node n2) {
+            final long u1 = n1.getUniqueId();
+            final long u2 = n2.getUniqueId();
+            return u1 <= u2 ? new Edge(u1, u2) : new Edge(u2, u1);
+        }
+    }
+
+    /**
+     * Replies the first crossing of a new segment in the planned node
+     * list {@code nodes} of {@code way} with another segment of
+     * {@code nodes} or with a segment of {@code target}. A segment is new,
+     * if its two nodes aren't consecutive in the current node list of
+     * {@code way}.
+     *
+     * @param way the modified way. Must not be null.
+     * @param nodes the planned node list of {@code way}. Must not be null.
+     * @param target the target way of the merge. Only self intersections
+     *  are checked, if null.
+     * @return the first crossing, or null, if there is none
+     */
+    public static @Null Intersection findIntersection(@NotNull Way way,
+            @NotNull List<Node> nodes, @Null Way target) {
+        Objects.requireNonNull(way);
+        Objects.requireNonNull(nodes);
+        final Set<Edge> oldEdges = new HashSet<>();
+        final List<Node> oldNodes = way.getNodes();
+        for (int i = 1; i < oldNodes.size(); i++) {
+            oldEdges.add(Edge.of(oldNodes.get(i - 1), oldNodes.get(i)));
+        }
+        final int numTargetSegments = target == null || target == way
+            ? 0 : Math.max(0, target.getNodesCount() - 1);
+        final IntersectionChecker checker = new IntersectionChecker(
+            way, target, Math.max(0, nodes.size() - 1) + numTargetSegments);
+        boolean hasNewSegments = false;
+        for (int i = 1; i < nodes.size(); i++) {
+            final Node a = nodes.get(i - 1);
+            final Node b = nodes.get(i);
+            final boolean isNew = !oldEdges.contains(Edge.of(a, b));
+            checker.add(a, b, i - 1, isNew ? NEW : OLD);
+            hasNewSegments |= isNew;
+        }
+        if (!hasNewSegments) return null;
+        for (int i = 0; i < numTargetSegments; i++) {
+            checker.add(target.getNode(i), target.getNode(i + 1), i, TARGET);
+        }
+        return checker.findFirstIntersection();
+    }
+
+    private final Way way;
+    private final Way target;
+    private int numSegments = 0;
+    // the end points of the segments, [x1, y1, x2, y2, ...], the left
+    // end point first, i.e. x1 <= x2
+    private final double[] c;
+    private final Node[] ends;
+    private final int[] indices;
+    private final byte[] kinds;
+
+    private IntersectionChecker(Way way, Way target, int capacity) {
+        this.way = way;
+        this.target = target;
+        this.c = new double[4 * capacity];
+        this.ends = new Node[2 * capacity];
+        this.indices = new int[capacity];
+        this.kinds = new byte[capacity];
+    }
+
+    private void add(Node a, Node b, int index, byte kind) {
+        final EastNorth ea = a.getEastNorth();
+        final EastNorth eb = b.getEastNorth();
+        // a degenerate segment can't cross anything
+        if (a == b || ea == null || eb == null || ea.equals(eb)) return;
+        final int s = numSegments++;
+        final boolean aIsLeft = ea.east() < eb.east()
+            || ea.east() == eb.east() && ea.north() < eb.north();
+        final EastNorth left = aIsLeft ? ea : eb;
+        final EastNorth right = aIsLeft ? eb : ea;
+        c[4 * s] = left.east();
+        c[4 * s + 1] = left.north();
+        c[4 * s + 2] = right.east();
+        c[4 * s + 3] = right.north();
+        ends[2 * s] = a;
+        ends[2 * s + 1] = b;
+        indices[s] = index;
+        kinds[s] = kind;
+    }
+
+    private boolean cross(int s1, int s2) {
+        if (kinds[s1] != NEW && kinds[s2] != NEW) return false;
+        final Node a1 = ends[2 * s1];
+        final Node b1 = ends[2 * s1 + 1];
+        final Node a2 = ends[2 * s2];
+        final Node b2 = ends[2 * s2 + 1];
+        if (a1 == a2 || a1 == b2 || b1 == a2 || b1 == b2) return false;
+        return GeometryUtils.segmentsCross(
+            c[4 * s1], c[4 * s1 + 1], c[4 * s1 + 2], c[4 * s1 + 3],
+            c[4 * s2], c[4 * s2 + 1], c[4 * s2 + 2], c[4 * s2 + 3]);
+    }
+
+    private Intersection intersection(int s1, int s2) {
+        if (kinds[s1] != NEW) {
+            final int s = s1;
+            s1 = s2;
+            s2 = s;
+        }
+        return new Intersection(way, indices[s1],
+            kinds[s2] == TARGET ? target : way, indices[s2]);
+    }
+
+    private Intersection findFirstIntersection() {
+        final double[] boxes = new double[4 * numSegments];
+        for (int s = 0; s < numSegments; s++) {
+            boxes[4 * s] = c[4 * s];
+            boxes[4 * s + 1] = Math.min(c[4 * s + 1], c[4 * s + 3]);
+            boxes[4 * s + 2] = c[4 * s + 2];
+            boxes[4 * s + 3] = Math.max(c[4 * s + 1], c[4 * s + 3]);
+        }
+        final StrTree tree = new StrTree(boxes);
+        // the candidate with the lowest index, for a deterministic result
+        final int[] first = new int[1];
+        for (int s = 0; s < numSegments; s++) {
+            if (kinds[s] != NEW) continue;
+            final int segment = s;
+            first[0] = -1;
+            tree.query(boxes[4 * s], boxes[4 * s + 1], boxes[4 * s + 2],
+                boxes[4 * s + 3], other -> {
+                    if (other != segment
+                            && (first[0] < 0 || other < first[0])
+                            && cross(segment, other)) {
+                        first[0] = other;
+                    }
+                });
+            if (first[0] >= 0) return intersection(s, first[0]);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,182 @@
+package org.openstreetmap.josm.plugins.contourmerge;
+
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
+
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Null;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * <strong>MagneticSnapper</strong> snaps the drop target to the way slice
+ * closest to a dragged way slice, so that a long way slice can be dropped
+ * without hitting a way segment with the mouse pointer.
+ * <p>
+ * The dragged slice is translated by the drag offset. The way segments
+ * near it are looked up in a {@link SegmentIndex}, with the bounding box
+ * of the translated slice, extended by the snapping distance. Only these
+ * segments are considered: on each way, the end nodes of the hit segments
+ * nearest to the start and the end node of the translated slice delimit
+ * the candidate slices, like in {@link TargetFinder}. A candidate with a
+ * segment outside of the search box is farther away than the snapping
+ * distance and is skipped. The other candidates are ranked by the
+ * symmetric Hausdorff distance between their nodes and the nodes of the
+ * translated slice, see {@link DistanceKernel.Segments}.
+ * <p>
+ * Unlike the discrete Fr&eacute;chet distance used by the
+ * {@link TargetFinder}, the Hausdorff distance doesn't require densified
+ * slices, which keeps a snap cheap enough for every drag step.
+ */
+public class MagneticSnapper {
+
+    /**
+     * Whether the drop target snaps to the way slice closest to the
+     * dragged way slice.
+     */
+    public static final BooleanProperty MAGNETIC_SNAPPING =
+        new BooleanProperty("contourmerge.magnetic-snapping", false);
+
+    /**
+     * The maximal distance, in pixels, between a dragged way slice and the
+     * way slice the drop target snaps to.
+     */
+    public static final IntegerProperty SNAPPING_DISTANCE =
+        new IntegerProperty("contourmerge.magnetic-snapping-distance", 20);
+
+    private final SegmentIndex index;
+
+    /**
+     * Creates a snapper.
+     *
+     * @param index the index of the way segments. Must not be null.
+     */
+    public MagneticSnapper(@NotNull SegmentIndex index) {
+        Objects.requireNonNull(index);
+        this.index = index;
+    }
+
+    static private boolean isCandidate(Way way, Way source) {
+        return way != source && !way.isDeleted() && !way.isIncomplete()
+            && way.isUsable() && way.getNodesCount() >= 2;
+    }
+
+    /*
+     * The index of the end node of a hit segment of the way nearest to
+     * (px, py), within the squared distance max2. The join node of a
+     * closed way is reported as its first node. -1, if there is no such
+     * node.
+     */
+    static private int nearestNode(Way way, BitSet hits, double px,
+            double py, double max2) {
+        final int last = way.isClosed() ? way.getNodesCount() - 1 : -1;
+        int nearest = -1;
+        double min = max2;
+        for (int k = hits.nextSetBit(0); k >= 0; k = hits.nextSetBit(k + 1)) {
+            for (int i = k; i <= k + 1; i++) {
+                final EastNorth en = way.getNode(i).getEastNorth();
+                if (en == null) continue;
+                final double d = DistanceKernel.squaredDistance(px, py,
+                    en.east(), en.north());
+                if (d < min || nearest < 0 && d <= min) {
+                    min = d;
+                    nearest = i == last ? 0 : i;
+                }
+            }
+        }
+        return nearest;
+    }
+
+    /*
+     * true, if all segments of the slice are hits
+     */
+    static private boolean isHit(WaySlice slice, BitSet hits) {
+        if (slice.isInDirection()) {
+            return hits.nextClearBit(slice.getStart()) >= slice.getEnd();
+        }
+        // the slice wraps around the join node of the closed way
+        final int last = slice.getWay().getNodesCount() - 1;
+        return hits.nextClearBit(slice.getEnd()) >= last
+            && hits.nextClearBit(0) >= slice.getStart();
+    }
+
+    /**
+     * Replies the way slice closest to the way slice {@code source},
+     * translated by <code>(dx, dy)</code>.
+     *
+     * @param source the dragged way slice. Must not be null.
+     * @param dx the east offset of the translation
+     * @param dy the north offset of the translation
+     * @param maxDistance the maximal distance, in east/north units
+     * @param accept accepts the ways the drop target may snap to. Must not
+     *  be null.
+     * @return the closest way slice. null, if there is no way slice
+     *  within {@code maxDistance}.
+     */
+    public @Null WaySlice snap(@NotNull WaySlice source, double dx,
+            double dy, double maxDistance, @NotNull Predicate<Way> accept) {
+        Objects.requireNonNull(source);
+        Objects.requireNonNull(accept);
+        final double[] s = source.getEastNorthCoordinates().clone();
+        final int n = s.length / 2;
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            s[2*i] += dx;
+            s[2*i+1] += dy;
+            if (Double.isNaN(s[2*i]) || Double.isNaN(s[2*i+1])) return null;
+            minX = Math.min(minX, s[2*i]);
+            minY = Math.min(minY, s[2*i+1]);
+            maxX = Math.max(maxX, s[2*i]);
+            maxY = Math.max(maxY, s[2*i+1]);
+        }
+        if (n < 2) return null;
+
+        // the hit segments, per way
+        final Map<Way, BitSet> hits = new LinkedHashMap<>();
+        index.query(minX - maxDistance, minY - maxDistance,
+            maxX + maxDistance, maxY + maxDistance, (way, i) ->
+                hits.computeIfAbsent(way, w -> new BitSet()).set(i));
+
+        final DistanceKernel.Segments sourceSegments =
+            DistanceKernel.Segments.of(s);
+        WaySlice best = null;
+        double bound = maxDistance;
+        for (Map.Entry<Way, BitSet> entry: hits.entrySet()) {
+            final Way way = entry.getKey();
+            if (!isCandidate(way, source.getWay()) || !accept.test(way)) {
+                continue;
+            }
+            // the end nodes of a candidate are the nodes nearest to the end
+            // nodes of the source. Ways without nodes within the bound of
+            // both end nodes of the source don't have a close slice.
+            final double bound2 = bound * bound;
+            final int i = nearestNode(way, entry.getValue(), s[0], s[1],
+                bound2);
+            if (i < 0) continue;
+            final int j = nearestNode(way, entry.getValue(), s[2*n-2],
+                s[2*n-1], bound2);
+            if (j < 0) continue;
+            for (WaySlice candidate: TargetFinder.candidateSlices(way, i, j)) {
+                if (!isHit(candidate, entry.getValue())) continue;
+                final double[] t = candidate.getEastNorthCoordinates();
+                final double d = sourceSegments.maxDistanceFrom(t);
+                if (d > bound) continue;
+                final double e = Math.max(d,
+                    DistanceKernel.Segments.of(t).maxDistanceFrom(s));
+                if (e < bound || best == null && e <= bound) {
+                    best = candidate;
+                    bound = e;
+                }
+            }
+        }
+        return best;
+    }
+}
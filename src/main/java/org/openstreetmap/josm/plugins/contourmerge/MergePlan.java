@@ -0,0 +1,211 @@
+package org.openstreetmap.josm.plugins.contourmerge;
+
+import org.openstreetmap.josm.command.ChangeNodesCommand;
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.command.DeleteCommand;
+import org.openstreetmap.josm.data.osm.DataIntegrityProblemException;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.osm.Way;
+
+import javax.validation.constraints.NotNull;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+/**
+ * <strong>MergePlan</strong> is the outcome of planning a merge, before
+ * any command is built.
+ * <p>
+ * A plan is computed from the current state of a dataset, without
+ * modifying it, see {@link ContourMergeModel#planContourAlign(WaySlice,
+ * WaySlice)} and {@link ContourMergeService#plan(List)}. It is turned into
+ * a command in a separate step, see {@link #buildCommand(DataSet)}.
+ * <p>
+ * A plan is immutable and serializable. It refers to primitives by their
+ * unique ids, not by reference, so it can be cached, compared in tests,
+ * written to disk and replayed on a dataset with the same primitives.
+ *
+ * @param numMerges the number of merged source slices, i.e. the number
+ *  of accepted merge requests
+ * @param sources the merged source slices and their targets
+ * @param edits the new node lists of the modified ways, in the order in
+ *  which the ways are changed
+ * @param deletedNodes the unique ids of the nodes which are deleted
+ */
+public record MergePlan(int numMerges,
+                        @NotNull List<Source> sources,
+                        @NotNull List<WayEdit> edits,
+                        @NotNull List<Long> deletedNodes)
+        implements Serializable {
+
+    /**
+     * Refers to a way slice by the unique id of its way.
+     *
+     * @param way the unique id of the way
+     * @param start the index of the start node
+     * @param end the index of the end node
+     * @param inDirection see {@link WaySlice#isInDirection()}
+     */
+    public record SliceRef(long way, int start, int end,
+                           boolean inDirection) implements Serializable {
+
+        public static SliceRef of(@NotNull WaySlice slice) {
+            Objects.requireNonNull(slice);
+            return new SliceRef(slice.getWay().getUniqueId(),
+                slice.getStart(), slice.getEnd(), slice.isInDirection());
+        }
+
+        /**
+         * Resolves the way slice in the dataset {@code ds}.
+         *
+         * @param ds the dataset. Must not be null.
+         * @return the way slice
+         * @throws DataIntegrityProblemException if the way doesn't exist
+         *  in {@code ds}
+         */
+        public WaySlice resolve(@NotNull DataSet ds) {
+            return new WaySlice(resolveWay(ds, way), start, end, inDirection);
+        }
+    }
+
+    /**
+     * A source slice, merged onto a target slice.
+     *
+     * @param source the source slice
+     * @param target the target slice
+     * @param aligned true, if the nodes of the target slice are inserted
+     *  in their order, false, if they are inserted in reverse order
+     */
+    public record Source(@NotNull SliceRef source, @NotNull SliceRef target,
+                         boolean aligned) implements Serializable {
+        public Source {
+            Objects.requireNonNull(source);
+            Objects.requireNonNull(target);
+        }
+    }
+
+    /**
+     * The new node list of a modified way.
+     *
+     * @param way the unique id of the way
+     * @param nodes the unique ids of the new nodes
+     */
+    public record WayEdit(long way, @NotNull List<Long> nodes)
+            implements Serializable {
+        public WayEdit {
+            nodes = List.copyOf(nodes);
+        }
+    }
+
+    public MergePlan {
+        sources = List.copyOf(sources);
+        edits = List.copyOf(edits);
+        deletedNodes = List.copyOf(deletedNodes);
+    }
+
+    /**
+     * Creates a plan.
+     *
+     * @param numMerges the number of merged source slices
+     * @param sources the merged source slices. Must not be null.
+     * @param modifiedWays the new node lists of the modified ways. Must not
+     *  be null.
+     * @param deletedNodes the nodes which are deleted. Must not be null.
+     * @return the plan
+     */
+    public static MergePlan of(int numMerges, @NotNull List<Source> sources,
+            @NotNull Map<Way, List<Node>> modifiedWays,
+            @NotNull Collection<Node> deletedNodes) {
+        Objects.requireNonNull(sources);
+        Objects.requireNonNull(modifiedWays);
+        Objects.requireNonNull(deletedNodes);
+        final List<WayEdit> edits = new ArrayList<>(modifiedWays.size());
+        modifiedWays.forEach((way, nodes) -> edits.add(new WayEdit(
+            way.getUniqueId(), uniqueIds(nodes))));
+        return new MergePlan(numMerges, sources, edits,
+            uniqueIds(deletedNodes));
+    }
+
+    private static List<Long> uniqueIds(Collection<Node> nodes) {
+        return nodes.stream()
+            .map(OsmPrimitive::getUniqueId)
+            .collect(Collectors.toList());
+    }
+
+    private static <T extends OsmPrimitive> T resolve(DataSet ds, long id,
+            OsmPrimitiveType type, Class<T> clazz) {
+        final OsmPrimitive primitive = ds.getPrimitiveById(id, type);
+        if (!clazz.isInstance(primitive) || primitive.isDeleted()) {
+            throw new DataIntegrityProblemException(tr(
+                "Primitive {0} of the merge plan doesn''t exist in the "
+                + "dataset", id));
+        }
+        return clazz.cast(primitive);
+    }
+
+    private static Way resolveWay(DataSet ds, long id) {
+        return resolve(ds, id, OsmPrimitiveType.WAY, Way.class);
+    }
+
+    private static Node resolveNode(DataSet ds, long id) {
+        return resolve(ds, id, OsmPrimitiveType.NODE, Node.class);
+    }
+
+    /**
+     * Replies true, if the plan doesn't change anything.
+     *
+     * @return true, if the plan is empty
+     */
+    public boolean isEmpty() {
+        return edits.isEmpty() && deletedNodes.isEmpty();
+    }
+
+    /**
+     * Replies the translated name of the command built for this plan.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return numMerges == 1
+            ? tr("Merging Contour")
+            : tr("Merging {0} contours", numMerges);
+    }
+
+    /**
+     * Builds the command which applies the plan to the dataset
+     * {@code ds}. The ways are changed in the order of the
+     * {@link #edits() edits}, then the nodes are deleted. The command
+     * is executed as one cycle of dataset events.
+     *
+     * @param ds the dataset. Must not be null.
+     * @return the command. null, if the plan is empty.
+     * @throws DataIntegrityProblemException if a primitive of the plan
+     *  doesn't exist in {@code ds}
+     */
+    public Command buildCommand(@NotNull DataSet ds) {
+        Objects.requireNonNull(ds);
+        if (isEmpty()) return null;
+        final List<Command> cmds = new ArrayList<>(edits.size() + 1);
+        for (WayEdit edit: edits) {
+            final List<Node> nodes = new ArrayList<>(edit.nodes().size());
+            for (long id: edit.nodes()) nodes.add(resolveNode(ds, id));
+            cmds.add(new ChangeNodesCommand(resolveWay(ds, edit.way()),
+                nodes));
+        }
+        if (!deletedNodes.isEmpty()) {
+            final List<Node> nodes = new ArrayList<>(deletedNodes.size());
+            for (long id: deletedNodes) nodes.add(resolveNode(ds, id));
+            cmds.add(new DeleteCommand(nodes));
+        }
+        return new ContourMergeService.BatchMergeCommand(getName(), cmds);
+    }
+}
@@ -0,0 +1,192 @@
+package org.openstreetmap.josm.plugins.contourmerge;
+
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+
+import javax.validation.constraints.NotNull;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+/**
+ * <strong>MergeValidator</strong> checks the node lists of all ways
+ * modified by a merge, before the merge is applied to the dataset.
+ * <p>
+ * For each modified way, it checks
+ * <ul>
+ *   <li>that a closed way is still closed,</li>
+ *   <li>that the way has the minimal number of nodes,</li>
+ *   <li>that there are no consecutive duplicate nodes,</li>
+ *   <li>that there are no slings, i.e. sequences <code>a, b, a</code>,
+ *   </li>
+ *   <li>that all nodes belong to the dataset of the way and aren't
+ *   deleted, neither in the dataset nor by the merge.</li>
+ * </ul>
+ * Large sets of ways are checked in parallel on the common fork-join pool.
+ * Validation stops as soon as a problem is found; the problems found so
+ * far are replied.
+ */
+public class MergeValidator {
+
+    /**
+     * Minimal number of modified ways to check them in parallel.
+     */
+    static final int PARALLEL_THRESHOLD = 64;
+
+    /**
+     * Number of ways a fork-join task checks sequentially.
+     */
+    static private final int BATCH_SIZE = 16;
+
+    /**
+     * The kinds of problems the validator detects.
+     */
+    public enum Kind {
+        NOT_CLOSED,
+        TOO_FEW_NODES,
+        CONSECUTIVE_DUPLICATE,
+        SLING,
+        DANGLING_REFERENCE
+    }
+
+    /**
+     * A problem in the node list of a modified way.
+     *
+     * @param way the way
+     * @param kind the kind of problem
+     * @param index the index in the new node list where the problem
+     *  occurs, or -1, if it concerns the whole node list
+     * @param message a translated description of the problem
+     */
+    public record Problem(Way way, Kind kind, int index, String message) {}
+
+    private final Set<Node> deletedNodes;
+
+    /**
+     * Creates a validator.
+     *
+     * @param deletedNodes the nodes which are deleted by the merge. Must
+     *  not be null.
+     */
+    public MergeValidator(@NotNull Set<Node> deletedNodes) {
+        Objects.requireNonNull(deletedNodes);
+        this.deletedNodes = deletedNodes;
+    }
+
+    /**
+     * Validates the new node lists {@code modifiedWays} of the ways
+     * modified by a merge.
+     *
+     * @param modifiedWays the new node lists, per modified way. Must not
+     *  be null.
+     * @return the problems. Empty, if no problems were found.
+     */
+    public List<Problem> validate(@NotNull Map<Way, List<Node>> modifiedWays) {
+        Objects.requireNonNull(modifiedWays);
+        final List<Map.Entry<Way, List<Node>>> entries =
+            new ArrayList<>(modifiedWays.entrySet());
+        final Collection<Problem> problems = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final ValidationTask task = new ValidationTask(entries, 0,
+            entries.size(), problems, failed);
+        if (entries.size() >= PARALLEL_THRESHOLD) {
+            ForkJoinPool.commonPool().invoke(task);
+        } else {
+            task.compute();
+        }
+        return new ArrayList<>(problems);
+    }
+
+    private final class ValidationTask extends RecursiveAction {
+        private final List<Map.Entry<Way, List<Node>>> entries;
+        private final int from;
+        private final int to;
+        private final Collection<Problem> problems;
+        private final AtomicBoolean failed;
+
+        ValidationTask(List<Map.Entry<Way, List<Node>>> entries, int from,
+                int to, Collection<Problem> problems, AtomicBoolean failed) {
+            this.entries = entries;
+            this.from = from;
+            this.to = to;
+            this.problems = problems;
+            this.failed = failed;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BATCH_SIZE) {
+                final int mid = (from + to) >>> 1;
+                invokeAll(
+                    new ValidationTask(entries, from, mid, problems, failed),
+                    new ValidationTask(entries, mid, to, problems, failed));
+                return;
+            }
+            for (int i = from; i < to && !failed.get(); i++) {
+                final Map.Entry<Way, List<Node>> entry = entries.get(i);
+                final Problem problem = check(entry.getKey(),
+                    entry.getValue());
+                if (problem != null) {
+                    problems.add(problem);
+                    failed.set(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the new node list {@code nodes} of the way {@code way}.
+     * Replies the first problem found, or null.
+     *
+     * @param way the way
+     * @param nodes the new node list of the way
+     * @return the first problem, or null
+     */
+    Problem check(Way way, List<Node> nodes) {
+        final int n = nodes.size();
+        final boolean closed = way.isClosed();
+        if (n < (closed ? 3 : 2)) {
+            return new Problem(way, Kind.TOO_FEW_NODES, -1,
+                tr("Way {0} would have {1} nodes only",
+                    way.getUniqueId(), n));
+        }
+        if (closed && nodes.get(0) != nodes.get(n - 1)) {
+            return new Problem(way, Kind.NOT_CLOSED, -1,
+                tr("Closed way {0} wouldn''t be closed anymore",
+                    way.getUniqueId()));
+        }
+        final DataSet ds = way.getDataSet();
+        for (int i = 0; i < n; i++) {
+            final Node node = nodes.get(i);
+            if (node == null || node.getDataSet() != ds || node.isDeleted()
+                    || deletedNodes.contains(node)) {
+                return new Problem(way, Kind.DANGLING_REFERENCE, i,
+                    tr("Way {0} would refer to a deleted or missing node "
+                        + "at position {1}", way.getUniqueId(), i));
+            }
+            if (i > 0 && node == nodes.get(i - 1)) {
+                return new Problem(way, Kind.CONSECUTIVE_DUPLICATE, i,
+                    tr("Way {0} would have the same node at positions {1} "
+                        + "and {2}", way.getUniqueId(), i - 1, i));
+            }
+            // a closed way with three nodes is a, b, a, not a sling
+            if (i > 1 && node == nodes.get(i - 2) && !(closed && n == 3)) {
+                return new Problem(way, Kind.SLING, i,
+                    tr("Way {0} would have a sling at position {1}",
+                        way.getUniqueId(), i - 1));
+            }
+        }
+        // a sling across the join node of a closed way
+        if (closed && n > 3 && nodes.get(1) == nodes.get(n - 2)) {
+            return new Problem(way, Kind.SLING, 0,
+                tr("Way {0} would have a sling at position {1}",
+                    way.getUniqueId(), 0));
+        }
+        return null;
+    }
+}
@@ -0,0 +1,267 @@
+package org.openstreetmap.josm.plugins.contourmerge;
+
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.data.preferences.DoubleProperty;
+
+import javax.validation.constraints.NotNull;
+import java.util.*;
+
+/**
+ * <strong>NodeCoalescer</strong> merges coincident nodes along the
+ * boundary affected by a merge.
+ * <p>
+ * After a merge, nodes of different ways often sit at identical or
+ * nearly identical positions along the new boundary. The coalescer
+ * hashes the nodes of the modified ways and of the target ways into a
+ * grid with a cell size equal to the tolerance. Untagged nodes of
+ * different ways within the tolerance are merged into one node. The
+ * cost is linear in the number of nodes along the boundary; the rest of
+ * the layer isn't looked at.
+ * <p>
+ * The nodes are merged into groups. A group never contains two nodes of
+ * the same way, considering all ways which refer to the nodes, not only
+ * the ways along the boundary. Every node of a group is within the
+ * tolerance of the node the group is merged into, so that groups don't
+ * grow into chains of nodes.
+ * <p>
+ * The coalescer works on planned node lists, see
+ * {@link #coalesce(Map, Collection)}. It doesn't modify the dataset.
+ */
+public class NodeCoalescer {
+
+    /**
+     * Whether coincident nodes are merged after a contour merge.
+     */
+    public static final BooleanProperty COALESCE_NODES =
+        new BooleanProperty("contourmerge.coalesce-nodes", false);
+
+    /**
+     * The maximal distance, in meters, between two nodes which are merged.
+     */
+    public static final DoubleProperty COALESCE_TOLERANCE =
+        new DoubleProperty("contourmerge.coalesce-tolerance", 0.05);
+
+    private final double toleranceInMeters;
+
+    /**
+     * Creates a coalescer with the tolerance configured in the
+     * preferences.
+     */
+    public NodeCoalescer() {
+        this(COALESCE_TOLERANCE.get());
+    }
+
+    /**
+     * Creates a coalescer.
+     *
+     * @param toleranceInMeters the tolerance in meters
+     */
+    public NodeCoalescer(double toleranceInMeters) {
+        this.toleranceInMeters = toleranceInMeters;
+    }
+
+    /*
+     * The node lists of ways after the merge: the planned node list of a
+     * modified way, the current node list otherwise.
+     */
+    private static List<Node> plannedNodes(Map<Way, List<Node>> modifiedWays,
+            Way way) {
+        final List<Node> nodes = modifiedWays.get(way);
+        return nodes != null ? nodes : way.getNodes();
+    }
+
+    /*
+     * A node can be merged, if it isn't tagged and if it is only
+     * referred to by ways.
+     */
+    private static boolean isCoalescable(Node node) {
+        if (node.isTagged() || node.isDeleted()) return false;
+        if (node.getEastNorth() == null) return false;
+        for (OsmPrimitive referrer: node.getReferrers()) {
+            if (!(referrer instanceof Way)) return false;
+        }
+        return true;
+    }
+
+    private static long cellKey(long ix, long iy) {
+        return (ix << 32) ^ (iy & 0xffffffffL);
+    }
+
+    private static Node find(Map<Node, Node> parent, Node node) {
+        Node root = node;
+        while (parent.get(root) != root) root = parent.get(root);
+        // path compression
+        while (node != root) {
+            final Node next = parent.get(node);
+            parent.put(node, root);
+            node = next;
+        }
+        return root;
+    }
+
+    /*
+     * The ways which refer to node after the merge: the ways along the
+     * boundary whose planned node lists contain it, and the other ways
+     * which currently refer to it.
+     */
+    private static Set<Way> referrerWays(Set<Way> boundaryWays, Node node) {
+        final Set<Way> ways = new HashSet<>();
+        for (OsmPrimitive referrer: node.getReferrers()) {
+            if (!boundaryWays.contains(referrer)) ways.add((Way) referrer);
+        }
+        return ways;
+    }
+
+    private static boolean isWithin(Collection<Node> nodes, Node root,
+            double tolerance) {
+        final EastNorth ren = root.getEastNorth();
+        for (Node node: nodes) {
+            final EastNorth en = node.getEastNorth();
+            if (DistanceKernel.squaredDistance(en.east(), en.north(),
+                    ren.east(), ren.north()) > tolerance * tolerance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * The representative of a group of merged nodes: a node which
+     * already exists on the server, if any, preferably the one with the
+     * lowest id.
+     */
+    private static Node preferred(Node a, Node b) {
+        if (a.isNew() != b.isNew()) return a.isNew() ? b : a;
+        return Math.abs(a.getUniqueId()) <= Math.abs(b.getUniqueId()) ? a : b;
+    }
+
+    /**
+     * Merges coincident nodes of the ways in {@code modifiedWays} and in
+     * {@code targetWays}.
+     * <p>
+     * Updates the planned node lists in {@code modifiedWays}. Ways which
+     * refer to a merged node, but weren't modified so far, are added to
+     * {@code modifiedWays}.
+     *
+     * @param modifiedWays the planned node lists of the modified ways.
+     *  Must not be null.
+     * @param targetWays the target ways of the merge. Must not be null.
+     * @return the merged nodes, mapped to the node they are replaced
+     *  with. Empty, if no nodes were merged.
+     */
+    public Map<Node, Node> coalesce(@NotNull Map<Way, List<Node>> modifiedWays,
+            @NotNull Collection<Way> targetWays) {
+        Objects.requireNonNull(modifiedWays);
+        Objects.requireNonNull(targetWays);
+
+        // the candidate nodes and all their parent ways after the merge
+        final Map<Node, Set<Way>> parents = new LinkedHashMap<>();
+        final Set<Way> boundaryWays = new LinkedHashSet<>(
+            modifiedWays.keySet());
+        boundaryWays.addAll(targetWays);
+        for (Way way: boundaryWays) {
+            for (Node node: plannedNodes(modifiedWays, way)) {
+                if (!parents.containsKey(node)) {
+                    if (!isCoalescable(node)) continue;
+                    parents.put(node, referrerWays(boundaryWays, node));
+                }
+                parents.get(node).add(way);
+            }
+        }
+        if (parents.size() < 2) return Collections.emptyMap();
+
+        final Node reference = parents.keySet().iterator().next();
+        final double tolerance = GeometryUtils.metersToProjectedUnits(
+            reference, toleranceInMeters);
+        if (!(tolerance > 0)) return Collections.emptyMap();
+
+        // hash the nodes into a grid and merge them with the nodes in the
+        // neighbouring cells
+        final Map<Long, List<Node>> grid = new HashMap<>();
+        final Map<Node, Node> parent = new HashMap<>();
+        // the parent ways and the members of a group, per root
+        final Map<Node, Set<Way>> groupWays = new HashMap<>();
+        final Map<Node, List<Node>> members = new HashMap<>();
+        for (Node node: parents.keySet()) {
+            parent.put(node, node);
+            groupWays.put(node, new HashSet<>(parents.get(node)));
+            members.put(node, new ArrayList<>(List.of(node)));
+            final EastNorth en = node.getEastNorth();
+            final long ix = (long) Math.floor(en.east() / tolerance);
+            final long iy = (long) Math.floor(en.north() / tolerance);
+            for (long dx = -1; dx <= 1; dx++) {
+                for (long dy = -1; dy <= 1; dy++) {
+                    final List<Node> cell = grid.get(cellKey(ix + dx, iy + dy));
+                    if (cell == null) continue;
+                    for (Node other: cell) {
+                        final EastNorth oen = other.getEastNorth();
+                        if (DistanceKernel.squaredDistance(en.east(),
+                                en.north(), oen.east(), oen.north())
+                                > tolerance * tolerance) {
+                            continue;
+                        }
+                        final Node r1 = find(parent, node);
+                        final Node r2 = find(parent, other);
+                        if (r1 == r2) continue;
+                        // don't merge two nodes of the same way, not even
+                        // through a node of another way
+                        if (!Collections.disjoint(groupWays.get(r1),
+                                groupWays.get(r2))) {
+                            continue;
+                        }
+                        final Node root = preferred(r1, r2);
+                        final Node absorbed = root == r1 ? r2 : r1;
+                        // the root keeps its position, the members of the
+                        // other group must be within the tolerance of it
+                        if (!isWithin(members.get(absorbed), root,
+                                tolerance)) {
+                            continue;
+                        }
+                        parent.put(absorbed, root);
+                        groupWays.get(root).addAll(
+                            groupWays.remove(absorbed));
+                        members.get(root).addAll(members.remove(absorbed));
+                    }
+                }
+            }
+            grid.computeIfAbsent(cellKey(ix, iy), k -> new ArrayList<>())
+                .add(node);
+        }
+
+        final Map<Node, Node> replacements = new LinkedHashMap<>();
+        for (Node node: parents.keySet()) {
+            final Node root = find(parent, node);
+            if (root != node) replacements.put(node, root);
+        }
+        if (replacements.isEmpty()) return replacements;
+
+        // replace the merged nodes in all ways which refer to them
+        final Set<Way> affectedWays = new LinkedHashSet<>(boundaryWays);
+        for (Node node: replacements.keySet()) {
+            for (OsmPrimitive referrer: node.getReferrers()) {
+                affectedWays.add((Way) referrer);
+            }
+        }
+        for (Way way: affectedWays) {
+            final List<Node> nodes = plannedNodes(modifiedWays, way);
+            final List<Node> updated = new ArrayList<>(nodes.size());
+            boolean changed = false;
+            for (Node node: nodes) {
+                final Node replacement = replacements.get(node);
+                if (replacement != null) changed = true;
+                final Node n = replacement != null ? replacement : node;
+                // collapse consecutive duplicates
+                if (!updated.isEmpty() && updated.get(updated.size() - 1) == n) {
+                    continue;
+                }
+                updated.add(n);
+            }
+            if (changed) modifiedWays.put(way, updated);
+        }
+        return replacements;
+    }
+}
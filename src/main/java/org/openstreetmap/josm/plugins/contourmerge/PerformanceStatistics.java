@@ -0,0 +1,131 @@
+package org.openstreetmap.josm.plugins.contourmerge;
+
+import javax.validation.constraints.NotNull;
+import java.util.Objects;
+
+/**
+ * <strong>PerformanceStatistics</strong> keeps the latest timings of the
+ * contour merge mode, i.e. to diagnose slow merges on a user's machine
+ * without a profiler. They are displayed in the performance overlay, see
+ * {@link ContourMergeView#SHOW_PERFORMANCE_OVERLAY}.
+ * <p>
+ * For every {@link Metric}, the statistics keep the last measured time
+ * and an exponential moving average. Recording a time doesn't allocate;
+ * it is cheap enough to be done for every mouse event.
+ * <p>
+ * The statistics are updated and read on the event dispatch thread.
+ */
+public class PerformanceStatistics {
+
+    /**
+     * The measured operations.
+     */
+    public enum Metric {
+        /** looking up the nearest node or way segment */
+        HIT_TEST,
+        /** computing a way slice from the selected nodes */
+        SLICE_COMPUTATION,
+        /** painting a frame of the contour merge view */
+        PAINT,
+        /** building the command for a merge */
+        MERGE_PLANNING,
+        /** executing the command for a merge */
+        MERGE_EXECUTION
+    }
+
+    /**
+     * The weight of the last measured time in the moving average.
+     */
+    static private final double SMOOTHING = 0.1;
+
+    static private final int NUM_METRICS = Metric.values().length;
+
+    static private PerformanceStatistics instance;
+
+    /**
+     * Replies the statistics of the contour merge mode.
+     *
+     * @return the statistics
+     */
+    public static PerformanceStatistics getInstance() {
+        return instance == null
+            ? instance = new PerformanceStatistics() : instance;
+    }
+
+    private final long[] lastNanos = new long[NUM_METRICS];
+    private final double[] averageNanos = new double[NUM_METRICS];
+    private final long[] counts = new long[NUM_METRICS];
+
+    /**
+     * Records the time {@code nanos} for the metric {@code metric}.
+     *
+     * @param metric the metric. Must not be null.
+     * @param nanos the time in nanoseconds
+     */
+    public void record(@NotNull Metric metric, long nanos) {
+        Objects.requireNonNull(metric);
+        final int i = metric.ordinal();
+        lastNanos[i] = nanos;
+        averageNanos[i] = counts[i] == 0
+            ? nanos
+            : averageNanos[i] + SMOOTHING * (nanos - averageNanos[i]);
+        counts[i]++;
+    }
+
+    /**
+     * Records the time since {@code startNanos} for the metric
+     * {@code metric}.
+     *
+     * @param metric the metric. Must not be null.
+     * @param startNanos the start time, see {@link System#nanoTime()}
+     */
+    public void recordSince(@NotNull Metric metric, long startNanos) {
+        record(metric, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Replies the last measured time for {@code metric}.
+     *
+     * @param metric the metric. Must not be null.
+     * @return the time in nanoseconds. 0, if nothing was measured yet.
+     */
+    public long getLastNanos(@NotNull Metric metric) {
+        Objects.requireNonNull(metric);
+        return lastNanos[metric.ordinal()];
+    }
+
+    /**
+     * Replies the moving average of the measured times for
+     * {@code metric}.
+     *
+     * @param metric the metric. Must not be null.
+     * @return the average time in nanoseconds. 0, if nothing was measured
+     *  yet.
+     */
+    public double getAverageNanos(@NotNull Metric metric) {
+        Objects.requireNonNull(metric);
+        return averageNanos[metric.ordinal()];
+    }
+
+    /**
+     * Replies the number of measurements for {@code metric}.
+     *
+     * @param metric the metric. Must not be null.
+     * @return the number of measurements
+     */
+    public long getCount(@NotNull Metric metric) {
+        Objects.requireNonNull(metric);
+        return counts[metric.ordinal()];
+    }
+
+    /**
+     * Discards all measurements.
+     */
+    public void reset() {
+        for (int i = 0; i < NUM_METRICS; i++) {
+            lastNanos[i] = 0;
+            averageNanos[i] = 0;
+            counts[i] = 0;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package org.openstreetmap.josm.plugins.contourmerge;
+
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Way;
+
+import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <strong>SegmentIndex</strong> is a spatial index of the way segments of
+ * a dataset, in east/north coordinates.
+ * <p>
+ * The bounding boxes of the segments are packed into a {@link StrTree},
+ * which is built in the background under the read lock of the dataset,
+ * see {@link #requestBuild()}. Until the first build is complete, queries
+ * don't find any segments.
+ * <p>
+ * The index is kept up to date incrementally: ways which change after a
+ * build, see {@link #waysChanged(Collection)}, are skipped in the tree and
+ * their segments are checked directly instead. When the changed ways have
+ * more than {@link #REBUILD_THRESHOLD} segments in total, the tree is
+ * rebuilt in the background, while queries use the previous tree and the
+ * changed ways.
+ * <p>
+ * The methods are thread safe. Queries are meant to be run on the event
+ * dispatch thread, while the tree is built on a worker thread.
+ */
+public class SegmentIndex {
+
+    static private final Logger logger =
+        Logger.getLogger(SegmentIndex.class.getName());
+
+    /**
+     * The maximal number of segments of the changed ways before the tree
+     * is rebuilt.
+     */
+    static final int REBUILD_THRESHOLD = 10_000;
+
+    /* one daemon thread for all indices */
+    static private final ExecutorService executor =
+        Executors.newSingleThreadExecutor(r -> {
+            final Thread t = new Thread(r, "contourmerge-segment-index");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+
+    /**
+     * Consumes the segments found by a query.
+     */
+    @FunctionalInterface
+    public interface SegmentConsumer {
+        /**
+         * Consumes a segment.
+         *
+         * @param way the way
+         * @param index the index of the first node of the segment
+         */
+        void accept(Way way, int index);
+    }
+
+    /*
+     * The tree over the segments of the dataset at the time of a build.
+     */
+    private static final class Snapshot {
+        // the way and the index of the first node, per segment
+        private final Way[] ways;
+        private final int[] indices;
+        private final StrTree tree;
+
+        Snapshot(Way[] ways, int[] indices, double[] boxes) {
+            this.ways = ways;
+            this.indices = indices;
+            this.tree = new StrTree(boxes);
+        }
+    }
+
+    private final DataSet ds;
+    private Snapshot snapshot;
+    // the changed ways, mapped to the generation of their last change
+    private final Map<Way, Long> changedWays = new HashMap<>();
+    private int numChangedSegments = 0;
+    private long generation = 0;
+    // the generation of the last invalidate()
+    private long invalidatedGeneration = 0;
+    private boolean buildPending = false;
+
+    /**
+     * Creates an empty index for the dataset {@code ds}. The tree is
+     * built on the first {@link #requestBuild()}.
+     *
+     * @param ds the dataset. Must not be null.
+     */
+    public SegmentIndex(@NotNull DataSet ds) {
+        Objects.requireNonNull(ds);
+        this.ds = ds;
+    }
+
+    /**
+     * Builds the index of the way segments of the dataset {@code ds} on
+     * the calling thread.
+     *
+     * @param ds the dataset. Must not be null.
+     * @return the index
+     */
+    public static SegmentIndex build(@NotNull DataSet ds) {
+        final SegmentIndex index = new SegmentIndex(ds);
+        index.publish(buildSnapshot(ds), 0);
+        return index;
+    }
+
+    static private boolean isIndexed(Way way) {
+        return !way.isDeleted() && !way.isIncomplete() && way.isUsable()
+            && way.getNodesCount() >= 2;
+    }
+
+    /*
+     * Builds the tree over the segments of the indexed ways, under the
+     * read lock of the dataset. Deleted, incomplete and unusable ways are
+     * skipped, as well as segments with an end node without a position.
+     */
+    private static Snapshot buildSnapshot(DataSet ds) {
+        final Lock lock = ds.getReadLock();
+        lock.lock();
+        try {
+            final List<Way> ways = new ArrayList<>();
+            int capacity = 0;
+            for (Way way: ds.getWays()) {
+                if (!isIndexed(way)) continue;
+                ways.add(way);
+                capacity += way.getNodesCount() - 1;
+            }
+            final Way[] segmentWays = new Way[capacity];
+            final int[] segmentIndices = new int[capacity];
+            final double[] boxes = new double[4 * capacity];
+            int n = 0;
+            for (Way way: ways) {
+                final int count = way.getNodesCount();
+                EastNorth a = way.getNode(0).getEastNorth();
+                for (int i = 1; i < count; i++) {
+                    final EastNorth b = way.getNode(i).getEastNorth();
+                    if (a != null && b != null) {
+                        segmentWays[n] = way;
+                        segmentIndices[n] = i - 1;
+                        boxes[4*n] = Math.min(a.east(), b.east());
+                        boxes[4*n+1] = Math.min(a.north(), b.north());
+                        boxes[4*n+2] = Math.max(a.east(), b.east());
+                        boxes[4*n+3] = Math.max(a.north(), b.north());
+                        n++;
+                    }
+                    a = b;
+                }
+            }
+            return new Snapshot(
+                Arrays.copyOf(segmentWays, n),
+                Arrays.copyOf(segmentIndices, n),
+                Arrays.copyOf(boxes, 4 * n));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Publishes a tree which was built after the changes up to the
+     * generation buildGeneration.
+     */
+    private synchronized void publish(Snapshot built, long buildGeneration) {
+        snapshot = built;
+        changedWays.values().removeIf(g -> g <= buildGeneration);
+        numChangedSegments = 0;
+        for (Way way: changedWays.keySet()) {
+            numChangedSegments += Math.max(0, way.getNodesCount() - 1);
+        }
+    }
+
+    /**
+     * Starts to build the tree in the background, unless it is already
+     * built and up to date, or a build is pending.
+     */
+    public synchronized void requestBuild() {
+        if (buildPending) return;
+        if (snapshot != null && numChangedSegments <= REBUILD_THRESHOLD) {
+            return;
+        }
+        buildPending = true;
+        final long buildGeneration = generation;
+        executor.submit(() -> {
+            Snapshot built = null;
+            try {
+                built = buildSnapshot(ds);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "failed to build segment index", e);
+            }
+            synchronized (SegmentIndex.this) {
+                buildPending = false;
+                if (built == null) return;
+                if (buildGeneration < invalidatedGeneration) {
+                    // the dataset was invalidated while building
+                    requestBuild();
+                    return;
+                }
+                publish(built, buildGeneration);
+            }
+        });
+    }
+
+    /**
+     * Notifies the index that the nodes of the ways {@code ways}, or their
+     * positions, have changed, or that the ways were added or removed.
+     * <p>
+     * Ignored until a first build is requested, see {@link #requestBuild()}.
+     * An index which is never queried doesn't track the changes and never
+     * builds a tree.
+     *
+     * @param ways the ways. Must not be null.
+     */
+    public synchronized void waysChanged(@NotNull Collection<Way> ways) {
+        Objects.requireNonNull(ways);
+        if (snapshot == null && !buildPending) return;
+        generation++;
+        for (Way way: ways) {
+            if (changedWays.put(way, generation) == null) {
+                numChangedSegments += Math.max(0, way.getNodesCount() - 1);
+            }
+        }
+        if (numChangedSegments > REBUILD_THRESHOLD) requestBuild();
+    }
+
+    /**
+     * Notifies the index that the dataset has changed in an unknown way.
+     * The tree is discarded and, if it was built, rebuilt in the
+     * background.
+     */
+    public synchronized void invalidate() {
+        final boolean built = snapshot != null;
+        generation++;
+        invalidatedGeneration = generation;
+        snapshot = null;
+        changedWays.clear();
+        numChangedSegments = 0;
+        if (built) requestBuild();
+    }
+
+    /**
+     * Replies true, if the tree is built.
+     *
+     * @return true, if the tree is built
+     */
+    public synchronized boolean isBuilt() {
+        return snapshot != null;
+    }
+
+    /**
+     * Replies the number of segments in the tree.
+     *
+     * @return the number of segments
+     */
+    public synchronized int size() {
+        return snapshot == null ? 0 : snapshot.ways.length;
+    }
+
+    /**
+     * Invokes {@code consumer} for every indexed segment whose bounding
+     * box intersects the box <code>[minX, minY, maxX, maxY]</code>. Doesn't
+     * find any segments, if the tree isn't built yet.
+     *
+     * @param minX the minimal east coordinate
+     * @param minY the minimal north coordinate
+     * @param maxX the maximal east coordinate
+     * @param maxY the maximal north coordinate
+     * @param consumer the consumer. Must not be null.
+     */
+    public synchronized void query(double minX, double minY, double maxX,
+            double maxY, @NotNull SegmentConsumer consumer) {
+        Objects.requireNonNull(consumer);
+        if (snapshot == null) return;
+        final Snapshot s = snapshot;
+        s.tree.query(minX, minY, maxX, maxY, i -> {
+            if (!changedWays.containsKey(s.ways[i])) {
+                consumer.accept(s.ways[i], s.indices[i]);
+            }
+        });
+        for (Way way: changedWays.keySet()) {
+            if (!isIndexed(way) || way.getDataSet() != ds) continue;
+            final int count = way.getNodesCount();
+            EastNorth a = way.getNode(0).getEastNorth();
+            for (int i = 1; i < count; i++) {
+                final EastNorth b = way.getNode(i).getEastNorth();
+                if (a != null && b != null
+                        && Math.min(a.east(), b.east()) <= maxX
+                        && Math.max(a.east(), b.east()) >= minX
+                        && Math.min(a.north(), b.north()) <= maxY
+                        && Math.max(a.north(), b.north()) >= minY) {
+                    consumer.accept(way, i - 1);
+                }
+                a = b;
+            }
+        }
+    }
+
+    /**
+     * Replies the ways with a segment whose bounding box intersects the
+     * box <code>[minX, minY, maxX, maxY]</code>.
+     *
+     * @param minX the minimal east coordinate
+     * @param minY the minimal north coordinate
+     * @param maxX the maximal east coordinate
+     * @param maxY the maximal north coordinate
+     * @return the ways, each way once
+     */
+    public Set<Way> findWays(double minX, double minY, double maxX,
+            double maxY) {
+        final Set<Way> found = new LinkedHashSet<>();
+        query(minX, minY, maxX, maxY, (way, index) -> found.add(way));
+        return found;
+    }
+}
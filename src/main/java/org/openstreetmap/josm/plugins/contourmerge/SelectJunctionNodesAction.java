@@ -0,0 +1,55 @@
+package org.openstreetmap.josm.plugins.contourmerge;
+
+import org.openstreetmap.josm.actions.JosmAction;
+import org.openstreetmap.josm.tools.Shortcut;
+
+import javax.validation.constraints.NotNull;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.util.Objects;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+/**
+ * <strong>SelectJunctionNodesAction</strong> selects the junction nodes,
+ * i.e. the nodes shared by two or more ways, in one bulk operation. It
+ * selects the junction nodes on the way the mouse hovers over, or on the
+ * ways of the collected sources, or otherwise all junction nodes in the
+ * map view.
+ * <p>
+ * The shortcut is only registered while the contour merge mode is
+ * active.
+ */
+public class SelectJunctionNodesAction extends JosmAction {
+
+    private final ContourMergeMode mode;
+
+    /**
+     * Creates the action for the map mode {@code mode}.
+     *
+     * @param mode the map mode. Must not be null.
+     */
+    public SelectJunctionNodesAction(@NotNull ContourMergeMode mode) {
+        super(
+            tr("Select junction nodes"),
+            null,   // no icon
+            tr("Select the nodes shared by two or more ways on the way "
+                + "under the mouse, or in the map view"),
+            Shortcut.registerShortcut("contourmerge:select-junction-nodes",
+                tr("Contour Merge: Select junction nodes"),
+                KeyEvent.VK_J,
+                // plain J is taken by "Join Node to Way"
+                Shortcut.ALT_SHIFT
+            ),
+            false   // don't register in the toolbar
+        );
+        Objects.requireNonNull(mode);
+        this.mode = mode;
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        if (!ContourMergePlugin.isEnabled()) return;
+        mode.onSelectJunctionNodes();
+    }
+}
@@ -0,0 +1,171 @@
+package org.openstreetmap.josm.plugins.contourmerge;
+
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Way;
+
+import javax.validation.constraints.NotNull;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * <strong>SlicePrefetcher</strong> computes way slices for hovered way
+ * segments in the background, before the user starts to drag them.
+ * <p>
+ * For a hovered segment, it computes the way slice, the equivalent way
+ * slices in other ways, and the east/north coordinates of the slices,
+ * while holding the read lock of the dataset. The results for the most
+ * recently hovered segments are kept in a small LRU cache.
+ * <p>
+ * Results are keyed by the way, the index of the hovered segment, and an
+ * epoch the model increments whenever the selected nodes or the dataset
+ * change. Results computed for an older epoch are never replied.
+ */
+public class SlicePrefetcher {
+
+    static private final Logger logger =
+        Logger.getLogger(SlicePrefetcher.class.getName());
+
+    /**
+     * The maximal number of cached results.
+     */
+    static final int CAPACITY = 16;
+
+    /* one daemon thread for all models, prefetching is speculative */
+    static private final ExecutorService executor =
+        Executors.newSingleThreadExecutor(r -> {
+            final Thread t = new Thread(r, "contourmerge-slice-prefetch");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+
+    /**
+     * Identifies a prefetched way slice.
+     *
+     * @param way the way of the hovered way segment
+     * @param lowerIndex the lower index of the hovered way segment
+     * @param epoch the epoch of the model state the slice was computed for
+     */
+    public record Key(Way way, int lowerIndex, long epoch) {}
+
+    /**
+     * A prefetched way slice.
+     *
+     * @param slice the way slice. null, if there is no way slice for the
+     *  hovered way segment.
+     * @param equivalentSlices the equivalent way slices in all ways
+     *  sharing the nodes of {@code slice}, including {@code slice}
+     */
+    public record Entry(WaySlice slice, List<WaySlice> equivalentSlices) {}
+
+    private final Map<Key, Entry> cache = new LinkedHashMap<>(
+            CAPACITY, 0.75f, true /* access order */) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    private Key pendingKey;
+    private Future<?> pendingTask;
+
+    /**
+     * Starts to compute the way slice for {@code key} in the background,
+     * unless it is already cached or currently computed. Cancels the
+     * computation for a previously hovered segment, if it hasn't started
+     * yet.
+     *
+     * @param key the key. Must not be null.
+     * @param ds the dataset. Must not be null.
+     * @param computation computes the way slice
+     */
+    public synchronized void prefetch(@NotNull Key key, @NotNull DataSet ds,
+            @NotNull Supplier<WaySlice> computation) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(ds);
+        Objects.requireNonNull(computation);
+        if (key.equals(pendingKey) || cache.containsKey(key)) return;
+        if (pendingTask != null) pendingTask.cancel(false);
+        pendingKey = key;
+        pendingTask = executor.submit(() -> {
+            final Lock lock = ds.getReadLock();
+            lock.lock();
+            try {
+                final Entry entry = compute(computation);
+                synchronized (SlicePrefetcher.this) {
+                    cache.put(key, entry);
+                }
+            } catch (RuntimeException e) {
+                // speculative; the slice is computed again on demand
+                logger.log(Level.FINE, "failed to prefetch way slice", e);
+            } finally {
+                lock.unlock();
+                synchronized (SlicePrefetcher.this) {
+                    if (key.equals(pendingKey)) {
+                        pendingKey = null;
+                        pendingTask = null;
+                    }
+                }
+            }
+        });
+    }
+
+    private static Entry compute(Supplier<WaySlice> computation) {
+        final WaySlice slice = computation.get();
+        if (slice == null) return new Entry(null, Collections.emptyList());
+        final List<WaySlice> equivalents = slice.findAllEquivalentWaySlices()
+            .collect(Collectors.toList());
+        // warm up the cached coordinates
+        slice.getEastNorthCoordinates();
+        slice.getTerminalCoordinates();
+        equivalents.forEach(WaySlice::getEastNorthCoordinates);
+        return new Entry(slice, Collections.unmodifiableList(equivalents));
+    }
+
+    /**
+     * Replies the prefetched result for {@code key}, or null, if it isn't
+     * available (yet).
+     *
+     * @param key the key
+     * @return the prefetched result, or null
+     */
+    public synchronized Entry get(Key key) {
+        return cache.get(key);
+    }
+
+    /**
+     * Replies the prefetched equivalent way slices of {@code slice}, or
+     * null, if they aren't available.
+     *
+     * @param slice the way slice
+     * @param epoch the current epoch
+     * @return the equivalent way slices, or null
+     */
+    public synchronized List<WaySlice> getEquivalentSlices(WaySlice slice,
+            long epoch) {
+        for (Map.Entry<Key, Entry> e: cache.entrySet()) {
+            if (e.getKey().epoch() == epoch
+                    && Objects.equals(e.getValue().slice(), slice)) {
+                return e.getValue().equivalentSlices();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Discards all prefetched results and cancels a pending computation.
+     */
+    public synchronized void clear() {
+        cache.clear();
+        if (pendingTask != null) pendingTask.cancel(false);
+        pendingTask = null;
+        pendingKey = null;
+    }
+}
@@ -0,0 +1,243 @@
+package org.openstreetmap.josm.plugins.contourmerge;
+
+import org.apache.commons.lang3.Validate;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.preferences.DoubleProperty;
+
+import javax.validation.constraints.NotNull;
+import java.util.Objects;
+
+/**
+ * <strong>SlicePropagator</strong> grows a pair of way slices, a drag
+ * source and a drop target, along their ways as long as the two ways
+ * stay within a distance tolerance.
+ * <p>
+ * Starting from the end nodes of the two slices, the propagator walks
+ * along both ways in both directions. In each step it adds the next node
+ * of the source way, of the target way, or of both, provided the node is
+ * close enough to the respective other way. The walk stops if neither
+ * way can be extended, or if the two ways meet in a shared node.
+ * <p>
+ * The resulting slice pair can be merged in a single operation, instead
+ * of merging dozens of short slices one by one.
+ */
+public class SlicePropagator {
+
+    /**
+     * The maximal distance, in meters, between a source and a target way
+     * up to which a merge is propagated.
+     */
+    public static final DoubleProperty PROPAGATION_TOLERANCE =
+        new DoubleProperty("contourmerge.propagation-tolerance", 5.0);
+
+    /**
+     * The source and the target slice of a propagated merge.
+     *
+     * @param source the source slice
+     * @param target the target slice
+     */
+    public record Result(WaySlice source, WaySlice target) {}
+
+    private final double toleranceInMeters;
+
+    /**
+     * Creates a propagator with the tolerance configured in the
+     * preferences.
+     */
+    public SlicePropagator() {
+        this(PROPAGATION_TOLERANCE.get());
+    }
+
+    /**
+     * Creates a propagator.
+     *
+     * @param toleranceInMeters the tolerance in meters. Must not be
+     *  negative.
+     * @throws IllegalArgumentException thrown if {@code toleranceInMeters}
+     *  is negative
+     */
+    public SlicePropagator(double toleranceInMeters) {
+        Validate.isTrue(toleranceInMeters >= 0,
+            "tolerance must not be negative, got %s", toleranceInMeters);
+        this.toleranceInMeters = toleranceInMeters;
+    }
+
+    /**
+     * Grows the slices {@code source} and {@code target} along their ways.
+     *
+     * @param source the source slice. Must not be null.
+     * @param target the target slice. Must not be null.
+     * @param directionAligned true, if the start node of {@code source}
+     *  corresponds to the start node of {@code target}; false, if it
+     *  corresponds to the end node of {@code target}
+     * @return the grown slices
+     */
+    public Result propagate(@NotNull WaySlice source,
+            @NotNull WaySlice target, boolean directionAligned) {
+        Objects.requireNonNull(source);
+        Objects.requireNonNull(target);
+        final double tolerance = GeometryUtils.metersToProjectedUnits(
+                source.getStartNode(), toleranceInMeters);
+
+        final Cursor s = new Cursor(source);
+        final Cursor t = new Cursor(target);
+        if (!directionAligned) t.reverse();
+
+        grow(s, t, tolerance);
+        s.reverse();
+        t.reverse();
+        grow(s, t, tolerance);
+
+        return new Result(s.toWaySlice(), t.toWaySlice());
+    }
+
+    private void grow(Cursor s, Cursor t, double tolerance) {
+        while (true) {
+            final Node sn = s.nextTailNode();
+            final Node tn = t.nextTailNode();
+            if (sn == null && tn == null) return;
+            if (sn != null && sn == tn) {
+                // the two ways meet in a shared node
+                s.extendTail();
+                t.extendTail();
+                return;
+            }
+            if (sn != null && sn == t.tailNode()) {
+                s.extendTail();
+                return;
+            }
+            if (tn != null && tn == s.tailNode()) {
+                t.extendTail();
+                return;
+            }
+            final boolean sOk = sn != null
+                && s.distanceOfNextTailTo(t) <= tolerance;
+            final boolean tOk = tn != null
+                && t.distanceOfNextTailTo(s) <= tolerance;
+            if (sOk && tOk) {
+                // advance the way with the shorter next step, so that
+                // both ways progress at the same pace
+                final double ds = s.nextStepLength();
+                final double dt = t.nextStepLength();
+                if (ds <= dt) s.extendTail();
+                if (dt <= ds) t.extendTail();
+            } else if (sOk) {
+                s.extendTail();
+            } else if (tOk) {
+                t.extendTail();
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * A growable slice of a way, given by the positions of its head and
+     * tail node and the direction from head to tail. For closed ways,
+     * positions aren't normalized; they are mapped to node indices modulo
+     * the number of distinct nodes.
+     */
+    static private final class Cursor {
+        private final Way way;
+        private final boolean closed;
+        private final int numNodes;
+        private final double[] coordinates;
+        private int head;
+        private int tail;
+        private int dir = 1;
+
+        Cursor(WaySlice slice) {
+            this.way = slice.getWay();
+            this.closed = way.isClosed();
+            this.numNodes = way.getNodesCount();
+            this.coordinates = GeometryUtils.toEastNorthCoordinates(
+                way.getNodes());
+            if (closed && !slice.isInDirection()) {
+                // nodes [end, ..., n-2, 0, ..., start]
+                head = slice.getEnd();
+                tail = slice.getStart() + numNodes - 1;
+            } else {
+                head = slice.getStart();
+                tail = slice.getEnd();
+            }
+        }
+
+        private int length() {
+            return Math.abs(tail - head) + 1;
+        }
+
+        private int indexAt(int pos) {
+            return closed ? Math.floorMod(pos, numNodes - 1) : pos;
+        }
+
+        private Node nodeAt(int pos) {
+            return way.getNode(indexAt(pos));
+        }
+
+        private boolean hasNextTail() {
+            if (closed) {
+                // never cover more than the distinct nodes of the way
+                return length() < numNodes - 1;
+            }
+            final int next = tail + dir;
+            return next >= 0 && next < numNodes;
+        }
+
+        Node tailNode() {
+            return nodeAt(tail);
+        }
+
+        Node nextTailNode() {
+            return hasNextTail() ? nodeAt(tail + dir) : null;
+        }
+
+        /**
+         * Replies the length of the segment from the tail node to the
+         * next tail node. Requires a next tail node.
+         */
+        double nextStepLength() {
+            return GeometryUtils.distance(coordinates, indexAt(tail),
+                indexAt(tail + dir));
+        }
+
+        /**
+         * Replies the distance from the next tail node of this cursor to
+         * the segment from the tail node to the next tail node of
+         * {@code other}, or to the tail node of {@code other}, if it
+         * can't be extended. Requires a next tail node.
+         */
+        double distanceOfNextTailTo(Cursor other) {
+            final int p = 2 * indexAt(tail + dir);
+            final int a = 2 * other.indexAt(other.tail);
+            final int b = other.hasNextTail()
+                ? 2 * other.indexAt(other.tail + other.dir) : a;
+            final double[] c = coordinates;
+            final double[] o = other.coordinates;
+            return GeometryUtils.distanceToSegment(c[p], c[p+1],
+                o[a], o[a+1], o[b], o[b+1]);
+        }
+
+        void extendTail() {
+            tail += dir;
+        }
+
+        void reverse() {
+            final int tmp = head;
+            head = tail;
+            tail = tmp;
+            dir = -dir;
+        }
+
+        WaySlice toWaySlice() {
+            final int lower = dir > 0 ? head : tail;
+            final int upper = dir > 0 ? tail : head;
+            if (!closed) return new WaySlice(way, lower, upper);
+            final int a = Math.floorMod(lower, numNodes - 1);
+            final int b = Math.floorMod(upper, numNodes - 1);
+            if (a < b) return new WaySlice(way, a, b);
+            // the slice wraps around the join node
+            return new WaySlice(way, b, a, false /* reverse direction */);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package org.openstreetmap.josm.plugins.contourmerge;
+
+import org.openstreetmap.josm.data.osm.DataIntegrityProblemException;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Null;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * <strong>SliceReplacement</strong> computes the new node lists of the
+ * source ways of a merge, where the nodes of the source slices are
+ * replaced by the nodes of the target slice.
+ * <p>
+ * Every source way needs a copy of its node list. If a boundary is shared
+ * by many large ways, i.e. the members of multipolygons or adjacent
+ * landuse areas, the node lists are computed in parallel on the common
+ * fork-join pool, while the calling thread holds the read lock of the
+ * dataset. The node lists are replied in the order of the source slices,
+ * so that commands built from them are deterministic.
+ * <p>
+ * {@link #computeCheckedNodeLists(List, WaySlice, Predicate)} also checks
+ * the new node lists for crossing segments, see
+ * {@link IntersectionChecker}, and inserts the target slice in the
+ * opposite direction into a source way, if only that direction is free
+ * of crossings. The direction is chosen per source way.
+ */
+public class SliceReplacement {
+
+    /**
+     * Minimal total number of nodes in the source ways to compute the
+     * node lists in parallel.
+     */
+    static final int PARALLEL_THRESHOLD = 20_000;
+
+    /**
+     * The new node lists of the source ways of a merge, see
+     * {@link #computeCheckedNodeLists(List, WaySlice, Predicate)}.
+     *
+     * @param nodeLists the new node lists, in the order of the sources
+     * @param flippedSources the indices of the sources into which the
+     *  target slice is inserted in the opposite of the direction given by
+     *  the direction heuristic, because the heuristic leads to crossing
+     *  segments
+     * @param intersection a crossing in the new node lists, which occurs
+     *  in both directions. null, if there is none, or if the node lists
+     *  weren't checked.
+     */
+    public record Outcome(List<List<Node>> nodeLists,
+                          Set<Integer> flippedSources,
+                          @Null IntersectionChecker.Intersection intersection) {
+        public Outcome {
+            flippedSources = Set.copyOf(flippedSources);
+        }
+
+        public boolean hasIntersection() {
+            return intersection != null;
+        }
+
+        /**
+         * Replies true, if the target slice is inserted in the opposite
+         * direction into at least one source way.
+         *
+         * @return true, if a source is flipped
+         */
+        public boolean flipped() {
+            return !flippedSources.isEmpty();
+        }
+
+        /**
+         * Replies true, if the target slice is inserted in the opposite
+         * direction into the source way with index {@code i}.
+         *
+         * @param i the index of the source
+         * @return true, if the source is flipped
+         */
+        public boolean isFlipped(int i) {
+            return flippedSources.contains(i);
+        }
+    }
+
+    private SliceReplacement() {}
+
+    /**
+     * Replies true, if the new node lists for {@code sources} are
+     * computed in parallel.
+     *
+     * @param sources the source slices
+     * @return true, if the node lists are computed in parallel
+     */
+    static boolean isParallel(List<WaySlice> sources) {
+        if (sources.size() < 2) return false;
+        long numNodes = 0;
+        for (WaySlice source: sources) {
+            numNodes += source.getWay().getNodesCount();
+        }
+        return numNodes >= PARALLEL_THRESHOLD;
+    }
+
+    /**
+     * Computes the new node lists of the ways of {@code sources}, where
+     * the nodes of each source slice are replaced by the nodes of
+     * {@code target}, in reversed order, if the source slice isn't
+     * direction aligned with the target.
+     *
+     * @param sources the source slices. Must not be null.
+     * @param target the target slice. Must not be null.
+     * @param isAligned replies true, if a source slice is direction aligned
+     *  with the target. Must not be null. Invoked on the calling thread.
+     * @return the new node lists, in the order of {@code sources}
+     * @throws DataIntegrityProblemException if the new node list of a
+     *  closed way would be invalid
+     */
+    public static List<List<Node>> computeNodeLists(
+            @NotNull List<WaySlice> sources, @NotNull WaySlice target,
+            @NotNull Predicate<WaySlice> isAligned)
+            throws DataIntegrityProblemException {
+        Objects.requireNonNull(sources);
+        Objects.requireNonNull(target);
+        Objects.requireNonNull(isAligned);
+
+        final List<Node> targetNodes = target.getNodes();
+        final List<Node> targetNodesReversed = new ArrayList<>(targetNodes);
+        Collections.reverse(targetNodesReversed);
+        final boolean[] aligned = new boolean[sources.size()];
+        for (int i = 0; i < aligned.length; i++) {
+            aligned[i] = isAligned.test(sources.get(i));
+        }
+        final IntFunction<List<Node>> replace = i -> sources.get(i)
+            .replaceNodesInNodeList(
+                aligned[i] ? targetNodes : targetNodesReversed);
+
+        if (!isParallel(sources)) {
+            return IntStream.range(0, sources.size())
+                .mapToObj(replace)
+                .collect(Collectors.toList());
+        }
+        // the workers only read the node lists of the source ways. Make
+        // sure nobody modifies them in the meantime. tryLock() acquires the
+        // read lock even if a writer is waiting, as required when we run on
+        // a worker of ContourMergeService whose caller holds the read lock.
+        final DataSet ds = target.getWay().getDataSet();
+        final Lock lock = ds == null ? null : ds.getReadLock();
+        if (lock != null && !lock.tryLock()) lock.lock();
+        try {
+            return IntStream.range(0, sources.size())
+                .parallel()
+                .mapToObj(replace)
+                .collect(Collectors.toList());
+        } finally {
+            if (lock != null) lock.unlock();
+        }
+    }
+
+    /**
+     * Computes the new node lists of the ways of {@code sources}, like
+     * {@link #computeNodeLists(List, WaySlice, Predicate)}, and checks
+     * them for crossing segments, if
+     * {@link IntersectionChecker#CHECK_INTERSECTIONS} is set.
+     * <p>
+     * If the new node list of a source way contains a crossing, it is
+     * computed again with the target slice in the opposite direction. The
+     * opposite direction is used for this way, if it is free of
+     * crossings. Otherwise, the node lists for the original directions
+     * are replied, together with the crossing.
+     *
+     * @param sources the source slices. Must not be null.
+     * @param target the target slice. Must not be null.
+     * @param isAligned replies true, if a source slice is direction aligned
+     *  with the target. Must not be null. Invoked on the calling thread.
+     * @return the outcome
+     * @throws DataIntegrityProblemException if the new node list of a
+     *  closed way would be invalid
+     */
+    public static Outcome computeCheckedNodeLists(
+            @NotNull List<WaySlice> sources, @NotNull WaySlice target,
+            @NotNull Predicate<WaySlice> isAligned)
+            throws DataIntegrityProblemException {
+        final List<List<Node>> nodeLists =
+            computeNodeLists(sources, target, isAligned);
+        if (!IntersectionChecker.CHECK_INTERSECTIONS.get()) {
+            return new Outcome(nodeLists, Set.of(), null);
+        }
+        final List<List<Node>> checkedNodeLists = new ArrayList<>(nodeLists);
+        final Set<Integer> flippedSources = new HashSet<>();
+        for (int i = 0; i < sources.size(); i++) {
+            final WaySlice source = sources.get(i);
+            final IntersectionChecker.Intersection intersection =
+                IntersectionChecker.findIntersection(source.getWay(),
+                    nodeLists.get(i), target.getWay());
+            if (intersection == null) continue;
+            final List<Node> flippedNodes;
+            try {
+                flippedNodes = computeNodeLists(List.of(source), target,
+                    isAligned.negate()).get(0);
+            } catch (DataIntegrityProblemException e) {
+                return new Outcome(nodeLists, Set.of(), intersection);
+            }
+            if (IntersectionChecker.findIntersection(source.getWay(),
+                    flippedNodes, target.getWay()) != null) {
+                return new Outcome(nodeLists, Set.of(), intersection);
+            }
+            checkedNodeLists.set(i, flippedNodes);
+            flippedSources.add(i);
+        }
+        return new Outcome(checkedNodeLists, flippedSources, null);
+    }
+}
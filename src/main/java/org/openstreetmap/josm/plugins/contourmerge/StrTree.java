@@ -0,0 +1,180 @@
+package org.openstreetmap.josm.plugins.contourmerge;
+
+import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.IntConsumer;
+
+/**
+ * <strong>StrTree</strong> is a static R-tree over axis aligned boxes,
+ * packed with the Sort-Tile-Recursive algorithm.
+ * <p>
+ * The items are sorted into vertical slices by the x-coordinate of their
+ * centers, and within a slice by the y-coordinate. Consecutive items are
+ * packed into leaves of {@link #NODE_CAPACITY} items, consecutive leaves
+ * into inner nodes, and so on. The tree can't be modified after it is
+ * built; it can be queried from several threads concurrently.
+ * <p>
+ * The items in {@link #getItemsInTreeOrder() tree order} are spatially
+ * coherent, i.e. consecutive ranges of them are spatial partitions of the
+ * items, which can be processed in parallel.
+ */
+public class StrTree {
+
+    /**
+     * The maximal number of children of a node.
+     */
+    static final int NODE_CAPACITY = 16;
+
+    private final double[] boxes;
+    private final int[] items;
+    // the bounding boxes of the nodes, per level. levels[0] are the
+    // leaves, the last level is the root.
+    private final List<double[]> levels = new ArrayList<>();
+
+    /**
+     * Builds the tree for the boxes {@code boxes}. Item {@code i} is the
+     * box <code>[boxes[4i], boxes[4i+1], boxes[4i+2], boxes[4i+3]]</code>,
+     * i.e. <code>[minX, minY, maxX, maxY]</code>.
+     *
+     * @param boxes the packed boxes. Must not be null. Must not be
+     *  modified after the tree is built.
+     */
+    public StrTree(@NotNull double[] boxes) {
+        Objects.requireNonNull(boxes);
+        this.boxes = boxes;
+        final int n = boxes.length / 4;
+        this.items = sortTileRecursive(boxes, n);
+        if (n == 0) return;
+
+        double[] level = new double[4 * divideRoundingUp(n, NODE_CAPACITY)];
+        for (int i = 0; i < n; i++) {
+            union(level, i / NODE_CAPACITY, boxes, items[i], i % NODE_CAPACITY);
+        }
+        levels.add(level);
+        while (level.length > 4) {
+            final int numChildren = level.length / 4;
+            final double[] parent =
+                new double[4 * divideRoundingUp(numChildren, NODE_CAPACITY)];
+            for (int i = 0; i < numChildren; i++) {
+                union(parent, i / NODE_CAPACITY, level, i,
+                    i % NODE_CAPACITY);
+            }
+            levels.add(parent);
+            level = parent;
+        }
+    }
+
+    private static int divideRoundingUp(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+    private static double center(double[] boxes, int i, int axis) {
+        return (boxes[4 * i + axis] + boxes[4 * i + 2 + axis]) / 2;
+    }
+
+    private static int[] sortTileRecursive(double[] boxes, int n) {
+        final Integer[] sorted = new Integer[n];
+        for (int i = 0; i < n; i++) sorted[i] = i;
+        Arrays.parallelSort(sorted,
+            Comparator.comparingDouble(i -> center(boxes, i, 0)));
+        final int numLeaves = divideRoundingUp(n, NODE_CAPACITY);
+        final int numSlices = (int) Math.ceil(Math.sqrt(numLeaves));
+        final int sliceSize = numSlices * NODE_CAPACITY;
+        for (int from = 0; from < n; from += sliceSize) {
+            Arrays.sort(sorted, from, Math.min(n, from + sliceSize),
+                Comparator.comparingDouble(i -> center(boxes, i, 1)));
+        }
+        final int[] items = new int[n];
+        for (int i = 0; i < n; i++) items[i] = sorted[i];
+        return items;
+    }
+
+    /*
+     * Extends the box i in target by the box j in source. The box i is
+     * initialized with box j, if j is its first child.
+     */
+    private static void union(double[] target, int i, double[] source, int j,
+            int childIndex) {
+        if (childIndex == 0) {
+            System.arraycopy(source, 4 * j, target, 4 * i, 4);
+            return;
+        }
+        target[4 * i] = Math.min(target[4 * i], source[4 * j]);
+        target[4 * i + 1] = Math.min(target[4 * i + 1], source[4 * j + 1]);
+        target[4 * i + 2] = Math.max(target[4 * i + 2], source[4 * j + 2]);
+        target[4 * i + 3] = Math.max(target[4 * i + 3], source[4 * j + 3]);
+    }
+
+    private static boolean intersects(double[] b, int i, double minX,
+            double minY, double maxX, double maxY) {
+        return b[4 * i] <= maxX && b[4 * i + 2] >= minX
+            && b[4 * i + 1] <= maxY && b[4 * i + 3] >= minY;
+    }
+
+    /**
+     * Replies the number of items.
+     *
+     * @return the number of items
+     */
+    public int size() {
+        return items.length;
+    }
+
+    /**
+     * Replies the items in the order of the leaves of the tree. The array
+     * must not be modified by the caller.
+     *
+     * @return the items in tree order
+     */
+    public int[] getItemsInTreeOrder() {
+        return items;
+    }
+
+    /**
+     * Invokes {@code consumer} for every item whose box intersects the box
+     * <code>[minX, minY, maxX, maxY]</code>.
+     *
+     * @param minX the minimal x-coordinate
+     * @param minY the minimal y-coordinate
+     * @param maxX the maximal x-coordinate
+     * @param maxY the maximal y-coordinate
+     * @param consumer the consumer. Must not be null.
+     */
+    public void query(double minX, double minY, double maxX, double maxY,
+            @NotNull IntConsumer consumer) {
+        Objects.requireNonNull(consumer);
+        if (levels.isEmpty()) return;
+        // pairs of (level, node) still to visit
+        final int[] stack = new int[2 * NODE_CAPACITY * levels.size()];
+        int top = 0;
+        stack[top++] = levels.size() - 1;
+        stack[top++] = 0;
+        while (top > 0) {
+            final int node = stack[--top];
+            final int level = stack[--top];
+            if (!intersects(levels.get(level), node, minX, minY, maxX, maxY)) {
+                continue;
+            }
+            final int from = node * NODE_CAPACITY;
+            if (level == 0) {
+                final int to = Math.min(items.length, from + NODE_CAPACITY);
+                for (int i = from; i < to; i++) {
+                    if (intersects(boxes, items[i], minX, minY, maxX, maxY)) {
+                        consumer.accept(items[i]);
+                    }
+                }
+            } else {
+                final int to = Math.min(levels.get(level - 1).length / 4,
+                    from + NODE_CAPACITY);
+                for (int child = from; child < to; child++) {
+                    stack[top++] = level - 1;
+                    stack[top++] = child;
+                }
+            }
+        }
+    }
+}
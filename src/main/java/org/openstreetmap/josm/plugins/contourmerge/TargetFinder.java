@@ -0,0 +1,264 @@
+package org.openstreetmap.josm.plugins.contourmerge;
+
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.BBox;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.preferences.DoubleProperty;
+import org.openstreetmap.josm.data.projection.Projection;
+import org.openstreetmap.josm.data.projection.ProjectionRegistry;
+
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Null;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * <strong>TargetFinder</strong> finds the best target slice for a source
+ * slice, i.e. the slice of another way which runs closest along the
+ * source slice.
+ * <p>
+ * The candidate ways are looked up with the spatial index of the dataset,
+ * within {@link #MAX_DISTANCE} of the bounding box of the source slice.
+ * The ways of the slices equivalent to the source slice, see
+ * {@link WaySlice#findAllEquivalentWaySlices()}, aren't candidates: they
+ * share the nodes of the source slice and would always match it.
+ * On each candidate way, the nodes nearest to the start and the end node
+ * of the source slice delimit the candidate slices: one slice for an open
+ * way, two slices, one in each direction, for a closed way. The
+ * candidates are scored with the discrete Fr&eacute;chet distance, see
+ * {@link DistanceKernel#discreteFrechetDistance(double[], double[],
+ * double)}, bounded by the best score so far, so that most candidates are
+ * rejected after a few rows.
+ * <p>
+ * The discrete Fr&eacute;chet distance only couples nodes. Two boundaries
+ * which run side by side with different node densities would score
+ * poorly, hence both slices are {@link DistanceKernel#densify(double[],
+ * double) densified} to a step of a quarter of the maximal distance,
+ * with at most {@link #MAX_SAMPLES} points per slice.
+ * <p>
+ * The finder reads the dataset under its read lock and doesn't modify it.
+ */
+public class TargetFinder {
+
+    /**
+     * The maximal Fr&eacute;chet distance, in meters, between a source
+     * slice and its best target.
+     */
+    public static final DoubleProperty MAX_DISTANCE =
+        new DoubleProperty("contourmerge.best-target-distance", 10.0);
+
+    /**
+     * The best target for a source slice.
+     *
+     * @param source the source slice
+     * @param target the target slice
+     * @param distance the discrete Fr&eacute;chet distance between the
+     *  source and the target slice, in east/north units
+     */
+    public record Match(WaySlice source, WaySlice target, double distance) {}
+
+    /**
+     * The maximal number of points of a densified slice.
+     */
+    static final int MAX_SAMPLES = 1024;
+
+    private final double maxDistanceInMeters;
+
+    /**
+     * Creates a finder with the maximal distance configured in the
+     * preferences.
+     */
+    public TargetFinder() {
+        this(MAX_DISTANCE.get());
+    }
+
+    /**
+     * Creates a finder.
+     *
+     * @param maxDistanceInMeters the maximal distance in meters
+     */
+    public TargetFinder(double maxDistanceInMeters) {
+        this.maxDistanceInMeters = maxDistanceInMeters;
+    }
+
+    static private boolean isCandidate(Way way, Set<Way> sourceWays) {
+        return !sourceWays.contains(way) && !way.isDeleted()
+            && !way.isIncomplete() && way.isUsable()
+            && way.getNodesCount() >= 2;
+    }
+
+    /*
+     * The way of the slice source and the ways of its equivalent slices.
+     */
+    static Set<Way> sourceWays(WaySlice source) {
+        final Set<Way> ways = source.findAllEquivalentWaySlices()
+            .map(WaySlice::getWay)
+            .collect(Collectors.toCollection(HashSet::new));
+        ways.add(source.getWay());
+        return ways;
+    }
+
+    /*
+     * The bounding box of the coordinates c, extended by d, in lat/lon.
+     */
+    static private BBox searchArea(double[] c, double d) {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < c.length; i += 2) {
+            minX = Math.min(minX, c[i]);
+            minY = Math.min(minY, c[i+1]);
+            maxX = Math.max(maxX, c[i]);
+            maxY = Math.max(maxY, c[i+1]);
+        }
+        final Projection projection = ProjectionRegistry.getProjection();
+        final LatLon ll1 = projection.eastNorth2latlon(
+            new EastNorth(minX - d, minY - d));
+        final LatLon ll2 = projection.eastNorth2latlon(
+            new EastNorth(maxX + d, maxY + d));
+        return new BBox(ll1.lon(), ll1.lat(), ll2.lon(), ll2.lat());
+    }
+
+    /*
+     * The index of the point in c[0 .. n) nearest to (px, py), if it is
+     * within the squared distance max2, -1 otherwise.
+     */
+    static private int nearestPoint(double[] c, int n, double px, double py,
+            double max2, double[] distances) {
+        DistanceKernel.squaredDistances(px, py, c, 0, n, distances);
+        int nearest = -1;
+        double min = max2;
+        for (int i = 0; i < n; i++) {
+            if (distances[i] <= min) {
+                min = distances[i];
+                nearest = i;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Replies the candidate slices of {@code way} between the nodes at
+     * the indices {@code i} and {@code j}.
+     *
+     * @param way the way
+     * @param i the index of a node
+     * @param j the index of another node
+     * @return the candidate slices
+     */
+    static List<WaySlice> candidateSlices(Way way, int i, int j) {
+        final List<WaySlice> slices = new ArrayList<>(2);
+        final int lo = Math.min(i, j);
+        final int hi = Math.max(i, j);
+        if (lo == hi) return slices;
+        slices.add(new WaySlice(way, lo, hi));
+        if (way.isClosed()) slices.add(new WaySlice(way, lo, hi, false));
+        return slices;
+    }
+
+    static private double[] reversed(double[] c) {
+        final double[] r = new double[c.length];
+        for (int i = 0, j = c.length - 2; j >= 0; i += 2, j -= 2) {
+            r[i] = c[j];
+            r[i+1] = c[j+1];
+        }
+        return r;
+    }
+
+    /**
+     * Finds the best target slice for the slice {@code source}.
+     *
+     * @param source the source slice. Must not be null.
+     * @return the best match. null, if there is no target slice within
+     *  the maximal distance.
+     */
+    public @Null Match findBestTarget(@NotNull WaySlice source) {
+        return findBestTarget(source, way -> true);
+    }
+
+    /**
+     * Finds the best target slice for the slice {@code source} on the ways
+     * accepted by {@code accept}.
+     *
+     * @param source the source slice. Must not be null.
+     * @param accept accepts the ways of the target slices, i.e. rejects
+     *  the ways of collected sources. Must not be null.
+     * @return the best match. null, if there is no target slice within
+     *  the maximal distance.
+     */
+    public @Null Match findBestTarget(@NotNull WaySlice source,
+            @NotNull Predicate<Way> accept) {
+        Objects.requireNonNull(source);
+        Objects.requireNonNull(accept);
+        final DataSet ds = source.getWay().getDataSet();
+        if (ds == null) return null;
+        final Lock lock = ds.getReadLock();
+        lock.lock();
+        try {
+            return findBestTargetLocked(ds, source, accept);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Match findBestTargetLocked(DataSet ds, WaySlice source,
+            Predicate<Way> accept) {
+        final double[] s = source.getEastNorthCoordinates();
+        final int n = s.length / 2;
+        for (double v: s) {
+            if (Double.isNaN(v)) return null;
+        }
+        final double maxDistance = GeometryUtils.metersToProjectedUnits(
+            source.getStartNode(), maxDistanceInMeters);
+        final double step = Math.max(maxDistance / 4,
+            DistanceKernel.length(s) / MAX_SAMPLES);
+        final double[] sDense = DistanceKernel.densify(s, step);
+        final double[] sDenseReversed = reversed(sDense);
+
+        final Set<Way> sourceWays = sourceWays(source);
+        Match best = null;
+        double bound = maxDistance;
+        for (Way way: ds.searchWays(searchArea(s, maxDistance))) {
+            if (!isCandidate(way, sourceWays) || !accept.test(way)) continue;
+            final double[] c = GeometryUtils.toEastNorthCoordinates(
+                way.getNodes());
+            // the join node of a closed way is the same as its first node
+            final int m = way.isClosed() ? c.length / 2 - 1 : c.length / 2;
+            final double[] distances = new double[m];
+            // the first and the last points are coupled, hence the
+            // Frechet distance isn't shorter than their distances
+            final double bound2 = bound * bound;
+            final int i = nearestPoint(c, m, s[0], s[1], bound2, distances);
+            if (i < 0) continue;
+            final int j = nearestPoint(c, m, s[2*n-2], s[2*n-1], bound2,
+                distances);
+            if (j < 0) continue;
+            for (WaySlice candidate: candidateSlices(way, i, j)) {
+                // the candidate starts at its start node if it is in
+                // direction, and at its end node otherwise
+                final int first = candidate.isInDirection()
+                    ? candidate.getStart() : candidate.getEnd();
+                final double[] t = candidate.getEastNorthCoordinates();
+                final double d = DistanceKernel.discreteFrechetDistance(
+                    first == i ? sDense : sDenseReversed,
+                    DistanceKernel.densify(t, Math.max(step,
+                        DistanceKernel.length(t) / MAX_SAMPLES)),
+                    bound);
+                if (d < bound || best == null && d <= bound) {
+                    best = new Match(source, candidate, d);
+                    bound = d;
+                }
+            }
+        }
+        return best;
+    }
+}
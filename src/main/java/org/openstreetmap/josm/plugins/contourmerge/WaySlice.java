@@ -34,6 +34,20 @@ public class WaySlice {
     //      start, start-1,...,0,len-1,len-2,...,end
     private boolean inDirection = true;
 
+    // Lazily built east/north coordinates, see getEastNorthCoordinates()
+    // and getTerminalCoordinates(). They are derived state and don't
+    // participate in equals/hashCode.
+    @EqualsAndHashCode.Exclude
+    private double[] coordinates;
+    @EqualsAndHashCode.Exclude
+    private double[] terminalCoordinates;
+    // the simplified polyline for the last requested tolerance, see
+    // getSimplifiedIndices()
+    @EqualsAndHashCode.Exclude
+    private int[] simplifiedIndices;
+    @EqualsAndHashCode.Exclude
+    private double simplifiedTolerance = Double.NaN;
+
     /**
      * Creates a new way slice for the way {@code w}. It consists of the
      * nodes at the positions <code>[start, start+1, ..., end]</code>.
@@ -140,6 +154,86 @@ public class WaySlice {
         return w.getNode(end);
     }
 
+    /**
+     * Replies the east/north coordinates of the nodes in this way slice,
+     * in the order of {@link #getNodes()}, packed into one array
+     * <code>[e0, n0, e1, n1, ...]</code>.
+     * <p>
+     * The array is built lazily and cached. It must not be modified by the
+     * caller. Invoke {@link #invalidateCoordinates()} if one of the nodes
+     * has been moved.
+     *
+     * @return the packed east/north coordinates
+     */
+    public double[] getEastNorthCoordinates() {
+        double[] c = coordinates;
+        if (c == null) {
+            c = GeometryUtils.toEastNorthCoordinates(getNodes());
+            coordinates = c;
+        }
+        return c;
+    }
+
+    /**
+     * Replies the east/north coordinates of the
+     * {@link #getStartNode() start node}, the {@link #getEndNode() end node},
+     * the {@link #getStartTearOffNode() start tear-off node}, and the
+     * {@link #getEndTearOffNode() end tear-off node} of this way slice,
+     * packed into one array of 8 values. The coordinates of a missing
+     * tear-off node are {@link Double#NaN}.
+     * <p>
+     * The array is built lazily and cached. It must not be modified by the
+     * caller.
+     *
+     * @return the packed east/north coordinates
+     */
+    public double[] getTerminalCoordinates() {
+        double[] c = terminalCoordinates;
+        if (c == null) {
+            c = new double[8];
+            GeometryUtils.putEastNorth(c, 0, getStartNode());
+            GeometryUtils.putEastNorth(c, 2, getEndNode());
+            GeometryUtils.putEastNorth(c, 4, getStartTearOffNode());
+            GeometryUtils.putEastNorth(c, 6, getEndTearOffNode());
+            terminalCoordinates = c;
+        }
+        return c;
+    }
+
+    /**
+     * Replies the indices into {@link #getEastNorthCoordinates()} of the
+     * points of the polyline simplified with the tolerance
+     * {@code tolerance}, see {@link GeometryUtils#simplify(double[],
+     * double)}.
+     * <p>
+     * The indices for the last requested tolerance are cached. The array
+     * must not be modified by the caller.
+     *
+     * @param tolerance the tolerance in east/north units. Must not be
+     *  negative.
+     * @return the indices of the points of the simplified polyline
+     */
+    public int[] getSimplifiedIndices(double tolerance) {
+        int[] indices = simplifiedIndices;
+        if (indices == null || simplifiedTolerance != tolerance) {
+            indices = GeometryUtils.simplify(getEastNorthCoordinates(),
+                tolerance);
+            simplifiedIndices = indices;
+            simplifiedTolerance = tolerance;
+        }
+        return indices;
+    }
+
+    /**
+     * Invalidates the cached coordinates of this way slice. Invoke it if
+     * one of the nodes of the underlying way has been moved.
+     */
+    public void invalidateCoordinates() {
+        coordinates = null;
+        terminalCoordinates = null;
+        simplifiedIndices = null;
+    }
+
     /**
      * Replies true if this slice contains the node <code>node</code>
      *
@@ -282,14 +376,11 @@ public class WaySlice {
         return new WaySlice(w, start, end, !inDirection);
     }
 
-    private Way replaceNodesInOpenWay(final List<Node> newNodes) {
+    private List<Node> replaceNodesInOpenWay(final List<Node> newNodes) {
         final List<Node> updatedNodeList = new ArrayList<>(w.getNodes());
         updatedNodeList.subList(start, end + 1).clear();
         updatedNodeList.addAll(start, newNodes);
-
-        final Way newWay = new Way(w);
-        newWay.setNodes(updatedNodeList);
-        return newWay;
+        return updatedNodeList;
     }
 
     private void ensureInvariantsForClosedWay(final List<Node> nodes)
@@ -322,7 +413,7 @@ public class WaySlice {
         }
     }
 
-    private Way replaceNodesInClosedWay(final List<Node> newNodes)
+    private List<Node> replaceNodesInClosedWay(final List<Node> newNodes)
         throws DataIntegrityProblemException{
         final List<Node> nodes = new ArrayList<>(w.getNodes());
 
@@ -388,10 +479,29 @@ public class WaySlice {
             // make sure the new way is closed
             nodes.add(newNodes.get(0));
         }
+        return nodes;
+    }
 
-        final Way newWay = new Way(w);
-        newWay.setNodes(nodes);
-        return newWay;
+    /**
+     * Replies the node list of the underlying way, where the nodes given
+     * by this way slice are replaced with the nodes in {@code newNodes}.
+     * <p>
+     * Neither modifies nor clones the way. It only reads the node list of
+     * the way and can therefore be invoked on a worker thread, provided
+     * the dataset isn't modified concurrently.
+     *
+     * @param newNodes the new nodes
+     * @return the new node list
+     * @throws DataIntegrityProblemException if the new node list of a
+     *  closed way would be invalid
+     */
+    public List<Node> replaceNodesInNodeList(final List<Node> newNodes)
+        throws DataIntegrityProblemException {
+        if (w.isClosed()) {
+            return replaceNodesInClosedWay(newNodes);
+        } else {
+            return replaceNodesInOpenWay(newNodes);
+        }
     }
 
     /**
@@ -402,11 +512,9 @@ public class WaySlice {
      * @return the cloned way with the new nodes
      */
      public Way replaceNodes(final List<Node> newNodes) {
-        if (w.isClosed()) {
-            return replaceNodesInClosedWay(newNodes);
-        } else {
-            return replaceNodesInOpenWay(newNodes);
-        }
+        final Way newWay = new Way(w);
+        newWay.setNodes(replaceNodesInNodeList(newNodes));
+        return newWay;
     }
 
     /**
@@ -633,6 +741,48 @@ public class WaySlice {
         }
     }
 
+    /* the first node of this way slice, in the order of getNodes() */
+    private Node firstNode() {
+        return inDirection ? getStartNode() : getEndNode();
+    }
+
+    /* the last node of this way slice, in the order of getNodes() */
+    private Node lastNode() {
+        return inDirection ? getEndNode() : getStartNode();
+    }
+
+    /**
+     * Replies true, if this way slice and {@code other} are "direction
+     * aligned", i.e. if the first node of this slice corresponds to the
+     * first node of {@code other}, in the order of {@link #getNodes()}.
+     * <p>
+     * If the two slices don't share their end nodes, they are aligned if
+     * the total distance between the first and the last nodes is shorter
+     * than the total distance in the reverse direction.
+     *
+     * @param other the other way slice. Must not be null.
+     * @return true, if the two way slices are direction aligned
+     */
+    public boolean isDirectionAlignedWith(@NotNull WaySlice other) {
+        Objects.requireNonNull(other);
+        final Node s1 = firstNode();
+        final Node s2 = lastNode();
+        final Node t1 = other.firstNode();
+        final Node t2 = other.lastNode();
+        if (s1 == t1 && s2 == t2) return true;
+        if (s1 == t2 && s2 == t1) return false;
+
+        final double[] s = getEastNorthCoordinates();
+        final double[] t = other.getEastNorthCoordinates();
+        final int sl = s.length - 2;
+        final int tl = t.length - 2;
+        final double d1 = DistanceKernel.distance(s[0], s[1], t[0], t[1])
+            + DistanceKernel.distance(s[sl], s[sl+1], t[tl], t[tl+1]);
+        final double d2 = DistanceKernel.distance(s[0], s[1], t[tl], t[tl+1])
+            + DistanceKernel.distance(s[sl], s[sl+1], t[0], t[1]);
+        return d1 <= d2;
+    }
+
     /**
      * Replies a way slice in another way with the same node sequence
      * as this way slice, provided there is such a node sequence in
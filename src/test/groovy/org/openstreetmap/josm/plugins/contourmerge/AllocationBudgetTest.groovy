@@ -0,0 +1,184 @@
+package org.openstreetmap.josm.plugins.contourmerge
+
+import groovy.transform.CompileStatic
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.openstreetmap.josm.data.osm.IWaySegment
+import org.openstreetmap.josm.data.osm.Node
+import org.openstreetmap.josm.data.osm.Way
+import org.openstreetmap.josm.data.osm.WaySegment
+import org.openstreetmap.josm.gui.MapFrame
+import org.openstreetmap.josm.gui.layer.OsmDataLayer
+import org.openstreetmap.josm.plugins.contourmerge.benchmark.BenchmarkSupport
+import org.openstreetmap.josm.plugins.contourmerge.benchmark.SyntheticBoundaries
+import org.openstreetmap.josm.plugins.contourmerge.fixture.JOSMFixture
+
+import javax.swing.*
+import java.awt.*
+import java.awt.event.MouseEvent
+import java.util.List
+
+import static org.junit.Assert.assertTrue
+
+/**
+ * Checks the bytes allocated per call on the hot paths of the contour
+ * merge mode, i.e. the code which runs for every mouse event while the
+ * user hovers over the map or drags a way slice.
+ * <p>
+ * The budgets are upper bounds in bytes per call. They are configured
+ * with the system properties {@code contourmerge.alloc-budget.<name>},
+ * i.e.
+ * <pre>
+ *    ./gradlew test -Dcontourmerge.alloc-budget.mouse-moved=2048
+ * </pre>
+ * The rings in the test dataset are long enough that a copy of the
+ * node list of a way per event exceeds every default budget. Moving the
+ * mouse within the same state of the mode neither creates a cursor nor
+ * translates a help text, hence the tight budgets for the mode.
+ */
+@CompileStatic
+class AllocationBudgetTest {
+
+    static final int NUM_NODES = 5_000
+    static final int WARMUP_CALLS = 20_000
+    static final int MEASURED_CALLS = 10_000
+
+    static long budget(String name, long defaultBytes) {
+        return Long.getLong("contourmerge.alloc-budget." + name,
+            defaultBytes)
+    }
+
+    static void assertWithinBudget(String name, long defaultBudget,
+            Runnable action) {
+        // warm up, so that we measure the compiled code
+        for (int i = 0; i < WARMUP_CALLS; i++) action.run()
+        final long before = BenchmarkSupport.allocatedBytes()
+        for (int i = 0; i < MEASURED_CALLS; i++) action.run()
+        final double bytesPerCall = (BenchmarkSupport.allocatedBytes()
+            - before) / (double) MEASURED_CALLS
+        final long budget = budget(name, defaultBudget)
+        assertTrue(String.format(Locale.ROOT,
+            "%s: allocated %.1f bytes per call, budget is %d bytes",
+            name, bytesPerCall, budget), bytesPerCall <= budget)
+    }
+
+    /**
+     * A contour merge mode which doesn't depend on a map view. The
+     * nearest node and way segment are given by the test.
+     */
+    static class DetachedContourMergeMode extends ContourMergeMode {
+        final Optional<ContourMergeModel> model
+        List<Node> nearestNodes = Collections.emptyList()
+        IWaySegment<Node, Way> nearestWaySegment
+
+        DetachedContourMergeMode(ContourMergeModel model) {
+            super((MapFrame) null)
+            this.model = Optional.of(model)
+        }
+
+        @Override
+        protected Optional<ContourMergeModel> getActiveModel() {
+            return model
+        }
+
+        @Override
+        protected List<Node> findNearestNodes(Point p) {
+            return nearestNodes
+        }
+
+        @Override
+        protected IWaySegment<Node, Way> findNearestWaySegment(Point p) {
+            return nearestWaySegment
+        }
+
+        @Override
+        protected void setMapViewCursor(Cursor cursor) {}
+
+        @Override
+        protected void repaintMapView() {}
+
+        @Override
+        protected void showHelpText(String text) {}
+    }
+
+    SyntheticBoundaries data
+    ContourMergeModel model
+    WaySegment innerSegment
+    WaySegment outerSegment
+    boolean wasEnabled
+
+    @BeforeAll
+    static void setupJosmFixture() {
+        JOSMFixture.createFixture()
+    }
+
+    @BeforeEach
+    void prepareModel() {
+        data = new SyntheticBoundaries(NUM_NODES)
+        model = new ContourMergeModel(
+            new OsmDataLayer(data.dataSet, "allocation-budget", null))
+        final int half = NUM_NODES.intdiv(2) as int
+        model.selectNodes([data.inner.getNode(0), data.inner.getNode(half),
+            data.outer.getNode(0), data.outer.getNode(half)])
+        innerSegment = new WaySegment(data.inner, 1)
+        outerSegment = new WaySegment(data.outer, 1)
+        wasEnabled = ContourMergePlugin.isEnabled()
+        ContourMergePlugin.setEnabled(true)
+    }
+
+    @AfterEach
+    void restoreEnabled() {
+        ContourMergePlugin.setEnabled(wasEnabled)
+    }
+
+    @Test
+    void "isSelected doesn't allocate"() {
+        final Node selected = data.inner.getNode(0)
+        final Node unselected = data.inner.getNode(1)
+        assertWithinBudget("is-selected", 8, () -> {
+            model.isSelected(selected)
+            model.isSelected(unselected)
+        })
+    }
+
+    @Test
+    void "getDragSource doesn't allocate"() {
+        model.setDragStartFeedbackWaySegment(innerSegment)
+        assertTrue(model.getDragSource() != null)
+        assertWithinBudget("get-drag-source", 8,
+            () -> { model.getDragSource() })
+    }
+
+    @Test
+    void "isPotentialDropTarget allocates at most a way slice"() {
+        model.setDragStartFeedbackWaySegment(innerSegment)
+        assertTrue(model.isPotentialDropTarget(outerSegment))
+        assertWithinBudget("is-potential-drop-target", 128,
+            () -> { model.isPotentialDropTarget(outerSegment) })
+    }
+
+    @Test
+    void "mouseMoved over a way segment"() {
+        final DetachedContourMergeMode mode =
+            new DetachedContourMergeMode(model)
+        mode.nearestWaySegment = innerSegment
+        final MouseEvent event = new MouseEvent(new JPanel(),
+            MouseEvent.MOUSE_MOVED, 0L, 0, 100, 100, 0, false)
+        assertWithinBudget("mouse-moved", 256,
+            () -> { mode.mouseMoved(event) })
+    }
+
+    @Test
+    void "onStepDrag over a drop target"() {
+        final DetachedContourMergeMode mode =
+            new DetachedContourMergeMode(model)
+        model.setDragStartFeedbackWaySegment(innerSegment)
+        mode.dragStart = new Point(100, 100)
+        mode.nearestWaySegment = outerSegment
+        final Point current = new Point(125, 115)
+        assertWithinBudget("step-drag", 256,
+            () -> { mode.onStepDrag(current) })
+    }
+}
@@ -0,0 +1,138 @@
+package org.openstreetmap.josm.plugins.contourmerge
+
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.openstreetmap.josm.data.osm.WaySegment
+import org.openstreetmap.josm.gui.layer.OsmDataLayer
+import org.openstreetmap.josm.plugins.contourmerge.benchmark.SyntheticBoundaries
+import org.openstreetmap.josm.plugins.contourmerge.fixture.JOSMFixture
+
+import javax.swing.*
+import java.awt.*
+import java.awt.event.MouseEvent
+
+import static org.junit.Assert.assertEquals
+
+class ContourMergeModeTest {
+
+    /**
+     * Counts the updates of the cursor, the help text and the map view.
+     */
+    static class CountingContourMergeMode
+            extends AllocationBudgetTest.DetachedContourMergeMode {
+        int numCursors = 0
+        int numHelpTexts = 0
+        int numRepaints = 0
+
+        CountingContourMergeMode(ContourMergeModel model) {
+            super(model)
+        }
+
+        @Override
+        protected void setMapViewCursor(Cursor cursor) { numCursors++ }
+
+        @Override
+        protected void repaintMapView() { numRepaints++ }
+
+        @Override
+        protected void showHelpText(String text) { numHelpTexts++ }
+    }
+
+    @BeforeAll
+    static void setupJosmFixture() {
+        JOSMFixture.createFixture()
+    }
+
+    SyntheticBoundaries data
+    ContourMergeModel model
+    CountingContourMergeMode mode
+    MouseEvent moved
+    boolean wasEnabled
+
+    @BeforeEach
+    void prepareMode() {
+        data = new SyntheticBoundaries(100)
+        model = new ContourMergeModel(
+            new OsmDataLayer(data.dataSet, "contour-merge-mode", null))
+        model.selectNodes([data.inner.getNode(0), data.inner.getNode(50),
+            data.outer.getNode(0), data.outer.getNode(50)])
+        mode = new CountingContourMergeMode(model)
+        moved = new MouseEvent(new JPanel(), MouseEvent.MOUSE_MOVED, 0L, 0,
+            100, 100, 0, false)
+        wasEnabled = ContourMergePlugin.isEnabled()
+        ContourMergePlugin.setEnabled(true)
+    }
+
+    @AfterEach
+    void restoreEnabled() {
+        ContourMergePlugin.setEnabled(wasEnabled)
+    }
+
+    @Test
+    void "moving over the same segment updates the view once"() {
+        mode.nearestWaySegment = new WaySegment(data.inner, 1)
+        10.times { mode.mouseMoved(moved) }
+        assertEquals(ContourMergeMode.State.OVER_WAY_SEGMENT, mode.getState())
+        assertEquals(1, mode.numCursors)
+        assertEquals(1, mode.numHelpTexts)
+        assertEquals(1, mode.numRepaints)
+
+        // another segment of the same way, same state, new feedback
+        mode.nearestWaySegment = new WaySegment(data.inner, 2)
+        mode.mouseMoved(moved)
+        assertEquals(1, mode.numCursors)
+        assertEquals(1, mode.numHelpTexts)
+        assertEquals(2, mode.numRepaints)
+    }
+
+    @Test
+    void "moving over an empty area doesn't update the view"() {
+        10.times { mode.mouseMoved(moved) }
+        assertEquals(ContourMergeMode.State.IDLE, mode.getState())
+        assertEquals(0, mode.numCursors)
+        assertEquals(0, mode.numHelpTexts)
+        assertEquals(0, mode.numRepaints)
+    }
+
+    @Test
+    void "hovering a node and leaving it"() {
+        mode.nearestNodes = [data.inner.getNode(0)]
+        mode.mouseMoved(moved)
+        assertEquals(ContourMergeMode.State.OVER_SELECTED_NODE,
+            mode.getState())
+        assertEquals(data.inner.getNode(0), model.getFeedbackNode())
+
+        mode.nearestNodes = [data.inner.getNode(1)]
+        mode.mouseMoved(moved)
+        assertEquals(ContourMergeMode.State.OVER_NODE, mode.getState())
+        assertEquals(2, mode.numCursors)
+        assertEquals(2, mode.numRepaints)
+
+        mode.nearestNodes = []
+        mode.mouseMoved(moved)
+        mode.mouseMoved(moved)
+        assertEquals(ContourMergeMode.State.IDLE, mode.getState())
+        assertEquals(null, model.getFeedbackNode())
+        assertEquals(3, mode.numCursors)
+        assertEquals(3, mode.numRepaints)
+    }
+
+    @Test
+    void "dragging repaints only when the offset or the target changes"() {
+        model.setDragStartFeedbackWaySegment(new WaySegment(data.inner, 1))
+        mode.dragStart = new Point(100, 100)
+        mode.nearestWaySegment = new WaySegment(data.outer, 1)
+        final Point current = new Point(125, 115)
+        5.times { mode.onStepDrag(current) }
+        assertEquals(ContourMergeMode.State.DRAGGING_OVER_TARGET,
+            mode.getState())
+        assertEquals(1, mode.numCursors)
+        assertEquals(1, mode.numRepaints)
+
+        mode.onStepDrag(new Point(126, 115))
+        assertEquals(1, mode.numCursors)
+        assertEquals(2, mode.numRepaints)
+    }
+}
@@ -13,6 +13,7 @@ import org.openstreetmap.josm.plugins.contourmerge.fixture.JOSMFixture
 
 import static org.junit.Assert.assertEquals
 import static org.junit.Assert.assertTrue
+import static org.junit.jupiter.api.Assertions.assertThrows
 
 class ContourMergeModelTest {
 
@@ -71,6 +72,60 @@ class ContourMergeModelTest {
         assertTrue(model.getSelectedNodes().isEmpty())
     }
 
+    @Test
+    void selectAndDeselectNodesInBulk() {
+        ContourMergeModel model = createModelMock()
+        Node n1 = newNode(1)
+        Node n2 = newNode(2)
+        Node n3 = newNode(3)
+        assert model.selectNodes([n1, n2, n3])
+        assertEquals(3, model.getSelectedNodes().size())
+        // selecting already selected nodes doesn't change the selection
+        assert !model.selectNodes([n1, n2])
+        assertEquals(3, model.getSelectedNodes().size())
+
+        assert model.deselectNodes([n1, n3])
+        assert !model.isSelected(n1)
+        assert model.isSelected(n2)
+        assert !model.isSelected(n3)
+        assertEquals([n2], model.getSelectedNodes())
+        assert !model.deselectNodes([n1])
+    }
+
+    @Test
+    void selectNodesDoesntChangeTheSelectionForAForeignNode() {
+        ContourMergeModel model = createModelMock()
+        Node n1 = newNode(1)
+        Node foreign = new Node(2)
+        new DataSet().addPrimitive(foreign)
+        assertThrows(IllegalArgumentException, {
+            model.selectNodes([n1, foreign])
+        })
+        assert !model.isSelected(n1)
+        assert model.getSelectedNodes().isEmpty()
+    }
+
+    @Test
+    void computeJunctionNodes() {
+        Node n1 = newNode(1)
+        Node n2 = newNode(2)
+        Node n3 = newNode(3)
+        Node n4 = newNode(4)
+        Node n5 = newNode(5)
+        Way w1 = newWay(1, n1, n2, n3, n4)
+        Way w2 = newWay(2, n4, n5, n2)
+        newWay(3, n3, n5)
+
+        assertEquals([n2, n3, n4],
+            ContourMergeModel.computeJunctionNodes([w1]))
+        assertEquals([n4, n5, n2],
+            ContourMergeModel.computeJunctionNodes([w2]))
+        // nodes shared by the scanned ways are replied once
+        assertEquals([n2, n3, n4, n5],
+            ContourMergeModel.computeJunctionNodes([w1, w2]))
+        assert ContourMergeModel.computeJunctionNodes([]).isEmpty()
+    }
+
     @Test
     void toggleSelected(){
         ContourMergeModel model = createModelMock()
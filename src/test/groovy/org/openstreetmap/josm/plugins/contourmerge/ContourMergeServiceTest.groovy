@@ -0,0 +1,265 @@
+package org.openstreetmap.josm.plugins.contourmerge
+
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.openstreetmap.josm.data.UndoRedoHandler
+import org.openstreetmap.josm.data.osm.Way
+import org.openstreetmap.josm.gui.layer.OsmDataLayer
+import org.openstreetmap.josm.plugins.contourmerge.ContourMergeService.MergeRequest
+import org.openstreetmap.josm.plugins.contourmerge.ContourMergeService.Status
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertNotNull
+import static org.junit.Assert.assertNull
+import static org.junit.Assert.assertTrue
+
+class ContourMergeServiceTest extends TestCaseWithJOSMFixture {
+
+    Way target
+    ContourMergeService service = new ContourMergeService()
+
+    @BeforeEach
+    void setUp() {
+        target = way([node(0, 0), node(0, 0.001), node(0, 0.002)])
+    }
+
+    def slice(Way w) {
+        return new WaySlice(w, 0, w.getNodesCount() - 1)
+    }
+
+    @Test
+    void "merges a batch with one command and one undo entry"() {
+        def a = way([node(-0.00001, 0), node(-0.00001, 0.001),
+                     node(-0.00001, 0.002)])
+        def b = way([node(0.00001, 0), node(0.00001, 0.001),
+                     node(0.00001, 0.002)])
+        def obsolete = a.getNodes() + b.getNodes()
+        def undoSize = UndoRedoHandler.getInstance().getUndoCommands().size()
+
+        def result = service.merge([
+            new MergeRequest(slice(a), slice(target)),
+            new MergeRequest(slice(b), slice(target))
+        ])
+
+        assertTrue(result.results().every { it.isAccepted() })
+        assertEquals(undoSize + 1,
+            UndoRedoHandler.getInstance().getUndoCommands().size())
+        assertEquals(target.getNodes(), a.getNodes())
+        assertEquals(target.getNodes(), b.getNodes())
+        assertTrue(obsolete.every { it.isDeleted() })
+
+        UndoRedoHandler.getInstance().undo()
+        assertTrue(obsolete.every { !it.isDeleted() })
+        assertFalse(a.getNodes().any { target.containsNode(it) })
+    }
+
+    @Test
+    void "deletes a node removed by several requests once"() {
+        def shared = node(-0.00001, 0.001)
+        def a = way([node(-0.00001, 0), shared, node(-0.00001, 0.002)])
+        def b = way([node(-0.00002, 0), shared, node(-0.00002, 0.002)])
+
+        def result = service.plan([
+            new MergeRequest(slice(a), slice(target)),
+            new MergeRequest(slice(b), slice(target))
+        ])
+        result.command().executeCommand()
+
+        assertTrue(result.results().every { it.isAccepted() })
+        assertTrue(shared.isDeleted())
+    }
+
+    @Test
+    void "keeps tagged nodes"() {
+        def tagged = node(-0.00001, 0.001)
+        tagged.put("natural", "tree")
+        def a = way([node(-0.00001, 0), tagged, node(-0.00001, 0.002)])
+
+        def result = service.plan([new MergeRequest(slice(a), slice(target))])
+        result.command().executeCommand()
+
+        assertFalse(tagged.isDeleted())
+        assertEquals(target.getNodes(), a.getNodes())
+    }
+
+    @Test
+    void "skips requests which modify an already modified way"() {
+        def a = way([node(-0.00001, 0), node(-0.00001, 0.001),
+                     node(-0.00001, 0.002)])
+
+        def result = service.plan([
+            new MergeRequest(new WaySlice(a, 0, 1), slice(target)),
+            new MergeRequest(new WaySlice(a, 1, 2), slice(target))
+        ])
+
+        assertEquals(Status.ACCEPTED, result.results()[0].status())
+        assertEquals(Status.CONFLICT, result.results()[1].status())
+    }
+
+    @Test
+    void "rejects a request with source and target on the same way"() {
+        def result = service.plan([
+            new MergeRequest(new WaySlice(target, 0, 1),
+                new WaySlice(target, 1, 2))
+        ])
+
+        assertEquals(Status.INVALID, result.results()[0].status())
+        assertNull(result.command())
+    }
+
+    @Test
+    void "aborts the batch if a merged way fails the validation"() {
+        // merging a0, a1 onto t0, t1 results in t0, t1, t1
+        def a = way([node(-0.00001, 0), node(-0.00001, 0.0005),
+                     target.getNode(1)])
+        def b = way([node(0.00001, 0), node(0.00001, 0.001),
+                     node(0.00001, 0.002)])
+        def nodesOfB = b.getNodes()
+
+        def result = service.merge([
+            new MergeRequest(new WaySlice(a, 0, 1),
+                new WaySlice(target, 0, 1)),
+            new MergeRequest(slice(b), slice(target))
+        ])
+
+        assertNull(result.command())
+        assertEquals(Status.INVALID, result.results()[0].status())
+        assertEquals(Status.ABORTED, result.results()[1].status())
+        assertEquals(MergeValidator.Kind.CONSECUTIVE_DUPLICATE,
+            result.problems()[0].kind())
+        assertEquals(nodesOfB, b.getNodes())
+    }
+
+    @Test
+    void "the model refuses a merge which fails the validation"() {
+        // merging a0, a1 onto t0, t1 results in t0, t1, t1
+        def a = way([node(-0.00001, 0), node(-0.00001, 0.0005),
+                     target.getNode(1)])
+        def nodesOfA = a.getNodes()
+        def model = new ContourMergeModel(new OsmDataLayer(ds, "test", null))
+
+        def cmd = model.buildContourAlignCommand(new WaySlice(a, 0, 1),
+            new WaySlice(target, 0, 1))
+
+        assertNull(cmd)
+        assertNotNull(model.getMergeFeedback())
+        assertEquals(nodesOfA, a.getNodes())
+    }
+
+    @Test
+    void "coalesces coincident nodes along the new boundary"() {
+        // a2 is about 1cm away from the third node of the target way
+        def a2 = node(-0.0000001, 0.002)
+        def a = way([node(-0.00001, 0), node(-0.00001, 0.001), a2,
+                     node(-0.001, 0.003)])
+
+        def result = service.plan([
+            new MergeRequest(new WaySlice(a, 0, 1),
+                new WaySlice(target, 0, 1))
+        ], true /* coalesce nodes */)
+        result.command().executeCommand()
+
+        assertEquals(target.getNodes(), a.getNodes().subList(0, 3))
+        assertTrue(a2.isDeleted())
+    }
+
+    @Test
+    void "doesn't coalesce nodes beyond the tolerance"() {
+        // a2 is about 1m away from the third node of the target way
+        def a2 = node(-0.00001, 0.002)
+        def a = way([node(-0.00001, 0), node(-0.00001, 0.001), a2,
+                     node(-0.001, 0.003)])
+
+        def result = service.plan([
+            new MergeRequest(new WaySlice(a, 0, 1),
+                new WaySlice(target, 0, 1))
+        ], true /* coalesce nodes */)
+        result.command().executeCommand()
+
+        assertEquals(a2, a.getNode(2))
+        assertFalse(a2.isDeleted())
+    }
+
+    @Test
+    void "doesn't coalesce two nodes of a way through a node of another way"() {
+        // a, b and c are within about 2cm of each other. a and c are nodes
+        // of w1, b is a node of w2.
+        def a = node(0.0000010, 0.001)
+        def c = node(0.0000012, 0.001)
+        def b = node(0.0000011, 0.001)
+        def w1 = way([node(0.001, 0), a, c, node(0.001, 0.002)])
+        def w2 = way([node(-0.001, 0), b, node(-0.001, 0.002)])
+
+        def modifiedWays = [(w2): w2.getNodes()] as LinkedHashMap
+        def replacements = new NodeCoalescer(0.05).coalesce(modifiedWays,
+            [w1])
+
+        assertEquals([(b): a], replacements)
+        assertEquals([w2.getNode(0), a, w2.getNode(2)], modifiedWays[w2])
+        assertFalse(modifiedWays.containsKey(w1))
+    }
+
+    @Test
+    void "doesn't coalesce two nodes of a way off the boundary"() {
+        // a and b are about 1cm apart. They are both nodes of w3, which
+        // isn't along the boundary.
+        def a = node(0.0000010, 0.001)
+        def b = node(0.0000011, 0.001)
+        def w1 = way([node(0.001, 0), a, node(0.001, 0.002)])
+        def w2 = way([node(-0.001, 0), b, node(-0.001, 0.002)])
+        way([node(0, -0.001), a, b, node(0, 0.003)])
+
+        def modifiedWays = [(w2): w2.getNodes()] as LinkedHashMap
+        assertTrue(new NodeCoalescer(0.05).coalesce(modifiedWays, [w1])
+            .isEmpty())
+    }
+
+    @Test
+    void "plans the independent requests of a large batch in parallel"() {
+        // ten pairs of parallel ways, far apart from each other
+        def pairs = (0..<10).collect { int k ->
+            def lat = k * 0.01
+            def t = way([node(lat, 0), node(lat, 0.001), node(lat, 0.002)])
+            def s = way([node(lat - 0.00001, 0), node(lat - 0.00001, 0.001),
+                         node(lat - 0.00001, 0.002)])
+            [s, t]
+        }
+        def requests = pairs.collect { new MergeRequest(slice(it[0]),
+            slice(it[1])) }
+        // conflicts with the first request, which modifies its target
+        requests << new MergeRequest(slice(pairs[1][1]), slice(pairs[0][0]))
+        assertTrue(requests.size() >= ContourMergeService.PARALLEL_THRESHOLD)
+
+        def components = ConflictGraph.components(requests)
+        assertEquals(10, components.size())
+        assertEquals([0, 1, 10], components[0])
+
+        def result = service.plan(requests)
+        assertEquals([10], (0..<requests.size()).findAll {
+            !result.results()[it].isAccepted() })
+        assertEquals(Status.CONFLICT, result.skipped()[0].status())
+        result.command().executeCommand()
+        pairs.each { assertEquals(it[1].getNodes(), it[0].getNodes()) }
+    }
+
+    @Test
+    void "requests merging onto the same target are independent"() {
+        def a = way([node(-0.00001, 0), node(-0.00001, 0.001),
+                     node(-0.00001, 0.002)])
+        def b = way([node(0.00001, 0), node(0.00001, 0.001),
+                     node(0.00001, 0.002)])
+
+        def components = ConflictGraph.components([
+            new MergeRequest(slice(a), slice(target)),
+            new MergeRequest(slice(b), slice(target)),
+            new MergeRequest(slice(target), slice(a))
+        ])
+
+        assertEquals([[0, 1, 2]], components)
+        assertEquals([[0], [1]], ConflictGraph.components([
+            new MergeRequest(slice(a), slice(target)),
+            new MergeRequest(slice(b), slice(target))
+        ]))
+    }
+}
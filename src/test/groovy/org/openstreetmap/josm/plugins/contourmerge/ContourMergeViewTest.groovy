@@ -0,0 +1,154 @@
+package org.openstreetmap.josm.plugins.contourmerge
+
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.openstreetmap.josm.data.osm.WaySegment
+import org.openstreetmap.josm.gui.layer.OsmDataLayer
+import org.openstreetmap.josm.plugins.contourmerge.benchmark.BenchmarkSupport
+import org.openstreetmap.josm.plugins.contourmerge.benchmark.SyntheticBoundaries
+import org.openstreetmap.josm.plugins.contourmerge.fixture.JOSMFixture
+
+import java.awt.*
+import java.awt.geom.AffineTransform
+import java.awt.image.BufferedImage
+
+import static org.junit.Assert.assertArrayEquals
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertNotNull
+import static org.junit.Assert.assertSame
+import static org.junit.Assert.assertTrue
+
+class ContourMergeViewTest {
+
+    SyntheticBoundaries data
+    ContourMergeModel model
+    AffineTransform at
+    BufferedImage image
+
+    @BeforeAll
+    static void setupJosmFixture() {
+        JOSMFixture.createFixture()
+    }
+
+    @BeforeEach
+    void prepareModel() {
+        data = new SyntheticBoundaries(1000)
+        model = new ContourMergeModel(
+            new OsmDataLayer(data.dataSet, "test", null))
+        model.selectNode(data.inner.getNode(0))
+        model.selectNode(data.inner.getNode(500))
+        model.setDragStartFeedbackWaySegment(new WaySegment(data.inner, 1))
+        at = BenchmarkSupport.viewport(data.inner.getNode(0).getEastNorth(),
+            10, 800, 600)
+        image = new BufferedImage(800, 600, BufferedImage.TYPE_INT_ARGB)
+    }
+
+    @AfterEach
+    void restoreFrameTimeBudget() {
+        ContourMergeView.FRAME_TIME_BUDGET.remove()
+        ContourMergeView.SHOW_PERFORMANCE_OVERLAY.remove()
+    }
+
+    void paint(ContourMergeView view) {
+        Graphics2D g = image.createGraphics()
+        try {
+            view.paint(g, at, model, 800, 600)
+        } finally {
+            g.dispose()
+        }
+    }
+
+    @Test
+    void "reduces the quality if a frame exceeds the budget during a drag"() {
+        ContourMergeView.FRAME_TIME_BUDGET.put(0)
+        def view = new ContourMergeView()
+        model.setDragOffset(new Point(10, 10))
+        paint(view)
+        assertTrue(view.isReducedQuality())
+
+        // end the drag operation
+        model.setDragOffset(null)
+        paint(view)
+        assertFalse(view.isReducedQuality())
+    }
+
+    @Test
+    void "keeps the full quality if no drag is in progress"() {
+        ContourMergeView.FRAME_TIME_BUDGET.put(0)
+        def view = new ContourMergeView()
+        paint(view)
+        assertFalse(view.isReducedQuality())
+    }
+
+    @Test
+    void "keeps the full quality if frames stay within the budget"() {
+        ContourMergeView.FRAME_TIME_BUDGET.put(60_000)
+        def view = new ContourMergeView()
+        model.setDragOffset(new Point(10, 10))
+        paint(view)
+        assertFalse(view.isReducedQuality())
+    }
+
+    @Test
+    void "east/north tolerance is a power of two below the pixel tolerance"() {
+        // 10 east/north units per pixel
+        def tolerance = ContourMergeView.toEastNorthTolerance(at, 0.5)
+        assertEquals(4.0d, tolerance, 0.0d)
+        // slightly different scales of the same zoom level
+        def similar = BenchmarkSupport.viewport(
+            data.inner.getNode(0).getEastNorth(), 9, 800, 600)
+        assertEquals(4.0d,
+            ContourMergeView.toEastNorthTolerance(similar, 0.5), 0.0d)
+    }
+
+    @Test
+    void "records the paint time and paints the performance overlay"() {
+        ContourMergeView.SHOW_PERFORMANCE_OVERLAY.put(true)
+        def statistics = PerformanceStatistics.getInstance()
+        statistics.reset()
+        paint(new ContourMergeView())
+
+        assertEquals(1L,
+            statistics.getCount(PerformanceStatistics.Metric.PAINT))
+        def lines = ContourMergeView.performanceOverlayLines(model)
+        assertTrue(lines.any { it.contains("501 nodes, 1 ways") })
+        assertTrue(lines.any { it.startsWith("selected nodes") })
+    }
+
+    @Test
+    void "reuses the cached decorations until the selection changes"() {
+        def view = new ContourMergeView()
+        paint(view)
+        def cache = view.getDecorationCache()
+        assertNotNull(cache)
+        def pixels = cache.getRGB(0, 0, 800, 600, null, 0, 800)
+
+        // another frame with a different drag feedback
+        model.setDragStartFeedbackWaySegment(new WaySegment(data.inner, 2))
+        paint(view)
+        assertSame(cache, view.getDecorationCache())
+        assertArrayEquals(pixels, cache.getRGB(0, 0, 800, 600, null, 0, 800))
+
+        model.selectNode(data.inner.getNode(5))
+        paint(view)
+        assertFalse(Arrays.equals(pixels,
+            cache.getRGB(0, 0, 800, 600, null, 0, 800)))
+    }
+
+    @Test
+    void "renders the cached decorations again for another viewport"() {
+        def view = new ContourMergeView()
+        paint(view)
+        def pixels = view.getDecorationCache()
+            .getRGB(0, 0, 800, 600, null, 0, 800)
+
+        at = BenchmarkSupport.viewport(data.inner.getNode(250).getEastNorth(),
+            10, 800, 600)
+        paint(view)
+        assertFalse(Arrays.equals(pixels, view.getDecorationCache()
+            .getRGB(0, 0, 800, 600, null, 0, 800)))
+    }
+}
@@ -0,0 +1,170 @@
+package org.openstreetmap.josm.plugins.contourmerge
+
+import org.junit.jupiter.api.Assumptions
+import org.junit.jupiter.api.Test
+
+import static org.junit.Assert.assertArrayEquals
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertTrue
+
+class DistanceKernelTest {
+
+    /* the reference implementation, with explicit case distinctions */
+    static double naiveDistanceToSegment(double px, double py, double ax,
+            double ay, double bx, double by) {
+        def dx = bx - ax, dy = by - ay
+        def len2 = dx * dx + dy * dy
+        if (len2 == 0) return Math.hypot(px - ax, py - ay)
+        def t = ((px - ax) * dx + (py - ay) * dy) / len2
+        if (t <= 0) return Math.hypot(px - ax, py - ay)
+        if (t >= 1) return Math.hypot(px - bx, py - by)
+        return Math.hypot(ax + t * dx - px, ay + t * dy - py)
+    }
+
+    static double[] randomPolyline(Random random, int n) {
+        double[] c = new double[2 * n]
+        for (int i = 0; i < c.length; i++) c[i] = random.nextDouble() * 100
+        return c
+    }
+
+    @Test
+    void "distance between two points"() {
+        assertEquals(5, DistanceKernel.distance(1, 2, 4, 6), 1e-12)
+        assertEquals(5, DistanceKernel.distance([1, 2, 4, 6] as double[],
+            0, 1), 1e-12)
+    }
+
+    @Test
+    void "distance to a segment"() {
+        assertEquals(1, Math.sqrt(DistanceKernel.squaredDistanceToSegment(
+            1, 1, 0, 0, 2, 0)), 1e-12)
+        // beyond the end of the segment
+        assertEquals(5, Math.sqrt(DistanceKernel.squaredDistanceToSegment(
+            5, 4, 0, 0, 2, 0)), 1e-12)
+        // degenerate segment
+        assertEquals(5, Math.sqrt(DistanceKernel.squaredDistanceToSegment(
+            3, 4, 0, 0, 0, 0)), 1e-12)
+    }
+
+    @Test
+    void "segments agree with the reference implementation"() {
+        def random = new Random(4711)
+        double[] c = randomPolyline(random, 500)
+        def segments = DistanceKernel.Segments.of(c)
+        assertEquals(499, segments.size())
+        1000.times {
+            def px = random.nextDouble() * 120 - 10
+            def py = random.nextDouble() * 120 - 10
+            def distance = { int i ->
+                naiveDistanceToSegment(px, py, c[2*i], c[2*i+1], c[2*i+2],
+                    c[2*i+3])
+            }
+            double expected = (0..<499).collect(distance).min()
+            assertEquals(expected, segments.distanceTo(px, py), 1e-9)
+            // adjacent segments are equally near to their common point
+            assertEquals(expected,
+                distance(segments.nearestSegment(px, py)), 1e-9)
+        }
+    }
+
+    @Test
+    void "skips points without a position"() {
+        double[] c = [0, 0, 1, 0, Double.NaN, Double.NaN, 3, 0, 4, 0]
+            as double[]
+        def segments = DistanceKernel.Segments.of(c)
+        assertEquals(2, segments.size())
+        assertEquals(3, segments.nearestSegment(4, 1))
+        assertEquals(1, segments.distanceTo(2, 0), 1e-12)
+    }
+
+    @Test
+    void "a single point is a degenerate segment"() {
+        def segments = DistanceKernel.Segments.of([3, 4] as double[])
+        assertEquals(1, segments.size())
+        assertEquals(5, segments.distanceTo(0, 0), 1e-12)
+        assertTrue(Double.isInfinite(
+            DistanceKernel.Segments.of(new double[0]).distanceTo(0, 0)))
+    }
+
+    @Test
+    void "farthest point from a segment"() {
+        double[] c = [0, 0, 1, 1, 2, -3, 3, 2, 4, 0] as double[]
+        assertEquals(2, DistanceKernel.farthestFromSegment(c, 0, 4))
+        assertEquals(1, DistanceKernel.farthestFromSegment(c, 0, 2))
+        assertEquals(-1, DistanceKernel.farthestFromSegment(c, 0, 1))
+    }
+
+    @Test
+    void "hausdorff distance between two polylines"() {
+        double[] a = [0, 0, 10, 0] as double[]
+        double[] b = [0, 1, 5, 3, 10, 1] as double[]
+        assertEquals(1, DistanceKernel.maxDistance(a, b), 1e-12)
+        assertEquals(3, DistanceKernel.maxDistance(b, a), 1e-12)
+        assertEquals(3, DistanceKernel.hausdorffDistance(a, b), 1e-12)
+    }
+
+    @Test
+    void "discrete frechet distance"() {
+        double[] a = [0, 0, 1, 0, 2, 0] as double[]
+        double[] b = [0, 1, 2, 1] as double[]
+        assertEquals(Math.sqrt(2), DistanceKernel.discreteFrechetDistance(
+            a, b, Double.POSITIVE_INFINITY), 1e-12)
+        // the order of the points matters
+        double[] reversed = [2, 1, 0, 1] as double[]
+        assertEquals(Math.sqrt(5), DistanceKernel.discreteFrechetDistance(
+            a, reversed, Double.POSITIVE_INFINITY), 1e-12)
+        assertEquals(0, DistanceKernel.discreteFrechetDistance(a, a, 0), 0)
+    }
+
+    @Test
+    void "discrete frechet distance stops at the bound"() {
+        double[] a = [0, 0, 1, 0, 2, 0] as double[]
+        double[] b = [0, 1, 2, 1] as double[]
+        assertTrue(Double.isInfinite(
+            DistanceKernel.discreteFrechetDistance(a, b, 1.4)))
+        assertEquals(Math.sqrt(2),
+            DistanceKernel.discreteFrechetDistance(a, b, 1.5), 1e-12)
+        assertTrue(Double.isInfinite(DistanceKernel.discreteFrechetDistance(
+            a, new double[0], 10)))
+    }
+
+    @Test
+    void "densify keeps the points and splits long segments"() {
+        double[] c = [0, 0, 1, 0, 1, 3] as double[]
+        assertArrayEquals([0, 0, 1, 0, 1, 1, 1, 2, 1, 3] as double[],
+            DistanceKernel.densify(c, 1), 1e-12)
+        assertTrue(DistanceKernel.densify(c, 5).is(c))
+        assertEquals(4, DistanceKernel.length(c), 1e-12)
+    }
+
+    @Test
+    void "densified polylines with different node densities are close"() {
+        double[] a = [0, 0, 4, 0, 8, 0] as double[]
+        double[] b = [0, 1, 3, 1, 6, 1, 8, 1] as double[]
+        assertTrue(DistanceKernel.discreteFrechetDistance(a, b, 10) > 1.5)
+        assertEquals(1, DistanceKernel.discreteFrechetDistance(
+            DistanceKernel.densify(a, 0.1), DistanceKernel.densify(b, 0.1),
+            10), 0.1)
+    }
+
+    @Test
+    void "the vectorized segment loop replies the scalar results"() {
+        Assumptions.assumeTrue(DistanceKernel.isVectorized(),
+            "jdk.incubator.vector not available")
+        def random = new Random(4711)
+        // fewer segments than fit into a register, and some remaining
+        [1, 3, 8, 37].each { n ->
+            def c = randomPolyline(random, n + 1)
+            def segments = DistanceKernel.Segments.of(c)
+            10.times {
+                def px = random.nextDouble() * 120 - 10
+                def py = random.nextDouble() * 120 - 10
+                def expected = DistanceKernel.scalarMinSquaredDistance(px,
+                    py, 0, segments.size(), segments.ax, segments.ay,
+                    segments.dx, segments.dy, segments.invLen2)
+                assertEquals(expected, segments.squaredDistanceTo(px, py),
+                    0d)
+            }
+        }
+    }
+}
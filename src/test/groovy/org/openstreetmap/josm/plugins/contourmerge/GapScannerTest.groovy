@@ -0,0 +1,144 @@
+package org.openstreetmap.josm.plugins.contourmerge
+
+import org.junit.jupiter.api.Test
+import org.openstreetmap.josm.data.osm.Node
+import org.openstreetmap.josm.data.osm.Way
+import org.openstreetmap.josm.gui.layer.OsmDataLayer
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertNull
+import static org.junit.Assert.assertTrue
+
+class GapScannerTest extends TestCaseWithJOSMFixture {
+
+    // about 111 m
+    static final double L = 0.001
+    // about 0.5 m
+    static final double GAP = 0.0000045
+
+    def area(List<Node> nodes) {
+        def w = way(nodes + [nodes[0]])
+        w.put("landuse", "forest")
+        return w
+    }
+
+    // a square whose east edge consists of four segments
+    def west() {
+        return area([node(0, 0), node(0, L)] +
+            (1..3).collect { node(it * L / 4, L) } +
+            [node(L, L), node(L, 0)])
+    }
+
+    // a square whose west edge at longitude lon consists of four segments
+    def east(double lon) {
+        return area([node(0, lon), node(0, 2 * L), node(L, 2 * L),
+            node(L, lon)] + (3..1).collect { node(it * L / 4, lon) })
+    }
+
+    @Test
+    void "finds a gap between adjacent areas"() {
+        def west = west()
+        def east = east(L + GAP)
+
+        def gaps = new GapScanner(2.0).scan(ds)
+
+        assertEquals(1, gaps.size())
+        def gap = gaps[0]
+        assertEquals([west, east] as Set,
+            [gap.source().getWay(), gap.target().getWay()] as Set)
+        assertEquals(GapScanner.Kind.GAP, gap.kind())
+        assertEquals(4, gap.source().getNumSegments())
+        assertEquals(4, gap.target().getNumSegments())
+        assertTrue(gap.maxDistance() > 0)
+    }
+
+    /* a mode which accepts the gaps chosen by the test */
+    static class ReviewingContourMergeMode
+            extends AllocationBudgetTest.DetachedContourMergeMode {
+        Closure<List<GapScanner.Gap>> reviewer = { [] }
+        List<GapScanner.Gap> reviewed
+
+        ReviewingContourMergeMode(ContourMergeModel model) {
+            super(model)
+        }
+
+        @Override
+        protected List<GapScanner.Gap> reviewGaps(List<GapScanner.Gap> gaps) {
+            reviewed = gaps
+            return reviewer(gaps)
+        }
+    }
+
+    @Test
+    void "the mode closes the gaps the user accepts"() {
+        def west = west()
+        def east = east(L + GAP)
+        def model = new ContourMergeModel(new OsmDataLayer(ds, "gaps", null))
+        def mode = new ReviewingContourMergeMode(model)
+        def gaps = new GapScanner(2.0).scan(ds)
+
+        // not, if the data has changed since the scan
+        mode.closeGaps(model, model.getDataEpoch() - 1, gaps)
+        assertNull(mode.reviewed)
+        assertFalse(west.getNodes().any { east.containsNode(it) })
+
+        // not, if the user doesn't accept the gap
+        mode.closeGaps(model, model.getDataEpoch(), gaps)
+        assertEquals(gaps, mode.reviewed)
+        assertFalse(west.getNodes().any { east.containsNode(it) })
+
+        mode.reviewer = { it }
+        mode.closeGaps(model, model.getDataEpoch(), gaps)
+        assertTrue(west.getNodes().any { east.containsNode(it) })
+    }
+
+    @Test
+    void "the review dialog replies the ticked gaps"() {
+        west()
+        east(L + GAP)
+        def gaps = new GapScanner(2.0).scan(ds)
+        def tableModel = new GapReviewDialog.GapTableModel(gaps)
+
+        assertTrue(tableModel.getAcceptedGaps().isEmpty())
+        tableModel.setAccepted(0, true)
+        assertEquals(gaps, tableModel.getAcceptedGaps())
+        assertEquals(Boolean.TRUE, tableModel.getValueAt(0, 0))
+    }
+
+    @Test
+    void "finds an overlap between adjacent areas"() {
+        west()
+        east(L - GAP)
+
+        def gaps = new GapScanner(2.0).scan(ds)
+
+        assertEquals(1, gaps.size())
+        assertEquals(GapScanner.Kind.OVERLAP, gaps[0].kind())
+    }
+
+    @Test
+    void "ignores gaps wider than the tolerance"() {
+        west()
+        east(L + GAP)
+
+        assertTrue(new GapScanner(0.1).scan(ds).isEmpty())
+    }
+
+    @Test
+    void "ignores areas sharing their boundary"() {
+        def west = west()
+        area([node(L, 2 * L), node(0, 2 * L)] + west.getNodes()[1..5])
+
+        assertTrue(new GapScanner(2.0).scan(ds).isEmpty())
+    }
+
+    @Test
+    void "joins runs of a closed way across its first segment"() {
+        def runs = GapScanner.cyclicRuns([0, 1, 5, 8, 9], 10, true)
+        assertEquals([[8, 1], [5, 5]], runs.collect { it as List })
+
+        def run = GapScanner.coveringRun([0, 1, 8, 9] as TreeSet, 10, true)
+        assertEquals([8, 1], run as List)
+    }
+}
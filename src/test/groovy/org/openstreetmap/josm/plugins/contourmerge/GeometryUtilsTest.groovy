@@ -0,0 +1,57 @@
+package org.openstreetmap.josm.plugins.contourmerge
+
+import org.junit.jupiter.api.Test
+
+import static org.junit.Assert.assertArrayEquals
+import static org.junit.Assert.assertTrue
+
+class GeometryUtilsTest {
+
+    static double maxDeviation(double[] c, int[] kept) {
+        double max = 0
+        for (int k = 0; k < kept.length - 1; k++) {
+            int a = kept[k], b = kept[k + 1]
+            for (int i = a + 1; i < b; i++) {
+                max = Math.max(max, GeometryUtils.distanceToSegment(
+                    c[2*i], c[2*i+1], c[2*a], c[2*a+1], c[2*b], c[2*b+1]))
+            }
+        }
+        return max
+    }
+
+    @Test
+    void "simplify drops collinear points"() {
+        double[] c = [0, 0, 1, 0, 2, 0, 3, 0, 4, 0] as double[]
+        assertArrayEquals([0, 4] as int[], GeometryUtils.simplify(c, 0.1))
+    }
+
+    @Test
+    void "simplify keeps points beyond the tolerance"() {
+        double[] c = [0, 0, 1, 0, 2, 1, 3, 0, 4, 0] as double[]
+        assertArrayEquals([0, 2, 4] as int[], GeometryUtils.simplify(c, 0.5))
+        assertArrayEquals([0, 4] as int[], GeometryUtils.simplify(c, 1.0))
+    }
+
+    @Test
+    void "simplified polyline stays within the tolerance"() {
+        def random = new Random(4711)
+        int n = 2000
+        double[] c = new double[2 * n]
+        for (int i = 0; i < n; i++) {
+            c[2*i] = i * 0.1
+            c[2*i+1] = Math.sin(i * 0.05) * 10 + random.nextGaussian() * 0.3
+        }
+        [0.05, 0.5, 2.0].each { double tolerance ->
+            int[] kept = GeometryUtils.simplify(c, tolerance)
+            assertTrue(kept[0] == 0 && kept[kept.length - 1] == n - 1)
+            assertTrue(kept.length < n)
+            assertTrue(maxDeviation(c, kept) <= tolerance)
+        }
+    }
+
+    @Test
+    void "simplify keeps short polylines"() {
+        assertArrayEquals([0, 1] as int[],
+            GeometryUtils.simplify([0, 0, 1, 1] as double[], 10))
+    }
+}
@@ -0,0 +1,151 @@
+package org.openstreetmap.josm.plugins.contourmerge
+
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.openstreetmap.josm.data.coor.EastNorth
+import org.openstreetmap.josm.data.osm.DataSet
+import org.openstreetmap.josm.data.osm.Node
+import org.openstreetmap.josm.data.osm.Way
+import org.openstreetmap.josm.io.OsmReader
+import org.openstreetmap.josm.plugins.contourmerge.InteractionTrace.Event
+import org.openstreetmap.josm.plugins.contourmerge.InteractionTrace.Type
+import org.openstreetmap.josm.plugins.contourmerge.benchmark.InteractionTraceReplayer
+import org.openstreetmap.josm.plugins.contourmerge.fixture.JOSMFixture
+
+import java.awt.event.InputEvent
+import java.awt.event.MouseEvent
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertTrue
+import static org.junit.jupiter.api.Assertions.assertThrows
+
+class InteractionTraceTest {
+
+    static final double SCALE = 250
+
+    @BeforeAll
+    static void setupJosmFixture() {
+        JOSMFixture.createFixture()
+    }
+
+    DataSet ds
+    Way west
+    Way east
+    EastNorth center
+    List<Event> events
+    long time
+
+    @BeforeEach
+    void loadDataSet() {
+        ds = getClass().getResourceAsStream("/test-1.osm").withCloseable {
+            OsmReader.parseDataSet(it, null)
+        }
+        def ways = ds.getWays().sort { it.getNode(0).lon() }
+        west = ways[0]
+        east = ways[1]
+        def en1 = west.getNode(0).getEastNorth()
+        def en2 = east.getNode(0).getEastNorth()
+        center = new EastNorth((en1.east() + en2.east()) / 2,
+            (en1.north() + en2.north()) / 2)
+        events = []
+        time = 0
+    }
+
+    def event(Type type, EastNorth position, int button, int modifiers) {
+        events << new Event(type, time, position, center, SCALE, button,
+            modifiers)
+        time += 20
+    }
+
+    def click(Node node) {
+        def en = node.getEastNorth()
+        event(Type.MOVED, en, MouseEvent.NOBUTTON, 0)
+        event(Type.PRESSED, en, MouseEvent.BUTTON1,
+            InputEvent.BUTTON1_DOWN_MASK)
+        event(Type.RELEASED, en, MouseEvent.BUTTON1, 0)
+        event(Type.CLICKED, en, MouseEvent.BUTTON1, 0)
+    }
+
+    static EastNorth midpoint(Way way, int i) {
+        def en1 = way.getNode(i).getEastNorth()
+        def en2 = way.getNode(i + 1).getEastNorth()
+        return new EastNorth((en1.east() + en2.east()) / 2,
+            (en1.north() + en2.north()) / 2)
+    }
+
+    def dragAndDrop(EastNorth from, EastNorth to) {
+        event(Type.MOVED, from, MouseEvent.NOBUTTON, 0)
+        event(Type.PRESSED, from, MouseEvent.BUTTON1,
+            InputEvent.BUTTON1_DOWN_MASK)
+        for (int i = 1; i <= 5; i++) {
+            def en = new EastNorth(
+                from.east() + (to.east() - from.east()) * i / 5,
+                from.north() + (to.north() - from.north()) * i / 5)
+            event(Type.DRAGGED, en, MouseEvent.NOBUTTON,
+                InputEvent.BUTTON1_DOWN_MASK)
+        }
+        event(Type.RELEASED, to, MouseEvent.BUTTON1, 0)
+    }
+
+    @Test
+    void "writes and reads a trace"() {
+        click(west.getNode(0))
+        dragAndDrop(midpoint(west, 1), midpoint(east, 1))
+        def trace = new InteractionTrace("trace.osm", events)
+
+        def writer = new StringWriter()
+        trace.write(writer)
+        def read = InteractionTrace.read(new StringReader(writer.toString()))
+
+        assertTrue(writer.toString().startsWith(InteractionTrace.HEADER))
+        assertEquals("trace.osm", read.getDataset())
+        assertEquals(trace.getEvents()*.format(), read.getEvents()*.format())
+    }
+
+    @Test
+    void "writes coordinates with full precision and the projection"() {
+        // about 1 cm in EPSG:4326
+        def position = new EastNorth(8.123456789012, 47.987654321098)
+        events << new Event(Type.MOVED, 0, position, position, 1.2345e-7,
+            MouseEvent.NOBUTTON, 0)
+        def trace = new InteractionTrace("trace.osm", "EPSG:4326", events)
+
+        def writer = new StringWriter()
+        trace.write(writer)
+        def read = InteractionTrace.read(new StringReader(writer.toString()))
+
+        assertEquals("EPSG:4326", read.getProjection())
+        def event = read.getEvents()[0]
+        assertEquals(position, event.position())
+        assertEquals(position, event.center())
+        assertEquals(1.2345e-7, event.scale(), 0)
+    }
+
+    @Test
+    void "rejects an invalid event"() {
+        assertThrows(IllegalArgumentException, {
+            InteractionTrace.read(new StringReader("MOVED 0 1.0 2.0"))
+        })
+        assertThrows(IllegalArgumentException, {
+            InteractionTrace.read(new StringReader(
+                "WHEEL 0 1.0 2.0 3.0 4.0 1.0 0 0"))
+        })
+    }
+
+    @Test
+    void "replays a trace with a merge"() {
+        [0, 3].each { click(west.getNode(it)) }
+        [0, 3].each { click(east.getNode(it)) }
+        dragAndDrop(midpoint(west, 1), midpoint(east, 1))
+        assertFalse(west.getNodes().any { east.containsNode(it) })
+
+        def replayer = new InteractionTraceReplayer()
+        replayer.replay(new InteractionTrace(null, events), ds)
+
+        assertTrue(west.getNodes().any { east.containsNode(it) })
+        def measurements = replayer.measurements()
+        assertEquals(Type.values().size(), measurements.size())
+    }
+}
@@ -0,0 +1,158 @@
+package org.openstreetmap.josm.plugins.contourmerge
+
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertNotNull
+import static org.junit.Assert.assertNull
+import static org.junit.Assert.assertTrue
+
+class IntersectionCheckerTest extends TestCaseWithJOSMFixture {
+
+    @AfterEach
+    void restorePreferences() {
+        IntersectionChecker.CHECK_INTERSECTIONS.remove()
+    }
+
+    @Test
+    void "detects a bow tie"() {
+        def a = node(0, 0)
+        def b = node(0, 1)
+        def c = node(1, 1)
+        def d = node(1, 0)
+        def square = way([a, b, c, d, a])
+
+        assertNull(IntersectionChecker.findIntersection(square,
+            [a, b, c, d, a], null))
+        def intersection = IntersectionChecker.findIntersection(square,
+            [a, b, d, c, a], null)
+        assertNotNull(intersection)
+        assertTrue(intersection.isSelfIntersection())
+        assertEquals([1, 3] as Set,
+            [intersection.index(), intersection.otherIndex()] as Set)
+    }
+
+    @Test
+    void "detects a crossing with the target"() {
+        def w = way([node(0, 0), node(0, 1), node(0, 2)])
+        def target = way([node(-1, 1.5), node(1, 1.5)])
+        def detour = node(-0.5, 1)
+        def nodes = [w.getNode(0), detour, w.getNode(2)]
+
+        def intersection = IntersectionChecker.findIntersection(w, nodes,
+            target)
+        assertNotNull(intersection)
+        assertFalse(intersection.isSelfIntersection())
+        assertEquals(target, intersection.other())
+        assertEquals(1, intersection.index())
+    }
+
+    @Test
+    void "ignores crossings which already exist"() {
+        def a = node(0, 0)
+        def b = node(1, 1)
+        def c = node(0, 1)
+        def d = node(1, 0)
+        // a bow tie a, b, c, d
+        def w = way([a, b, c, d])
+        def e = node(2, 2)
+
+        assertNull(IntersectionChecker.findIntersection(w,
+            [a, b, c, d, e], null))
+    }
+
+    @Test
+    void "detects a new crossing after an existing crossing"() {
+        def w = way([node(0, 0), node(0, 1), node(0, 2), node(0, 3)])
+        // the first segment of w already crosses the target at lon 0.5,
+        // the last segment of the target runs across w at lon 2.5
+        def target = way([node(-1, 0.5), node(1, 0.5), node(1, 2.5),
+                          node(-1, 2.5)])
+        def detour = node(-0.5, 2)
+        def nodes = [w.getNode(0), w.getNode(1), detour, w.getNode(3)]
+
+        def intersection = IntersectionChecker.findIntersection(w, nodes,
+            target)
+        assertNotNull(intersection)
+        assertEquals(target, intersection.other())
+        assertEquals(2, intersection.index())
+        assertEquals(2, intersection.otherIndex())
+    }
+
+    @Test
+    void "checks a large ring"() {
+        def n = 100_000
+        def nodes = (0..<n).collect {
+            def phi = 2 * Math.PI * it / n
+            node(Math.sin(phi), Math.cos(phi))
+        }
+        def ring = way(nodes + [nodes[0]])
+        // move the slice between the nodes 10 and 20 of the ring outside,
+        // once in the same direction and once in the opposite direction
+        def outside = (10..20).collect {
+            def phi = 2 * Math.PI * it / n
+            node(1.0001 * Math.sin(phi), 1.0001 * Math.cos(phi))
+        }
+        def aligned = nodes[0..9] + outside + nodes[21..<n] + [nodes[0]]
+        def reversed = nodes[0..9] + outside.reverse() + nodes[21..<n] +
+            [nodes[0]]
+
+        assertNull(IntersectionChecker.findIntersection(ring, aligned, null))
+        assertNotNull(IntersectionChecker.findIntersection(ring, reversed,
+            null))
+    }
+
+    @Test
+    void "flips the direction to avoid a crossing"() {
+        // a U shaped source way, its bottom is merged onto the target
+        def a = node(1, 0)
+        def s1 = node(0, 0)
+        def s2 = node(0, 1)
+        def b = node(1, 1)
+        def source = way([a, s1, s2, b])
+        def t1 = node(-0.1, 0)
+        def t2 = node(-0.1, 1)
+        def target = way([t1, t2])
+        def sources = [new WaySlice(source, 1, 2)]
+        def targetSlice = new WaySlice(target, 0, 1)
+
+        def outcome = SliceReplacement.computeCheckedNodeLists(sources,
+            targetSlice, { WaySlice s -> false })
+        assertTrue(outcome.flipped())
+        assertFalse(outcome.hasIntersection())
+        assertEquals([[a, t1, t2, b]], outcome.nodeLists())
+
+        IntersectionChecker.CHECK_INTERSECTIONS.put(false)
+        outcome = SliceReplacement.computeCheckedNodeLists(sources,
+            targetSlice, { WaySlice s -> false })
+        assertFalse(outcome.flipped())
+        assertEquals([[a, t2, t1, b]], outcome.nodeLists())
+    }
+
+    @Test
+    void "flips the direction per source way"() {
+        def t1 = node(-0.1, 0)
+        def t2 = node(-0.1, 1)
+        def target = way([t1, t2])
+        // two U shaped source ways, whose bottoms run in opposite
+        // directions
+        def a = node(1, 0)
+        def b = node(1, 1)
+        def source1 = way([a, node(0, 0), node(0, 1), b])
+        def c = node(1.5, 1)
+        def d = node(1.5, 0)
+        def source2 = way([c, node(0.05, 1), node(0.05, 0), d])
+        def sources = [new WaySlice(source1, 1, 2),
+                       new WaySlice(source2, 1, 2)]
+
+        // only source1 is aligned with the target
+        def outcome = SliceReplacement.computeCheckedNodeLists(sources,
+            new WaySlice(target, 0, 1), { WaySlice s -> true })
+        assertFalse(outcome.hasIntersection())
+        assertFalse(outcome.isFlipped(0))
+        assertTrue(outcome.isFlipped(1))
+        assertEquals([[a, t1, t2, b], [c, t2, t1, d]], outcome.nodeLists())
+    }
+}
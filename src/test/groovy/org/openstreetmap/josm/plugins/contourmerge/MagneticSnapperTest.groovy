@@ -0,0 +1,123 @@
+package org.openstreetmap.josm.plugins.contourmerge
+
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.openstreetmap.josm.data.coor.LatLon
+import org.openstreetmap.josm.data.osm.Node
+import org.openstreetmap.josm.data.osm.Way
+import org.openstreetmap.josm.data.osm.WaySegment
+import org.openstreetmap.josm.gui.layer.OsmDataLayer
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertNull
+
+class MagneticSnapperTest extends TestCaseWithJOSMFixture {
+
+    Way source
+
+    /* a way along the parallel lat, from lon 0 to 0.001 */
+    def parallel(double lat, int numNodes) {
+        return way((0..<numNodes).collect {
+            node(lat, 0.001 * it / (numNodes - 1))
+        })
+    }
+
+    @BeforeEach
+    void setUp() {
+        source = parallel(0, 5)
+    }
+
+    def sourceSlice() {
+        return new WaySlice(source, 0, 4)
+    }
+
+    /* the north offset from the source to the parallel lat */
+    def offsetTo(double lat) {
+        return new Node(new LatLon(lat, 0)).getEastNorth().north() -
+            source.getNode(0).getEastNorth().north()
+    }
+
+    def snapper() {
+        return new MagneticSnapper(SegmentIndex.build(ds))
+    }
+
+    @Test
+    void "snaps to the way the dragged slice is moved to"() {
+        // about 110 m and 220 m north of the source
+        def near = parallel(0.001, 4)
+        def far = parallel(0.002, 7)
+
+        def target = snapper().snap(sourceSlice(), 0, offsetTo(0.00095),
+            10, { true })
+        assertEquals(new WaySlice(near, 0, 3), target)
+        target = snapper().snap(sourceSlice(), 0, offsetTo(0.002), 10,
+            { true })
+        assertEquals(new WaySlice(far, 0, 6), target)
+    }
+
+    @Test
+    void "snaps to the slice between the nodes nearest to the ends"() {
+        // a longer way, extending beyond both ends of the source
+        def target = way((-2..7).collect {
+            node(0.001, 0.00025 * it)
+        })
+        assertEquals(new WaySlice(target, 2, 6), snapper().snap(
+            sourceSlice(), 0, offsetTo(0.001), 10, { true }))
+    }
+
+    @Test
+    void "snaps to the direction of a closed way along the source"() {
+        def a = node(0.001, 0)
+        def b = node(0.001, 0.001)
+        def c = node(0.002, 0.001)
+        def d = node(0.002, 0)
+        def ring = way([a, b, c, d, a])
+        assertEquals(new WaySlice(ring, 0, 1), snapper().snap(
+            sourceSlice(), 0, offsetTo(0.001), 10, { true }))
+    }
+
+    @Test
+    void "doesn't snap to rejected ways or ways out of reach"() {
+        def near = parallel(0.001, 4)
+        assertNull(snapper().snap(sourceSlice(), 0, offsetTo(0.001), 10,
+            { it != near }))
+        assertNull(snapper().snap(sourceSlice(), 0, offsetTo(0.0005), 10,
+            { true }))
+        // not onto the way of the dragged slice
+        assertNull(snapper().snap(sourceSlice(), 0, 0, 10, { true }))
+    }
+
+    /* a model with a built index of the way segments */
+    def newModel() {
+        def model = new ContourMergeModel(new OsmDataLayer(ds, "test", null))
+        def index = model.getSegmentIndex()
+        index.requestBuild()
+        def deadline = System.currentTimeMillis() + 10_000
+        while (!index.isBuilt() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+        return model
+    }
+
+    @Test
+    void "the model snaps the drop target"() {
+        def near = parallel(0.001, 4)
+        def model = newModel()
+        model.setDragStartFeedbackWaySegment(new WaySegment(source, 1))
+        assert model.snapDropTarget(0, offsetTo(0.001), 10)
+        assertEquals(new WaySlice(near, 0, 3), model.getDropTarget())
+        assert !model.snapDropTarget(0, offsetTo(0.00099), 10)
+
+        assert model.snapDropTarget(0, offsetTo(0.0005), 10)
+        assertNull(model.getDropTarget())
+    }
+
+    @Test
+    void "the model doesn't snap to a way sharing the nodes of the source"() {
+        way(source.getNodes())
+        def model = newModel()
+        model.setDragStartFeedbackWaySegment(new WaySegment(source, 1))
+        assert !model.snapDropTarget(0, 0, 10)
+        assertNull(model.getDropTarget())
+    }
+}
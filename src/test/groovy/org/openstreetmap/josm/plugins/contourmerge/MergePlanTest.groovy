@@ -0,0 +1,102 @@
+package org.openstreetmap.josm.plugins.contourmerge
+
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.openstreetmap.josm.data.osm.DataIntegrityProblemException
+import org.openstreetmap.josm.data.osm.DataSet
+import org.openstreetmap.josm.data.osm.Way
+import org.openstreetmap.josm.gui.layer.OsmDataLayer
+import org.openstreetmap.josm.plugins.contourmerge.ContourMergeService.MergeRequest
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertNotNull
+import static org.junit.Assert.assertTrue
+import static org.junit.Assert.fail
+
+class MergePlanTest extends TestCaseWithJOSMFixture {
+
+    Way source
+    Way target
+
+    def slice(Way w) {
+        return new WaySlice(w, 0, w.getNodesCount() - 1)
+    }
+
+    @BeforeEach
+    void setUp() {
+        target = way([node(0, 0), node(0, 0.001), node(0, 0.002)])
+        source = way([node(-0.00001, 0), node(-0.00001, 0.001),
+                      node(-0.00001, 0.002)])
+    }
+
+    @AfterEach
+    void restorePreferences() {
+        NodeCoalescer.COALESCE_NODES.remove()
+    }
+
+    MergePlan plan() {
+        def result = new ContourMergeService().plan(
+            [new MergeRequest(slice(source), slice(target))], false)
+        assertNotNull(result.plan())
+        return result.plan()
+    }
+
+    @Test
+    void "plans without modifying the dataset"() {
+        def nodes = source.getNodes()
+        def plan = plan()
+
+        assertEquals(nodes, source.getNodes())
+        assertFalse(nodes.any { it.isDeleted() })
+        assertEquals(1, plan.numMerges())
+        assertEquals([new MergePlan.Source(MergePlan.SliceRef.of(slice(source)),
+            MergePlan.SliceRef.of(slice(target)), true)], plan.sources())
+        assertEquals([new MergePlan.WayEdit(source.getUniqueId(),
+            target.getNodes()*.getUniqueId())], plan.edits())
+        assertEquals(nodes*.getUniqueId() as Set, plan.deletedNodes() as Set)
+    }
+
+    @Test
+    void "a plan survives serialization"() {
+        def plan = plan()
+        def bytes = new ByteArrayOutputStream()
+        new ObjectOutputStream(bytes).withCloseable { it.writeObject(plan) }
+        def copy = new ObjectInputStream(
+            new ByteArrayInputStream(bytes.toByteArray()))
+            .withCloseable { it.readObject() }
+        assertEquals(plan, copy)
+    }
+
+    @Test
+    void "builds the command in a separate step"() {
+        def nodes = source.getNodes()
+        def command = plan().buildCommand(ds)
+        command.executeCommand()
+        assertEquals(target.getNodes(), source.getNodes())
+        assertTrue(nodes.every { it.isDeleted() })
+
+        command.undoCommand()
+        assertEquals(nodes, source.getNodes())
+    }
+
+    @Test
+    void "rejects a dataset without the primitives of the plan"() {
+        def plan = plan()
+        try {
+            plan.buildCommand(new DataSet())
+            fail("expected a DataIntegrityProblemException")
+        } catch (DataIntegrityProblemException e) {
+            // expected
+        }
+    }
+
+    @Test
+    void "the model plans a single merge"() {
+        NodeCoalescer.COALESCE_NODES.put(false)
+        def model = new ContourMergeModel(new OsmDataLayer(ds, "plan", null))
+        def plan = model.planContourAlign(slice(source), slice(target))
+        assertEquals(plan(), plan)
+    }
+}
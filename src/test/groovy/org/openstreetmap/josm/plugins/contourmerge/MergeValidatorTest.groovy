@@ -0,0 +1,78 @@
+package org.openstreetmap.josm.plugins.contourmerge
+
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.openstreetmap.josm.data.coor.LatLon
+import org.openstreetmap.josm.data.osm.DataSet
+import org.openstreetmap.josm.data.osm.Node
+import org.openstreetmap.josm.data.osm.Way
+import org.openstreetmap.josm.plugins.contourmerge.MergeValidator.Kind
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertTrue
+
+class MergeValidatorTest {
+
+    DataSet ds
+    List<Node> n
+
+    @BeforeEach
+    void setUp() {
+        ds = new DataSet()
+        n = (0..5).collect {
+            def node = new Node(new LatLon(0, it * 0.001))
+            ds.addPrimitive(node)
+            node
+        }
+    }
+
+    def way(List<Node> nodes) {
+        def w = new Way()
+        w.setNodes(nodes)
+        ds.addPrimitive(w)
+        return w
+    }
+
+    def validate(Way way, List<Node> newNodes, Set<Node> deleted = [] as Set) {
+        return new MergeValidator(deleted).validate([(way): newNodes])
+    }
+
+    @Test
+    void "accepts valid node lists"() {
+        def open = way([n[0], n[1], n[2]])
+        def closed = way([n[0], n[1], n[2], n[0]])
+        assertTrue(validate(open, [n[0], n[3], n[2]]).isEmpty())
+        assertTrue(validate(closed, [n[0], n[3], n[4], n[0]]).isEmpty())
+    }
+
+    @Test
+    void "detects problems"() {
+        def open = way([n[0], n[1], n[2]])
+        def closed = way([n[0], n[1], n[2], n[0]])
+        assertEquals(Kind.TOO_FEW_NODES, validate(open, [n[0]])[0].kind())
+        assertEquals(Kind.NOT_CLOSED,
+            validate(closed, [n[0], n[1], n[2], n[3]])[0].kind())
+        assertEquals(Kind.CONSECUTIVE_DUPLICATE,
+            validate(open, [n[0], n[1], n[1], n[2]])[0].kind())
+        assertEquals(Kind.SLING,
+            validate(open, [n[0], n[1], n[0], n[2]])[0].kind())
+        assertEquals(Kind.SLING,
+            validate(closed, [n[0], n[1], n[2], n[1], n[0]])[0].kind())
+        assertEquals(Kind.DANGLING_REFERENCE,
+            validate(open, [n[0], n[4], n[2]], [n[4]] as Set)[0].kind())
+    }
+
+    @Test
+    void "reports the problem of a large plan"() {
+        def plan = new LinkedHashMap<Way, List<Node>>()
+        (0..199).each { plan.put(way([n[0], n[1]]), [n[0], n[2]]) }
+        def invalid = way([n[0], n[1]])
+        plan.put(invalid, [n[0], n[0]])
+
+        def problems = new MergeValidator([] as Set).validate(plan)
+
+        assertEquals(1, problems.size())
+        assertEquals(invalid, problems[0].way())
+        assertEquals(1, problems[0].index())
+    }
+}
@@ -0,0 +1,75 @@
+package org.openstreetmap.josm.plugins.contourmerge
+
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.openstreetmap.josm.data.osm.Way
+import org.openstreetmap.josm.data.osm.WaySegment
+import org.openstreetmap.josm.gui.layer.OsmDataLayer
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertNull
+import static org.junit.Assert.assertTrue
+
+class MultiSourceMergeTest extends TestCaseWithJOSMFixture {
+
+    Way target
+    Way a
+    Way b
+    ContourMergeModel model
+
+    def way(double lat) {
+        return way([node(lat, 0), node(lat, 0.001), node(lat, 0.002)])
+    }
+
+    @BeforeEach
+    void setUp() {
+        target = way(0)
+        a = way(-0.00001)
+        b = way(0.00001)
+        model = new ContourMergeModel(new OsmDataLayer(ds, "test", null))
+        [target, a, b].each { Way w ->
+            model.selectNode(w.getNode(0))
+            model.selectNode(w.getNode(2))
+        }
+    }
+
+    @Test
+    void "toggles a collected source"() {
+        assertTrue(model.toggleCollectedSource(new WaySegment(a, 0)))
+        assertEquals([new WaySlice(a, 0, 2)], model.getCollectedSources())
+        assertFalse(model.toggleCollectedSource(new WaySegment(a, 1)))
+        assertTrue(model.getCollectedSources().isEmpty())
+    }
+
+    @Test
+    void "doesn't drop on the way of a collected source"() {
+        model.toggleCollectedSource(new WaySegment(a, 0))
+        model.setDragStartFeedbackWaySegment(new WaySegment(b, 0))
+        assertFalse(model.isPotentialDropTarget(new WaySegment(a, 0)))
+        assertTrue(model.isPotentialDropTarget(new WaySegment(target, 0)))
+    }
+
+    @Test
+    void "merges the collected sources and the drag source in one command"() {
+        def obsolete = a.getNodes() + b.getNodes()
+        model.toggleCollectedSource(new WaySegment(a, 0))
+        model.setDragStartFeedbackWaySegment(new WaySegment(b, 0))
+        model.setDropFeedbackSegment(new WaySegment(target, 0))
+
+        def result = model.planMultiSourceMerge()
+        assertEquals(2, result.results().size())
+        assertTrue(result.results().every { it.isAccepted() })
+        result.command().executeCommand()
+
+        assertEquals(target.getNodes(), a.getNodes())
+        assertEquals(target.getNodes(), b.getNodes())
+        assertTrue(obsolete.every { it.isDeleted() })
+    }
+
+    @Test
+    void "replies null without a drop target"() {
+        model.toggleCollectedSource(new WaySegment(a, 0))
+        assertNull(model.planMultiSourceMerge())
+    }
+}
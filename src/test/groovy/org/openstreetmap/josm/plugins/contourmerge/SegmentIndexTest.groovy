@@ -0,0 +1,123 @@
+package org.openstreetmap.josm.plugins.contourmerge
+
+import org.junit.jupiter.api.Test
+import org.openstreetmap.josm.data.coor.LatLon
+import org.openstreetmap.josm.data.osm.Node
+import org.openstreetmap.josm.data.osm.Way
+
+import static org.junit.Assert.assertEquals
+
+class SegmentIndexTest extends TestCaseWithJOSMFixture {
+
+    def eastNorth(double lat, double lon) {
+        return node(lat, lon).getEastNorth()
+    }
+
+    @Test
+    void "indexes the segments of the ways"() {
+        way([node(0, 0), node(0, 0.001), node(0.001, 0.001)])
+        way([node(0.01, 0), node(0.01, 0.001)])
+        // a way with one node doesn't have segments
+        way([node(0.02, 0)])
+        assertEquals(3, SegmentIndex.build(ds).size())
+    }
+
+    @Test
+    void "finds the ways with segments in a box"() {
+        def w1 = way([node(0, 0), node(0, 0.001), node(0.001, 0.001)])
+        def w2 = way([node(0.01, 0), node(0.01, 0.001)])
+        def index = SegmentIndex.build(ds)
+
+        def min = eastNorth(-0.0001, 0.0005)
+        def max = eastNorth(0.0001, 0.002)
+        assertEquals([w1] as Set,
+            index.findWays(min.east(), min.north(), max.east(), max.north()))
+
+        min = eastNorth(-0.0001, -0.0001)
+        max = eastNorth(0.0101, 0.0001)
+        assertEquals([w1, w2] as Set,
+            index.findWays(min.east(), min.north(), max.east(), max.north()))
+
+        min = eastNorth(0.005, 0.005)
+        max = eastNorth(0.006, 0.006)
+        assert index.findWays(min.east(), min.north(), max.east(),
+            max.north()).isEmpty()
+    }
+
+    @Test
+    void "skips deleted ways"() {
+        def w = way([node(0, 0), node(0, 0.001)])
+        w.setDeleted(true)
+        assertEquals(0, SegmentIndex.build(ds).size())
+    }
+
+    def findWays(SegmentIndex index, double minLat, double minLon,
+            double maxLat, double maxLon) {
+        def min = new Node(new LatLon(minLat, minLon)).getEastNorth()
+        def max = new Node(new LatLon(maxLat, maxLon)).getEastNorth()
+        return index.findWays(min.east(), min.north(), max.east(),
+            max.north())
+    }
+
+    @Test
+    void "replies the way and the index of the segments in a box"() {
+        def w = way([node(0, 0), node(0, 0.001), node(0.001, 0.001)])
+        def min = eastNorth(0.0004, 0.0009)
+        def max = eastNorth(0.0006, 0.0011)
+        def hits = []
+        SegmentIndex.build(ds).query(min.east(), min.north(), max.east(),
+            max.north(), { Way hit, int i -> hits << [hit, i] })
+        assertEquals([[w, 1]], hits)
+    }
+
+    @Test
+    void "builds the index in the background"() {
+        def w = way([node(0, 0), node(0, 0.001)])
+        def index = new SegmentIndex(ds)
+        assert !index.isBuilt()
+        assert findWays(index, -0.001, -0.001, 0.001, 0.002).isEmpty()
+
+        index.requestBuild()
+        def deadline = System.currentTimeMillis() + 10_000
+        while (!index.isBuilt() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+        assertEquals(1, index.size())
+        assertEquals([w] as Set,
+            findWays(index, -0.001, -0.001, 0.001, 0.002))
+    }
+
+    @Test
+    void "finds the segments of changed ways"() {
+        def moved = way([node(0, 0), node(0, 0.001)])
+        def index = SegmentIndex.build(ds)
+
+        moved.getNode(1).setCoor(new LatLon(0.01, 0.001))
+        def added = way([node(0.02, 0), node(0.02, 0.001)])
+        index.waysChanged(moved.getNode(1).getParentWays())
+        index.waysChanged([added])
+
+        assert findWays(index, -0.0001, 0.0009, 0.0001, 0.0011).isEmpty()
+        assertEquals([moved] as Set,
+            findWays(index, 0.0099, 0.0009, 0.0101, 0.0011))
+        assertEquals([added] as Set,
+            findWays(index, 0.0199, -0.0001, 0.0201, 0.0011))
+
+        added.setDeleted(true)
+        index.waysChanged([added])
+        assert findWays(index, 0.0199, -0.0001, 0.0201, 0.0011).isEmpty()
+    }
+
+    @Test
+    void "doesn't build an index which was never requested"() {
+        def nodes = (0..SegmentIndex.REBUILD_THRESHOLD + 1).collect {
+            node(0, it * 0.0001)
+        }
+        def w = way(nodes)
+        def index = new SegmentIndex(ds)
+        index.waysChanged([w])
+        Thread.sleep(100)
+        assert !index.isBuilt()
+        assert findWays(index, -0.001, -0.001, 0.001, 0.002).isEmpty()
+    }
+}
@@ -0,0 +1,66 @@
+package org.openstreetmap.josm.plugins.contourmerge
+
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.openstreetmap.josm.data.coor.LatLon
+import org.openstreetmap.josm.data.osm.DataSet
+import org.openstreetmap.josm.data.osm.Node
+import org.openstreetmap.josm.data.osm.Way
+import org.openstreetmap.josm.data.osm.WaySegment
+import org.openstreetmap.josm.plugins.contourmerge.fixture.JOSMFixture
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertNotNull
+import static org.junit.Assert.assertNull
+import static org.junit.Assert.assertTrue
+
+class SlicePrefetcherTest {
+
+    @BeforeAll
+    static void setupJosmFixture() {
+        JOSMFixture.createFixture()
+    }
+
+    static SlicePrefetcher.Entry awaitEntry(SlicePrefetcher prefetcher,
+            SlicePrefetcher.Key key) {
+        def deadline = System.currentTimeMillis() + 5000
+        while (System.currentTimeMillis() < deadline) {
+            def entry = prefetcher.get(key)
+            if (entry != null) return entry
+            Thread.sleep(10)
+        }
+        return null
+    }
+
+    @Test
+    void "prefetches the way slice for a hovered segment"() {
+        def ds = new DataSet()
+        def nodes = (0..5).collect {
+            def n = new Node(new LatLon(0, it * 0.001))
+            ds.addPrimitive(n)
+            n
+        }
+        def way = new Way()
+        way.setNodes(nodes)
+        ds.addPrimitive(way)
+        Set<Node> selected = Set.of(nodes[1], nodes[4])
+        def segment = new WaySegment(way, 2)
+
+        def prefetcher = new SlicePrefetcher()
+        def key = new SlicePrefetcher.Key(way, 2, 0)
+        prefetcher.prefetch(key, ds, {
+            ContourMergeModel.computeWaySlice(segment, selected)
+        })
+
+        def entry = awaitEntry(prefetcher, key)
+        assertNotNull(entry)
+        assertEquals(new WaySlice(way, 1, 4), entry.slice())
+        assertTrue(entry.equivalentSlices().contains(entry.slice()))
+        assertEquals(entry.equivalentSlices(),
+            prefetcher.getEquivalentSlices(entry.slice(), 0))
+        assertNull(prefetcher.getEquivalentSlices(entry.slice(), 1))
+
+        prefetcher.clear()
+        assertNull(prefetcher.get(key))
+    }
+}
@@ -0,0 +1,106 @@
+package org.openstreetmap.josm.plugins.contourmerge
+
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.openstreetmap.josm.data.Preferences
+import org.openstreetmap.josm.data.coor.LatLon
+import org.openstreetmap.josm.data.osm.DataSet
+import org.openstreetmap.josm.data.osm.Node
+import org.openstreetmap.josm.data.osm.Way
+import org.openstreetmap.josm.data.projection.ProjectionRegistry
+import org.openstreetmap.josm.data.projection.Projections
+import org.openstreetmap.josm.spi.preferences.Config
+
+import static org.junit.Assert.assertEquals
+
+class SlicePropagatorTest {
+
+    DataSet dataSet
+
+    @BeforeAll
+    static void initJosmConfig() {
+        Config.setPreferencesInstance(new Preferences())
+        ProjectionRegistry.setProjection(
+                Projections.getProjectionByCode("EPSG:3857"))
+    }
+
+    @BeforeEach
+    void createDataSet() {
+        dataSet = new DataSet()
+    }
+
+    def buildNode(long id, double lat, double lon) {
+        def node = new Node(id)
+        node.setCoor(new LatLon(lat, lon))
+        dataSet.addPrimitive(node)
+        return node
+    }
+
+    def buildWay(List<Node> nodes) {
+        def way = new Way()
+        way.setNodes(nodes)
+        dataSet.addPrimitive(way)
+        return way
+    }
+
+    @Test
+    void "propagates along two parallel open ways"() {
+        // two ways, about 1m apart, with a third node diverging from
+        // the source way
+        def source = buildWay((0..5).collect {
+            buildNode(10 + it, 0, it * 0.001) })
+        def target = buildWay((0..5).collect {
+            buildNode(20 + it, 0.00001, it * 0.001)
+        } + [buildNode(26, 0.01, 0.006)])
+
+        def result = new SlicePropagator(5.0).propagate(
+            new WaySlice(source, 2, 3),
+            new WaySlice(target, 2, 3),
+            true /* direction aligned */)
+
+        assertEquals(0, result.source().start)
+        assertEquals(5, result.source().end)
+        assertEquals(0, result.target().start)
+        assertEquals(5, result.target().end)
+    }
+
+    @Test
+    void "propagates along ways with opposite direction"() {
+        def source = buildWay((0..5).collect {
+            buildNode(10 + it, 0, it * 0.001) })
+        def target = buildWay((0..5).collect {
+            buildNode(20 + it, 0.00001, (5 - it) * 0.001) })
+
+        def result = new SlicePropagator(5.0).propagate(
+            new WaySlice(source, 2, 3),
+            new WaySlice(target, 2, 3),
+            false /* direction not aligned */)
+
+        assertEquals(0, result.source().start)
+        assertEquals(5, result.source().end)
+        assertEquals(0, result.target().start)
+        assertEquals(5, result.target().end)
+    }
+
+    @Test
+    void "doesn't propagate beyond the tolerance"() {
+        def source = buildWay((0..3).collect {
+            buildNode(10 + it, 0, it * 0.001) })
+        // the target way is about 1m apart from the source way for the
+        // first three nodes, then about 100m apart
+        def target = buildWay((0..2).collect {
+            buildNode(20 + it, 0.00001, it * 0.001)
+        } + [buildNode(23, 0.001, 0.003)])
+
+        def result = new SlicePropagator(5.0).propagate(
+            new WaySlice(source, 0, 1),
+            new WaySlice(target, 0, 1),
+            true /* direction aligned */)
+
+        assertEquals(0, result.source().start)
+        assertEquals(2, result.source().end)
+        assertEquals(0, result.target().start)
+        assertEquals(2, result.target().end)
+    }
+}
@@ -0,0 +1,52 @@
+package org.openstreetmap.josm.plugins.contourmerge
+
+import org.junit.jupiter.api.Test
+
+import java.util.stream.Collectors
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertTrue
+
+class SliceReplacementTest extends TestCaseWithJOSMFixture {
+
+    @Test
+    void "computes the node lists of many large ways in parallel"() {
+        // eight ways sharing a boundary of 100 nodes, each with 5000 nodes
+        // of its own
+        def shared = (0..<100).collect { node(0, it * 0.0001) }
+        def ways = (1..8).collect { int k ->
+            def own = (0..<5000).collect { node(k * 0.001, it * 0.00001) }
+            way(own + shared)
+        }
+        def target = way((0..<100).collect { node(-0.00001, it * 0.0001) })
+        def source = new WaySlice(ways[0], 5000, 5099)
+        def targetSlice = new WaySlice(target, 0, 99)
+        def sources = source.findAllEquivalentWaySlices()
+            .collect(Collectors.toList())
+        assertEquals(8, sources.size())
+        assertTrue(SliceReplacement.isParallel(sources))
+
+        def nodeLists = SliceReplacement.computeNodeLists(sources,
+            targetSlice, { WaySlice s -> s.isDirectionAlignedWith(targetSlice) })
+
+        assertEquals(sources.size(), nodeLists.size())
+        sources.eachWithIndex { WaySlice s, int i ->
+            assertEquals(s.replaceNodes(target.getNodes()).getNodes(),
+                nodeLists[i])
+        }
+    }
+
+    @Test
+    void "computes the node list of a single way sequentially"() {
+        def source = way([node(0, 0), node(0, 0.001), node(0, 0.002)])
+        def target = way([node(0.00001, 0), node(0.00001, 0.002)])
+        def sources = [new WaySlice(source, 0, 2)]
+        assertFalse(SliceReplacement.isParallel(sources))
+
+        def nodeLists = SliceReplacement.computeNodeLists(sources,
+            new WaySlice(target, 0, 1), { WaySlice s -> false })
+
+        assertEquals([target.getNodes().reverse()], nodeLists)
+    }
+}
@@ -0,0 +1,46 @@
+package org.openstreetmap.josm.plugins.contourmerge
+
+import org.junit.jupiter.api.Test
+
+import static org.junit.Assert.assertEquals
+
+class StrTreeTest {
+
+    @Test
+    void "replies the same items as a linear scan"() {
+        def random = new Random(42)
+        def n = 10_000
+        double[] boxes = new double[4 * n]
+        for (int i = 0; i < n; i++) {
+            def x = random.nextDouble() * 1000
+            def y = random.nextDouble() * 1000
+            boxes[4 * i] = x
+            boxes[4 * i + 1] = y
+            boxes[4 * i + 2] = x + random.nextDouble() * 10
+            boxes[4 * i + 3] = y + random.nextDouble() * 10
+        }
+        def tree = new StrTree(boxes)
+        assertEquals(n, tree.size())
+        assertEquals((0..<n) as Set, tree.getItemsInTreeOrder() as Set)
+
+        100.times {
+            def x = random.nextDouble() * 1000
+            def y = random.nextDouble() * 1000
+            def found = [] as Set
+            tree.query(x, y, x + 50, y + 50, { found << it })
+            def expected = (0..<n).findAll {
+                boxes[4 * it] <= x + 50 && boxes[4 * it + 2] >= x &&
+                    boxes[4 * it + 1] <= y + 50 && boxes[4 * it + 3] >= y
+            } as Set
+            assertEquals(expected, found)
+        }
+    }
+
+    @Test
+    void "queries an empty tree"() {
+        def tree = new StrTree(new double[0])
+        def found = []
+        tree.query(0, 0, 1, 1, { found << it })
+        assertEquals([], found)
+    }
+}
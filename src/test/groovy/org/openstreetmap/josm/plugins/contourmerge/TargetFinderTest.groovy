@@ -0,0 +1,122 @@
+package org.openstreetmap.josm.plugins.contourmerge
+
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.openstreetmap.josm.data.coor.LatLon
+import org.openstreetmap.josm.data.osm.Way
+import org.openstreetmap.josm.data.osm.WaySegment
+import org.openstreetmap.josm.data.osm.event.NodeMovedEvent
+import org.openstreetmap.josm.gui.layer.OsmDataLayer
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertNotNull
+import static org.junit.Assert.assertNull
+
+class TargetFinderTest extends TestCaseWithJOSMFixture {
+
+    Way source
+
+    /* a way along the parallel lat, from lon 0 to 0.001 */
+    def parallel(double lat, int numNodes) {
+        return way((0..<numNodes).collect {
+            node(lat, 0.001 * it / (numNodes - 1))
+        })
+    }
+
+    @BeforeEach
+    void setUp() {
+        source = parallel(0, 5)
+    }
+
+    def sourceSlice() {
+        return new WaySlice(source, 0, 4)
+    }
+
+    @Test
+    void "finds the nearest parallel way"() {
+        // about 5.5 m and 1.1 m away
+        parallel(0.00005, 7)
+        def near = parallel(-0.00001, 4)
+
+        def match = new TargetFinder(10).findBestTarget(sourceSlice())
+        assertNotNull(match)
+        assertEquals(new WaySlice(near, 0, 3), match.target())
+        assertEquals(sourceSlice(), match.source())
+    }
+
+    @Test
+    void "finds the slice between the nodes nearest to the ends"() {
+        // a longer way, extending beyond both ends of the source
+        def target = way((-2..7).collect {
+            node(0.00001, 0.00025 * it)
+        })
+        def match = new TargetFinder(10).findBestTarget(sourceSlice())
+        assertNotNull(match)
+        assertEquals(new WaySlice(target, 2, 6), match.target())
+    }
+
+    @Test
+    void "picks the direction of a closed way along the source"() {
+        def a = node(0.00001, 0)
+        def b = node(0.00001, 0.001)
+        def c = node(0.001, 0.001)
+        def d = node(0.001, 0)
+        def ring = way([a, b, c, d, a])
+        def match = new TargetFinder(10).findBestTarget(sourceSlice())
+        assertNotNull(match)
+        assertEquals(new WaySlice(ring, 0, 1), match.target())
+    }
+
+    @Test
+    void "skips ways sharing the nodes of the source and rejected ways"() {
+        // a neighbour on a shared boundary
+        way(source.getNodes() + [node(0.001, 0.001), node(0.001, 0)])
+        def near = parallel(-0.00001, 4)
+        def far = parallel(0.00005, 7)
+
+        def match = new TargetFinder(10).findBestTarget(sourceSlice())
+        assertNotNull(match)
+        assertEquals(new WaySlice(near, 0, 3), match.target())
+
+        match = new TargetFinder(10).findBestTarget(sourceSlice(),
+            { it != near })
+        assertNotNull(match)
+        assertEquals(new WaySlice(far, 0, 6), match.target())
+    }
+
+    @Test
+    void "replies null if there is no target within the distance"() {
+        parallel(0.001, 5)
+        assertNull(new TargetFinder(10).findBestTarget(sourceSlice()))
+    }
+
+    @Test
+    void "the model drops onto the preselected target"() {
+        def near = parallel(-0.00001, 4)
+        def model = new ContourMergeModel(new OsmDataLayer(ds, "test", null))
+        model.setDragStartFeedbackWaySegment(new WaySegment(source, 1))
+        def match = new TargetFinder(10).findBestTarget(model.getDragSource())
+        model.preselectDropTarget(match)
+        assertEquals(new WaySlice(near, 0, 3), model.getDropTarget())
+
+        // another drag source
+        model.setDragStartFeedbackWaySegment(new WaySegment(near, 1))
+        assertNull(model.getPreselectedDropTarget())
+    }
+
+    @Test
+    void "a moved node invalidates the coordinates of the preselected target"() {
+        def near = parallel(-0.00001, 4)
+        def model = new ContourMergeModel(new OsmDataLayer(ds, "test", null))
+        model.setDragStartFeedbackWaySegment(new WaySegment(source, 1))
+        def match = new TargetFinder(10).findBestTarget(model.getDragSource())
+        model.preselectDropTarget(match)
+        def before = model.getDropTarget().getEastNorthCoordinates().clone()
+
+        def moved = near.getNode(1)
+        moved.setCoor(new LatLon(-0.0001, moved.getCoor().lon()))
+        model.nodeMoved(new NodeMovedEvent(ds, moved))
+        def after = model.getDropTarget().getEastNorthCoordinates()
+        assert before[3] != after[3]
+    }
+}
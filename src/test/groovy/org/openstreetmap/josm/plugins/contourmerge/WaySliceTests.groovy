@@ -6,6 +6,7 @@ import org.hamcrest.Description
 import org.junit.jupiter.api.BeforeAll
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
+import org.openstreetmap.josm.data.coor.LatLon
 import org.openstreetmap.josm.data.osm.DataSet
 import org.openstreetmap.josm.data.osm.Node
 import org.openstreetmap.josm.data.osm.Way
@@ -150,6 +151,24 @@ class TestCaseWithJOSMFixture {
     static List<Node> newNodes(int from, int to) {
         return (from..to).collect {newNode(it)}.toList()
     }
+
+    /* the dataset of the nodes and ways created with node() and way() */
+    DataSet ds = new DataSet()
+
+    /* a node at (lat, lon) in the dataset ds */
+    Node node(double lat, double lon) {
+        def n = new Node(new LatLon(lat, lon))
+        ds.addPrimitive(n)
+        return n
+    }
+
+    /* a way with the nodes in the dataset ds */
+    Way way(List<Node> nodes) {
+        def w = new Way()
+        w.setNodes(nodes)
+        ds.addPrimitive(w)
+        return w
+    }
 }
 
 class WaySliceTest extends TestCaseWithJOSMFixture {
@@ -474,6 +493,30 @@ class WaySliceTest extends TestCaseWithJOSMFixture {
         wn = ws.replaceNodes(newnodes)
         assert wn.getNodes() == [n(10), n(11), n(12), n(2), n(3), n(4), n(10)]
     }
+
+    @Test
+    void getEastNorthCoordinates_ClosedWay_ReverseDirection() {
+        def nodes = (1..4).collect {
+            def node = newNode(it)
+            node.setCoor(new LatLon(it, it))
+            node
+        }
+        def w = newWay(1, *(nodes + [nodes[0]]))
+        def ws = new WaySlice(w, 1, 2, false)
+
+        // the coordinates are packed in the order of getNodes()
+        def expected = ws.getNodes().collect {
+            [it.getEastNorth().east(), it.getEastNorth().north()]
+        }.flatten()
+        assert ws.getEastNorthCoordinates() as List == expected
+
+        // the start and end nodes, no tear-off nodes
+        def terminals = ws.getTerminalCoordinates()
+        assert terminals[0] == nodes[1].getEastNorth().east()
+        assert terminals[3] == nodes[2].getEastNorth().north()
+        assert Double.isNaN(terminals[4])
+        assert Double.isNaN(terminals[6])
+    }
 }
 
 class BuildWaySliceTest extends TestCaseWithJOSMFixture {
@@ -0,0 +1,97 @@
+package org.openstreetmap.josm.plugins.contourmerge.benchmark
+
+import groovy.transform.CompileStatic
+import org.openstreetmap.josm.data.coor.EastNorth
+
+import java.awt.geom.AffineTransform
+import java.lang.management.ManagementFactory
+
+/**
+ * Helpers to measure the time and the allocated bytes per operation in
+ * benchmarks.
+ * <p>
+ * Benchmarks are tagged with {@code benchmark} and don't run with the
+ * regular tests. Run them with {@code ./gradlew benchmark}.
+ */
+@CompileStatic
+class BenchmarkSupport {
+
+    static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+        ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+
+    static int warmupIterations() {
+        return Integer.getInteger("contourmerge.benchmark.warmup", 50)
+    }
+
+    static int measuredIterations() {
+        return Integer.getInteger("contourmerge.benchmark.iterations", 200)
+    }
+
+    /**
+     * Replies the number of bytes allocated so far by the current thread.
+     */
+    static long allocatedBytes() {
+        return THREAD_MX_BEAN.getCurrentThreadAllocatedBytes()
+    }
+
+    static class Measurement {
+        String label
+        long[] nanos
+        double bytesPerOp
+
+        double percentileMillis(double p) {
+            final int i = Math.min(nanos.length - 1,
+                (int) Math.floor(p * nanos.length))
+            return nanos[i] / 1_000_000d
+        }
+
+        double meanMillis() {
+            long sum = 0
+            for (long n : nanos) sum += n
+            return sum / (double) nanos.length / 1_000_000d
+        }
+
+        @Override
+        String toString() {
+            return String.format(Locale.ROOT,
+                "%-48s mean=%8.3fms p50=%8.3fms p95=%8.3fms p99=%8.3fms "
+                    + "alloc=%12.0f B/op",
+                label, meanMillis(), percentileMillis(0.5),
+                percentileMillis(0.95), percentileMillis(0.99), bytesPerOp)
+        }
+    }
+
+    /**
+     * Runs {@code action} {@link #warmupIterations()} times without
+     * measuring, then {@link #measuredIterations()} times, and replies
+     * the time per run and the mean allocated bytes per run.
+     */
+    static Measurement measure(String label, Runnable action) {
+        for (int i = 0; i < warmupIterations(); i++) action.run()
+        final int n = measuredIterations()
+        final long[] nanos = new long[n]
+        final long bytesBefore = allocatedBytes()
+        for (int i = 0; i < n; i++) {
+            final long start = System.nanoTime()
+            action.run()
+            nanos[i] = System.nanoTime() - start
+        }
+        final long bytes = allocatedBytes() - bytesBefore
+        Arrays.sort(nanos)
+        return new Measurement(label: label, nanos: nanos,
+            bytesPerOp: bytes / (double) n)
+    }
+
+    /**
+     * Replies the transformation from east/north to screen coordinates
+     * for a viewport of size {@code width x height}, centered at
+     * {@code center}, with {@code scale} east/north units per pixel. This
+     * is the transformation a map view uses at the respective zoom level.
+     */
+    static AffineTransform viewport(EastNorth center, double scale,
+            int width, int height) {
+        return new AffineTransform(1 / scale, 0, 0, -1 / scale,
+            width / 2d - center.east() / scale,
+            height / 2d + center.north() / scale)
+    }
+}
@@ -0,0 +1,133 @@
+package org.openstreetmap.josm.plugins.contourmerge.benchmark
+
+import groovy.transform.CompileStatic
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Tag
+import org.junit.jupiter.api.Test
+import org.openstreetmap.josm.data.coor.EastNorth
+import org.openstreetmap.josm.data.osm.Node
+import org.openstreetmap.josm.data.osm.WaySegment
+import org.openstreetmap.josm.gui.layer.OsmDataLayer
+import org.openstreetmap.josm.plugins.contourmerge.ContourMergeModel
+import org.openstreetmap.josm.plugins.contourmerge.ContourMergeView
+import org.openstreetmap.josm.plugins.contourmerge.fixture.JOSMFixture
+
+import java.awt.*
+import java.awt.geom.AffineTransform
+import java.awt.image.BufferedImage
+import java.util.List
+
+/**
+ * Measures the frame time and the allocated bytes per frame of
+ * {@link ContourMergeView#paint(Graphics2D, AffineTransform,
+ * ContourMergeModel, int, int)}, rendering offscreen into a {@link BufferedImage}.
+ * <p>
+ * Each scenario is rendered at several zoom levels, from a view showing
+ * the whole dataset to a view showing a few hundred meters.
+ * <p>
+ * Run with {@code ./gradlew benchmark}. The number of nodes per ring is
+ * configured with the system property
+ * {@code contourmerge.benchmark.nodes}.
+ */
+@Tag("benchmark")
+@CompileStatic
+class ContourMergeViewBenchmark {
+
+    static final int WIDTH = 1600
+    static final int HEIGHT = 1000
+    static final List<Integer> ZOOM_FACTORS = [1, 8, 64]
+
+    @BeforeAll
+    static void setupJosmFixture() {
+        JOSMFixture.createFixture()
+    }
+
+    static int numNodes() {
+        return Integer.getInteger("contourmerge.benchmark.nodes", 20_000)
+    }
+
+    SyntheticBoundaries data
+    ContourMergeModel model
+
+    void prepareModel() {
+        data = new SyntheticBoundaries(numNodes())
+        model = new ContourMergeModel(
+            new OsmDataLayer(data.dataSet, "benchmark", null))
+    }
+
+    void selectEveryNthNode(int n) {
+        final List<Node> nodes = data.inner.getNodes()
+        final List<Node> selected = new ArrayList<>()
+        for (int i = 0; i < nodes.size(); i += n) selected.add(nodes.get(i))
+        model.selectNodes(selected)
+    }
+
+    /* a drag source covering half of the inner ring */
+    void startDragOnHalfOfInnerRing() {
+        final int half = data.inner.getNodesCount().intdiv(2) as int
+        model.selectNode(data.inner.getNode(0))
+        model.selectNode(data.inner.getNode(half))
+        model.setDragStartFeedbackWaySegment(new WaySegment(data.inner, 1))
+    }
+
+    /* a drop target covering half of the outer ring */
+    void hoverOverHalfOfOuterRing() {
+        final int half = data.outer.getNodesCount().intdiv(2) as int
+        model.selectNode(data.outer.getNode(0))
+        model.selectNode(data.outer.getNode(half))
+        model.setDropFeedbackSegment(new WaySegment(data.outer, 1))
+    }
+
+    Map<String, Closure> scenarios() {
+        return [
+            "large selection (every 4th node)": { selectEveryNthNode(4) },
+            "long highlighted slice": { startDragOnHalfOfInnerRing() },
+            "active drag": {
+                startDragOnHalfOfInnerRing()
+                model.setDragOffset(new Point(25, 15))
+            },
+            "active drag over drop target": {
+                startDragOnHalfOfInnerRing()
+                hoverOverHalfOfOuterRing()
+                model.setDragOffset(new Point(25, 15))
+            }
+        ] as Map<String, Closure>
+    }
+
+    AffineTransform viewportForZoom(int zoomFactor) {
+        final EastNorth center = data.inner.getNode(0).getEastNorth()
+        final EastNorth opposite = data.inner.getNode(
+            data.inner.getNodesCount().intdiv(2) as int).getEastNorth()
+        // at zoom factor 1 the whole inner ring is visible
+        final double extent = Math.max(
+            Math.abs(center.east() - opposite.east()),
+            Math.abs(center.north() - opposite.north())) * 2.2
+        final double scale = extent / Math.min(WIDTH, HEIGHT) / zoomFactor
+        return BenchmarkSupport.viewport(center, scale, WIDTH, HEIGHT)
+    }
+
+    @Test
+    void "paint frame time and allocation"() {
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+            BufferedImage.TYPE_INT_ARGB)
+        final ContourMergeView view = new ContourMergeView()
+        println "ContourMergeView.paint, ${numNodes()} nodes per ring, " +
+            "${WIDTH}x${HEIGHT} pixels"
+        scenarios().each { String name, Closure setup ->
+            prepareModel()
+            setup.call()
+            ZOOM_FACTORS.each { int zoom ->
+                final AffineTransform at = viewportForZoom(zoom)
+                final Graphics2D g = image.createGraphics()
+                try {
+                    final def measurement = BenchmarkSupport.measure(
+                        "${name}, zoom x${zoom}".toString(),
+                        { view.paint(g, at, model, WIDTH, HEIGHT) } as Runnable)
+                    println measurement
+                } finally {
+                    g.dispose()
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.openstreetmap.josm.plugins.contourmerge.benchmark
+
+import groovy.transform.CompileStatic
+import org.junit.jupiter.api.Tag
+import org.junit.jupiter.api.Test
+import org.openstreetmap.josm.data.coor.EastNorth
+import org.openstreetmap.josm.plugins.contourmerge.DistanceKernel
+
+/**
+ * Compares the {@link DistanceKernel} with a scalar baseline on
+ * {@link EastNorth} objects, for the distances of many points to a long
+ * polyline.
+ * <p>
+ * Run with {@code ./gradlew benchmark}. The number of points of the
+ * polyline is configured with the system property
+ * {@code contourmerge.benchmark.nodes}, the number of query points with
+ * {@code contourmerge.benchmark.queries}.
+ * <p>
+ * The benchmark runs with the module {@code jdk.incubator.vector}, i.e.
+ * measures the vectorized kernel. Run it with
+ * {@code ./gradlew benchmark -Pbenchmark.scalar} to measure the scalar
+ * kernel.
+ */
+@Tag("benchmark")
+@CompileStatic
+class DistanceKernelBenchmark {
+
+    static int numNodes() {
+        return Integer.getInteger("contourmerge.benchmark.nodes", 20_000)
+    }
+
+    static int numQueries() {
+        return Integer.getInteger("contourmerge.benchmark.queries", 100)
+    }
+
+    /* the distance computation before the kernel */
+    static double baselineDistanceToSegment(EastNorth p, EastNorth a,
+            EastNorth b) {
+        final double dx = b.east() - a.east()
+        final double dy = b.north() - a.north()
+        final double len2 = dx * dx + dy * dy
+        double t = 0
+        if (len2 > 0) {
+            final double qx = p.east() - a.east()
+            final double qy = p.north() - a.north()
+            t = (qx * dx + qy * dy) / len2
+            t = Math.min(1d, Math.max(0d, t))
+        }
+        return p.distance(new EastNorth(a.east() + t * dx,
+            a.north() + t * dy))
+    }
+
+    static double baselineDistance(EastNorth p, List<EastNorth> polyline) {
+        double min = Double.POSITIVE_INFINITY
+        for (int i = 0; i < polyline.size() - 1; i++) {
+            min = Math.min(min, baselineDistanceToSegment(p,
+                polyline.get(i), polyline.get(i + 1)))
+        }
+        return min
+    }
+
+    @Test
+    void "distances of points to a polyline"() {
+        final Random random = new Random(4711)
+        final int n = numNodes()
+        final double[] c = new double[2 * n]
+        final List<EastNorth> polyline = new ArrayList<>(n)
+        for (int i = 0; i < n; i++) {
+            final double phi = 2 * Math.PI * i / n
+            c[2 * i] = 1000 * Math.cos(phi) + random.nextDouble()
+            c[2 * i + 1] = 1000 * Math.sin(phi) + random.nextDouble()
+            polyline.add(new EastNorth(c[2 * i], c[2 * i + 1]))
+        }
+        final int q = numQueries()
+        final double[] queries = new double[2 * q]
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = random.nextDouble() * 2200 - 1100
+        }
+        final List<EastNorth> queryPoints = new ArrayList<>(q)
+        for (int i = 0; i < q; i++) {
+            queryPoints.add(new EastNorth(queries[2 * i], queries[2 * i + 1]))
+        }
+        final DistanceKernel.Segments segments = DistanceKernel.Segments.of(c)
+        final double[] sink = new double[1]
+
+        println "Distances of ${q} points to a polyline with ${n} points, " +
+            "vectorized: ${DistanceKernel.isVectorized()}"
+        println BenchmarkSupport.measure("scalar baseline (EastNorth)", {
+            for (EastNorth point: queryPoints) {
+                sink[0] += baselineDistance(point, polyline)
+            }
+        } as Runnable)
+        println BenchmarkSupport.measure("DistanceKernel.Segments", {
+            for (int i = 0; i < q; i++) {
+                sink[0] += segments.distanceTo(queries[2 * i],
+                    queries[2 * i + 1])
+            }
+        } as Runnable)
+        println BenchmarkSupport.measure("DistanceKernel.Segments incl. " +
+            "preparation", {
+            sink[0] += DistanceKernel.Segments.of(c).maxDistanceFrom(queries)
+        } as Runnable)
+        // keeps the JIT from eliminating the computations
+        println "checksum: ${sink[0]}"
+    }
+}
@@ -0,0 +1,73 @@
+package org.openstreetmap.josm.plugins.contourmerge.benchmark
+
+import groovy.transform.CompileStatic
+import org.junit.jupiter.api.Assumptions
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Tag
+import org.junit.jupiter.api.Test
+import org.openstreetmap.josm.plugins.contourmerge.InteractionTrace
+import org.openstreetmap.josm.plugins.contourmerge.InteractionTraceRecorder
+import org.openstreetmap.josm.plugins.contourmerge.fixture.JOSMFixture
+
+/**
+ * Replays recorded interaction traces and reports the latency
+ * percentiles per event type, see {@link InteractionTraceReplayer}.
+ * <p>
+ * Traces are recorded in JOSM with the preference
+ * {@code contourmerge.record-traces=true}, see
+ * {@link InteractionTraceRecorder}. Copy the trace file and the dataset
+ * snapshot next to it to {@code src/test/resources/traces}, or point the
+ * system property {@code contourmerge.benchmark.traces} to a trace file
+ * or a directory with trace files:
+ * <pre>
+ *    ./gradlew benchmark -Dcontourmerge.benchmark.traces=/path/to/traces
+ * </pre>
+ * Each trace is replayed {@code contourmerge.benchmark.trace-warmup}
+ * times without measuring, then {@code contourmerge.benchmark.trace-replays}
+ * times, each time on a fresh copy of the dataset.
+ */
+@Tag("benchmark")
+@CompileStatic
+class InteractionTraceReplayBenchmark {
+
+    @BeforeAll
+    static void setupJosmFixture() {
+        JOSMFixture.createFixture()
+    }
+
+    static List<File> traceFiles() {
+        final File file = new File(System.getProperty(
+            "contourmerge.benchmark.traces", "src/test/resources/traces"))
+        if (file.isFile()) return [file]
+        final File[] files = file.listFiles({ File f ->
+            f.isFile() && f.name.endsWith(".trace")
+        } as FileFilter)
+        return files == null ? [] as List<File> : files.toList().sort()
+    }
+
+    @Test
+    void "replay interaction traces"() {
+        final List<File> files = traceFiles()
+        Assumptions.assumeFalse(files.isEmpty(), "no interaction traces")
+        final int warmup = Integer.getInteger(
+            "contourmerge.benchmark.trace-warmup", 3)
+        final int replays = Integer.getInteger(
+            "contourmerge.benchmark.trace-replays", 5)
+        files.each { File file ->
+            final InteractionTrace trace = InteractionTrace.read(file.toPath())
+            for (int i = 0; i < warmup; i++) {
+                new InteractionTraceReplayer().replay(trace,
+                    InteractionTraceReplayer.loadDataSet(file, trace))
+            }
+            final InteractionTraceReplayer replayer =
+                new InteractionTraceReplayer()
+            for (int i = 0; i < replays; i++) {
+                replayer.replay(trace,
+                    InteractionTraceReplayer.loadDataSet(file, trace))
+            }
+            println "Interaction trace ${file.name}, " +
+                "${trace.getEvents().size()} events, ${replays} replays"
+            replayer.measurements().each { println it }
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package org.openstreetmap.josm.plugins.contourmerge.benchmark
+
+import groovy.transform.CompileStatic
+import org.openstreetmap.josm.data.coor.EastNorth
+import org.openstreetmap.josm.data.coor.LatLon
+import org.openstreetmap.josm.data.osm.BBox
+import org.openstreetmap.josm.data.osm.DataSet
+import org.openstreetmap.josm.data.osm.IWaySegment
+import org.openstreetmap.josm.data.osm.Node
+import org.openstreetmap.josm.data.osm.Way
+import org.openstreetmap.josm.data.osm.WaySegment
+import org.openstreetmap.josm.data.projection.Projection
+import org.openstreetmap.josm.data.projection.ProjectionRegistry
+import org.openstreetmap.josm.data.projection.Projections
+import org.openstreetmap.josm.gui.MapFrame
+import org.openstreetmap.josm.gui.layer.OsmDataLayer
+import org.openstreetmap.josm.io.OsmReader
+import org.openstreetmap.josm.plugins.contourmerge.ContourMergeMode
+import org.openstreetmap.josm.plugins.contourmerge.ContourMergeModel
+import org.openstreetmap.josm.plugins.contourmerge.ContourMergePlugin
+import org.openstreetmap.josm.plugins.contourmerge.ContourMergeView
+import org.openstreetmap.josm.plugins.contourmerge.InteractionTrace
+
+import javax.swing.*
+import java.awt.*
+import java.awt.event.MouseEvent
+import java.awt.geom.AffineTransform
+import java.awt.geom.Line2D
+import java.awt.geom.Point2D
+import java.awt.image.BufferedImage
+import java.util.List
+
+/**
+ * Replays an {@link InteractionTrace} headless and measures the latency
+ * per event.
+ * <p>
+ * Each event is dispatched to a {@link ContourMergeMode}, followed by
+ * a frame rendered offscreen with {@link ContourMergeView}, which is
+ * what the map view does for every mouse event. Positions are mapped to
+ * screen coordinates with the center and the scale recorded for the
+ * event. The nearest nodes and way segments are resolved with a spatial
+ * query on the dataset, within {@link #SNAP_DISTANCE} pixels.
+ * <p>
+ * The latencies of several replays are accumulated per event type, see
+ * {@link #measurements()}.
+ */
+@CompileStatic
+class InteractionTraceReplayer {
+
+    static final int WIDTH = 1600
+    static final int HEIGHT = 1000
+
+    /**
+     * The maximal distance in pixels between the mouse pointer and the
+     * nearest node or way segment, like the default snap distance in
+     * the map view.
+     */
+    static final int SNAP_DISTANCE = 10
+
+    /**
+     * A contour merge mode which resolves the nearest primitives in the
+     * dataset, without a map view.
+     */
+    static class ReplayMode extends ContourMergeMode {
+        final Optional<ContourMergeModel> model
+        AffineTransform transform
+
+        ReplayMode(ContourMergeModel model) {
+            super((MapFrame) null)
+            this.model = Optional.of(model)
+        }
+
+        DataSet getDataSet() {
+            return model.get().getLayer().getDataSet()
+        }
+
+        Point2D toScreen(Node node) {
+            final EastNorth en = node.getEastNorth()
+            return transform.transform(
+                new Point2D.Double(en.east(), en.north()), null)
+        }
+
+        BBox searchBox(Point p) {
+            final AffineTransform inverse = transform.createInverse()
+            final Point2D p1 = inverse.transform(new Point2D.Double(
+                p.x - SNAP_DISTANCE, p.y - SNAP_DISTANCE), null)
+            final Point2D p2 = inverse.transform(new Point2D.Double(
+                p.x + SNAP_DISTANCE, p.y + SNAP_DISTANCE), null)
+            final LatLon ll1 = ProjectionRegistry.getProjection()
+                .eastNorth2latlon(new EastNorth(p1.x, p1.y))
+            final LatLon ll2 = ProjectionRegistry.getProjection()
+                .eastNorth2latlon(new EastNorth(p2.x, p2.y))
+            return new BBox(ll1.lon(), ll1.lat(), ll2.lon(), ll2.lat())
+        }
+
+        @Override
+        protected Optional<ContourMergeModel> getActiveModel() {
+            return model
+        }
+
+        @Override
+        protected List<Node> findNearestNodes(Point p) {
+            final List<Node> nodes = new ArrayList<>()
+            final Map<Node, Double> distances = new HashMap<>()
+            for (Node node: getDataSet().searchNodes(searchBox(p))) {
+                if (!node.isSelectable()) continue
+                final double d = toScreen(node).distance(p)
+                if (d > SNAP_DISTANCE) continue
+                nodes.add(node)
+                distances.put(node, d)
+            }
+            nodes.sort { Node a, Node b ->
+                Double.compare(distances.get(a), distances.get(b))
+            }
+            return nodes
+        }
+
+        @Override
+        protected IWaySegment<Node, Way> findNearestWaySegment(Point p) {
+            WaySegment nearest = null
+            double minDistanceSq = SNAP_DISTANCE * SNAP_DISTANCE
+            for (Way way: getDataSet().searchWays(searchBox(p))) {
+                if (!way.isSelectable()) continue
+                Point2D p1 = toScreen(way.getNode(0))
+                for (int i = 1; i < way.getNodesCount(); i++) {
+                    final Point2D p2 = toScreen(way.getNode(i))
+                    final double d = Line2D.ptSegDistSq(p1.x, p1.y,
+                        p2.x, p2.y, p.x, p.y)
+                    if (d <= minDistanceSq) {
+                        minDistanceSq = d
+                        nearest = new WaySegment(way, i - 1)
+                    }
+                    p1 = p2
+                }
+            }
+            return nearest
+        }
+
+        @Override
+        protected void setMapViewCursor(Cursor cursor) {}
+
+        @Override
+        protected void repaintMapView() {}
+
+        @Override
+        protected void showHelpText(String text) {}
+    }
+
+    /**
+     * Loads the dataset snapshot a trace was recorded on.
+     *
+     * @param traceFile the trace file
+     * @param trace the trace read from {@code traceFile}
+     * @return the dataset
+     */
+    static DataSet loadDataSet(File traceFile, InteractionTrace trace) {
+        if (trace.getDataset() == null) {
+            throw new IllegalArgumentException(
+                "trace '${traceFile}' doesn't refer to a dataset")
+        }
+        final File file = new File(traceFile.getParentFile(),
+            trace.getDataset())
+        final InputStream input = new FileInputStream(file)
+        try {
+            return OsmReader.parseDataSet(input, null)
+        } finally {
+            input.close()
+        }
+    }
+
+    private final ContourMergeView view = new ContourMergeView()
+    private final BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+        BufferedImage.TYPE_INT_ARGB)
+    private final JPanel source = new JPanel()
+    private final Map<InteractionTrace.Type, List<Long>> nanos =
+        new EnumMap<>(InteractionTrace.Type)
+    private final Map<InteractionTrace.Type, Long> bytes =
+        new EnumMap<>(InteractionTrace.Type)
+
+    static MouseEvent toMouseEvent(Component source,
+            InteractionTrace.Event event, int x, int y) {
+        final int id
+        final int clickCount
+        switch (event.type()) {
+            case InteractionTrace.Type.PRESSED:
+                id = MouseEvent.MOUSE_PRESSED; clickCount = 1; break
+            case InteractionTrace.Type.RELEASED:
+                id = MouseEvent.MOUSE_RELEASED; clickCount = 1; break
+            case InteractionTrace.Type.CLICKED:
+                id = MouseEvent.MOUSE_CLICKED; clickCount = 1; break
+            case InteractionTrace.Type.DRAGGED:
+                id = MouseEvent.MOUSE_DRAGGED; clickCount = 0; break
+            default:
+                id = MouseEvent.MOUSE_MOVED; clickCount = 0
+        }
+        return new MouseEvent(source, id, event.time(), event.modifiers(),
+            x, y, clickCount, false, event.button())
+    }
+
+    static void dispatch(ContourMergeMode mode, InteractionTrace.Type type,
+            MouseEvent e) {
+        switch (type) {
+            case InteractionTrace.Type.PRESSED: mode.mousePressed(e); break
+            case InteractionTrace.Type.RELEASED: mode.mouseReleased(e); break
+            case InteractionTrace.Type.CLICKED: mode.mouseClicked(e); break
+            case InteractionTrace.Type.DRAGGED: mode.mouseDragged(e); break
+            default: mode.mouseMoved(e)
+        }
+    }
+
+    /**
+     * Replays {@code trace} on the dataset {@code ds}. The dataset is
+     * modified by the merges in the trace; use a fresh copy for every
+     * replay.
+     * <p>
+     * If the trace declares its projection, the trace is replayed in
+     * this projection and the current projection is restored afterwards.
+     *
+     * @param trace the trace
+     * @param ds the dataset
+     * @return the contour merge model the trace was replayed on
+     */
+    ContourMergeModel replay(InteractionTrace trace, DataSet ds) {
+        final ContourMergeModel model = new ContourMergeModel(
+            new OsmDataLayer(ds, "replay", null))
+        final ReplayMode mode = new ReplayMode(model)
+        final Projection projection = ProjectionRegistry.getProjection()
+        if (trace.getProjection() != null) {
+            final Projection recorded = Projections.getProjectionByCode(
+                trace.getProjection())
+            if (recorded == null) {
+                throw new IllegalArgumentException(
+                    "unknown projection '${trace.getProjection()}'")
+            }
+            ProjectionRegistry.setProjection(recorded)
+        }
+        final boolean wasEnabled = ContourMergePlugin.isEnabled()
+        ContourMergePlugin.setEnabled(true)
+        final Graphics2D g = image.createGraphics()
+        try {
+            for (InteractionTrace.Event event: trace.getEvents()) {
+                replayEvent(mode, model, event, g)
+            }
+        } finally {
+            g.dispose()
+            ProjectionRegistry.setProjection(projection)
+            ContourMergePlugin.setEnabled(wasEnabled)
+        }
+        return model
+    }
+
+    private void replayEvent(ReplayMode mode, ContourMergeModel model,
+            InteractionTrace.Event event, Graphics2D g) {
+        final AffineTransform at = BenchmarkSupport.viewport(event.center(),
+            event.scale(), WIDTH, HEIGHT)
+        mode.transform = at
+        final Point2D p = at.transform(new Point2D.Double(
+            event.position().east(), event.position().north()), null)
+        final MouseEvent e = toMouseEvent(source, event,
+            (int) Math.round(p.x), (int) Math.round(p.y))
+
+        final long bytesBefore = BenchmarkSupport.allocatedBytes()
+        final long start = System.nanoTime()
+        dispatch(mode, event.type(), e)
+        view.paint(g, at, model, WIDTH, HEIGHT)
+        final long elapsed = System.nanoTime() - start
+        final long allocated = BenchmarkSupport.allocatedBytes() - bytesBefore
+
+        nanos.computeIfAbsent(event.type(), { new ArrayList<Long>() })
+            .add(elapsed)
+        bytes.merge(event.type(), allocated, { Long a, Long b -> a + b })
+    }
+
+    /**
+     * Replies the accumulated latencies and allocated bytes per event
+     * type.
+     */
+    List<BenchmarkSupport.Measurement> measurements() {
+        final List<BenchmarkSupport.Measurement> measurements = []
+        nanos.each { InteractionTrace.Type type, List<Long> samples ->
+            final long[] sorted = new long[samples.size()]
+            for (int i = 0; i < sorted.length; i++) sorted[i] = samples[i]
+            Arrays.sort(sorted)
+            measurements.add(new BenchmarkSupport.Measurement(
+                label: "${type} (${sorted.length} events)".toString(),
+                nanos: sorted,
+                bytesPerOp: bytes.get(type) / (double) sorted.length))
+        }
+        return measurements
+    }
+}
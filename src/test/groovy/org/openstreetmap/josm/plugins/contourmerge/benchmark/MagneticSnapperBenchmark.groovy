@@ -0,0 +1,93 @@
+package org.openstreetmap.josm.plugins.contourmerge.benchmark
+
+import groovy.transform.CompileStatic
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Tag
+import org.junit.jupiter.api.Test
+import org.openstreetmap.josm.data.coor.LatLon
+import org.openstreetmap.josm.data.osm.Node
+import org.openstreetmap.josm.data.osm.Way
+import org.openstreetmap.josm.plugins.contourmerge.MagneticSnapper
+import org.openstreetmap.josm.plugins.contourmerge.SegmentIndex
+import org.openstreetmap.josm.plugins.contourmerge.WaySlice
+import org.openstreetmap.josm.plugins.contourmerge.fixture.JOSMFixture
+
+import java.util.List
+
+/**
+ * Measures the time per drag step of the {@link MagneticSnapper}, on a
+ * dense layer: two long adjacent rings, see {@link SyntheticBoundaries},
+ * surrounded by many small closed ways, like buildings.
+ * <p>
+ * Run with {@code ./gradlew benchmark}. The number of nodes per ring and
+ * the number of small ways is configured with the system property
+ * {@code contourmerge.benchmark.nodes}.
+ */
+@Tag("benchmark")
+@CompileStatic
+class MagneticSnapperBenchmark {
+
+    // the number of nodes of the dragged slice
+    static final int SLICE_NODES = 500
+    // the number of drag steps, from the inner towards the outer ring
+    static final int STEPS = 50
+
+    @BeforeAll
+    static void setupJosmFixture() {
+        JOSMFixture.createFixture()
+    }
+
+    static int numNodes() {
+        return Integer.getInteger("contourmerge.benchmark.nodes", 20_000)
+    }
+
+    /* adds n small squares, scattered over the area of the rings */
+    static void addSquares(SyntheticBoundaries data, int n) {
+        final Random random = new Random(4711)
+        for (int i = 0; i < n; i++) {
+            final double lat = SyntheticBoundaries.CENTER_LAT +
+                (random.nextDouble() - 0.5) * 0.12
+            final double lon = SyntheticBoundaries.CENTER_LON +
+                (random.nextDouble() - 0.5) * 0.12
+            final List<Node> nodes = [
+                new Node(new LatLon(lat, lon)),
+                new Node(new LatLon(lat, lon + 0.0002)),
+                new Node(new LatLon(lat + 0.0002, lon + 0.0002)),
+                new Node(new LatLon(lat + 0.0002, lon))
+            ]
+            nodes.each { data.dataSet.addPrimitive(it) }
+            final Way way = new Way()
+            way.setNodes(nodes + [nodes.get(0)])
+            data.dataSet.addPrimitive(way)
+        }
+    }
+
+    @Test
+    void "drag steps on a dense layer"() {
+        final SyntheticBoundaries data = new SyntheticBoundaries(numNodes())
+        addSquares(data, numNodes())
+        final WaySlice source = new WaySlice(data.inner, 0,
+            Math.min(SLICE_NODES, data.inner.getNodesCount() - 2))
+        // the outer ring runs about 8 east/north units along the inner
+        // ring, near its first node in east direction
+        final double distance = 10
+        final double[] sink = new double[1]
+
+        final SegmentIndex index = SegmentIndex.build(data.dataSet)
+        println "Snapping a slice with ${SLICE_NODES} nodes, " +
+            "${index.size()} indexed segments"
+        println BenchmarkSupport.measure("SegmentIndex.build", {
+            sink[0] += SegmentIndex.build(data.dataSet).size()
+        } as Runnable)
+        final MagneticSnapper snapper = new MagneticSnapper(index)
+        println BenchmarkSupport.measure("${STEPS} drag steps".toString(), {
+            for (int i = 0; i < STEPS; i++) {
+                final WaySlice target = snapper.snap(source,
+                    20d * i / STEPS, 0, distance, { Way way -> true })
+                if (target != null) sink[0] += target.getEnd()
+            }
+        } as Runnable)
+        // keeps the JIT from eliminating the computations
+        println "checksum: ${sink[0]}"
+    }
+}
@@ -0,0 +1,52 @@
+package org.openstreetmap.josm.plugins.contourmerge.benchmark
+
+import groovy.transform.CompileStatic
+import org.openstreetmap.josm.data.coor.LatLon
+import org.openstreetmap.josm.data.osm.DataSet
+import org.openstreetmap.josm.data.osm.Node
+import org.openstreetmap.josm.data.osm.Way
+
+/**
+ * Builds synthetic datasets with long, adjacent boundaries for
+ * benchmarks.
+ */
+@CompileStatic
+class SyntheticBoundaries {
+
+    static final double CENTER_LAT = 47.0
+    static final double CENTER_LON = 8.0
+
+    final DataSet dataSet = new DataSet()
+    final Way inner
+    final Way outer
+
+    /**
+     * Creates two closed rings with {@code numNodes} nodes each. The outer
+     * ring runs at a distance of a few meters along the inner ring, like
+     * the boundaries of two adjacent areas which don't share nodes.
+     */
+    SyntheticBoundaries(int numNodes) {
+        inner = ring(numNodes, 0.05)
+        outer = ring(numNodes, 0.05005)
+    }
+
+    private Way ring(int numNodes, double radius) {
+        final List<Node> nodes = new ArrayList<>(numNodes + 1)
+        for (int i = 0; i < numNodes; i++) {
+            final double phi = 2 * Math.PI * i / numNodes
+            // a slightly wobbly ring, so that the polyline isn't trivially
+            // simplified by the renderer
+            final double r = radius * (1 + 0.002 * Math.sin(37 * phi))
+            final Node node = new Node(new LatLon(
+                CENTER_LAT + r * Math.sin(phi),
+                CENTER_LON + r * Math.cos(phi)))
+            dataSet.addPrimitive(node)
+            nodes.add(node)
+        }
+        nodes.add(nodes.get(0))
+        final Way way = new Way()
+        way.setNodes(nodes)
+        dataSet.addPrimitive(way)
+        return way
+    }
+}
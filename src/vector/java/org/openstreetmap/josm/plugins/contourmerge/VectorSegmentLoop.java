@@ -0,0 +1,52 @@
+package org.openstreetmap.josm.plugins.contourmerge;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * <strong>VectorSegmentLoop</strong> replies the minimal squared distance
+ * of a point to prepared segments with the JDK Vector API, i.e. for as
+ * many segments at once as fit into a SIMD register.
+ * <p>
+ * It computes the same terms in the same order as the scalar loop of
+ * {@link DistanceKernel}, and therefore replies the same results. It is
+ * compiled against the incubator module <code>jdk.incubator.vector</code>
+ * and only loaded by {@link DistanceKernel} if the module is available at
+ * runtime.
+ */
+final class VectorSegmentLoop implements DistanceKernel.SegmentLoop {
+
+    static private final VectorSpecies<Double> SPECIES =
+        DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public double minSquaredDistance(double px, double py, int size,
+            double[] ax, double[] ay, double[] dx, double[] dy,
+            double[] invLen2) {
+        final DoubleVector vpx = DoubleVector.broadcast(SPECIES, px);
+        final DoubleVector vpy = DoubleVector.broadcast(SPECIES, py);
+        DoubleVector min = DoubleVector.broadcast(SPECIES,
+            Double.POSITIVE_INFINITY);
+        final int bound = SPECIES.loopBound(size);
+        int s = 0;
+        for (; s < bound; s += SPECIES.length()) {
+            final DoubleVector qx = vpx.sub(DoubleVector.fromArray(SPECIES,
+                ax, s));
+            final DoubleVector qy = vpy.sub(DoubleVector.fromArray(SPECIES,
+                ay, s));
+            final DoubleVector vdx = DoubleVector.fromArray(SPECIES, dx, s);
+            final DoubleVector vdy = DoubleVector.fromArray(SPECIES, dy, s);
+            final DoubleVector t = qx.mul(vdx).add(qy.mul(vdy))
+                .mul(DoubleVector.fromArray(SPECIES, invLen2, s))
+                .max(0).min(1);
+            final DoubleVector cx = qx.sub(t.mul(vdx));
+            final DoubleVector cy = qy.sub(t.mul(vdy));
+            min = min.min(cx.mul(cx).add(cy.mul(cy)));
+        }
+        // the remaining segments, fewer than fit into one register
+        return Math.min(min.reduceLanes(VectorOperators.MIN),
+            DistanceKernel.scalarMinSquaredDistance(px, py, s, size, ax, ay,
+                dx, dy, invLen2));
+    }
+}